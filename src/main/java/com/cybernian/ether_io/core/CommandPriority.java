@@ -0,0 +1,67 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+/**
+ * The priority classes used by the <code>CommandScheduler</code> to order
+ * commands waiting for access to an I/O board. Classes are listed from the
+ * highest priority to the lowest.
+ * 
+ * @author Gerard L. Muir
+ */
+public enum CommandPriority {
+
+	/**
+	 * Safety related writes, such as an emergency stop output. Always served
+	 * first.
+	 */
+	SAFETY,
+
+	/**
+	 * Normal control writes to the I/O ports and configuration registers.
+	 */
+	CONTROL,
+
+	/**
+	 * Read requests used to poll the I/O port registers.
+	 */
+	POLL,
+
+	/**
+	 * Bulk operations such as EEPROM reads and writes. These yield to every
+	 * other class.
+	 */
+	BULK;
+
+	/**
+	 * Returns the default priority class for the given command packet. EEPROM
+	 * commands are classed as bulk, read requests as poll and all other writes as
+	 * control.
+	 * 
+	 * @param command
+	 *            The command packet to be sent to the I/O board.
+	 * @param isRead
+	 *            True if the command is a read request that expects a response.
+	 * @return The priority class for the command.
+	 */
+	public static CommandPriority classify(byte[] command, boolean isRead) {
+
+		if (command.length > 0 && command[0] == (byte) (int) '\'') {
+			return BULK;
+		}
+		return isRead ? POLL : CONTROL;
+	}
+}
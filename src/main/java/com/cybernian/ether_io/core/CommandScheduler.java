@@ -0,0 +1,307 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders access to a single I/O board by command priority. Only one command
+ * may be in progress on a board at a time. When the board becomes free it is
+ * handed to the longest waiting thread of the highest waiting priority class,
+ * so a safety write never queues behind polling reads or EEPROM transfers.
+ * <p>
+ * A command in progress is not interrupted. A safety write that arrives while
+ * a read is waiting for its response waits for that read to finish, which
+ * takes at most three datagram socket time outs (3 seconds with the default
+ * time out) if the board does not answer.
+ * <p>
+ * The scheduler is reentrant for the thread that currently owns the board.
+ * Wait and service times are recorded for each priority class.
+ * 
+ * @author Gerard L. Muir
+ */
+public class CommandScheduler {
+
+	private static final int CLASSES = CommandPriority.values().length;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition[] turns = new Condition[CLASSES]; // One wait condition per class.
+	private final List<ArrayDeque<Thread>> waiters = new ArrayList<ArrayDeque<Thread>>(CLASSES); // FIFO queue per class.
+
+	private Thread owner; // Thread currently holding the board.
+	private int holdCount; // Reentrant hold count of the owner.
+	private CommandPriority ownerPriority; // Priority the owner acquired the board with.
+	private long acquiredAt; // Time the owner acquired the board, in nanoseconds.
+
+	// Statistics for each priority class. Guarded by lock.
+	private final long[] commandCount = new long[CLASSES];
+	private final long[] totalWaitNanos = new long[CLASSES];
+	private final long[] maxWaitNanos = new long[CLASSES];
+	private final long[] totalServiceNanos = new long[CLASSES];
+
+	/**
+	 * Creates a scheduler for one I/O board.
+	 */
+	public CommandScheduler() {
+
+		for (int i = 0; i < CLASSES; i++) {
+			this.turns[i] = this.lock.newCondition();
+			this.waiters.add(new ArrayDeque<Thread>());
+		}
+	}
+
+	/**
+	 * Waits until the board is handed to the calling thread.
+	 * 
+	 * @param priority
+	 *            The priority class of the command about to be issued.
+	 * @throws InterruptedIOException
+	 *             Thrown if the thread was interrupted while waiting.
+	 */
+	public void acquire(CommandPriority priority) throws InterruptedIOException {
+
+		Thread thread = Thread.currentThread();
+		int index = priority.ordinal();
+
+		this.lock.lock();
+		try {
+			if (this.owner == thread) {
+				this.holdCount++;
+				return;
+			}
+
+			long start = System.nanoTime();
+			if (this.owner == null && !this.hasWaiters()) {
+				this.owner = thread;
+			} else {
+				this.waiters.get(index).addLast(thread);
+				try {
+					while (this.owner != thread) {
+						this.turns[index].await();
+					}
+				} catch (InterruptedException e) {
+					if (this.owner == thread) {
+						// The board was handed to us as we were interrupted, pass it on.
+						this.owner = null;
+						this.handOff();
+					} else {
+						this.waiters.get(index).remove(thread);
+					}
+					thread.interrupt();
+					throw new InterruptedIOException("CommandScheduler: Interrupted while waiting for the board.");
+				}
+			}
+
+			this.holdCount = 1;
+			this.ownerPriority = priority;
+			this.acquiredAt = System.nanoTime();
+
+			long waited = this.acquiredAt - start;
+			this.commandCount[index]++;
+			this.totalWaitNanos[index] += waited;
+			if (waited > this.maxWaitNanos[index]) {
+				this.maxWaitNanos[index] = waited;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the board held by the calling thread. When the last hold is
+	 * released the board is handed to the next waiting thread.
+	 * 
+	 * @throws IllegalStateException
+	 *             Thrown if the calling thread does not hold the board.
+	 */
+	public void release() throws IllegalStateException {
+
+		this.lock.lock();
+		try {
+			if (this.owner != Thread.currentThread()) {
+				throw new IllegalStateException("CommandScheduler: Board is not held by the current thread.");
+			}
+			if (--this.holdCount > 0) {
+				return;
+			}
+
+			this.totalServiceNanos[this.ownerPriority.ordinal()] += System.nanoTime() - this.acquiredAt;
+			this.owner = null;
+			this.ownerPriority = null;
+			this.handOff();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands the free board to the head of the highest priority non-empty queue.
+	 * Must be called while holding the lock.
+	 */
+	private void handOff() {
+
+		for (int i = 0; i < CLASSES; i++) {
+			Thread next = this.waiters.get(i).pollFirst();
+			if (next != null) {
+				this.owner = next;
+				this.turns[i].signalAll();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if any thread is waiting for the board. Must be called while
+	 * holding the lock.
+	 */
+	private boolean hasWaiters() {
+
+		for (int i = 0; i < CLASSES; i++) {
+			if (!this.waiters.get(i).isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the calling thread holds the board.
+	 * 
+	 * @return True if the board is held by the current thread.
+	 */
+	public boolean isHeldByCurrentThread() {
+
+		this.lock.lock();
+		try {
+			return this.owner == Thread.currentThread();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of threads currently waiting in the given priority class.
+	 * 
+	 * @param priority
+	 *            The priority class.
+	 * @return Number of waiting threads.
+	 */
+	public int getQueueLength(CommandPriority priority) {
+
+		this.lock.lock();
+		try {
+			return this.waiters.get(priority.ordinal()).size();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of commands issued in the given priority class.
+	 * 
+	 * @param priority
+	 *            The priority class.
+	 * @return Number of commands.
+	 */
+	public long getCommandCount(CommandPriority priority) {
+
+		this.lock.lock();
+		try {
+			return this.commandCount[priority.ordinal()];
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the mean time commands of the given priority class waited for the
+	 * board.
+	 * 
+	 * @param priority
+	 *            The priority class.
+	 * @return Mean wait time in nanoseconds, 0 if no commands were issued.
+	 */
+	public long getMeanWaitNanos(CommandPriority priority) {
+
+		this.lock.lock();
+		try {
+			int index = priority.ordinal();
+			return this.commandCount[index] == 0 ? 0 : this.totalWaitNanos[index] / this.commandCount[index];
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the longest time a command of the given priority class waited for
+	 * the board.
+	 * 
+	 * @param priority
+	 *            The priority class.
+	 * @return Maximum wait time in nanoseconds.
+	 */
+	public long getMaxWaitNanos(CommandPriority priority) {
+
+		this.lock.lock();
+		try {
+			return this.maxWaitNanos[priority.ordinal()];
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the mean time commands of the given priority class held the board,
+	 * including the wait for any response.
+	 * 
+	 * @param priority
+	 *            The priority class.
+	 * @return Mean service time in nanoseconds, 0 if no commands were issued.
+	 */
+	public long getMeanServiceNanos(CommandPriority priority) {
+
+		this.lock.lock();
+		try {
+			int index = priority.ordinal();
+			return this.commandCount[index] == 0 ? 0 : this.totalServiceNanos[index] / this.commandCount[index];
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Clears the recorded statistics for all priority classes.
+	 */
+	public void resetStatistics() {
+
+		this.lock.lock();
+		try {
+			for (int i = 0; i < CLASSES; i++) {
+				this.commandCount[i] = 0;
+				this.totalWaitNanos[i] = 0;
+				this.maxWaitNanos[i] = 0;
+				this.totalServiceNanos[i] = 0;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+}
@@ -56,6 +56,26 @@ public class IO24Common extends IO24Core {
 		super(ipAddress, datagramSocketTimeout);
 	}
 
+	/**
+	 * Creates a Datagram Socket, with the specified timeout, to communicate with
+	 * the I/O board at the given IP address and UDP port.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the UPD Socket connection.
+	 * 
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * 
+	 * @see <code>DatagramSocket</code>
+	 */
+	public IO24Common(String ipAddress, int udpPort, int datagramSocketTimeout) throws IOException {
+		super(ipAddress, udpPort, datagramSocketTimeout);
+	}
+
 	/**
 	 * Writes the Port Schmitt Trigger value for the specified port.
 	 * 
@@ -155,6 +175,17 @@ public class IO24Common extends IO24Core {
 		return returnData;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.cybernian.ether_io.core.IO24Core#isRegisterSupported(com.cybernian.ether_io.core.PortRegister)
+	 */
+	@Override
+	protected boolean isRegisterSupported(PortRegister register) {
+		return super.isRegisterSupported(register) || register == PortRegister.SCHMITT_TRIGGER
+				|| register == PortRegister.THRESHOLD;
+	}
+
 	/**
 	 * Enables the EEPROM write function. Write enable must be active before any
 	 * EEPROM write commands are processed.
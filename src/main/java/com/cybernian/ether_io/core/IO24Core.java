@@ -16,6 +16,7 @@
 package com.cybernian.ether_io.core;
 
 import java.io.IOException; 
+import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
@@ -25,9 +26,21 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybernian.ether_io.utils.PortImage;
 
 /**
  * Provides data communication with the Ether IO family of digital I/O
@@ -46,6 +59,27 @@ public class IO24Core {
 	private static int ETHER_IO_UPD_PORT = 2424; // Fixed IO24 board UDP port.
 	private DatagramSocket datagramSocket; // Socket used to send and receive data.
 	private InetAddress boardIpAddress; // The target IO24 board IP address.
+	private int boardUdpPort = ETHER_IO_UPD_PORT; // The target IO24 board UDP port.
+	private final CommandScheduler commandScheduler = new CommandScheduler(); // Orders commands by priority.
+	private final AtomicLong discardedResponseCount = new AtomicLong(); // Stale or unexpected packets received.
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlightReads = // Reads awaiting a response.
+			new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+	private final AtomicLong coalescedReadCount = new AtomicLong(); // Reads that shared an in flight request.
+	private volatile boolean readCoalescing = true; // Share identical concurrent reads.
+	private volatile TrafficRecorder trafficRecorder; // Datagram recorder, null if not recording.
+	private volatile RegisterCache registerCache; // Recently read register values, null if caching is off.
+	private static final int RECEIVE_BUFFER_SIZE = 64; // Receive buffer size, larger than any response.
+	private byte[][] allPortsRequests; // Port read requests of readAllPorts, guarded by the scheduler.
+	private byte[] allPortsReceiveData; // Receive buffer of readAllPorts, guarded by the scheduler.
+	private DatagramPacket allPortsReceivePacket; // Receive packet of readAllPorts, guarded by the scheduler.
+	private static final int MAX_PORTS = 9; // Ports a-i.
+	private final AtomicIntegerArray commanded = // Last commanded register values, known bit mask << 8 | value.
+			new AtomicIntegerArray(PortRegister.values().length * MAX_PORTS);
+	private volatile boolean rebootSuspected; // A configuration read did not match the commanded value.
+	private final AtomicLong rebootCount = new AtomicLong(); // Reboots detected and recovered from.
+	private static final long FIRST_PROBE_MILLIS = 1; // First wait for a reset probe reply.
+	private static final long MAX_PROBE_MILLIS = 64; // Longest wait for a reset probe reply.
+	private static final long DOWN_PROBE_MILLIS = 8; // Unanswered wait showing a reset board is down.
 
 	/**
 	 * Creates a Datagram Socket to communicate with the I/O board at the given IP
@@ -85,6 +119,30 @@ public class IO24Core {
 		openUDP_Socket(ipAddress);
 	}
 
+	/**
+	 * Creates a Datagram Socket, with the specified timeout, to communicate with
+	 * the I/O board at the given IP address and UDP port. Use this constructor to
+	 * reach a board through port forwarding, a gateway or an emulator.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the UPD Socket connection.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the Datagram Socket fails to be created.
+	 * 
+	 * @see <code>DatagramSocket</code>
+	 */
+	public IO24Core(String ipAddress, int udpPort, int datagramSocketTimeout) throws IOException {
+
+		this.boardUdpPort = udpPort;
+		this.datagramSocketTimeout = datagramSocketTimeout;
+		openUDP_Socket(ipAddress);
+	}
+
 	/**
 	 * Creates a Datagram Socket to communicate with the I/O board and then
 	 * attempts to obtain the current value of A port to verify communications.
@@ -155,6 +213,24 @@ public class IO24Core {
 		}
 	}
 
+	/**
+	 * Returns the number of I/O ports on this board.
+	 * 
+	 * @return Number of ports, starting at port A.
+	 */
+	public int getPortCount() {
+		return 3;
+	}
+
+	/**
+	 * Returns the number of I/O lines on this board.
+	 * 
+	 * @return Number of lines.
+	 */
+	public int getLineCount() {
+		return this.getPortCount() * 8;
+	}
+
 	/**
 	 * Closes the datagram socket.
 	 */
@@ -277,267 +353,1486 @@ public class IO24Core {
 	 * @throws IOException
 	 *             Thrown if a datagram socket error occurred.
 	 */
-	public synchronized byte[] readData(byte[] sendData, int numReturnDataBytes) throws IOException {
+	public byte[] readData(byte[] sendData, int numReturnDataBytes) throws IOException {
+
+		return this.readData(sendData, numReturnDataBytes, CommandPriority.classify(sendData, true));
+	}
+
+	/**
+	 * Listen for return data from a read function, waiting for the board with the
+	 * given priority. The calling method is responsible for composing the read
+	 * command that is to be sent in the data packet.
+	 * 
+	 * @param sendData
+	 *            The one or two byte data packet to be sent with the appropriate
+	 *            read bytes consisting of the port and register id.
+	 * @param numReturnDataBytes
+	 *            Number of bytes expected to be returned by the function.
+	 * @param priority
+	 *            The priority class of the read request.
+	 * @return The byte or bytes of data returned form the command.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public byte[] readData(byte[] sendData, int numReturnDataBytes, CommandPriority priority) throws IOException {
+
+		// A thread that already holds the board must not wait on another thread's
+		// request, as that request is queued behind it.
+		if (!this.readCoalescing || this.commandScheduler.isHeldByCurrentThread()) {
+			return this.exchange(sendData, numReturnDataBytes, priority, null, null);
+		}
+
+		// Share the result of an identical request of the same priority class that
+		// is already in flight, so a read never waits behind a lower class.
+		String key = requestKey(sendData, numReturnDataBytes, priority);
+		CompletableFuture<byte[]> request = new CompletableFuture<byte[]>();
+		CompletableFuture<byte[]> inFlight = this.inFlightReads.putIfAbsent(key, request);
+		if (inFlight != null) {
+			this.coalescedReadCount.incrementAndGet();
+			try {
+				return inFlight.get().clone();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("IO24Core: Interrupted while waiting for a shared read.");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException("IO24Core: Shared read failed.", e.getCause());
+			}
+		}
+
+		try {
+			byte[] returnData = this.exchange(sendData, numReturnDataBytes, priority, key, request);
+			request.complete(returnData);
+			return returnData.clone();
+		} catch (IOException | RuntimeException e) {
+			request.completeExceptionally(e);
+			throw e;
+		} finally {
+			// Normally already removed by the exchange.
+			this.inFlightReads.remove(key, request);
+		}
+	}
+
+	/**
+	 * Sends a read request and waits for the matching response. A shared request
+	 * is withdrawn from the in flight reads before the board is released, so a
+	 * read that follows a later write can not join it.
+	 */
+	private byte[] exchange(byte[] sendData, int numReturnDataBytes, CommandPriority priority, String key,
+			CompletableFuture<byte[]> request) throws IOException {
 
 		// Wait for a response, but not to long.
 		int MAX_TRYS = 3; // Max number of read attempts after time out.
+		int MAX_DISCARDS = 16; // Max number of unexpected packets discarded per read attempt.
 		boolean gotResponse = false; // Did we receive a response packet.
 		int trys = 0; // Current number of read attempts.
+		int discards = 0; // Unexpected packets discarded during the current read attempt.
 
-		// Create a packet to receive the response.
-		byte[] receiveData = new byte[numReturnDataBytes];
+		// Create a packet to receive the response. The buffer is larger than the
+		// expected response so that longer, unrelated packets can be recognised.
+		byte[] receiveData = new byte[Math.max(numReturnDataBytes, RECEIVE_BUFFER_SIZE)];
 		DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
 
-		// Send the read request.
-		this.send(sendData);
+		this.commandScheduler.acquire(priority);
+		try {
+			// Send the read request.
+			this.transmit(sendData);
 
-		while (!Thread.currentThread().isInterrupted() && !gotResponse) {
-			try {
-				this.datagramSocket.receive(receivePacket);
-				gotResponse = true;
-				receiveData = receivePacket.getData();
-			} catch (SocketTimeoutException ste) {
-				// socket timed out, so let's go around again.
-				trys++;
-				if (trys == MAX_TRYS) {
-					throw (ste);
-				} else
-					continue;
+			while (!Thread.currentThread().isInterrupted() && !gotResponse) {
+				try {
+					receivePacket.setLength(receiveData.length);
+					this.receive(receivePacket);
+					if (this.isFromBoard(receivePacket) && this.isExpectedResponse(sendData, receiveData,
+							receivePacket.getLength(), numReturnDataBytes)) {
+						gotResponse = true;
+					} else {
+						// A late reply to an earlier request, or a packet from someone else.
+						// Too many of them count as a timed out attempt.
+						this.discardedResponseCount.incrementAndGet();
+						if (++discards == MAX_DISCARDS) {
+							discards = 0;
+							throw new SocketTimeoutException(
+									"IO24Core: No valid response, too many unexpected packets.");
+						}
+					}
+				} catch (SocketTimeoutException ste) {
+					// socket timed out, so let's go around again.
+					trys++;
+					if (trys == MAX_TRYS) {
+						throw (ste);
+					} else
+						continue;
+				}
+			} // while()
+			if (!gotResponse) {
+				// Interrupted; a reading of zeros must not reach the caller or shared readers.
+				throw new InterruptedIOException("IO24Core: Interrupted while waiting for a response.");
+			}
+
+			// Cache the response while holding the board, so that a write sent after
+			// the response can not be overwritten by it.
+			RegisterCache cache = this.registerCache;
+			if (cache != null && gotResponse) {
+				this.cacheResponse(cache, sendData, receiveData, numReturnDataBytes);
+			}
+			if (gotResponse) {
+				this.compareResponse(sendData, receiveData, numReturnDataBytes);
+			}
+		} finally {
+			if (request != null) {
+				this.inFlightReads.remove(key, request);
 			}
-		} // while()
+			this.commandScheduler.release();
+		}
 
-		return receiveData;
+		return Arrays.copyOf(receiveData, numReturnDataBytes);
 	}
 
 	/**
-	 * Reads the I/O port direction setting of the specified port. This is a 2 step
-	 * process. First a read request is sent, then we will try to read the returned
-	 * packet, if any.
+	 * Reads the specified register, answering from the register cache if the
+	 * cached value was read no longer than the given age ago. The response has the
+	 * same format as the corresponding read method. If register caching is off the
+	 * register is always read from the board.
 	 * 
+	 * @param register
+	 *            The port register to read.
 	 * @param ioPort
 	 *            The port letter to read from.
-	 * 
-	 * @return The I/O port direction register settings.
+	 * @param maxAgeMillis
+	 *            The maximum acceptable age of a cached value in milliseconds.
+	 * @return The register read response.
 	 * @throws IOException
 	 *             Thrown if a datagram socket error occurred.
 	 * @throws IllegalArgumentException
-	 *             Thrown if an invalid port letter is specified.
+	 *             Thrown if an invalid port letter or a register not supported by
+	 *             this board is specified.
 	 */
-	public byte[] readPortDirection(char ioPort) throws IOException, IllegalArgumentException {
-
-		// Number of bytes returned in the response packet for this read command.
-		int BYTES_RETURNED = 3;
-		byte[] returnData = new byte[BYTES_RETURNED];
+	public byte[] readRegister(PortRegister register, char ioPort, long maxAgeMillis)
+			throws IOException, IllegalArgumentException {
 
 		this.isPortLetterValid(ioPort);
+		if (!this.isRegisterSupported(register)) {
+			throw new IllegalArgumentException(
+					"IO24Core: Validation error: " + register + " is not supported by this board.");
+		}
 
-		// Convert the port letter into a port read command and create the request
-		// packet.
-		byte[] sendData = new byte[] { (byte) (int) '!', (byte) (int) Character.toLowerCase(ioPort) };
-
-		returnData = this.readData(sendData, BYTES_RETURNED);
+		byte[] sendData = this.registerReadCommand(register, ioPort);
+		RegisterCache cache = this.registerCache;
+		if (cache != null) {
+			int value = cache.get(register, ioPort, TimeUnit.MILLISECONDS.toNanos(maxAgeMillis));
+			if (value >= 0) {
+				byte[] returnData = new byte[sendData.length + 1];
+				returnData[0] = (byte) Character.toUpperCase(sendData[0] & 0xff);
+				if (sendData.length == 2) {
+					returnData[1] = (byte) Character.toUpperCase(sendData[1] & 0xff);
+				}
+				returnData[sendData.length] = (byte) value;
+				return returnData;
+			}
+		}
 
-		return returnData;
+		return this.readData(sendData, sendData.length + 1);
 	}
 
 	/**
-	 * Reads the I/O port pull up setting of the specified port. This is a 2 step
-	 * process. First a read request is sent, then we will try to read the returned
-	 * packet, if any.
+	 * Reads the I/O port values of the specified port, answering from the register
+	 * cache if the cached value is fresh enough.
 	 * 
 	 * @param ioPort
 	 *            The port letter to read from.
-	 * 
-	 * @return The I/O port pull up register settings.
+	 * @param maxAgeMillis
+	 *            The maximum acceptable age of a cached value in milliseconds.
+	 * @return The I/O port value register settings.
 	 * @throws IOException
 	 *             Thrown if a datagram socket error occurred.
 	 * @throws IllegalArgumentException
 	 *             Thrown if an invalid port letter is specified.
 	 */
-	public byte[] readPortPullUp(char ioPort) throws IOException, IllegalArgumentException {
-
-		// Number of bytes returned in the response packet for this read command.
-		int BYTES_RETURNED = 3;
-
-		this.isPortLetterValid(ioPort);
-
-		// Convert the port letter into a port read command create the request packet.
-		byte[] sendData = new byte[] { (byte) (int) '@', (byte) (int) Character.toLowerCase(ioPort) };
-
-		byte[] returnData = this.readData(sendData, BYTES_RETURNED);
-		return returnData;
+	public byte[] readPortValue(char ioPort, long maxAgeMillis) throws IOException, IllegalArgumentException {
+		return this.readRegister(PortRegister.VALUE, ioPort, maxAgeMillis);
 	}
 
 	/**
-	 * Reads the I/O port values of the specified port. This is a 2 step process.
-	 * First a read request is sent, then we will try to read the returned packet,
-	 * if any.
+	 * Reads the I/O port direction setting of the specified port, answering from
+	 * the register cache if the cached value is fresh enough.
 	 * 
 	 * @param ioPort
 	 *            The port letter to read from.
-	 * 
-	 * @return The I/O port value register settings.
+	 * @param maxAgeMillis
+	 *            The maximum acceptable age of a cached value in milliseconds.
+	 * @return The I/O port direction register settings.
 	 * @throws IOException
 	 *             Thrown if a datagram socket error occurred.
 	 * @throws IllegalArgumentException
 	 *             Thrown if an invalid port letter is specified.
 	 */
-	public byte[] readPortValue(char ioPort) throws IOException, IllegalArgumentException {
-
-		// Number of bytes returned in the response packet for this read command.
-		int BYTES_RETURNED = 2;
-
-		this.isPortLetterValid(ioPort);
-
-		// Convert the port letter into a port read command and create the request
-		// packet.
-		byte[] sendData = new byte[] { (byte) (int) Character.toLowerCase(ioPort) };
-
-		byte[] returnData = this.readData(sendData, BYTES_RETURNED);
-
-		return returnData;
-
+	public byte[] readPortDirection(char ioPort, long maxAgeMillis) throws IOException, IllegalArgumentException {
+		return this.readRegister(PortRegister.DIRECTION, ioPort, maxAgeMillis);
 	}
 
 	/**
-	 * Sends a reset command causing all the ports to be set to all inputs or as set
-	 * up in the EEPROM and all EEPROM settings to be read and activated. After the
-	 * reset command is sent, a delay may be required before sending any other
-	 * commands to the unit.
-	 * 
-	 * @throws IOException
-	 *             Thrown if a datagram socket error occurred.
+	 * Returns the register cache of this board.
 	 * 
+	 * @return The register cache, or null if register caching is off.
 	 */
-	public void resetBoard() throws IOException {
+	public RegisterCache getRegisterCache() {
+		return this.registerCache;
+	}
 
-		// Hex AA = Decimal 170 and Hex 55 = Decimal 85
-		byte[] data = new byte[] { (byte) (int) '\'', (byte) (int) '@', (byte) 0, (byte) 170, (byte) 85 };
+	/**
+	 * Turns register caching on or off. While on, every register read from the
+	 * board is cached, register writes update the cache and port value writes
+	 * invalidate it. Off by default.
+	 * 
+	 * @param registerCaching
+	 *            True to turn register caching on.
+	 */
+	public void setRegisterCaching(boolean registerCaching) {
 
-		this.send(data);
+		if (registerCaching && this.registerCache == null) {
+			this.registerCache = new RegisterCache();
+		} else if (!registerCaching) {
+			this.registerCache = null;
+		}
 	}
 
 	/**
-	 * Send the specified packet to the target device.
-	 * 
-	 * @param data
-	 *            The packet data to send.
-	 * @throws IOException
-	 *             Thrown if a datagram socket error occurred.
+	 * Caches the register value carried by a read response.
 	 */
-	public void send(byte[] data) throws IOException {
+	private void cacheResponse(RegisterCache cache, byte[] sendData, byte[] response, int length) {
+
+		if (sendData.length == 1 && isPortReadLetter(sendData[0] & 0xff)) {
+			cache.put(PortRegister.VALUE, (char) (sendData[0] & 0xff), response[length - 1]);
+		} else if (sendData.length == 2 && isPortReadLetter(sendData[1] & 0xff)) {
+			PortRegister register = this.registerForCommand(sendData[0] & 0xff);
+			if (register != null) {
+				cache.put(register, (char) (sendData[1] & 0xff), response[length - 1]);
+			}
+		}
+	}
 
-		DatagramPacket packet = new DatagramPacket(data, data.length, this.boardIpAddress, IO24Core.ETHER_IO_UPD_PORT);
+	/**
+	 * Updates the cache for a command sent to the board. Register writes are read
+	 * back exactly and are cached. Port value writes invalidate the port value, as
+	 * input lines do not read back the written value. Any other command, except
+	 * EEPROM access, may change the ports and invalidates the whole cache.
+	 */
+	private void cacheWrite(RegisterCache cache, byte[] data) {
 
-		this.datagramSocket.send(packet);
+		int command = data.length > 0 ? data[0] & 0xff : 0;
 
+		if (data.length == 2 && command >= 'A' && command <= 'I' && command != 'H') {
+			cache.invalidate(PortRegister.VALUE, (char) command);
+			return;
+		}
+		if (data.length == 3 && (data[1] & 0xff) >= 'A' && (data[1] & 0xff) <= 'I') {
+			PortRegister register = this.registerForCommand(command);
+			if (register != null) {
+				char port = (char) (data[1] & 0xff);
+				cache.put(register, port, data[2]);
+				if (register == PortRegister.DIRECTION) {
+					cache.invalidate(PortRegister.VALUE, port);
+				}
+				return;
+			}
+		}
+		if (command == '\'' && data.length > 1 && data[1] != (byte) (int) '@') {
+			return;
+		}
+		cache.invalidateAll();
 	}
-	
+
 	/**
-	 * Writes an individual I/O port value.
-	 * 
-	 * @param ioPort
-	 *            The port letter.
-	 * @param ioLine
-	 *            The I/O line number. 0-7
-	 * @param value
-	 *            The desired I/O line value. 0 or 1
-	 * @throws IllegalArgumentException
-	 *             Thrown if an invalid port letter is specified.
-	 * @throws IOException
-	 *             Thrown if a datagram socket error occurred.
+	 * Records the register values set by a command sent to the board, so they can
+	 * be applied again after a reboot. A reset returns the board to its power on
+	 * configuration on purpose and clears the record.
 	 */
-	public void writeIoLine(char ioPort, int ioLine, int value) throws IllegalArgumentException, IOException {
-		
-		if (value < 0 || value > 1) {
-			throw new IllegalArgumentException("IO24Core: " + String.valueOf(value) + " is an invalid io line state.");
+	private void recordCommand(byte[] data) {
+
+		int command = data.length > 0 ? data[0] & 0xff : 0;
+
+		if (data.length == 2 && (command == 'H' || command == 'L') && this.hasPinCommands()) {
+			int port = (data[1] & 0xff) >>> 3;
+			if (port < MAX_PORTS) {
+				int bit = 1 << (data[1] & 7);
+				int index = commandedIndex(PortRegister.VALUE, (char) ('a' + port));
+				int entry;
+				do {
+					entry = this.commanded.get(index);
+				} while (!this.commanded.compareAndSet(index, entry,
+						(entry & 0xff00 | bit << 8) | (command == 'H' ? entry | bit : entry & ~bit) & 0xff));
+			}
+			return;
+		}
+		if (data.length == 2 && command >= 'A' && command <= 'I') {
+			this.commanded.set(commandedIndex(PortRegister.VALUE, (char) command), 0xff00 | data[1] & 0xff);
+			return;
+		}
+		if (data.length == 3 && (data[1] & 0xff) >= 'A' && (data[1] & 0xff) <= 'I') {
+			PortRegister register = this.registerForCommand(command);
+			if (register != null) {
+				this.commanded.set(commandedIndex(register, (char) (data[1] & 0xff)), 0xff00 | data[2] & 0xff);
+			}
+			return;
+		}
+		if (command == '\'' && data.length > 1 && data[1] == (byte) (int) '@') {
+			for (int i = 0; i < this.commanded.length(); i++) {
+				this.commanded.set(i, 0);
+			}
+			this.rebootSuspected = false;
 		}
+	}
 
-		this.isPortLetterValid(ioPort);
-		this.isLineNumberValid(ioLine);
+	/**
+	 * Flags a suspected reboot if a configuration register read does not match
+	 * the commanded value.
+	 */
+	private void compareResponse(byte[] sendData, byte[] response, int length) {
 
-		byte[] returnData;
-		int finalState = 0;
-		returnData = this.readPortValue('a');
-		byte currentState = returnData[1];
-		if (value == 0) {
-			// Bit shift left a 1 value then invert the bit pattern and finally AND the
-			// resulting byte.
-			finalState = (byte) (currentState & (~(1 << ioLine)));
-		} else if (value == 1) {
-			// Bit shift left a 1 value then OR the resulting byte.
-			finalState = (byte) (currentState | (1 << ioLine));
+		if (sendData.length == 2 && isPortReadLetter(sendData[1] & 0xff)) {
+			PortRegister register = this.registerForCommand(sendData[0] & 0xff);
+			if (register != null && this.isMismatch(register, (char) (sendData[1] & 0xff), response[length - 1])) {
+				this.rebootSuspected = true;
+			}
 		}
-		this.writePortValue(ioPort, finalState);
 	}
 
 	/**
-	 * Writes the given value to the specified port. This effects all ports. The any
-	 * value over 255 is set as 255.
-	 * 
-	 * @param ioPort
-	 *            The port letter to write to.
-	 * @param value
-	 *            The port value to write. 0-255
-	 * @throws IOException
-	 *             Thrown if a datagram socket error occurred.
-	 * @throws IllegalArgumentException
-	 *             Thrown if an invalid port letter is specified.
+	 * Returns true if a value read from a register differs from the commanded
+	 * value on any commanded bit.
 	 */
-	public void writePortValue(char ioPort, int value) throws IOException, IllegalArgumentException {
+	private boolean isMismatch(PortRegister register, char ioPort, int readValue) {
 
-		this.isPortLetterValid(ioPort);
-
-		byte[] data = new byte[] { (byte) (int) Character.toUpperCase(ioPort), (byte) value };
+		int entry = this.commanded.get(commandedIndex(register, ioPort));
+		return ((entry ^ readValue) & entry >>> 8 & 0xff) != 0;
+	}
 
-		this.send(data);
+	private static int commandedIndex(PortRegister register, char ioPort) {
+		return register.ordinal() * MAX_PORTS + Character.toLowerCase(ioPort) - 'a';
+	}
 
+	/**
+	 * Returns true if two byte 'H' and 'L' packets are pin commands on this
+	 * board rather than port writes. Boards with the TPC command set override
+	 * this method.
+	 * 
+	 * @return True if the board accepts pin commands.
+	 */
+	protected boolean hasPinCommands() {
+		return false;
 	}
 
 	/**
-	 * Writes the I/O port direction to the supplied value for the specified port.
-	 * This effects all lines on the port.
+	 * Returns the last value commanded for a register by this instance.
 	 * 
+	 * @param register
+	 *            The port register.
 	 * @param ioPort
-	 *            The port letter to write to.
-	 * @param value
-	 *            The port value to write. 0-255
-	 * @throws IOException
-	 *             Thrown if a datagram socket error occurred.
+	 *            The port letter.
+	 * @return The register value 0-255, or -1 if not every bit of the register
+	 *         was commanded since the last reset.
 	 */
-	public void writePortDirection(char ioPort, int value) throws IOException, Exception {
-
-		this.isPortLetterValid(ioPort);
+	public int getCommandedValue(PortRegister register, char ioPort) {
 
-		byte[] data = new byte[] { (byte) (int) '!', (byte) (int) Character.toUpperCase(ioPort), (byte) value };
-
-		this.send(data);
+		int entry = this.commanded.get(commandedIndex(register, ioPort));
+		return (entry & 0xff00) == 0xff00 ? entry & 0xff : -1;
 	}
 
 	/**
-	 * Writes the I/O port pull up register to the supplied value for the specified
-	 * port. This effects all lines on the port.
+	 * Checks whether the board has rebooted since its configuration was
+	 * commanded, and if so applies the configuration and outputs again. A reboot
+	 * is detected when a configuration register, read by the application or by
+	 * this check, no longer holds the commanded value. The check reads every
+	 * commanded configuration register in one pipelined round trip, so it is
+	 * cheap enough to be called periodically. The driver is assumed to be the
+	 * only client configuring the board.
 	 * 
-	 * @param ioPort
-	 *            The port letter to write to.
-	 * @param value
-	 *            The port value to write. 0-255
+	 * @return True if a reboot was detected and the configuration re-applied.
 	 * @throws IOException
-	 *             Thrown if a datagram socket error occurred.
+	 *             Thrown if a datagram socket error occurred or the board did not
+	 *             answer.
 	 */
-	public void writePortPullUp(char ioPort, int value) throws IOException, Exception {
-
-		this.isPortLetterValid(ioPort);
-
-		byte[] data = new byte[] { (byte) (int) '@', (byte) (int) Character.toUpperCase(ioPort), (byte) value };
-
-		this.send(data);
+	public boolean checkReboot() throws IOException {
 
+		if (!this.rebootSuspected && !this.readConfigurationMismatch()) {
+			return false;
+		}
+		this.rebootCount.incrementAndGet();
+		this.reapplyConfiguration();
+		return true;
 	}
 
 	/**
-	 * Writes the specified EEPROM memory location with the specified upper and
-	 * lower bytes.
+	 * Sends a read of every commanded configuration register at once and returns
+	 * true if any answer differs from the commanded value.
+	 */
+	private boolean readConfigurationMismatch() throws IOException {
+
+		List<PortRegister> registers = new ArrayList<PortRegister>();
+		List<Character> ports = new ArrayList<Character>();
+		for (PortRegister register : PortRegister.values()) {
+			for (int port = 0; port < this.getPortCount() && register != PortRegister.VALUE; port++) {
+				if (this.getCommandedValue(register, (char) ('a' + port)) >= 0
+						&& this.isRegisterSupported(register)) {
+					registers.add(register);
+					ports.add((char) ('a' + port));
+				}
+			}
+		}
+		int pending = registers.size();
+		if (pending == 0) {
+			return false;
+		}
+
+		byte[] receiveData = new byte[RECEIVE_BUFFER_SIZE];
+		DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+		boolean[] answered = new boolean[pending];
+		boolean mismatch = false;
+
+		this.commandScheduler.acquire(CommandPriority.POLL);
+		try {
+			for (int i = 0; i < registers.size(); i++) {
+				this.transmit(this.registerReadCommand(registers.get(i), ports.get(i)));
+			}
+			while (pending > 0 && !Thread.currentThread().isInterrupted()) {
+				try {
+					receivePacket.setLength(receiveData.length);
+					this.receive(receivePacket);
+				} catch (SocketTimeoutException ste) {
+					if (pending == registers.size()) {
+						throw ste;
+					}
+					break;
+				}
+				boolean matched = false;
+				for (int i = 0; i < registers.size() && this.isFromBoard(receivePacket); i++) {
+					if (!answered[i] && this.isRegisterResponse(receiveData, receivePacket.getLength(),
+							registers.get(i), ports.get(i))) {
+						answered[i] = true;
+						matched = true;
+						pending--;
+						mismatch |= this.isMismatch(registers.get(i), ports.get(i),
+								receiveData[receivePacket.getLength() - 1]);
+						break;
+					}
+				}
+				if (!matched) {
+					this.discardedResponseCount.incrementAndGet();
+				}
+			}
+		} finally {
+			this.commandScheduler.release();
+		}
+		return mismatch;
+	}
+
+	/**
+	 * Applies the last commanded configuration and outputs again, for example
+	 * after the board has rebooted. Output latches are written before the
+	 * directions, so outputs come up at their commanded state, and all writes are
+	 * pipelined and verified together in one round trip. Output lines only ever
+	 * set by pin commands are restored with pin commands.
+	 * 
+	 * @return The results of the verified writes.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public List<WriteResult> reapplyConfiguration() throws IOException {
+
+		WriteBatch batch = new WriteBatch();
+		for (int port = 0; port < this.getPortCount(); port++) {
+			char ioPort = (char) ('a' + port);
+			int entry = this.commanded.get(commandedIndex(PortRegister.VALUE, ioPort));
+			int known = entry >>> 8 & 0xff;
+			if (known == 0xff) {
+				int direction = this.getCommandedValue(PortRegister.DIRECTION, ioPort);
+				batch.add(PortRegister.VALUE, ioPort, entry & 0xff, direction < 0 ? 0 : ~direction);
+			} else {
+				for (int line = 0; line < 8; line++) {
+					if ((known & 1 << line) != 0) {
+						byte pin = (byte) (port * 8 + line);
+						this.send(new byte[] { (byte) (int) ((entry & 1 << line) != 0 ? 'H' : 'L'), pin },
+								CommandPriority.CONTROL);
+					}
+				}
+			}
+		}
+		for (PortRegister register : PortRegister.values()) {
+			for (int port = 0; port < this.getPortCount() && register != PortRegister.VALUE; port++) {
+				int value = this.getCommandedValue(register, (char) ('a' + port));
+				if (value >= 0 && this.isRegisterSupported(register)) {
+					batch.add(register, (char) ('a' + port), value);
+				}
+			}
+		}
+
+		this.rebootSuspected = false;
+		if (batch.size() == 0) {
+			return new ArrayList<WriteResult>();
+		}
+		return this.writeVerified(batch);
+	}
+
+	/**
+	 * Returns true if a configuration register was read back with a value other
+	 * than the commanded one, suggesting the board has rebooted.
+	 * 
+	 * @return True if a reboot is suspected.
+	 */
+	public boolean isRebootSuspected() {
+		return this.rebootSuspected;
+	}
+
+	/**
+	 * Returns the number of reboots detected by <code>checkReboot</code>.
+	 * 
+	 * @return Number of reboots recovered from.
+	 */
+	public long getRebootCount() {
+		return this.rebootCount.get();
+	}
+
+	/**
+	 * Returns the register addressed by the given command character on this
+	 * board, or null if there is none.
+	 */
+	private PortRegister registerForCommand(int command) {
+
+		for (PortRegister register : PortRegister.values()) {
+			if (register != PortRegister.VALUE && this.getRegisterCommand(register) == command
+					&& this.isRegisterSupported(register)) {
+				return register;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the key identifying identical read requests of a priority class.
+	 */
+	private static String requestKey(byte[] sendData, int numReturnDataBytes, CommandPriority priority) {
+
+		char[] key = new char[sendData.length + 2];
+		for (int i = 0; i < sendData.length; i++) {
+			key[i] = (char) (sendData[i] & 0xff);
+		}
+		key[sendData.length] = (char) numReturnDataBytes;
+		key[sendData.length + 1] = (char) priority.ordinal();
+		return new String(key);
+	}
+
+	/**
+	 * Returns the number of reads that were answered by sharing an identical
+	 * request already in flight, rather than sending their own request.
+	 * 
+	 * @return Number of coalesced reads.
+	 */
+	public long getCoalescedReadCount() {
+		return this.coalescedReadCount.get();
+	}
+
+	/**
+	 * Returns true if concurrent identical reads share one request.
+	 * 
+	 * @return True if read coalescing is enabled.
+	 */
+	public boolean isReadCoalescing() {
+		return this.readCoalescing;
+	}
+
+	/**
+	 * Enables or disables the sharing of one request between concurrent identical
+	 * reads. Enabled by default.
+	 * 
+	 * @param readCoalescing
+	 *            True to enable read coalescing.
+	 */
+	public void setReadCoalescing(boolean readCoalescing) {
+		this.readCoalescing = readCoalescing;
+	}
+
+	/**
+	 * Returns true if the received packet is the response to the given request.
+	 * Responses to port register reads must echo the command character and the
+	 * upper case port letter, and EEPROM reads must echo the 'R' and word address.
+	 * The length of these responses must match exactly. Responses to other
+	 * commands are accepted as received.
+	 * 
+	 * @param sendData
+	 *            The request packet that was sent.
+	 * @param response
+	 *            The received packet data.
+	 * @param length
+	 *            The number of bytes received.
+	 * @param numReturnDataBytes
+	 *            Number of bytes expected to be returned by the request.
+	 * @return True if the packet answers the request.
+	 */
+	protected boolean isExpectedResponse(byte[] sendData, byte[] response, int length, int numReturnDataBytes) {
+
+		if (sendData.length == 0 || length == 0) {
+			return false;
+		}
+
+		int command = sendData[0] & 0xff;
+
+		// Port value read: 'a' is answered with 'A' and the value.
+		if (sendData.length == 1 && isPortReadLetter(command)) {
+			return length == numReturnDataBytes && response[0] == (byte) Character.toUpperCase(command);
+		}
+
+		// Register read: '!a' is answered with '!A' and the value.
+		if (sendData.length == 2 && "!@$#%".indexOf(command) >= 0 && isPortReadLetter(sendData[1] & 0xff)) {
+			return length == numReturnDataBytes && response[0] == sendData[0]
+					&& response[1] == (byte) Character.toUpperCase(sendData[1] & 0xff);
+		}
+
+		// EEPROM read: ''R' and the address is answered with 'R', the address and the word.
+		if (sendData.length >= 3 && command == '\'' && sendData[1] == (byte) (int) 'R') {
+			return length == numReturnDataBytes && response[0] == (byte) (int) 'R' && response[1] == sendData[2];
+		}
+
+		// Host data: '%' is answered with '%' and the host data.
+		if (sendData.length == 1 && command == '%') {
+			return length == numReturnDataBytes && response[0] == sendData[0];
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns true if the character is a lower case port letter, which requests a
+	 * read.
+	 */
+	private static boolean isPortReadLetter(int character) {
+		return character >= 'a' && character <= 'i';
+	}
+
+	/**
+	 * Returns true if the packet was sent from the I/O board this instance talks
+	 * to.
+	 */
+	private boolean isFromBoard(DatagramPacket packet) {
+		return packet.getPort() == this.boardUdpPort && this.boardIpAddress.equals(packet.getAddress());
+	}
+
+	/**
+	 * Returns the number of received packets that were discarded because they did
+	 * not answer the outstanding request. These are typically replies that arrived
+	 * after an earlier request had timed out.
+	 * 
+	 * @return Number of discarded packets.
+	 */
+	public long getDiscardedResponseCount() {
+		return this.discardedResponseCount.get();
+	}
+
+	/**
+	 * Reads the I/O port direction setting of the specified port. This is a 2 step
+	 * process. First a read request is sent, then we will try to read the returned
+	 * packet, if any.
+	 * 
+	 * @param ioPort
+	 *            The port letter to read from.
+	 * 
+	 * @return The I/O port direction register settings.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 */
+	public byte[] readPortDirection(char ioPort) throws IOException, IllegalArgumentException {
+
+		// Number of bytes returned in the response packet for this read command.
+		int BYTES_RETURNED = 3;
+		byte[] returnData = new byte[BYTES_RETURNED];
+
+		this.isPortLetterValid(ioPort);
+
+		// Convert the port letter into a port read command and create the request
+		// packet.
+		byte[] sendData = new byte[] { (byte) (int) '!', (byte) (int) Character.toLowerCase(ioPort) };
+
+		returnData = this.readData(sendData, BYTES_RETURNED);
+
+		return returnData;
+	}
+
+	/**
+	 * Reads the I/O port pull up setting of the specified port. This is a 2 step
+	 * process. First a read request is sent, then we will try to read the returned
+	 * packet, if any.
+	 * 
+	 * @param ioPort
+	 *            The port letter to read from.
+	 * 
+	 * @return The I/O port pull up register settings.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 */
+	public byte[] readPortPullUp(char ioPort) throws IOException, IllegalArgumentException {
+
+		// Number of bytes returned in the response packet for this read command.
+		int BYTES_RETURNED = 3;
+
+		this.isPortLetterValid(ioPort);
+
+		// Convert the port letter into a port read command create the request packet.
+		byte[] sendData = new byte[] { (byte) (int) '@', (byte) (int) Character.toLowerCase(ioPort) };
+
+		byte[] returnData = this.readData(sendData, BYTES_RETURNED);
+		return returnData;
+	}
+
+	/**
+	 * Reads the I/O port values of the specified port. This is a 2 step process.
+	 * First a read request is sent, then we will try to read the returned packet,
+	 * if any.
+	 * 
+	 * @param ioPort
+	 *            The port letter to read from.
+	 * 
+	 * @return The I/O port value register settings.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 */
+	public byte[] readPortValue(char ioPort) throws IOException, IllegalArgumentException {
+
+		// Number of bytes returned in the response packet for this read command.
+		int BYTES_RETURNED = 2;
+
+		this.isPortLetterValid(ioPort);
+
+		// Convert the port letter into a port read command and create the request
+		// packet.
+		byte[] sendData = new byte[] { (byte) (int) Character.toLowerCase(ioPort) };
+
+		byte[] returnData = this.readData(sendData, BYTES_RETURNED);
+
+		return returnData;
+
+	}
+
+	/**
+	 * Reads the values of every port of the board into a packed port image. The
+	 * read requests for all ports are sent back to back and the responses are
+	 * collected as they arrive, so the whole board is normally read within one
+	 * round trip. Ports that were not answered are requested again.
+	 * 
+	 * @param image
+	 *            The image to receive the port values. Must hold at least
+	 *            <code>getLineCount()</code> lines.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred, or if a port was not
+	 *             answered after several attempts.
+	 * 
+	 * @see PortImage
+	 */
+	public void readPortImage(long[] image) throws IOException {
+
+		this.readAllPorts(image, null, -1);
+	}
+
+	/**
+	 * Reads the values of every port of the board into the given sample, and
+	 * time stamps the sample with the time the requests were sent and the time
+	 * the last response arrived. If ports had to be requested again, the send
+	 * time is that of the earliest attempt that was answered, so the sample's
+	 * uncertainty covers every port. The reads are pipelined as for
+	 * <code>readPortImage</code>.
+	 * 
+	 * @param sample
+	 *            The sample to fill. Must hold at least <code>getLineCount()</code>
+	 *            lines.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred, or if a port was not
+	 *             answered after several attempts.
+	 */
+	public void readPortSample(PortSample sample) throws IOException {
+
+		this.readAllPorts(sample.getImage(), sample, -1);
+	}
+
+	/**
+	 * Reads the values of the given ports of the board into the given sample,
+	 * with one datagram per port, and time stamps the sample as
+	 * <code>readPortSample(PortSample)</code> does. The other ports of the
+	 * sample image are left as they were.
+	 * 
+	 * @param sample
+	 *            The sample to fill. Must hold at least <code>getLineCount()</code>
+	 *            lines.
+	 * @param portMask
+	 *            Bit set for every port to read, bit 0 for port A. Ports the
+	 *            board does not have are ignored.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred, or if a port was not
+	 *             answered after several attempts.
+	 */
+	public void readPortSample(PortSample sample, int portMask) throws IOException {
+
+		this.readAllPorts(sample.getImage(), sample, portMask);
+	}
+
+	/**
+	 * Reads the ports in the mask with pipelined requests, time stamping the
+	 * sample if one is given.
+	 */
+	private void readAllPorts(long[] image, PortSample sample, int portMask) throws IOException {
+
+		int MAX_TRYS = 3; // Max number of read attempts after time out.
+		int portCount = this.getPortCount();
+		int pending = ((1 << portCount) - 1) & portMask; // Bit set for every port still to be answered.
+
+		RegisterCache cache = this.registerCache;
+		long sendNanos = 0; // Time the requests of the earliest answered try were sent.
+		long trySendNanos = 0; // Time the requests of the current try were sent.
+		boolean answered = false; // A response was accepted.
+		long receiveNanos = 0; // Time the last response was received.
+		this.commandScheduler.acquire(CommandPriority.POLL);
+		try {
+			// The buffers are reused by every scan; the scheduler serializes their use.
+			if (this.allPortsRequests == null) {
+				this.allPortsReceiveData = new byte[RECEIVE_BUFFER_SIZE];
+				this.allPortsReceivePacket = new DatagramPacket(this.allPortsReceiveData,
+						this.allPortsReceiveData.length);
+				this.allPortsRequests = new byte[portCount][];
+				for (int port = 0; port < portCount; port++) {
+					this.allPortsRequests[port] = new byte[] { (byte) (int) PortImage.portLetter(port) };
+				}
+			}
+			byte[] receiveData = this.allPortsReceiveData;
+			DatagramPacket receivePacket = this.allPortsReceivePacket;
+			byte[][] requests = this.allPortsRequests;
+
+			for (int trys = 0; pending != 0; trys++) {
+				if (trys == MAX_TRYS || Thread.currentThread().isInterrupted()) {
+					throw new SocketTimeoutException("IO24Core: No response for all ports.");
+				}
+				trySendNanos = System.nanoTime();
+				for (int port = 0; port < portCount; port++) {
+					if ((pending & (1 << port)) != 0) {
+						this.transmit(requests[port]);
+					}
+				}
+				while (pending != 0) {
+					try {
+						receivePacket.setLength(receiveData.length);
+						this.receive(receivePacket);
+					} catch (SocketTimeoutException ste) {
+						break;
+					}
+					int port = (receiveData[0] & 0xff) - 'A';
+					if (this.isFromBoard(receivePacket) && port >= 0 && port < portCount
+							&& (pending & (1 << port)) != 0
+							&& this.isExpectedResponse(requests[port], receiveData, receivePacket.getLength(), 2)) {
+						receiveNanos = System.nanoTime();
+						if (!answered) {
+							answered = true;
+							sendNanos = trySendNanos;
+						}
+						pending &= ~(1 << port);
+						PortImage.setPort(image, port, receiveData[1]);
+						if (cache != null) {
+							cache.put(PortRegister.VALUE, PortImage.portLetter(port), receiveData[1]);
+						}
+					} else {
+						this.discardedResponseCount.incrementAndGet();
+					}
+				}
+			}
+		} finally {
+			this.commandScheduler.release();
+		}
+
+		if (sample != null) {
+			sample.setTimes(sendNanos, receiveNanos);
+			sample.setBoard(this);
+		}
+	}
+
+	/**
+	 * Sends a reset command causing all the ports to be set to all inputs or as set
+	 * up in the EEPROM and all EEPROM settings to be read and activated. After the
+	 * reset command is sent, a delay may be required before sending any other
+	 * commands to the unit.
+	 * 
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * 
+	 */
+	public void resetBoard() throws IOException {
+
+		// Hex AA = Decimal 170 and Hex 55 = Decimal 85
+		byte[] data = new byte[] { (byte) (int) '\'', (byte) (int) '@', (byte) 0, (byte) 170, (byte) 85 };
+
+		this.send(data);
+	}
+
+	/**
+	 * Resets the board and waits until it answers again. Port A reads are sent
+	 * from a separate socket, starting at once and backing off from 1 to 64
+	 * milliseconds between attempts, so the wait ends within a few milliseconds
+	 * of the board being ready instead of after a fixed delay.
+	 * <p>
+	 * A board may still answer a probe before the reset takes effect, so an
+	 * answer is only accepted once a probe has gone unanswered for at least 8
+	 * milliseconds, showing the board has gone down. A board that restarts
+	 * faster than that is reported as not recovered.
+	 * 
+	 * @param timeoutMillis
+	 *            The longest time to wait for the board, in milliseconds.
+	 * @return The time the board took to answer again.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public ResetResult resetBoard(long timeoutMillis) throws IOException {
+
+		DatagramSocket probeSocket = new DatagramSocket();
+		try {
+			byte[] request = new byte[] { (byte) (int) 'a' };
+			byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+			DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+			int probes = 0;
+			long backoffMillis = FIRST_PROBE_MILLIS;
+			boolean down = false; // Has the board stopped answering since the reset?
+
+			this.resetBoard();
+			long start = System.nanoTime();
+			long deadline = start + timeoutMillis * 1000000L;
+			while (true) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("IO24Core: Error: Interrupted while waiting for reset.");
+				}
+				long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+				if (remainingMillis <= 0) {
+					return new ResetResult(this, -1, probes);
+				}
+				probeSocket.send(new DatagramPacket(request, request.length, this.boardIpAddress, this.boardUdpPort));
+				probes++;
+				probeSocket.setSoTimeout((int) Math.max(1, Math.min(backoffMillis, remainingMillis)));
+				try {
+					do {
+						reply.setLength(buffer.length);
+						probeSocket.receive(reply);
+					} while (reply.getLength() != 2 || buffer[0] != (byte) (int) 'A'
+							|| !this.boardIpAddress.equals(reply.getAddress()) || reply.getPort() != this.boardUdpPort);
+					if (down) {
+						return new ResetResult(this, System.nanoTime() - start, probes);
+					}
+					// Answered before the reset took effect.
+					backoffMillis = Math.min(backoffMillis * 2, MAX_PROBE_MILLIS);
+				} catch (SocketTimeoutException e) {
+					if (!down && backoffMillis >= DOWN_PROBE_MILLIS) {
+						// The board has gone down; probe quickly again for its return.
+						down = true;
+						backoffMillis = FIRST_PROBE_MILLIS;
+					} else {
+						backoffMillis = Math.min(backoffMillis * 2, MAX_PROBE_MILLIS);
+					}
+				}
+			}
+		} finally {
+			probeSocket.close();
+		}
+	}
+
+	/**
+	 * Resets the board and returns a future completed when the board answers
+	 * again.
+	 * 
+	 * @param timeoutMillis
+	 *            The longest time to wait for the board, in milliseconds.
+	 * @param executor
+	 *            The executor that runs the wait.
+	 * @return The future time the board took to answer again, completed
+	 *         exceptionally if a datagram socket error occurred.
+	 * 
+	 * @see #resetBoard(long)
+	 */
+	public CompletableFuture<ResetResult> resetBoard(final long timeoutMillis, Executor executor) {
+
+		final CompletableFuture<ResetResult> future = new CompletableFuture<ResetResult>();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					future.complete(IO24Core.this.resetBoard(timeoutMillis));
+				} catch (IOException | RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Resets a fleet of boards, at most the given number at a time, so the rest
+	 * of the fleet stays in service. Each board is waited for before the next
+	 * one takes its place.
+	 * 
+	 * @param boards
+	 *            The boards to reset.
+	 * @param maxConcurrent
+	 *            The largest number of boards out of service at once.
+	 * @param timeoutMillis
+	 *            The longest time to wait for each board, in milliseconds.
+	 * @return The results, in the order of the boards. A board that failed with
+	 *         a datagram socket error is reported as not recovered.
+	 * @throws InterruptedIOException
+	 *             Thrown if the calling thread was interrupted.
+	 */
+	public static List<ResetResult> resetBoards(List<? extends IO24Core> boards, int maxConcurrent,
+			long timeoutMillis) throws InterruptedIOException {
+
+		List<ResetResult> results = new ArrayList<ResetResult>();
+		if (boards.isEmpty()) {
+			return results;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrent, boards.size())));
+		try {
+			List<CompletableFuture<ResetResult>> futures = new ArrayList<CompletableFuture<ResetResult>>();
+			for (IO24Core board : boards) {
+				futures.add(board.resetBoard(timeoutMillis, executor));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					results.add(new ResetResult(boards.get(i), -1, 0));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("IO24Core: Error: Interrupted while resetting boards.");
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/**
+	 * Send the specified packet to the target device.
+	 * 
+	 * @param data
+	 *            The packet data to send.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void send(byte[] data) throws IOException {
+
+		this.send(data, CommandPriority.classify(data, false));
+	}
+
+	/**
+	 * Send the specified packet to the target device once the board is free for
+	 * the given priority class.
+	 * 
+	 * @param data
+	 *            The packet data to send.
+	 * @param priority
+	 *            The priority class of the command.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void send(byte[] data, CommandPriority priority) throws IOException {
+
+		this.commandScheduler.acquire(priority);
+		try {
+			this.transmit(data);
+			RegisterCache cache = this.registerCache;
+			if (cache != null) {
+				this.cacheWrite(cache, data);
+			}
+			this.recordCommand(data);
+		} finally {
+			this.commandScheduler.release();
+		}
+	}
+
+	/**
+	 * Puts the specified packet on the wire. The caller must hold the board.
+	 * 
+	 * @param data
+	 *            The packet data to send.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	private void transmit(byte[] data) throws IOException {
+
+		DatagramPacket packet = new DatagramPacket(data, data.length, this.boardIpAddress, this.boardUdpPort);
+
+		this.datagramSocket.send(packet);
+
+		TrafficRecorder recorder = this.trafficRecorder;
+		if (recorder != null) {
+			recorder.record(TrafficRecorder.SENT, this.boardIpAddress, this.boardUdpPort, data, data.length);
+		}
+	}
+
+	/**
+	 * Receives the next packet from the socket. The caller must hold the board.
+	 * 
+	 * @param packet
+	 *            The packet to receive into.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred or the socket timed
+	 *             out.
+	 */
+	private void receive(DatagramPacket packet) throws IOException {
+
+		this.datagramSocket.receive(packet);
+
+		TrafficRecorder recorder = this.trafficRecorder;
+		if (recorder != null) {
+			recorder.record(TrafficRecorder.RECEIVED, packet.getAddress(), packet.getPort(), packet.getData(),
+					packet.getLength());
+		}
+	}
+
+	/**
+	 * Sets the recorder that logs every datagram sent to and received from this
+	 * board.
+	 * 
+	 * @param trafficRecorder
+	 *            The recorder, or null to stop recording.
+	 */
+	public void setTrafficRecorder(TrafficRecorder trafficRecorder) {
+		this.trafficRecorder = trafficRecorder;
+	}
+	
+	/**
+	 * Writes an individual I/O port value.
+	 * 
+	 * @param ioPort
+	 *            The port letter.
+	 * @param ioLine
+	 *            The I/O line number. 0-7
+	 * @param value
+	 *            The desired I/O line value. 0 or 1
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void writeIoLine(char ioPort, int ioLine, int value) throws IllegalArgumentException, IOException {
+
+		this.writeIoLine(ioPort, ioLine, value, CommandPriority.CONTROL);
+	}
+
+	/**
+	 * Writes an individual I/O port value with the given priority. The read of
+	 * the current port state and the following port write are issued as one
+	 * scheduled operation.
+	 * 
+	 * @param ioPort
+	 *            The port letter.
+	 * @param ioLine
+	 *            The I/O line number. 0-7
+	 * @param value
+	 *            The desired I/O line value. 0 or 1
+	 * @param priority
+	 *            The priority class of the write.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void writeIoLine(char ioPort, int ioLine, int value, CommandPriority priority)
+			throws IllegalArgumentException, IOException {
+		
+		if (value < 0 || value > 1) {
+			throw new IllegalArgumentException("IO24Core: " + String.valueOf(value) + " is an invalid io line state.");
+		}
+
+		this.isPortLetterValid(ioPort);
+		this.isLineNumberValid(ioLine);
+
+		byte[] returnData;
+		int finalState = 0;
+		this.commandScheduler.acquire(priority);
+		try {
+			returnData = this.readData(new byte[] { (byte) (int) Character.toLowerCase(ioPort) }, 2, priority);
+			byte currentState = returnData[1];
+			if (value == 0) {
+				// Bit shift left a 1 value then invert the bit pattern and finally AND the
+				// resulting byte.
+				finalState = (byte) (currentState & (~(1 << ioLine)));
+			} else if (value == 1) {
+				// Bit shift left a 1 value then OR the resulting byte.
+				finalState = (byte) (currentState | (1 << ioLine));
+			}
+			this.writePortValue(ioPort, finalState, priority);
+		} finally {
+			this.commandScheduler.release();
+		}
+	}
+
+	/**
+	 * Writes the given value to the specified port. This effects all ports. The any
+	 * value over 255 is set as 255.
+	 * 
+	 * @param ioPort
+	 *            The port letter to write to.
+	 * @param value
+	 *            The port value to write. 0-255
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 */
+	public void writePortValue(char ioPort, int value) throws IOException, IllegalArgumentException {
+
+		this.writePortValue(ioPort, value, CommandPriority.CONTROL);
+	}
+
+	/**
+	 * Writes the given value to the specified port with the given priority. Use
+	 * <code>CommandPriority.SAFETY</code> for writes that must not wait behind
+	 * polling or bulk traffic.
+	 * 
+	 * @param ioPort
+	 *            The port letter to write to.
+	 * @param value
+	 *            The port value to write. 0-255
+	 * @param priority
+	 *            The priority class of the write.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 */
+	public void writePortValue(char ioPort, int value, CommandPriority priority)
+			throws IOException, IllegalArgumentException {
+
+		this.isPortLetterValid(ioPort);
+
+		byte[] data = new byte[] { (byte) (int) Character.toUpperCase(ioPort), (byte) value };
+
+		this.send(data, priority);
+
+	}
+
+	/**
+	 * Writes the I/O port direction to the supplied value for the specified port.
+	 * This effects all lines on the port.
+	 * 
+	 * @param ioPort
+	 *            The port letter to write to.
+	 * @param value
+	 *            The port value to write. 0-255
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void writePortDirection(char ioPort, int value) throws IOException, Exception {
+
+		this.isPortLetterValid(ioPort);
+
+		byte[] data = new byte[] { (byte) (int) '!', (byte) (int) Character.toUpperCase(ioPort), (byte) value };
+
+		this.send(data);
+	}
+
+	/**
+	 * Writes the I/O port pull up register to the supplied value for the specified
+	 * port. This effects all lines on the port.
+	 * 
+	 * @param ioPort
+	 *            The port letter to write to.
+	 * @param value
+	 *            The port value to write. 0-255
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void writePortPullUp(char ioPort, int value) throws IOException, Exception {
+
+		this.isPortLetterValid(ioPort);
+
+		byte[] data = new byte[] { (byte) (int) '@', (byte) (int) Character.toUpperCase(ioPort), (byte) value };
+
+		this.send(data);
+
+	}
+
+	/**
+	 * Writes every register in the batch and verifies the writes by reading the
+	 * registers back. All writes are sent back to back, followed by pipelined read
+	 * requests for the affected registers, so a batch is normally confirmed within
+	 * one round trip. Writes that were not confirmed are sent again, up to a fixed
+	 * number of attempts.
+	 * 
+	 * @param batch
+	 *            The register writes to send.
+	 * @return One result per register write, in batch order.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter or a register not supported by
+	 *             this board is specified.
+	 */
+	public List<WriteResult> writeVerified(WriteBatch batch) throws IOException, IllegalArgumentException {
+
+		int MAX_ATTEMPTS = 3; // Max number of times a write is sent.
+
+		List<WriteBatch.Entry> entries = batch.getEntries();
+		int size = entries.size();
+		for (WriteBatch.Entry entry : entries) {
+			this.isPortLetterValid(entry.port);
+			if (!this.isRegisterSupported(entry.register)) {
+				throw new IllegalArgumentException(
+						"IO24Core: Validation error: " + entry.register + " is not supported by this board.");
+			}
+		}
+
+		int[] readBack = new int[size];
+		int[] attempts = new int[size];
+		boolean[] verified = new boolean[size];
+		Arrays.fill(readBack, -1);
+
+		byte[] receiveData = new byte[16];
+		DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+
+		this.commandScheduler.acquire(CommandPriority.CONTROL);
+		try {
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+
+				// Send every unconfirmed write, then every read back request.
+				int pending = 0;
+				boolean[] answered = new boolean[size];
+				for (int i = 0; i < size; i++) {
+					if (!verified[i]) {
+						WriteBatch.Entry entry = entries.get(i);
+						this.transmit(this.registerWriteCommand(entry.register, entry.port, entry.value));
+						this.commanded.set(commandedIndex(entry.register, entry.port), 0xff00 | entry.value);
+						if (this.registerCache != null) {
+							this.registerCache.invalidate(entry.register, entry.port);
+						}
+						attempts[i]++;
+						pending++;
+					}
+				}
+				if (pending == 0) {
+					break;
+				}
+				for (int i = 0; i < size; i++) {
+					if (!verified[i]) {
+						WriteBatch.Entry entry = entries.get(i);
+						this.transmit(this.registerReadCommand(entry.register, entry.port));
+					}
+				}
+
+				// Collect the read backs until all are answered or the socket times out.
+				while (pending > 0 && !Thread.currentThread().isInterrupted()) {
+					try {
+						receivePacket.setLength(receiveData.length);
+						this.receive(receivePacket);
+					} catch (SocketTimeoutException ste) {
+						break;
+					}
+					boolean matched = false;
+					for (int i = 0; i < size && this.isFromBoard(receivePacket); i++) {
+						WriteBatch.Entry entry = entries.get(i);
+						if (!verified[i] && !answered[i] && this.isRegisterResponse(receiveData,
+								receivePacket.getLength(), entry.register, entry.port)) {
+							answered[i] = true;
+							matched = true;
+							pending--;
+							readBack[i] = receiveData[receivePacket.getLength() - 1] & 0xff;
+							verified[i] = ((readBack[i] ^ entry.value) & entry.verifyMask) == 0;
+							if (this.registerCache != null) {
+								this.registerCache.put(entry.register, entry.port, readBack[i]);
+							}
+							break;
+						}
+					}
+					if (!matched) {
+						this.discardedResponseCount.incrementAndGet();
+					}
+				}
+			}
+		} finally {
+			this.commandScheduler.release();
+		}
+
+		List<WriteResult> results = new ArrayList<WriteResult>(size);
+		for (int i = 0; i < size; i++) {
+			WriteBatch.Entry entry = entries.get(i);
+			results.add(new WriteResult(entry.register, entry.port, entry.value, readBack[i], attempts[i], verified[i]));
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the command character used to address the given register on this
+	 * board. Boards that use a different command set override this method.
+	 * 
+	 * @param register
+	 *            The port register.
+	 * @return The command character, or 0 if the register is addressed by the
+	 *         port letter alone.
+	 */
+	protected char getRegisterCommand(PortRegister register) {
+		return register.getCommandChar();
+	}
+
+	/**
+	 * Returns true if the given register is available on this board.
+	 * 
+	 * @param register
+	 *            The port register.
+	 * @return True if the register can be written and read back.
+	 */
+	protected boolean isRegisterSupported(PortRegister register) {
+		return register == PortRegister.VALUE || register == PortRegister.DIRECTION
+				|| register == PortRegister.PULL_UP;
+	}
+
+	/**
+	 * Returns the packet that writes the given register value.
+	 */
+	private byte[] registerWriteCommand(PortRegister register, char ioPort, int value) {
+
+		char command = this.getRegisterCommand(register);
+		byte port = (byte) (int) Character.toUpperCase(ioPort);
+		if (command == 0) {
+			return new byte[] { port, (byte) value };
+		}
+		return new byte[] { (byte) (int) command, port, (byte) value };
+	}
+
+	/**
+	 * Returns the packet that requests a read of the given register.
+	 */
+	private byte[] registerReadCommand(PortRegister register, char ioPort) {
+
+		char command = this.getRegisterCommand(register);
+		byte port = (byte) (int) Character.toLowerCase(ioPort);
+		if (command == 0) {
+			return new byte[] { port };
+		}
+		return new byte[] { (byte) (int) command, port };
+	}
+
+	/**
+	 * Returns true if the received packet is the read response of the given
+	 * register. Responses echo the command character, if any, followed by the
+	 * upper case port letter and the register value.
+	 */
+	private boolean isRegisterResponse(byte[] data, int length, PortRegister register, char ioPort) {
+
+		byte[] request = this.registerReadCommand(register, ioPort);
+		return this.isExpectedResponse(request, data, length, request.length + 1);
+	}
+
+	/**
+	 * Writes the specified EEPROM memory location with the specified upper and
+	 * lower bytes.
 	 * 
 	 * @param wordAddress
 	 *            The memory block address.
@@ -577,6 +1872,35 @@ public class IO24Core {
 		return returnData;
 	}
 	
+	/**
+	 * Returns the scheduler that orders commands sent to this board. The
+	 * scheduler also provides wait and service time statistics per priority
+	 * class.
+	 * 
+	 * @return The board command scheduler.
+	 */
+	public CommandScheduler getCommandScheduler() {
+		return commandScheduler;
+	}
+
+	/**
+	 * Returns the IP address of the I/O board.
+	 * 
+	 * @return The board IP address.
+	 */
+	public InetAddress getBoardIpAddress() {
+		return boardIpAddress;
+	}
+
+	/**
+	 * Returns the UDP port of the I/O board.
+	 * 
+	 * @return The board UDP port.
+	 */
+	public int getBoardUdpPort() {
+		return boardUdpPort;
+	}
+
 	public int getDatagramSocketTimeout() {
 		return datagramSocketTimeout;
 	}
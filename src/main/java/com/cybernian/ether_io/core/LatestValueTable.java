@@ -0,0 +1,240 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Holds the latest port image and time stamps of each of a number of boards,
+ * for any number of reader threads. Every entry is guarded by a sequence lock:
+ * the writer makes the entry's sequence number odd, writes the entry and makes
+ * it even again, and a reader copies the entry and retries if the sequence
+ * number was odd or changed while it copied. Readers therefore take no lock,
+ * never allocate and never delay the writer.
+ * <p>
+ * Each entry is meant to have a single writer, normally the thread polling the
+ * board. Concurrent updates of one entry are still safe; a second writer spins
+ * until the first has finished.
+ * <p>
+ * An entry may be fed a few ports at a time, for example by scan groups of
+ * different periods. Each port keeps the time stamps of the sample it came
+ * from, and the entry's time stamps are those of its oldest port, so a reader
+ * never takes a port for fresher than it is.
+ * 
+ * @author Gerard L. Muir
+ */
+public class LatestValueTable {
+
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	// Entry fields, in longs from the start of the entry.
+	private static final int SEQUENCE = 0;
+	private static final int SEND_NANOS = 1;
+	private static final int RECEIVE_NANOS = 2;
+	private static final int PUBLISHED = 3; // Bit set for every port published so far.
+	private static final int IMAGE = 4;
+
+	private static final int LINE_SIZE = 8; // Longs per cache line; entries start on a cache line.
+
+	private final int boardCount;
+	private final int words; // Image words per entry.
+	private final int ports; // Ports per entry.
+	private final int portTimes; // Offset of the per port send and receive times.
+	private final int stride; // Longs per entry.
+	private final long[] table;
+
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param boardCount
+	 *            The number of entries.
+	 * @param lineCount
+	 *            The most I/O lines of any board. 24 for IO24 boards, 72 for
+	 *            IO72TPC.
+	 */
+	public LatestValueTable(int boardCount, int lineCount) {
+
+		this.boardCount = boardCount;
+		this.words = PortImage.words(lineCount);
+		this.ports = (lineCount + 7) / 8;
+		this.portTimes = IMAGE + this.words;
+		this.stride = (this.portTimes + 2 * this.ports + LINE_SIZE - 1) / LINE_SIZE * LINE_SIZE;
+		this.table = new long[boardCount * this.stride];
+	}
+
+	/**
+	 * Publishes a new sample of a board.
+	 * 
+	 * @param board
+	 *            The entry index of the board.
+	 * @param sample
+	 *            The sample. Image words beyond the table's line count are
+	 *            ignored.
+	 */
+	public void update(int board, PortSample sample) {
+
+		this.update(board, sample.getImage(), sample.getSendNanos(), sample.getReceiveNanos());
+	}
+
+	/**
+	 * Publishes the given ports of a new sample of a board. The other ports keep
+	 * their last published values and time stamps, so samples of groups that
+	 * read only some ports can share an entry.
+	 * 
+	 * @param board
+	 *            The entry index of the board.
+	 * @param sample
+	 *            The sample.
+	 * @param portMask
+	 *            The ports to publish, bit 0 for port A.
+	 */
+	public void update(int board, PortSample sample, int portMask) {
+
+		this.write(board, sample.getImage(), portMask, sample.getSendNanos(), sample.getReceiveNanos());
+	}
+
+	/**
+	 * Publishes a new port image of a board.
+	 * 
+	 * @param board
+	 *            The entry index of the board.
+	 * @param image
+	 *            The port image.
+	 * @param sendNanos
+	 *            The time the read requests were sent.
+	 * @param receiveNanos
+	 *            The time the last response was received.
+	 */
+	public void update(int board, long[] image, long sendNanos, long receiveNanos) {
+
+		this.write(board, image, -1, sendNanos, receiveNanos);
+	}
+
+	private void write(int board, long[] image, int portMask, long sendNanos, long receiveNanos) {
+
+		int base = this.base(board);
+		long sequence;
+		do {
+			sequence = (long) LONGS.getAcquire(this.table, base + SEQUENCE);
+		} while ((sequence & 1) != 0
+				|| !LONGS.compareAndSet(this.table, base + SEQUENCE, sequence, sequence + 1));
+		VarHandle.storeStoreFence();
+
+		int written = portMask & ((1 << this.ports) - 1); // Ports this update writes.
+		long published = (long) LONGS.getOpaque(this.table, base + PUBLISHED) | written;
+		long oldestSend = sendNanos;
+		long oldestReceive = receiveNanos;
+		for (int port = 0; port < this.ports; port++) {
+			int times = base + this.portTimes + 2 * port;
+			if ((written & (1 << port)) != 0) {
+				LONGS.setOpaque(this.table, times, sendNanos);
+				LONGS.setOpaque(this.table, times + 1, receiveNanos);
+			} else if ((published & (1L << port)) != 0) {
+				long portSend = (long) LONGS.getOpaque(this.table, times);
+				if (portSend - oldestSend < 0) {
+					oldestSend = portSend;
+					oldestReceive = (long) LONGS.getOpaque(this.table, times + 1);
+				}
+			}
+		}
+		LONGS.setOpaque(this.table, base + PUBLISHED, published);
+		LONGS.setOpaque(this.table, base + SEND_NANOS, oldestSend);
+		LONGS.setOpaque(this.table, base + RECEIVE_NANOS, oldestReceive);
+		int words = Math.min(this.words, image.length);
+		for (int word = 0; word < words; word++) {
+			int ports = (portMask >>> (word << 3)) & 0xff;
+			if (ports == 0xff) {
+				LONGS.setOpaque(this.table, base + IMAGE + word, image[word]);
+			} else if (ports != 0) {
+				long mask = 0;
+				for (int port = 0; port < 8; port++) {
+					if ((ports & (1 << port)) != 0) {
+						mask |= 0xffL << (port << 3);
+					}
+				}
+				long old = (long) LONGS.getOpaque(this.table, base + IMAGE + word);
+				LONGS.setOpaque(this.table, base + IMAGE + word, (old & ~mask) | (image[word] & mask));
+			}
+		}
+
+		LONGS.setRelease(this.table, base + SEQUENCE, sequence + 2);
+	}
+
+	/**
+	 * Copies a consistent snapshot of a board's entry into the given sample.
+	 * 
+	 * @param board
+	 *            The entry index of the board.
+	 * @param sample
+	 *            Receives the image and the time stamps of the entry's oldest
+	 *            port. Must hold at least the table's line count.
+	 * @return The version of the snapshot, the number of updates of the entry
+	 *         so far; 0 if the board has not been published yet.
+	 */
+	public long read(int board, PortSample sample) {
+
+		int base = this.base(board);
+		long[] image = sample.getImage();
+		while (true) {
+			long before = (long) LONGS.getAcquire(this.table, base + SEQUENCE);
+			if ((before & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			long sendNanos = (long) LONGS.getOpaque(this.table, base + SEND_NANOS);
+			long receiveNanos = (long) LONGS.getOpaque(this.table, base + RECEIVE_NANOS);
+			for (int word = 0; word < this.words; word++) {
+				image[word] = (long) LONGS.getOpaque(this.table, base + IMAGE + word);
+			}
+			VarHandle.loadLoadFence();
+			if ((long) LONGS.getOpaque(this.table, base + SEQUENCE) == before) {
+				sample.setTimes(sendNanos, receiveNanos);
+				return before >>> 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the version of a board's entry without copying it, so readers can
+	 * tell cheaply whether anything new was published.
+	 * 
+	 * @param board
+	 *            The entry index of the board.
+	 * @return The number of completed updates of the entry.
+	 */
+	public long getVersion(int board) {
+		return (long) LONGS.getAcquire(this.table, this.base(board) + SEQUENCE) >>> 1;
+	}
+
+	/**
+	 * @return The number of entries.
+	 */
+	public int getBoardCount() {
+		return this.boardCount;
+	}
+
+	private int base(int board) {
+
+		if (board < 0 || board >= this.boardCount) {
+			throw new IllegalArgumentException("LatestValueTable: Validation error: " + board
+					+ " is an invalid board index.");
+		}
+		return board * this.stride;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+/**
+ * The per port registers of the Ether IO boards that can be written and read
+ * back. Each register is addressed by an optional command character followed by
+ * the port letter. Upper case port letters write the register, lower case port
+ * letters request a read.
+ * 
+ * @author Gerard L. Muir
+ */
+public enum PortRegister {
+
+	/**
+	 * The I/O port value register. Addressed by the port letter alone.
+	 */
+	VALUE((char) 0),
+
+	/**
+	 * The I/O port direction register.
+	 */
+	DIRECTION('!'),
+
+	/**
+	 * The I/O port pull up register.
+	 */
+	PULL_UP('@'),
+
+	/**
+	 * The I/O port Schmitt trigger register. (IO24, IO24F)
+	 */
+	SCHMITT_TRIGGER('$'),
+
+	/**
+	 * The I/O port threshold register. (IO24, IO24F)
+	 */
+	THRESHOLD('#');
+
+	private final char commandChar; // Command character preceding the port letter, 0 if none.
+
+	private PortRegister(char commandChar) {
+		this.commandChar = commandChar;
+	}
+
+	/**
+	 * Returns the default command character of the register.
+	 * 
+	 * @return The command character, or 0 if the register is addressed by the
+	 *         port letter alone.
+	 */
+	public char getCommandChar() {
+		return commandChar;
+	}
+}
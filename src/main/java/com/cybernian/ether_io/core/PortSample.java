@@ -0,0 +1,143 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * A time stamped sample of every port of a board. The sample carries the
+ * <code>System.nanoTime()</code> at which the read requests were sent and at
+ * which the last response arrived. The board is assumed to have sampled its
+ * ports half way between the two, which lets samples from different boards be
+ * lined up to within half a round trip.
+ * <p>
+ * Samples are mutable and meant to be reused, so reading a board does not
+ * allocate.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see IO24Core#readPortSample(PortSample)
+ */
+public class PortSample {
+
+	private final long[] image; // Packed port image.
+	private long sendNanos; // Time the read requests were sent.
+	private long receiveNanos; // Time the last response was received.
+	private IO24Core board; // Board that filled the sample.
+
+	/**
+	 * Creates an empty sample for the given number of lines.
+	 * 
+	 * @param lineCount
+	 *            Number of I/O lines. 24 for IO24 boards, 72 for IO72TPC.
+	 */
+	public PortSample(int lineCount) {
+		this.image = PortImage.create(lineCount);
+	}
+
+	/**
+	 * Returns the packed port image of the sample. The array is owned by the
+	 * sample and is overwritten when the sample is reused.
+	 * 
+	 * @return The port image.
+	 * 
+	 * @see PortImage
+	 */
+	public long[] getImage() {
+		return this.image;
+	}
+
+	/**
+	 * @return The time the read requests were sent, in nanoseconds.
+	 */
+	public long getSendNanos() {
+		return this.sendNanos;
+	}
+
+	/**
+	 * @return The time the last response was received, in nanoseconds.
+	 */
+	public long getReceiveNanos() {
+		return this.receiveNanos;
+	}
+
+	/**
+	 * @return The round trip time of the sample in nanoseconds.
+	 */
+	public long getRoundTripNanos() {
+		return this.receiveNanos - this.sendNanos;
+	}
+
+	/**
+	 * Returns the estimated time at which the board sampled its ports, the mid
+	 * point of the round trip.
+	 * 
+	 * @return The estimated sample time in nanoseconds.
+	 */
+	public long getSampleNanos() {
+		return this.sendNanos + ((this.receiveNanos - this.sendNanos) >> 1);
+	}
+
+	/**
+	 * Returns the largest possible error of the estimated sample time, half the
+	 * round trip.
+	 * 
+	 * @return The sample time uncertainty in nanoseconds.
+	 */
+	public long getUncertaintyNanos() {
+		return (this.receiveNanos - this.sendNanos) >> 1;
+	}
+
+	/**
+	 * Copies the image, time stamps and board of another sample into this one.
+	 * 
+	 * @param other
+	 *            The sample to copy. Must hold the same number of lines.
+	 */
+	public void copyFrom(PortSample other) {
+
+		System.arraycopy(other.image, 0, this.image, 0, this.image.length);
+		this.sendNanos = other.sendNanos;
+		this.receiveNanos = other.receiveNanos;
+		this.board = other.board;
+	}
+
+	/**
+	 * @return The board whose <code>readPortSample</code> last filled the sample,
+	 *         or null if none has.
+	 */
+	public IO24Core getBoard() {
+		return this.board;
+	}
+
+	void setBoard(IO24Core board) {
+		this.board = board;
+	}
+
+	/**
+	 * Sets the time stamps of the sample.
+	 * 
+	 * @param sendNanos
+	 *            The time the read requests were sent.
+	 * @param receiveNanos
+	 *            The time the last response was received.
+	 */
+	public void setTimes(long sendNanos, long receiveNanos) {
+
+		this.sendNanos = sendNanos;
+		this.receiveNanos = receiveNanos;
+	}
+}
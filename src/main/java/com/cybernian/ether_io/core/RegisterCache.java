@@ -0,0 +1,183 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Holds the most recently read value of each port register of one board,
+ * together with the time it was read. Each entry packs the register value and
+ * its age base into a single long, so entries are updated and read without
+ * locks or allocation.
+ * 
+ * @author Gerard L. Muir
+ */
+public class RegisterCache {
+
+	private static final int MAX_PORTS = 9; // Ports a-i.
+	private static final int REGISTERS = PortRegister.values().length;
+
+	private final long baseNanos = System.nanoTime(); // Time origin of the packed time stamps.
+	private final AtomicLongArray entries = new AtomicLongArray(REGISTERS * MAX_PORTS); // 0 if empty.
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong totalHitAgeNanos = new AtomicLong();
+	private final AtomicLong maxHitAgeNanos = new AtomicLong();
+
+	/**
+	 * Returns the cached register value if it was read no longer than the given
+	 * age ago. The lookup is counted as a hit or a miss.
+	 * 
+	 * @param register
+	 *            The port register.
+	 * @param ioPort
+	 *            The port letter.
+	 * @param maxAgeNanos
+	 *            The maximum acceptable age of the value in nanoseconds.
+	 * @return The register value 0-255, or -1 if there is no fresh enough value.
+	 */
+	public int get(PortRegister register, char ioPort, long maxAgeNanos) {
+
+		long entry = this.entries.get(index(register, ioPort));
+		if (entry != 0) {
+			long age = System.nanoTime() - this.baseNanos - ((entry >>> 8) - 1);
+			if (age <= maxAgeNanos) {
+				this.hitCount.incrementAndGet();
+				this.totalHitAgeNanos.addAndGet(age);
+				long max;
+				while (age > (max = this.maxHitAgeNanos.get()) && !this.maxHitAgeNanos.compareAndSet(max, age)) {
+					// Retry until the maximum is updated.
+				}
+				return (int) (entry & 0xff);
+			}
+		}
+		this.missCount.incrementAndGet();
+		return -1;
+	}
+
+	/**
+	 * Stores a register value read from, or confirmed by, the board now.
+	 * 
+	 * @param register
+	 *            The port register.
+	 * @param ioPort
+	 *            The port letter.
+	 * @param value
+	 *            The register value. 0-255
+	 */
+	public void put(PortRegister register, char ioPort, int value) {
+
+		long stamp = System.nanoTime() - this.baseNanos + 1;
+		this.entries.set(index(register, ioPort), (stamp << 8) | (value & 0xff));
+	}
+
+	/**
+	 * Removes the cached value of a register.
+	 * 
+	 * @param register
+	 *            The port register.
+	 * @param ioPort
+	 *            The port letter.
+	 */
+	public void invalidate(PortRegister register, char ioPort) {
+		this.entries.set(index(register, ioPort), 0);
+	}
+
+	/**
+	 * Removes the cached value of the given register on every port.
+	 * 
+	 * @param register
+	 *            The port register.
+	 */
+	public void invalidate(PortRegister register) {
+
+		for (int port = 0; port < MAX_PORTS; port++) {
+			this.entries.set(register.ordinal() * MAX_PORTS + port, 0);
+		}
+	}
+
+	/**
+	 * Removes every cached value.
+	 */
+	public void invalidateAll() {
+
+		for (int i = 0; i < this.entries.length(); i++) {
+			this.entries.set(i, 0);
+		}
+	}
+
+	/**
+	 * Returns the age of the cached register value.
+	 * 
+	 * @param register
+	 *            The port register.
+	 * @param ioPort
+	 *            The port letter.
+	 * @return The age in nanoseconds, or -1 if no value is cached.
+	 */
+	public long getAgeNanos(PortRegister register, char ioPort) {
+
+		long entry = this.entries.get(index(register, ioPort));
+		return entry == 0 ? -1 : System.nanoTime() - this.baseNanos - ((entry >>> 8) - 1);
+	}
+
+	/**
+	 * @return The number of lookups answered from the cache.
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * @return The number of lookups that had to go to the board.
+	 */
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+
+	/**
+	 * @return The mean age of the values answered from the cache, in nanoseconds.
+	 */
+	public long getMeanHitAgeNanos() {
+
+		long hits = this.hitCount.get();
+		return hits == 0 ? 0 : this.totalHitAgeNanos.get() / hits;
+	}
+
+	/**
+	 * @return The oldest value answered from the cache, in nanoseconds.
+	 */
+	public long getMaxHitAgeNanos() {
+		return this.maxHitAgeNanos.get();
+	}
+
+	/**
+	 * Clears the hit, miss and age statistics.
+	 */
+	public void resetStatistics() {
+
+		this.hitCount.set(0);
+		this.missCount.set(0);
+		this.totalHitAgeNanos.set(0);
+		this.maxHitAgeNanos.set(0);
+	}
+
+	private static int index(PortRegister register, char ioPort) {
+		return register.ordinal() * MAX_PORTS + (Character.toLowerCase(ioPort) - 'a');
+	}
+}
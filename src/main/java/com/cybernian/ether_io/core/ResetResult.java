@@ -0,0 +1,72 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+/**
+ * The outcome of one board reset: how long the board took to answer again.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see IO24Core#resetBoard(long)
+ */
+public class ResetResult {
+
+	private final IO24Core board;
+	private final long recoveryNanos;
+	private final int probeCount;
+
+	ResetResult(IO24Core board, long recoveryNanos, int probeCount) {
+		this.board = board;
+		this.recoveryNanos = recoveryNanos;
+		this.probeCount = probeCount;
+	}
+
+	/**
+	 * @return The board that was reset.
+	 */
+	public IO24Core getBoard() {
+		return board;
+	}
+
+	/**
+	 * @return The time from sending the reset to the first answered probe, in
+	 *         nanoseconds, or -1 if the board did not answer in time.
+	 */
+	public long getRecoveryNanos() {
+		return recoveryNanos;
+	}
+
+	/**
+	 * @return The number of probes sent while waiting for the board.
+	 */
+	public int getProbeCount() {
+		return probeCount;
+	}
+
+	/**
+	 * @return True if the board answered before the time out.
+	 */
+	public boolean isRecovered() {
+		return recoveryNanos >= 0;
+	}
+
+	@Override
+	public String toString() {
+		return board.getBoardIpAddress().getHostAddress() + ":" + board.getBoardUdpPort()
+				+ (isRecovered() ? " recovered in " + recoveryNanos / 1000000.0 + " ms" : " did not recover") + " after "
+				+ probeCount + " probe(s)";
+	}
+}
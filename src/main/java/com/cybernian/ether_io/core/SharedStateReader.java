@@ -0,0 +1,222 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import static com.cybernian.ether_io.core.SharedStateWriter.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads board states published by a {@link SharedStateWriter} in another
+ * process. Reads copy a consistent snapshot out of the shared mapping without
+ * locks, allocation or network traffic, so any number of threads and processes
+ * may read at once.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see SharedStateWriter
+ */
+public class SharedStateReader {
+
+	private final MappedByteBuffer buffer;
+	private final int boardCount;
+	private final int words;
+	private final int entrySize;
+	private final int firstEntry;
+
+	/**
+	 * Maps an existing segment.
+	 * 
+	 * @param segmentFile
+	 *            The segment file.
+	 * @throws IOException
+	 *             Thrown if the file could not be mapped or is not a state
+	 *             segment.
+	 */
+	public SharedStateReader(File segmentFile) throws IOException {
+
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "r")) {
+			this.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		}
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (this.buffer.capacity() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+			throw new IOException("SharedStateReader: " + segmentFile + " is not a state segment.");
+		}
+		VarHandle.acquireFence();
+		if (this.buffer.getInt(4) != VERSION) {
+			throw new IOException("SharedStateReader: Unsupported segment version " + this.buffer.getInt(4) + ".");
+		}
+		this.boardCount = this.buffer.getInt(BOARD_COUNT);
+		this.words = this.buffer.getInt(WORDS);
+		this.entrySize = this.buffer.getInt(ENTRY_SIZE);
+		this.firstEntry = this.buffer.getInt(FIRST_ENTRY);
+		if (this.firstEntry + (long) this.boardCount * this.entrySize > this.buffer.capacity()) {
+			throw new IOException("SharedStateReader: " + segmentFile + " is truncated.");
+		}
+	}
+
+	/**
+	 * @return The number of boards in the segment.
+	 */
+	public int getBoardCount() {
+		return this.boardCount;
+	}
+
+	/**
+	 * Finds the entry index of a board.
+	 * 
+	 * @param address
+	 *            The board IP address.
+	 * @param udpPort
+	 *            The board UDP port.
+	 * @return The entry index, or -1 if the board is not in the segment.
+	 */
+	public int indexOf(InetAddress address, int udpPort) {
+
+		int key = addressKey(address);
+		for (int board = 0; board < this.boardCount; board++) {
+			int record = HEADER_SIZE + board * DIRECTORY_RECORD_SIZE;
+			int stored = 0;
+			for (int b = 0; b < 4; b++) {
+				stored = stored << 8 | this.buffer.get(record + b) & 0xff;
+			}
+			if (stored == key && this.buffer.getInt(record + 4) == udpPort) {
+				return board;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param board
+	 *            The entry index of the board.
+	 * @return The board IPv4 address.
+	 * @throws UnknownHostException
+	 *             Never thrown for the four byte address stored.
+	 */
+	public InetAddress getBoardAddress(int board) throws UnknownHostException {
+
+		int record = HEADER_SIZE + this.checkIndex(board) * DIRECTORY_RECORD_SIZE;
+		byte[] address = new byte[4];
+		for (int b = 0; b < 4; b++) {
+			address[b] = this.buffer.get(record + b);
+		}
+		return InetAddress.getByAddress(address);
+	}
+
+	/**
+	 * @param board
+	 *            The entry index of the board.
+	 * @return The board UDP port.
+	 */
+	public int getBoardUdpPort(int board) {
+		return this.buffer.getInt(HEADER_SIZE + this.checkIndex(board) * DIRECTORY_RECORD_SIZE + 4);
+	}
+
+	/**
+	 * @param board
+	 *            The entry index of the board.
+	 * @return The number of I/O lines of the board.
+	 */
+	public int getLineCount(int board) {
+		return this.buffer.getInt(HEADER_SIZE + this.checkIndex(board) * DIRECTORY_RECORD_SIZE + 8);
+	}
+
+	/**
+	 * Copies a consistent snapshot of a board's entry into the given sample. The
+	 * time stamps are the writer's <code>System.nanoTime()</code> values.
+	 * 
+	 * @param board
+	 *            The entry index of the board.
+	 * @param sample
+	 *            Receives the image and time stamps. Must hold the board's
+	 *            lines.
+	 * @return The version of the snapshot, the number of updates of the entry
+	 *         so far; 0 if the board has not been published yet.
+	 */
+	public long read(int board, PortSample sample) {
+
+		int base = this.firstEntry + this.checkIndex(board) * this.entrySize;
+		long[] image = sample.getImage();
+		int words = Math.min(this.words, image.length);
+		while (true) {
+			long before = (long) LONGS.getAcquire(this.buffer, base + SEQUENCE);
+			if ((before & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			long sendNanos = (long) LONGS.getOpaque(this.buffer, base + SEND_NANOS);
+			long receiveNanos = (long) LONGS.getOpaque(this.buffer, base + RECEIVE_NANOS);
+			for (int word = 0; word < words; word++) {
+				image[word] = (long) LONGS.getOpaque(this.buffer, base + IMAGE + word * 8);
+			}
+			VarHandle.loadLoadFence();
+			if ((long) LONGS.getOpaque(this.buffer, base + SEQUENCE) == before) {
+				sample.setTimes(sendNanos, receiveNanos);
+				return before >>> 1;
+			}
+		}
+	}
+
+	/**
+	 * @param board
+	 *            The entry index of the board.
+	 * @return The number of completed updates of the entry.
+	 */
+	public long getVersion(int board) {
+
+		int base = this.firstEntry + this.checkIndex(board) * this.entrySize;
+		return (long) LONGS.getAcquire(this.buffer, base + SEQUENCE) >>> 1;
+	}
+
+	/**
+	 * @param board
+	 *            The entry index of the board.
+	 * @return The <code>System.currentTimeMillis()</code> of the board's last
+	 *         update, 0 if never updated.
+	 */
+	public long getUpdateMillis(int board) {
+
+		int base = this.firstEntry + this.checkIndex(board) * this.entrySize;
+		return (long) LONGS.getOpaque(this.buffer, base + UPDATE_MILLIS);
+	}
+
+	/**
+	 * @return The <code>System.currentTimeMillis()</code> of the writer's last
+	 *         heartbeat.
+	 */
+	public long getHeartbeatMillis() {
+		return (long) LONGS.getAcquire(this.buffer, HEARTBEAT_MILLIS);
+	}
+
+	private int checkIndex(int board) {
+
+		if (board < 0 || board >= this.boardCount) {
+			throw new IllegalArgumentException("SharedStateReader: Validation error: " + board
+					+ " is an invalid board index.");
+		}
+		return board;
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Publishes the latest port image of each of a number of boards into a memory
+ * mapped file, so other processes on the host can read the board states with
+ * {@link SharedStateReader} instead of polling the boards themselves. Placed in
+ * <code>/dev/shm</code> the file never touches a disk.
+ * <p>
+ * Segment layout, in little endian byte order:
+ * 
+ * <pre>
+ *  0  int   magic 0x45494F53 ("EIOS")
+ *  4  int   format version (1)
+ *  8  int   board count
+ * 12  int   image words per board
+ * 16  int   entry size in bytes
+ * 20  int   offset of the first entry
+ * 24  long  System.currentTimeMillis() when the segment was created
+ * 32  long  System.currentTimeMillis() of the writer's last heartbeat
+ * 40  ...   reserved up to 64
+ * 64  ...   directory, 32 bytes per board
+ *     ...   entries, each starting on a 64 byte boundary
+ * </pre>
+ * 
+ * Each directory record is:
+ * 
+ * <pre>
+ *  0  bytes  board IPv4 address, or the last 4 bytes of an IPv6 address
+ *  4  int    board UDP port
+ *  8  int    board line count
+ * 12  ...    reserved up to 32
+ * </pre>
+ * 
+ * Each entry is:
+ * 
+ * <pre>
+ *  0  long   sequence number, odd while the entry is being written
+ *  8  long   writer's System.nanoTime() when the read requests were sent
+ * 16  long   writer's System.nanoTime() when the last response arrived
+ * 24  long   System.currentTimeMillis() of the update
+ * 32  longs  packed port image, see PortImage
+ * </pre>
+ * 
+ * Entries are guarded by a sequence lock as in {@link LatestValueTable}: a
+ * reader copies an entry and retries if its sequence number was odd or changed
+ * meanwhile. The sequence number divided by two is the number of updates.
+ * There must be one writing process per segment.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see SharedStateReader
+ */
+public class SharedStateWriter {
+
+	static final int MAGIC = 0x45494F53;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int DIRECTORY_RECORD_SIZE = 32;
+	static final int ALIGNMENT = 64;
+
+	// Header fields.
+	static final int BOARD_COUNT = 8;
+	static final int WORDS = 12;
+	static final int ENTRY_SIZE = 16;
+	static final int FIRST_ENTRY = 20;
+	static final int CREATED_MILLIS = 24;
+	static final int HEARTBEAT_MILLIS = 32;
+
+	// Entry fields.
+	static final int SEQUENCE = 0;
+	static final int SEND_NANOS = 8;
+	static final int RECEIVE_NANOS = 16;
+	static final int UPDATE_MILLIS = 24;
+	static final int IMAGE = 32;
+
+	static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int boardCount;
+	private final int words;
+	private final int entrySize;
+	private final int firstEntry;
+
+	/**
+	 * Creates, or replaces, a segment for the given boards. The entry index of a
+	 * board is its position in the list.
+	 * 
+	 * @param segmentFile
+	 *            The segment file, normally in <code>/dev/shm</code>.
+	 * @param boards
+	 *            The boards to publish.
+	 * @throws IOException
+	 *             Thrown if the file could not be created or mapped.
+	 */
+	public SharedStateWriter(File segmentFile, List<? extends IO24Core> boards) throws IOException {
+
+		int maxLines = 0;
+		for (IO24Core board : boards) {
+			maxLines = Math.max(maxLines, board.getLineCount());
+		}
+		this.boardCount = boards.size();
+		this.words = PortImage.words(maxLines);
+		this.entrySize = align(IMAGE + this.words * 8);
+		this.firstEntry = align(HEADER_SIZE + this.boardCount * DIRECTORY_RECORD_SIZE);
+		int size = this.firstEntry + this.boardCount * this.entrySize;
+
+		this.file = new RandomAccessFile(segmentFile, "rw");
+		try {
+			this.file.setLength(0);
+			this.file.setLength(size);
+			this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		for (int i = 0; i < this.boardCount; i++) {
+			IO24Core board = boards.get(i);
+			int record = HEADER_SIZE + i * DIRECTORY_RECORD_SIZE;
+			byte[] address = board.getBoardIpAddress().getAddress();
+			for (int b = 0; b < 4; b++) {
+				this.buffer.put(record + b, address[address.length - 4 + b]);
+			}
+			this.buffer.putInt(record + 4, board.getBoardUdpPort());
+			this.buffer.putInt(record + 8, board.getLineCount());
+		}
+
+		this.buffer.putInt(4, VERSION);
+		this.buffer.putInt(BOARD_COUNT, this.boardCount);
+		this.buffer.putInt(WORDS, this.words);
+		this.buffer.putInt(ENTRY_SIZE, this.entrySize);
+		this.buffer.putInt(FIRST_ENTRY, this.firstEntry);
+		this.buffer.putLong(CREATED_MILLIS, System.currentTimeMillis());
+		this.heartbeat();
+		// The magic number is written last so readers never see a half made header.
+		VarHandle.releaseFence();
+		this.buffer.putInt(0, MAGIC);
+	}
+
+	/**
+	 * Publishes a new sample of a board.
+	 * 
+	 * @param board
+	 *            The entry index of the board.
+	 * @param sample
+	 *            The sample.
+	 */
+	public void update(int board, PortSample sample) {
+
+		if (board < 0 || board >= this.boardCount) {
+			throw new IllegalArgumentException("SharedStateWriter: Validation error: " + board
+					+ " is an invalid board index.");
+		}
+		int base = this.firstEntry + board * this.entrySize;
+		long sequence = (long) LONGS.get(this.buffer, base + SEQUENCE);
+		LONGS.setOpaque(this.buffer, base + SEQUENCE, sequence + 1);
+		VarHandle.storeStoreFence();
+
+		LONGS.setOpaque(this.buffer, base + SEND_NANOS, sample.getSendNanos());
+		LONGS.setOpaque(this.buffer, base + RECEIVE_NANOS, sample.getReceiveNanos());
+		LONGS.setOpaque(this.buffer, base + UPDATE_MILLIS, System.currentTimeMillis());
+		long[] image = sample.getImage();
+		int words = Math.min(this.words, image.length);
+		for (int word = 0; word < words; word++) {
+			LONGS.setOpaque(this.buffer, base + IMAGE + word * 8, image[word]);
+		}
+
+		LONGS.setRelease(this.buffer, base + SEQUENCE, sequence + 2);
+	}
+
+	/**
+	 * Records that the writer is alive. Readers compare the heartbeat with the
+	 * clock to tell a stopped writer from boards that do not change.
+	 */
+	public void heartbeat() {
+		LONGS.setRelease(this.buffer, HEARTBEAT_MILLIS, System.currentTimeMillis());
+	}
+
+	/**
+	 * @return The number of boards in the segment.
+	 */
+	public int getBoardCount() {
+		return this.boardCount;
+	}
+
+	/**
+	 * Closes the segment file. Readers keep their own mappings, and the segment
+	 * stays readable until the file is deleted.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file could not be closed.
+	 */
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+	/**
+	 * Returns the directory to place segments in: <code>/dev/shm</code> where it
+	 * exists, otherwise the temporary directory.
+	 * 
+	 * @return The directory.
+	 */
+	public static File getDefaultDirectory() {
+
+		File shm = new File("/dev/shm");
+		return shm.isDirectory() && shm.canWrite() ? shm : new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	static int align(int offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	/**
+	 * Returns the last four bytes of an address, as stored in the directory.
+	 */
+	static int addressKey(InetAddress address) {
+
+		byte[] bytes = address.getAddress();
+		int key = 0;
+		for (int b = bytes.length - 4; b < bytes.length; b++) {
+			key = key << 8 | bytes[b] & 0xff;
+		}
+		return key;
+	}
+}
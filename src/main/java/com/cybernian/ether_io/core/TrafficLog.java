@@ -0,0 +1,175 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a log written by <code>TrafficRecorder</code>. Records are read in order
+ * into the reader itself, so reading a log does not allocate per record other
+ * than for the board address.
+ * 
+ * @author Gerard L. Muir
+ */
+public class TrafficLog {
+
+	private final MappedByteBuffer buffer;
+	private final long startNanos;
+	private final long startMillis;
+	private final int end;
+	private int position = TrafficRecorder.HEADER_SIZE;
+
+	// Current record.
+	private long nanos;
+	private int direction;
+	private InetAddress address;
+	private int port;
+	private final byte[] data = new byte[65536];
+	private int length;
+
+	/**
+	 * Opens a traffic log.
+	 * 
+	 * @param logFile
+	 *            The log file.
+	 * @throws IOException
+	 *             Thrown if the file could not be read or is not a traffic log.
+	 */
+	public TrafficLog(File logFile) throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(logFile, "r");
+		try {
+			this.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		this.buffer.order(ByteOrder.BIG_ENDIAN);
+		if (this.buffer.capacity() < TrafficRecorder.HEADER_SIZE || this.buffer.getInt(0) != TrafficRecorder.MAGIC
+				|| this.buffer.getInt(4) != TrafficRecorder.VERSION) {
+			throw new IOException("TrafficLog: " + logFile + " is not a traffic log.");
+		}
+		this.startNanos = this.buffer.getLong(8);
+		this.startMillis = this.buffer.getLong(16);
+		this.end = this.buffer.getInt(24);
+	}
+
+	/**
+	 * Moves to the next record.
+	 * 
+	 * @return False if there are no more records.
+	 * @throws IOException
+	 *             Thrown if a record holds an invalid address.
+	 */
+	public boolean next() throws IOException {
+
+		if (this.position >= this.end) {
+			return false;
+		}
+
+		int offset = this.position;
+		this.nanos = this.buffer.getLong(offset);
+		this.direction = this.buffer.get(offset + 8);
+		byte[] addressBytes = new byte[this.buffer.get(offset + 9)];
+		offset += 10;
+		for (int i = 0; i < addressBytes.length; i++) {
+			addressBytes[i] = this.buffer.get(offset++);
+		}
+		this.address = InetAddress.getByAddress(addressBytes);
+		this.port = this.buffer.getShort(offset) & 0xffff;
+		this.length = this.buffer.getShort(offset + 2) & 0xffff;
+		offset += 4;
+		for (int i = 0; i < this.length; i++) {
+			this.data[i] = this.buffer.get(offset++);
+		}
+		this.position = offset;
+		return true;
+	}
+
+	/**
+	 * Returns to the first record.
+	 */
+	public void rewind() {
+		this.position = TrafficRecorder.HEADER_SIZE;
+	}
+
+	/**
+	 * @return The <code>System.nanoTime()</code> when the log was created.
+	 */
+	public long getStartNanos() {
+		return this.startNanos;
+	}
+
+	/**
+	 * @return The <code>System.currentTimeMillis()</code> when the log was
+	 *         created.
+	 */
+	public long getStartMillis() {
+		return this.startMillis;
+	}
+
+	/**
+	 * @return The time of the current record, from <code>System.nanoTime()</code>
+	 *         of the recording process.
+	 */
+	public long getNanos() {
+		return this.nanos;
+	}
+
+	/**
+	 * @return The direction of the current record, <code>TrafficRecorder.SENT</code>
+	 *         or <code>TrafficRecorder.RECEIVED</code>.
+	 */
+	public int getDirection() {
+		return this.direction;
+	}
+
+	/**
+	 * @return The board IP address of the current record.
+	 */
+	public InetAddress getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * @return The board UDP port of the current record.
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	/**
+	 * Returns the datagram data of the current record. The buffer is reused for
+	 * every record.
+	 * 
+	 * @return The datagram buffer.
+	 */
+	public byte[] getData() {
+		return this.data;
+	}
+
+	/**
+	 * @return The datagram length of the current record.
+	 */
+	public int getLength() {
+		return this.length;
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records every datagram sent to and received from the I/O boards into a
+ * memory mapped binary log. Recording costs one copy of the datagram into the
+ * mapped file. When the log is full further datagrams are counted as dropped.
+ * <p>
+ * Log layout, in big endian byte order:
+ * 
+ * <pre>
+ *  0  int   magic 0x45494F54 ("EIOT")
+ *  4  int   format version (1)
+ *  8  long  System.nanoTime() when the log was created
+ * 16  long  System.currentTimeMillis() when the log was created
+ * 24  int   end of the record data
+ * 32  ...   records
+ * </pre>
+ * 
+ * Each record is:
+ * 
+ * <pre>
+ *  long   System.nanoTime() of the datagram
+ *  byte   direction, 0 sent to the board, 1 received from the board
+ *  byte   address length, 4 or 16
+ *  bytes  board IP address
+ *  short  board UDP port
+ *  short  data length
+ *  bytes  datagram data
+ * </pre>
+ * 
+ * A recorder may be shared by several boards.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see IO24Core#setTrafficRecorder(TrafficRecorder)
+ * @see TrafficLog
+ */
+public class TrafficRecorder {
+
+	/**
+	 * Direction of a datagram sent to a board.
+	 */
+	public static final int SENT = 0;
+
+	/**
+	 * Direction of a datagram received from a board.
+	 */
+	public static final int RECEIVED = 1;
+
+	static final int MAGIC = 0x45494F54;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private int position = HEADER_SIZE; // Offset of the next record.
+	private long recordCount;
+	private long droppedCount;
+
+	/**
+	 * Creates a log file of the given size. An existing file is overwritten.
+	 * 
+	 * @param logFile
+	 *            The log file.
+	 * @param capacity
+	 *            The size of the log file in bytes.
+	 * @throws IOException
+	 *             Thrown if the file could not be created.
+	 */
+	public TrafficRecorder(File logFile, int capacity) throws IOException {
+
+		this.file = new RandomAccessFile(logFile, "rw");
+		try {
+			this.file.setLength(0);
+			this.file.setLength(capacity);
+			this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		this.buffer.order(ByteOrder.BIG_ENDIAN);
+		this.buffer.putInt(0, MAGIC);
+		this.buffer.putInt(4, VERSION);
+		this.buffer.putLong(8, System.nanoTime());
+		this.buffer.putLong(16, System.currentTimeMillis());
+		this.buffer.putInt(24, this.position);
+	}
+
+	/**
+	 * Appends one datagram to the log.
+	 * 
+	 * @param direction
+	 *            <code>SENT</code> or <code>RECEIVED</code>.
+	 * @param address
+	 *            The board IP address.
+	 * @param port
+	 *            The board UDP port.
+	 * @param data
+	 *            The datagram buffer.
+	 * @param length
+	 *            Number of datagram bytes, starting at the start of the buffer.
+	 */
+	public synchronized void record(int direction, InetAddress address, int port, byte[] data, int length) {
+
+		long nanos = System.nanoTime();
+		byte[] addressBytes = address.getAddress();
+		int size = 8 + 1 + 1 + addressBytes.length + 2 + 2 + length;
+
+		if (this.position + size > this.buffer.capacity()) {
+			this.droppedCount++;
+			return;
+		}
+
+		int offset = this.position;
+		this.buffer.putLong(offset, nanos);
+		this.buffer.put(offset + 8, (byte) direction);
+		this.buffer.put(offset + 9, (byte) addressBytes.length);
+		offset += 10;
+		for (int i = 0; i < addressBytes.length; i++) {
+			this.buffer.put(offset++, addressBytes[i]);
+		}
+		this.buffer.putShort(offset, (short) port);
+		this.buffer.putShort(offset + 2, (short) length);
+		offset += 4;
+		for (int i = 0; i < length; i++) {
+			this.buffer.put(offset++, data[i]);
+		}
+
+		this.position = offset;
+		this.buffer.putInt(24, offset);
+		this.recordCount++;
+	}
+
+	/**
+	 * @return The number of datagrams recorded.
+	 */
+	public synchronized long getRecordCount() {
+		return this.recordCount;
+	}
+
+	/**
+	 * @return The number of datagrams not recorded because the log was full.
+	 */
+	public synchronized long getDroppedCount() {
+		return this.droppedCount;
+	}
+
+	/**
+	 * Forces the log to disk and closes it.
+	 */
+	public synchronized void close() {
+
+		this.buffer.force();
+		try {
+			this.file.close();
+		} catch (IOException e) {
+			// Nothing more can be done with the file.
+		}
+	}
+}
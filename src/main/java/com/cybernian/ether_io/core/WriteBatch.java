@@ -0,0 +1,113 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of port register writes to be sent to a board and verified by reading
+ * the registers back. Only the last write to a given register and port is kept.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see IO24Core#writeVerified(WriteBatch)
+ */
+public class WriteBatch {
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * Adds a register write that is verified on all 8 bits.
+	 * 
+	 * @param register
+	 *            The register to write.
+	 * @param ioPort
+	 *            The port letter to write to.
+	 * @param value
+	 *            The register value to write. 0-255
+	 */
+	public void add(PortRegister register, char ioPort, int value) {
+
+		this.add(register, ioPort, value, 0xff);
+	}
+
+	/**
+	 * Adds a register write that is verified only on the bits set in the verify
+	 * mask. Use a mask for port value writes so that lines configured as inputs,
+	 * which read back their input state, are not compared.
+	 * 
+	 * @param register
+	 *            The register to write.
+	 * @param ioPort
+	 *            The port letter to write to.
+	 * @param value
+	 *            The register value to write. 0-255
+	 * @param verifyMask
+	 *            The bits of the register to compare on read back. 0-255
+	 */
+	public void add(PortRegister register, char ioPort, int value, int verifyMask) {
+
+		char port = Character.toLowerCase(ioPort);
+		for (int i = 0; i < this.entries.size(); i++) {
+			Entry entry = this.entries.get(i);
+			if (entry.register == register && entry.port == port) {
+				this.entries.set(i, new Entry(register, port, value & 0xff, verifyMask & 0xff));
+				return;
+			}
+		}
+		this.entries.add(new Entry(register, port, value & 0xff, verifyMask & 0xff));
+	}
+
+	/**
+	 * Returns the number of register writes in the batch.
+	 * 
+	 * @return Number of writes.
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Removes all writes from the batch.
+	 */
+	public void clear() {
+		this.entries.clear();
+	}
+
+	List<Entry> getEntries() {
+		return Collections.unmodifiableList(this.entries);
+	}
+
+	/**
+	 * A single register write.
+	 */
+	static class Entry {
+
+		final PortRegister register;
+		final char port; // Lower case port letter.
+		final int value;
+		final int verifyMask;
+
+		Entry(PortRegister register, char port, int value, int verifyMask) {
+			this.register = register;
+			this.port = port;
+			this.value = value;
+			this.verifyMask = verifyMask;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.core;
+
+/**
+ * The outcome of one verified register write.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see IO24Core#writeVerified(WriteBatch)
+ */
+public class WriteResult {
+
+	private final PortRegister register;
+	private final char port;
+	private final int value;
+	private final int readBack;
+	private final int attempts;
+	private final boolean verified;
+
+	WriteResult(PortRegister register, char port, int value, int readBack, int attempts, boolean verified) {
+		this.register = register;
+		this.port = port;
+		this.value = value;
+		this.readBack = readBack;
+		this.attempts = attempts;
+		this.verified = verified;
+	}
+
+	/**
+	 * @return The register that was written.
+	 */
+	public PortRegister getRegister() {
+		return register;
+	}
+
+	/**
+	 * @return The lower case port letter that was written.
+	 */
+	public char getPort() {
+		return port;
+	}
+
+	/**
+	 * @return The value that was written. 0-255
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * @return The last value read back from the register, or -1 if the board never
+	 *         answered the read back.
+	 */
+	public int getReadBack() {
+		return readBack;
+	}
+
+	/**
+	 * @return The number of times the write was sent.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * @return True if the read back matched the written value.
+	 */
+	public boolean isVerified() {
+		return verified;
+	}
+
+	@Override
+	public String toString() {
+		return register + " " + port + " " + value + (verified ? " verified" : " failed (" + readBack + ")")
+				+ " after " + attempts + " attempt(s)";
+	}
+}
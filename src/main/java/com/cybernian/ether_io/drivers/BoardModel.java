@@ -0,0 +1,113 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.drivers;
+
+import java.io.IOException;
+
+import com.cybernian.ether_io.core.IO24Core;
+
+/**
+ * The Ether IO board models supported by the drivers, each naming the driver
+ * class that speaks to it.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see DriverFactory
+ */
+public enum BoardModel {
+
+	/**
+	 * Ether IO24 board, 3 ports.
+	 */
+	IO24,
+
+	/**
+	 * Ether IO24R board, 3 ports with SPI on port A.
+	 */
+	IO24R,
+
+	/**
+	 * Ether IO24 TPC board, 3 ports.
+	 */
+	IO24TPC,
+
+	/**
+	 * Ether IO72 TPC board, 9 ports.
+	 */
+	IO72TPC;
+
+	/**
+	 * @return True if the model uses the TPC command set.
+	 */
+	public boolean isTpc() {
+		return this == IO24TPC || this == IO72TPC;
+	}
+
+	/**
+	 * @return The number of I/O ports on the model.
+	 */
+	public int getPortCount() {
+		return this == IO72TPC ? 9 : 3;
+	}
+
+	/**
+	 * Creates the driver for this model.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the UPD Socket connection.
+	 * @return The driver, connected to the board.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public IO24Core open(String ipAddress, int udpPort, int datagramSocketTimeout) throws IOException {
+
+		switch (this) {
+		case IO24R:
+			return new com.cybernian.ether_io.drivers.IO24R(ipAddress, udpPort, datagramSocketTimeout);
+		case IO24TPC:
+			return new com.cybernian.ether_io.drivers.IO24TPC(ipAddress, udpPort, datagramSocketTimeout);
+		case IO72TPC:
+			return new com.cybernian.ether_io.drivers.IO72TPC(ipAddress, udpPort, datagramSocketTimeout);
+		default:
+			return new com.cybernian.ether_io.drivers.IO24(ipAddress, udpPort, datagramSocketTimeout);
+		}
+	}
+
+	/**
+	 * Returns the model of an open driver.
+	 * 
+	 * @param board
+	 *            The driver.
+	 * @return The model the driver speaks to.
+	 */
+	public static BoardModel of(IO24Core board) {
+
+		if (board instanceof com.cybernian.ether_io.drivers.IO72TPC) {
+			return IO72TPC;
+		}
+		if (board instanceof com.cybernian.ether_io.drivers.IO24TPC) {
+			return IO24TPC;
+		}
+		if (board instanceof com.cybernian.ether_io.drivers.IO24R) {
+			return IO24R;
+		}
+		return IO24;
+	}
+}
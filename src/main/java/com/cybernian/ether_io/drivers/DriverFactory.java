@@ -0,0 +1,497 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.drivers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybernian.ether_io.core.IO24Core;
+
+/**
+ * Creates the right driver for a board without being told its model. The
+ * model is looked up by MAC address in a cache that is kept in a properties
+ * file across restarts; boards not in the cache are probed once.
+ * <p>
+ * The probe sends three requests together: a port A read, which every model
+ * answers, a TPC pull up register read of port A, answered only by the TPC
+ * models, and a port D read, answered only by the IO72TPC. Answers that do not
+ * arrive are asked for once more before they are taken as absent, so a lost
+ * datagram does not record the wrong model. The IO24 and IO24R can not be told
+ * apart on the wire and are probed as IO24; record IO24R boards with
+ * <code>setModel</code>.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see BoardModel
+ */
+public class DriverFactory {
+
+	private static final int ETHER_IO_UDP_PORT = 2424; // Default board UDP port.
+	private static final int PROBE_ROUNDS = 2; // Attempts before an answer is taken as absent.
+
+	private final File cacheFile; // Model cache, null if not kept across restarts.
+	private final int udpPort; // UDP port of boards found by identify.
+	private final int datagramSocketTimeout; // Time out of the drivers and of each probe round.
+	private final Properties models = new Properties(); // Model and firmware by MAC address.
+	private final AtomicLong probeCount = new AtomicLong();
+	private final AtomicLong cacheHitCount = new AtomicLong();
+
+	/**
+	 * Creates a factory for boards on the default UDP port.
+	 * 
+	 * @param cacheFile
+	 *            The model cache file, created when first saved, or null to keep
+	 *            the cache in memory only.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the drivers and by each probe round.
+	 * @throws IOException
+	 *             Thrown if the cache file exists but could not be read.
+	 */
+	public DriverFactory(File cacheFile, int datagramSocketTimeout) throws IOException {
+		this(cacheFile, ETHER_IO_UDP_PORT, datagramSocketTimeout);
+	}
+
+	/**
+	 * Creates a factory.
+	 * 
+	 * @param cacheFile
+	 *            The model cache file, created when first saved, or null to keep
+	 *            the cache in memory only.
+	 * @param udpPort
+	 *            The UDP port of boards found by <code>identify</code>.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the drivers and by each probe round.
+	 * @throws IOException
+	 *             Thrown if the cache file exists but could not be read.
+	 */
+	public DriverFactory(File cacheFile, int udpPort, int datagramSocketTimeout) throws IOException {
+
+		this.cacheFile = cacheFile;
+		this.udpPort = udpPort;
+		this.datagramSocketTimeout = datagramSocketTimeout;
+		if (cacheFile != null && cacheFile.exists()) {
+			InputStream in = new FileInputStream(cacheFile);
+			try {
+				this.models.load(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Opens the board at the given address on the factory's UDP port.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @return The driver for the board's model.
+	 * @throws IOException
+	 *             Thrown if the board did not answer.
+	 */
+	public IO24Core open(String ipAddress) throws IOException {
+		return this.open(ipAddress, this.udpPort);
+	}
+
+	/**
+	 * Opens the board at the given address. The board is asked for its MAC
+	 * address to look up its model; a board that does not answer the identify
+	 * request is probed and its model is not cached.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @return The driver for the board's model.
+	 * @throws IOException
+	 *             Thrown if the board did not answer.
+	 */
+	public IO24Core open(String ipAddress, int udpPort) throws IOException {
+
+		byte[] reply = identify(ipAddress, udpPort, this.datagramSocketTimeout);
+		BoardModel model = reply == null ? this.probe(ipAddress, udpPort) : this.model(ipAddress, udpPort, reply);
+		return model.open(ipAddress, udpPort, this.datagramSocketTimeout);
+	}
+
+	/**
+	 * Opens a board found by <code>IO24Core.identify</code>.
+	 * 
+	 * @param identifyReply
+	 *            The board's entry in the identify list.
+	 * @return The driver for the board's model.
+	 * @throws IOException
+	 *             Thrown if the board did not answer.
+	 */
+	public IO24Core open(byte[] identifyReply) throws IOException {
+
+		String ipAddress = ipAddress(identifyReply);
+		return this.model(ipAddress, this.udpPort, identifyReply).open(ipAddress, this.udpPort,
+				this.datagramSocketTimeout);
+	}
+
+	/**
+	 * Opens the boards at the given addresses in parallel and saves the model
+	 * cache.
+	 * 
+	 * @param addresses
+	 *            The board addresses and UDP ports.
+	 * @param threads
+	 *            The number of boards opened at once.
+	 * @return The drivers, in the order of the addresses, with null for each
+	 *         board that could not be opened.
+	 * @throws IOException
+	 *             Thrown if the model cache could not be saved.
+	 */
+	public List<IO24Core> openAll(List<InetSocketAddress> addresses, int threads) throws IOException {
+
+		List<Callable<IO24Core>> tasks = new ArrayList<Callable<IO24Core>>();
+		for (final InetSocketAddress address : addresses) {
+			tasks.add(new Callable<IO24Core>() {
+				@Override
+				public IO24Core call() throws IOException {
+					return DriverFactory.this.open(address.getHostString(), address.getPort());
+				}
+			});
+		}
+		return this.openTasks(tasks, threads);
+	}
+
+	/**
+	 * Broadcasts an identify request, opens every board that answers in
+	 * parallel and saves the model cache.
+	 * 
+	 * @param threads
+	 *            The number of boards opened at once.
+	 * @return The drivers, in the order the boards answered, with null for each
+	 *         board that could not be opened.
+	 * @throws IOException
+	 *             Thrown if the identify request failed or the model cache could
+	 *             not be saved.
+	 */
+	public List<IO24Core> openDiscovered(int threads) throws IOException {
+
+		List<Callable<IO24Core>> tasks = new ArrayList<Callable<IO24Core>>();
+		for (final byte[] reply : IO24Core.identify()) {
+			tasks.add(new Callable<IO24Core>() {
+				@Override
+				public IO24Core call() throws IOException {
+					return DriverFactory.this.open(reply);
+				}
+			});
+		}
+		return this.openTasks(tasks, threads);
+	}
+
+	private List<IO24Core> openTasks(List<Callable<IO24Core>> tasks, int threads) throws IOException {
+
+		List<IO24Core> boards = new ArrayList<IO24Core>();
+		if (tasks.isEmpty()) {
+			return boards;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			for (Future<IO24Core> future : executor.invokeAll(tasks)) {
+				try {
+					boards.add(future.get());
+				} catch (ExecutionException e) {
+					boards.add(null);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("DriverFactory: Error: Interrupted while opening boards.");
+		} finally {
+			executor.shutdownNow();
+		}
+		this.save();
+		return boards;
+	}
+
+	/**
+	 * Returns the model of a board, from the cache if its MAC address and
+	 * firmware version are known, otherwise by probing it.
+	 */
+	private BoardModel model(String ipAddress, int udpPort, byte[] identifyReply) throws IOException {
+
+		String mac = macAddress(identifyReply);
+		String firmware = String.format("%04x", firmwareVersion(identifyReply));
+		String entry = this.models.getProperty(mac);
+		if (entry != null) {
+			String[] parts = entry.split(",");
+			// A firmware change may change the command set, so probe again.
+			if (parts.length < 2 || parts[1].trim().equals(firmware)) {
+				try {
+					BoardModel model = BoardModel.valueOf(parts[0].trim());
+					this.cacheHitCount.incrementAndGet();
+					return model;
+				} catch (IllegalArgumentException e) {
+					// Unknown model name; probe again.
+				}
+			}
+		}
+		BoardModel model = this.probe(ipAddress, udpPort);
+		this.models.setProperty(mac, model.name() + "," + firmware);
+		return model;
+	}
+
+	/**
+	 * Determines the model of a board from the requests it answers.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @return The board's model.
+	 * @throws IOException
+	 *             Thrown if the board did not answer a port read.
+	 */
+	public BoardModel probe(String ipAddress, int udpPort) throws IOException {
+
+		this.probeCount.incrementAndGet();
+		InetAddress address = InetAddress.getByName(ipAddress);
+		byte[][] requests = { { (byte) 'a' }, { (byte) '%', (byte) 'a' }, { (byte) 'd' } };
+		boolean[] answered = new boolean[requests.length];
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			byte[] buffer = new byte[64];
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			for (int round = 0; round < PROBE_ROUNDS && !(answered[0] && answered[1] && answered[2]); round++) {
+				for (int i = 0; i < requests.length; i++) {
+					if (!answered[i]) {
+						socket.send(new DatagramPacket(requests[i], requests[i].length, address, udpPort));
+					}
+				}
+				long deadline = System.nanoTime() + this.datagramSocketTimeout * 1000000L;
+				while (!(answered[0] && answered[1] && answered[2])) {
+					long remaining = (deadline - System.nanoTime()) / 1000000L;
+					if (remaining <= 0) {
+						break;
+					}
+					socket.setSoTimeout((int) remaining);
+					packet.setLength(buffer.length);
+					try {
+						socket.receive(packet);
+					} catch (SocketTimeoutException e) {
+						break;
+					}
+					if (!address.equals(packet.getAddress()) || packet.getPort() != udpPort) {
+						continue;
+					}
+					int length = packet.getLength();
+					if (length == 2 && buffer[0] == 'A') {
+						answered[0] = true;
+					} else if (length == 3 && buffer[0] == '%' && buffer[1] == 'A') {
+						answered[1] = true;
+					} else if (length == 2 && buffer[0] == 'D') {
+						answered[2] = true;
+					}
+				}
+			}
+		} finally {
+			socket.close();
+		}
+
+		if (!answered[0]) {
+			throw new IOException("DriverFactory: Error: No response from " + ipAddress + ":" + udpPort + ".");
+		}
+		if (!answered[1]) {
+			return BoardModel.IO24;
+		}
+		return answered[2] ? BoardModel.IO72TPC : BoardModel.IO24TPC;
+	}
+
+	/**
+	 * Sends an identify request to a single board.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @param timeout
+	 *            The time to wait for the reply, in milliseconds.
+	 * @return The reply, laid out as the entries of
+	 *         <code>IO24Core.identify</code>, or null if the board did not
+	 *         answer.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public static byte[] identify(String ipAddress, int udpPort, int timeout) throws IOException {
+
+		InetAddress address = InetAddress.getByName(ipAddress);
+		byte[] data = new byte[] { (byte) 'I', (byte) 'O', (byte) '2', (byte) '4' };
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			socket.setSoTimeout(timeout);
+			byte[] reply = new byte[16];
+			DatagramPacket packet = new DatagramPacket(reply, reply.length);
+			for (int attempt = 0; attempt < PROBE_ROUNDS; attempt++) {
+				socket.send(new DatagramPacket(data, data.length, address, udpPort));
+				try {
+					do {
+						packet.setLength(reply.length);
+						socket.receive(packet);
+					} while (!address.equals(packet.getAddress()) || packet.getLength() < 12 || reply[0] != 'I');
+				} catch (SocketTimeoutException e) {
+					continue;
+				}
+				byte[] ip = address.getAddress();
+				System.arraycopy(ip, 0, reply, reply.length - ip.length, ip.length);
+				return Arrays.copyOf(reply, reply.length);
+			}
+			return null;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Returns the model recorded for a MAC address.
+	 * 
+	 * @param macAddress
+	 *            The MAC address, as returned by <code>macAddress</code>.
+	 * @return The model, or null if none is recorded.
+	 */
+	public BoardModel getModel(String macAddress) {
+
+		String entry = this.models.getProperty(macAddress.toLowerCase());
+		try {
+			return entry == null ? null : BoardModel.valueOf(entry.split(",")[0].trim());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Records the model of a board, for any firmware version. Use this for
+	 * models the probe can not tell apart, such as the IO24R.
+	 * 
+	 * @param macAddress
+	 *            The MAC address, as returned by <code>macAddress</code>.
+	 * @param model
+	 *            The board's model.
+	 */
+	public void setModel(String macAddress, BoardModel model) {
+		this.models.setProperty(macAddress.toLowerCase(), model.name());
+	}
+
+	/**
+	 * Removes the model recorded for a MAC address, so the board is probed when
+	 * next opened.
+	 * 
+	 * @param macAddress
+	 *            The MAC address, as returned by <code>macAddress</code>.
+	 */
+	public void forget(String macAddress) {
+		this.models.remove(macAddress.toLowerCase());
+	}
+
+	/**
+	 * Writes the model cache file. The file is replaced in one step, so a
+	 * reader never sees a partly written cache.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file could not be written.
+	 */
+	public synchronized void save() throws IOException {
+
+		if (this.cacheFile == null) {
+			return;
+		}
+		File parent = this.cacheFile.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(this.cacheFile.getName(), ".tmp", parent);
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			this.models.store(out, "Ether IO board models by MAC address: model,firmware version");
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(this.cacheFile)) {
+			this.cacheFile.delete();
+			if (!temp.renameTo(this.cacheFile)) {
+				temp.delete();
+				throw new IOException("DriverFactory: Error: Could not write " + this.cacheFile + ".");
+			}
+		}
+	}
+
+	/**
+	 * @return The number of boards probed.
+	 */
+	public long getProbeCount() {
+		return this.probeCount.get();
+	}
+
+	/**
+	 * @return The number of boards whose model was found in the cache.
+	 */
+	public long getCacheHitCount() {
+		return this.cacheHitCount.get();
+	}
+
+	/**
+	 * Returns the MAC address of an identify reply.
+	 * 
+	 * @param identifyReply
+	 *            An entry of the identify list.
+	 * @return The MAC address, as lower case hex pairs separated by colons.
+	 */
+	public static String macAddress(byte[] identifyReply) {
+
+		StringBuilder mac = new StringBuilder();
+		for (int i = 4; i < 10; i++) {
+			if (i > 4) {
+				mac.append(':');
+			}
+			mac.append(String.format("%02x", identifyReply[i] & 0xff));
+		}
+		return mac.toString();
+	}
+
+	/**
+	 * Returns the firmware version of an identify reply.
+	 * 
+	 * @param identifyReply
+	 *            An entry of the identify list.
+	 * @return The two firmware version bytes, most significant first.
+	 */
+	public static int firmwareVersion(byte[] identifyReply) {
+		return (identifyReply[10] & 0xff) << 8 | identifyReply[11] & 0xff;
+	}
+
+	private static String ipAddress(byte[] identifyReply) throws IOException {
+
+		int n = identifyReply.length;
+		return InetAddress.getByAddress(Arrays.copyOfRange(identifyReply, n - 4, n)).getHostAddress();
+	}
+}
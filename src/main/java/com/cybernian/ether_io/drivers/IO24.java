@@ -57,6 +57,26 @@ public class IO24 extends IO24Common {
 		super(ipAddress, datagramSocketTimeout);
 	}
 
+	/**
+	 * Creates a Datagram Socket, with the specified timeout, to communicate with
+	 * the I/O board at the given IP address and UDP port.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the UPD Socket connection.
+	 * 
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * 
+	 * @see <code>DatagramSocket</code>
+	 */
+	public IO24(String ipAddress, int udpPort, int datagramSocketTimeout) throws IOException {
+		super(ipAddress, udpPort, datagramSocketTimeout);
+	}
+
 	/**
 	 * Returns the byte that was echoed by the I/O board.
 	 * 
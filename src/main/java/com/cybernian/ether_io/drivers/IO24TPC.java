@@ -16,8 +16,15 @@
 package com.cybernian.ether_io.drivers;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.cybernian.ether_io.core.CommandPriority;
 import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.PortRegister;
+import com.cybernian.ether_io.core.WriteBatch;
+import com.cybernian.ether_io.core.WriteResult;
 
 /**
  * Provides data communication with the Ether IO24TPC digital I/O Ethernet board.
@@ -26,6 +33,15 @@ import com.cybernian.ether_io.core.IO24Core;
  */
 public class IO24TPC extends IO24Core {
 
+	private static final int UNKNOWN = -1;
+	private static final int MAX_PORTS = 9; // Ports a-i, the most of any TPC board.
+
+	// Last value written to each output latch, or UNKNOWN.
+	private final AtomicIntegerArray latchShadow = newShadow(MAX_PORTS);
+
+	private final AtomicLong lineWritePackets = new AtomicLong();
+	private final AtomicLong lineWritePacketsSaved = new AtomicLong();
+
 	/**
 	 * Creates a Datagram Socket to communicate with the I/O board at the given IP
 	 * address.
@@ -59,6 +75,39 @@ public class IO24TPC extends IO24Core {
 		super(ipAddress, datagramSocketTimeout);
 	}
 
+	/**
+	 * Creates a Datagram Socket, with the specified timeout, to communicate with
+	 * the I/O board at the given IP address and UDP port.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the UPD Socket connection.
+	 * 
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * 
+	 * @see <code>DatagramSocket</code>
+	 */
+	public IO24TPC(String ipAddress, int udpPort, int datagramSocketTimeout) throws IOException {
+		super(ipAddress, udpPort, datagramSocketTimeout);
+	}
+
+	
+	/* (non-Javadoc)
+	 * @see com.cybernian.ether_io.core.IO24Core#getRegisterCommand(com.cybernian.ether_io.core.PortRegister)
+	 */
+	@Override
+	protected char getRegisterCommand(PortRegister register) {
+		
+		// The TPC boards use '%' for the pull up register.
+		if (register == PortRegister.PULL_UP) {
+			return '%';
+		}
+		return super.getRegisterCommand(register);
+	}
 	
 	/* (non-Javadoc)
 	 * @see com.cbt.io24.IO24Core#readPortPullUp(char)
@@ -106,9 +155,27 @@ public class IO24TPC extends IO24Core {
 	 */
 	public void raiseIO_Pin (int pinNumber) throws IOException {
 		
+		this.raiseIO_Pin(pinNumber, CommandPriority.CONTROL);
+	}
+	
+	/**
+	 * Raises the Pin Value on the specified IO Pin with the given priority. The
+	 * corresponding IO Pin must be set to Output for this command to have effect.
+	 * 
+	 * @param pinNumber
+	 *            0-23 
+	 *            Port A Pins correspond to 0 ‐ 7 
+	 *            Port B Pins correspond to 8 ‐15 
+	 *            Port C Pins correspond to 16 ‐ 23.
+	 * @param priority
+	 *            The priority class of the write.
+	 * @throws IOException I/O exception of some sort has occurred.
+	 */
+	public void raiseIO_Pin (int pinNumber, CommandPriority priority) throws IOException {
+		
 		byte[] data = new byte[] { (byte) (int) 'H', (byte) pinNumber };
 
-		this.send(data);
+		this.send(data, priority);
 	}
 	
 	/**
@@ -124,9 +191,258 @@ public class IO24TPC extends IO24Core {
 	 */
 	public void lowerIO_Pin (int pinNumber) throws IOException{
 		
+		this.lowerIO_Pin(pinNumber, CommandPriority.CONTROL);
+	}
+	
+	/**
+	 * Lowers the Pin Value on the specified IO Pin with the given priority. The
+	 * corresponding IO Pin must be set to Output for this command to have effect.
+	 * 
+	 * @param pinNumber
+	 *            0-23 
+	 *            Port A Pins correspond to 0 ‐ 7 
+	 *            Port B Pins correspond to 8 ‐15 
+	 *            Port C Pins correspond to 16 ‐ 23.
+	 * @param priority
+	 *            The priority class of the write.
+	 * @throws IOException I/O exception of some sort has occurred.
+	 */
+	public void lowerIO_Pin (int pinNumber, CommandPriority priority) throws IOException{
+		
 		byte[] data = new byte[] { (byte) (int) 'L', (byte) pinNumber };
 
-		this.send(data);
+		this.send(data, priority);
+	}
+
+	/**
+	 * Writes the masked lines of a port with the fewest datagrams. The choice is
+	 * made from the shadow of the port's output latch, the last value this
+	 * driver wrote to it:
+	 * <ul>
+	 * <li>A single changed line is written with a pin command.</li>
+	 * <li>Several changed lines are written with one port write when the shadow
+	 * is known or every line of the port is given.</li>
+	 * <li>When the shadow shows no line changing, the requested lines are written
+	 * again with one command anyway. Writes are not acknowledged, so repeating
+	 * them is what recovers from a lost datagram, a board reboot or another
+	 * client's write.</li>
+	 * <li>Otherwise one or two lines are written with pin commands, and more
+	 * with a read of the port followed by one port write.</li>
+	 * </ul>
+	 * Pin commands leave the other lines of the port alone, so they are preferred
+	 * whenever they cost no more. The decision and the writes are issued as one
+	 * scheduled operation.
+	 * 
+	 * @param ioPort
+	 *            The port letter.
+	 * @param mask
+	 *            Bit set for every line to write. 0-255
+	 * @param value
+	 *            The desired line values; bits outside the mask are ignored.
+	 * @param priority
+	 *            The priority class of the writes.
+	 * @throws IllegalArgumentException
+	 *             Thrown if an invalid port letter is specified.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void writeLines(char ioPort, int mask, int value, CommandPriority priority)
+			throws IllegalArgumentException, IOException {
+
+		this.isPortLetterValid(ioPort);
+		mask &= 0xff;
+		value &= mask;
+		if (mask == 0) {
+			return;
+		}
+		int port = Character.toLowerCase(ioPort) - 'a';
+		int requested = Integer.bitCount(mask); // One pin command per line without a shadow.
+		int packets;
+
+		this.getCommandScheduler().acquire(priority);
+		try {
+			int shadow = this.latchShadow.get(port);
+			if (shadow != UNKNOWN) {
+				int changed = (shadow ^ value) & mask;
+				int lines = changed != 0 ? changed : mask; // Always send at least one command.
+				if (Integer.bitCount(lines) == 1) {
+					this.writePin(port, Integer.numberOfTrailingZeros(lines), value, priority);
+				} else {
+					this.writePortValue(ioPort, (shadow & ~mask) | value, priority);
+				}
+				packets = 1;
+			} else if (mask == 0xff) {
+				this.writePortValue(ioPort, value, priority);
+				packets = 1;
+			} else if (requested <= 2) {
+				for (int line = 0; line < 8; line++) {
+					if ((mask & (1 << line)) != 0) {
+						this.writePin(port, line, value, priority);
+					}
+				}
+				packets = requested;
+			} else {
+				byte[] returnData = this.readData(new byte[] { (byte) (int) Character.toLowerCase(ioPort) }, 2,
+						priority);
+				this.writePortValue(ioPort, (returnData[1] & 0xff & ~mask) | value, priority);
+				packets = 2;
+			}
+		} finally {
+			this.getCommandScheduler().release();
+		}
+
+		this.lineWritePackets.addAndGet(packets);
+		this.lineWritePacketsSaved.addAndGet(requested - packets);
 	}
 
+	/**
+	 * Writes an individual I/O line with the given priority. A TPC board writes
+	 * the line with a single pin command. The line number is that of a line of
+	 * the port, 0-7.
+	 * 
+	 * @see #writeLines(char, int, int, CommandPriority)
+	 */
+	@Override
+	public void writeIoLine(char ioPort, int ioLine, int value, CommandPriority priority)
+			throws IllegalArgumentException, IOException {
+
+		if (value < 0 || value > 1) {
+			throw new IllegalArgumentException("IO24Core: " + String.valueOf(value) + " is an invalid io line state.");
+		}
+		if (ioLine < 0 || ioLine > 7) {
+			throw new IllegalArgumentException(
+					"IO24TPC: Validation error: \"" + ioLine + "\" is not a valid line number of a port.");
+		}
+
+		this.writeLines(ioPort, 1 << ioLine, value << ioLine, priority);
+	}
+
+	/**
+	 * @return The number of datagrams sent by line writes.
+	 */
+	public long getLineWritePackets() {
+		return this.lineWritePackets.get();
+	}
+
+	/**
+	 * @return The number of datagrams line writes saved compared to one pin
+	 *         command for every requested line.
+	 */
+	public long getLineWritePacketsSaved() {
+		return this.lineWritePacketsSaved.get();
+	}
+
+	/**
+	 * Returns the shadow of a port's output latch.
+	 * 
+	 * @param ioPort
+	 *            The port letter.
+	 * @return The last value this driver wrote to the port, or -1 if not known.
+	 */
+	public int getLatchShadow(char ioPort) {
+
+		this.isPortLetterValid(ioPort);
+		return this.latchShadow.get(Character.toLowerCase(ioPort) - 'a');
+	}
+
+	/**
+	 * Forgets the shadow of every output latch, for example after another
+	 * client may have written the board.
+	 */
+	public void invalidateLatchShadow() {
+
+		for (int port = 0; port < this.latchShadow.length(); port++) {
+			this.latchShadow.set(port, UNKNOWN);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.cybernian.ether_io.core.IO24Core#send(byte[],
+	 * com.cybernian.ether_io.core.CommandPriority)
+	 */
+	@Override
+	public void send(byte[] data, CommandPriority priority) throws IOException {
+
+		// Update the shadow while holding the board, so it follows the order in
+		// which writes reach the board.
+		this.getCommandScheduler().acquire(priority);
+		try {
+			super.send(data, priority);
+			this.shadowWrite(data);
+		} finally {
+			this.getCommandScheduler().release();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.cybernian.ether_io.core.IO24Core#hasPinCommands()
+	 */
+	@Override
+	protected boolean hasPinCommands() {
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.cybernian.ether_io.core.IO24Core#writeVerified(com.cybernian.ether_io.
+	 * core.WriteBatch)
+	 */
+	@Override
+	public List<WriteResult> writeVerified(WriteBatch batch) throws IOException, IllegalArgumentException {
+
+		// Verified writes bypass send(), so the shadow can no longer be trusted.
+		this.invalidateLatchShadow();
+		return super.writeVerified(batch);
+	}
+
+	private void writePin(int port, int line, int value, CommandPriority priority) throws IOException {
+
+		int pinNumber = port * 8 + line;
+		if ((value & (1 << line)) != 0) {
+			this.raiseIO_Pin(pinNumber, priority);
+		} else {
+			this.lowerIO_Pin(pinNumber, priority);
+		}
+	}
+
+	/**
+	 * Updates the latch shadow from a sent packet. On TPC boards a two byte 'H'
+	 * or 'L' packet is a pin command.
+	 */
+	private void shadowWrite(byte[] data) {
+
+		int command = data.length > 0 ? data[0] & 0xff : 0;
+
+		if (data.length == 2 && (command == 'H' || command == 'L')) {
+			int pinNumber = data[1] & 0xff;
+			int port = pinNumber >>> 3;
+			if (port < this.latchShadow.length()) {
+				int bit = 1 << (pinNumber & 7);
+				int shadow;
+				do {
+					shadow = this.latchShadow.get(port);
+				} while (shadow != UNKNOWN && !this.latchShadow.compareAndSet(port, shadow,
+						command == 'H' ? shadow | bit : shadow & ~bit));
+			}
+		} else if (data.length == 2 && command >= 'A' && command - 'A' < this.latchShadow.length()) {
+			this.latchShadow.set(command - 'A', data[1] & 0xff);
+		} else if (command == '\'' && data.length > 1 && data[1] == (byte) (int) '@') {
+			this.invalidateLatchShadow();
+		}
+	}
+
+	private static AtomicIntegerArray newShadow(int portCount) {
+
+		AtomicIntegerArray shadow = new AtomicIntegerArray(portCount);
+		for (int port = 0; port < portCount; port++) {
+			shadow.set(port, UNKNOWN);
+		}
+		return shadow;
+	}
 }
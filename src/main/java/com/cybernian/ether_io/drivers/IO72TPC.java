@@ -55,6 +55,36 @@ public class IO72TPC extends IO24TPC {
 		super(ipAddress, datagramSocketTimeout);
 	}
 
+	/**
+	 * Creates a Datagram Socket, with the specified timeout, to communicate with
+	 * the I/O board at the given IP address and UDP port.
+	 * 
+	 * @param ipAddress
+	 *            IP address of the I/O board.
+	 * @param udpPort
+	 *            UDP port of the I/O board.
+	 * @param datagramSocketTimeout
+	 *            The time out to be used by the UPD Socket connection.
+	 * 
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * 
+	 * @see <code>DatagramSocket</code>
+	 */
+	public IO72TPC(String ipAddress, int udpPort, int datagramSocketTimeout) throws IOException {
+		super(ipAddress, udpPort, datagramSocketTimeout);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.cybernian.ether_io.core.IO24Core#getPortCount()
+	 */
+	@Override
+	public int getPortCount() {
+		return 9;
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -0,0 +1,143 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.scan.ScanGroup;
+import com.cybernian.ether_io.scan.ScanListener;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Delivers port change events to listeners without letting a slow listener
+ * hold up the thread that samples the boards. Every listener has its own
+ * bounded queue with an {@link OverflowPolicy}, drained by tasks on an
+ * executor. Publishing only queues the event, unless a listener chose
+ * <code>OverflowPolicy.BLOCK</code> and its queue is full.
+ * <p>
+ * The dispatcher is also a {@link ScanListener}: registered with a
+ * <code>ScanScheduler</code> it compares each sample with the previous sample
+ * of the same group and publishes an event for every port that changed.
+ * 
+ * @author Gerard L. Muir
+ */
+public class EventDispatcher implements ScanListener {
+
+	private final Executor executor;
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final Map<ScanGroup, long[]> previousImages = new ConcurrentHashMap<ScanGroup, long[]>();
+
+	/**
+	 * Creates a dispatcher.
+	 * 
+	 * @param executor
+	 *            Runs the dispatch tasks. A listener only ever occupies one
+	 *            thread at a time.
+	 */
+	public EventDispatcher(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Registers a listener.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @param capacity
+	 *            The most events queued for the listener. Not used for
+	 *            <code>CONFLATE</code>, which queues one event per port.
+	 * @param policy
+	 *            What to do when the queue is full.
+	 * @return The subscription, which carries the listener's statistics.
+	 */
+	public Subscription subscribe(PortChangeListener listener, int capacity, OverflowPolicy policy) {
+
+		Subscription subscription = new Subscription(listener, capacity, policy, this.executor);
+		this.subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Cancels a subscription and removes it from the dispatcher.
+	 * 
+	 * @param subscription
+	 *            The subscription.
+	 */
+	public void unsubscribe(Subscription subscription) {
+
+		subscription.cancel();
+		this.subscriptions.remove(subscription);
+	}
+
+	/**
+	 * @return The current subscriptions.
+	 */
+	public List<Subscription> getSubscriptions() {
+		return this.subscriptions;
+	}
+
+	/**
+	 * Queues an event for every listener.
+	 * 
+	 * @param event
+	 *            The event.
+	 * @throws InterruptedException
+	 *             Thrown if the thread was interrupted while waiting for room in
+	 *             a blocking queue.
+	 */
+	public void publish(PortChangeEvent event) throws InterruptedException {
+
+		for (Subscription subscription : this.subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	/**
+	 * Publishes the changes between a sample and the previous sample of the same
+	 * group. The first sample of a group only sets the baseline.
+	 */
+	@Override
+	public void scanned(ScanGroup group, PortSample sample) {
+
+		long[] image = sample.getImage();
+		long[] previous = this.previousImages.get(group);
+		if (previous == null) {
+			this.previousImages.put(group, image.clone());
+			return;
+		}
+
+		int ports = group.getPortMask();
+		try {
+			while (ports != 0) {
+				int port = Integer.numberOfTrailingZeros(ports);
+				ports &= ports - 1;
+				int value = PortImage.getPort(image, port);
+				int changed = value ^ PortImage.getPort(previous, port);
+				if (changed != 0) {
+					PortImage.setPort(previous, port, value);
+					this.publish(new PortChangeEvent(group.getBoard(), port, value, changed, sample.getSampleNanos()));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
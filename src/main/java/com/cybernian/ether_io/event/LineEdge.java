@@ -0,0 +1,86 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.event;
+
+import com.cybernian.ether_io.core.IO24Core;
+
+/**
+ * A rising or falling edge of one I/O line. Edges are immutable.
+ * 
+ * @author Gerard L. Muir
+ */
+public class LineEdge {
+
+	private final IO24Core board;
+	private final int line;
+	private final boolean rising;
+	private final long nanos;
+
+	/**
+	 * Creates an edge.
+	 * 
+	 * @param board
+	 *            The board of the line.
+	 * @param line
+	 *            The line number, port A line 0 being line 0.
+	 * @param rising
+	 *            True if the line went high, false if it went low.
+	 * @param nanos
+	 *            The <code>System.nanoTime()</code> of the sample that showed the
+	 *            edge.
+	 */
+	public LineEdge(IO24Core board, int line, boolean rising, long nanos) {
+
+		this.board = board;
+		this.line = line;
+		this.rising = rising;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * @return The board of the line.
+	 */
+	public IO24Core getBoard() {
+		return this.board;
+	}
+
+	/**
+	 * @return The line number, port A line 0 being line 0.
+	 */
+	public int getLine() {
+		return this.line;
+	}
+
+	/**
+	 * @return True if the line went high, false if it went low.
+	 */
+	public boolean isRising() {
+		return this.rising;
+	}
+
+	/**
+	 * @return The <code>System.nanoTime()</code> of the sample that showed the
+	 *         edge.
+	 */
+	public long getNanos() {
+		return this.nanos;
+	}
+
+	@Override
+	public String toString() {
+		return "LineEdge " + this.line + (this.rising ? " rising" : " falling");
+	}
+}
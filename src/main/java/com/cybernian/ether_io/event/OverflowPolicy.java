@@ -0,0 +1,37 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.event;
+
+/**
+ * What a listener's queue does with a new event when it is full.
+ * 
+ * @author Gerard L. Muir
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Queue at most one event per port, merged so it holds the latest state of
+	 * every line. The queue holds one entry for every port that publishes, so no
+	 * change is ever dropped and the capacity does not apply.
+	 */
+	CONFLATE,
+
+	/** Drop the oldest queued event to make room. */
+	DROP_OLDEST,
+
+	/** Make the publishing thread wait for room. */
+	BLOCK
+}
@@ -0,0 +1,138 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.event;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * A change of one or more lines of a port. Events are immutable.
+ * 
+ * @author Gerard L. Muir
+ */
+public class PortChangeEvent {
+
+	private final IO24Core board;
+	private final int port;
+	private final int value;
+	private final int changed;
+	private final long nanos;
+
+	/**
+	 * Creates an event.
+	 * 
+	 * @param board
+	 *            The board of the port.
+	 * @param port
+	 *            The port index, 0 for port A.
+	 * @param value
+	 *            The new port value. 0-255
+	 * @param changed
+	 *            Bit set for every line that changed. 0-255
+	 * @param nanos
+	 *            The <code>System.nanoTime()</code> of the sample that showed the
+	 *            change.
+	 */
+	public PortChangeEvent(IO24Core board, int port, int value, int changed, long nanos) {
+
+		this.board = board;
+		this.port = port;
+		this.value = value & 0xff;
+		this.changed = changed & 0xff;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * @return The board of the port.
+	 */
+	public IO24Core getBoard() {
+		return this.board;
+	}
+
+	/**
+	 * @return The port index, 0 for port A.
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	/**
+	 * @return The lower case port letter.
+	 */
+	public char getPortLetter() {
+		return PortImage.portLetter(this.port);
+	}
+
+	/**
+	 * @return The new port value. 0-255
+	 */
+	public int getValue() {
+		return this.value;
+	}
+
+	/**
+	 * @return Bit set for every line that changed. 0-255
+	 */
+	public int getChanged() {
+		return this.changed;
+	}
+
+	/**
+	 * @return The port value before the change.
+	 */
+	public int getPreviousValue() {
+		return this.value ^ this.changed;
+	}
+
+	/**
+	 * @param ioLine
+	 *            The I/O line number. 0-7
+	 * @return True if the line changed.
+	 */
+	public boolean isLineChanged(int ioLine) {
+		return (this.changed & (1 << ioLine)) != 0;
+	}
+
+	/**
+	 * @return The <code>System.nanoTime()</code> of the sample that showed the
+	 *         change.
+	 */
+	public long getNanos() {
+		return this.nanos;
+	}
+
+	/**
+	 * Combines this event with a later event of the same port into one event
+	 * holding the latest state of every line. Lines that changed and changed back
+	 * are no longer reported as changed.
+	 * 
+	 * @param later
+	 *            The later event.
+	 * @return The combined event, or null if no line differs from its state
+	 *         before this event.
+	 */
+	PortChangeEvent conflate(PortChangeEvent later) {
+
+		int before = (this.getPreviousValue() & this.changed) | (later.getPreviousValue() & ~this.changed);
+		int changed = (before ^ later.value) & (this.changed | later.changed);
+		return changed == 0 ? null : new PortChangeEvent(this.board, this.port, later.value, changed, later.nanos);
+	}
+
+	@Override
+	public String toString() {
+		return "PortChangeEvent " + this.getPortLetter() + " value " + this.value + " changed " + this.changed;
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.event;
+
+/**
+ * Receives port change events.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see EventDispatcher
+ */
+public interface PortChangeListener {
+
+	/**
+	 * Called on a dispatch thread for each event, in order for any one listener.
+	 * 
+	 * @param event
+	 *            The change.
+	 */
+	void portChanged(PortChangeEvent event);
+}
@@ -0,0 +1,280 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.event;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A listener registered with an {@link EventDispatcher}, with its bounded
+ * queue and delivery statistics. At most one dispatch task per subscription is
+ * running at any time, so a listener sees its events in order and a slow
+ * listener only delays itself.
+ * 
+ * @author Gerard L. Muir
+ */
+public class Subscription {
+
+	private final PortChangeListener listener;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Executor executor;
+
+	// Queue for DROP_OLDEST and BLOCK; per port queue for CONFLATE, which holds
+	// every port that has published and so is never full. Guarded by this.
+	private final ArrayDeque<PortChangeEvent> queue = new ArrayDeque<PortChangeEvent>();
+	private final Map<PortKey, PortChangeEvent> latest = new LinkedHashMap<PortKey, PortChangeEvent>();
+	private boolean scheduled; // True while a dispatch task is queued or running.
+	private volatile boolean cancelled;
+
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong conflatedCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final AtomicLong maxLag = new AtomicLong();
+	private volatile long lastLag;
+
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			Subscription.this.drain();
+		}
+	};
+
+	Subscription(PortChangeListener listener, int capacity, OverflowPolicy policy, Executor executor) {
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Subscription: Validation error: capacity must be at least 1.");
+		}
+		this.listener = listener;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues an event according to the overflow policy and makes sure a dispatch
+	 * task will deliver it.
+	 */
+	void offer(PortChangeEvent event) throws InterruptedException {
+
+		synchronized (this) {
+			if (this.cancelled) {
+				return;
+			}
+			switch (this.policy) {
+			case CONFLATE:
+				PortKey key = new PortKey(event);
+				PortChangeEvent pending = this.latest.remove(key);
+				if (pending != null) {
+					this.conflatedCount.incrementAndGet();
+					event = pending.conflate(event);
+					if (event == null) {
+						return;
+					}
+				}
+				// Re-inserted, so the port keeps the position of its latest change.
+				this.latest.put(key, event);
+				break;
+			case DROP_OLDEST:
+				if (this.queue.size() == this.capacity) {
+					this.queue.poll();
+					this.droppedCount.incrementAndGet();
+				}
+				this.queue.add(event);
+				break;
+			case BLOCK:
+				while (this.queue.size() == this.capacity && !this.cancelled) {
+					this.wait();
+				}
+				if (this.cancelled) {
+					return;
+				}
+				this.queue.add(event);
+				break;
+			}
+			if (this.scheduled) {
+				return;
+			}
+			this.scheduled = true;
+		}
+
+		try {
+			this.executor.execute(this.drain);
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				this.scheduled = false;
+			}
+			throw e;
+		}
+	}
+
+	private void drain() {
+
+		while (true) {
+			PortChangeEvent event;
+			synchronized (this) {
+				event = this.poll();
+				if (event == null || this.cancelled) {
+					this.scheduled = false;
+					return;
+				}
+				this.notifyAll();
+			}
+
+			long lag = System.nanoTime() - event.getNanos();
+			this.lastLag = lag;
+			long max;
+			while (lag > (max = this.maxLag.get()) && !this.maxLag.compareAndSet(max, lag)) {
+				// Retry until the maximum is updated.
+			}
+			try {
+				this.listener.portChanged(event);
+			} catch (RuntimeException e) {
+				this.errorCount.incrementAndGet();
+			}
+			this.deliveredCount.incrementAndGet();
+		}
+	}
+
+	private PortChangeEvent poll() {
+
+		if (this.policy != OverflowPolicy.CONFLATE) {
+			return this.queue.poll();
+		}
+		Iterator<PortChangeEvent> oldest = this.latest.values().iterator();
+		if (!oldest.hasNext()) {
+			return null;
+		}
+		PortChangeEvent event = oldest.next();
+		oldest.remove();
+		return event;
+	}
+
+	/**
+	 * Stops delivery to the listener. Queued events are discarded and publishers
+	 * blocked on the queue are released.
+	 */
+	public synchronized void cancel() {
+
+		this.cancelled = true;
+		this.queue.clear();
+		this.latest.clear();
+		this.notifyAll();
+	}
+
+	/**
+	 * @return True once the subscription is cancelled.
+	 */
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * @return The listener.
+	 */
+	public PortChangeListener getListener() {
+		return this.listener;
+	}
+
+	/**
+	 * @return The overflow policy of the queue.
+	 */
+	public OverflowPolicy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * @return The number of events waiting for the listener.
+	 */
+	public synchronized int getQueueLength() {
+		return this.policy == OverflowPolicy.CONFLATE ? this.latest.size() : this.queue.size();
+	}
+
+	/**
+	 * @return The number of events delivered.
+	 */
+	public long getDeliveredCount() {
+		return this.deliveredCount.get();
+	}
+
+	/**
+	 * @return The number of events dropped because the queue was full.
+	 */
+	public long getDroppedCount() {
+		return this.droppedCount.get();
+	}
+
+	/**
+	 * @return The number of events merged into an already queued event.
+	 */
+	public long getConflatedCount() {
+		return this.conflatedCount.get();
+	}
+
+	/**
+	 * @return The number of events the listener failed on.
+	 */
+	public long getErrorCount() {
+		return this.errorCount.get();
+	}
+
+	/**
+	 * @return The time from the sample to delivery of the last event, in
+	 *         nanoseconds.
+	 */
+	public long getLastLagNanos() {
+		return this.lastLag;
+	}
+
+	/**
+	 * @return The longest time from a sample to delivery of its event, in
+	 *         nanoseconds.
+	 */
+	public long getMaxLagNanos() {
+		return this.maxLag.get();
+	}
+
+	/**
+	 * Identifies a port of a board. Boards are compared by identity.
+	 */
+	private static class PortKey {
+
+		private final Object board;
+		private final int port;
+
+		PortKey(PortChangeEvent event) {
+			this.board = event.getBoard();
+			this.port = event.getPort();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof PortKey && ((PortKey) other).board == this.board
+					&& ((PortKey) other).port == this.port;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.board) * 31 + this.port;
+		}
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides the classes used to deliver port change events to listeners.
+ */
+package com.cybernian.ether_io.event;
@@ -0,0 +1,92 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.flow;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.event.LineEdge;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Publishes the edges of every line of one board or of a fleet. While a
+ * subscriber has outstanding demand the boards are sampled every poll interval
+ * and each sample is compared with the previous one; edges found beyond the
+ * current demand are kept and delivered before the boards are read again. The
+ * first sample of a subscription only sets the baseline. Edges shorter than
+ * the poll interval may be missed.
+ * 
+ * @author Gerard L. Muir
+ */
+public class LineEdgePublisher extends PollingPublisher<LineEdge> {
+
+	/**
+	 * Creates a publisher.
+	 * 
+	 * @param executor
+	 *            Runs the reads and the deliveries.
+	 * @param pollIntervalNanos
+	 *            The time between two samples of the boards for one subscriber.
+	 * @param boards
+	 *            The board, or the boards of the fleet.
+	 */
+	public LineEdgePublisher(ScheduledExecutorService executor, long pollIntervalNanos, IO24Core... boards) {
+		super(executor, pollIntervalNanos, boards);
+	}
+
+	@Override
+	protected Poller<LineEdge> newPoller() {
+
+		final List<IO24Core> boards = this.getBoards();
+		return new Poller<LineEdge>() {
+
+			private final PortSample[] previous = new PortSample[boards.size()];
+
+			@Override
+			public void poll(ArrayDeque<LineEdge> items) throws IOException {
+
+				for (int b = 0; b < boards.size(); b++) {
+					IO24Core board = boards.get(b);
+					PortSample sample = new PortSample(board.getLineCount());
+					board.readPortSample(sample);
+					if (this.previous[b] != null) {
+						addEdges(board, this.previous[b].getImage(), sample, items);
+					}
+					this.previous[b] = sample;
+				}
+			}
+		};
+	}
+
+	private static void addEdges(IO24Core board, long[] before, PortSample sample, ArrayDeque<LineEdge> items) {
+
+		long[] after = sample.getImage();
+		long nanos = sample.getSampleNanos();
+		for (int word = 0; word < after.length; word++) {
+			long changed = before[word] ^ after[word];
+			while (changed != 0) {
+				int bit = Long.numberOfTrailingZeros(changed);
+				changed &= changed - 1;
+				int line = word * 64 + bit;
+				items.add(new LineEdge(board, line, PortImage.getLine(after, line), nanos));
+			}
+		}
+	}
+}
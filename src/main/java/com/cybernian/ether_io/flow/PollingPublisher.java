@@ -0,0 +1,232 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.flow;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybernian.ether_io.core.IO24Core;
+
+/**
+ * Base of the publishers that read boards only when subscribers ask for more
+ * items. Every subscription polls the boards on its own, on the publisher's
+ * executor, and only while it has outstanding demand; a subscriber that
+ * requests nothing causes no traffic. Polls of one subscription are at least
+ * the poll interval apart. Items are delivered to a subscriber one at a time.
+ * <p>
+ * The streams never complete. A read that fails ends the subscription with
+ * <code>onError</code>.
+ * 
+ * @param <T>
+ *            The item type.
+ * 
+ * @author Gerard L. Muir
+ */
+public abstract class PollingPublisher<T> implements Flow.Publisher<T> {
+
+	private final ScheduledExecutorService executor;
+	private final long pollIntervalNanos;
+	private final List<IO24Core> boards;
+
+	/**
+	 * Creates a publisher.
+	 * 
+	 * @param executor
+	 *            Runs the polls and the deliveries.
+	 * @param pollIntervalNanos
+	 *            The least time between two polls of one subscription.
+	 * @param boards
+	 *            The boards to read, one for a board stream or several for a
+	 *            fleet stream.
+	 */
+	protected PollingPublisher(ScheduledExecutorService executor, long pollIntervalNanos, IO24Core... boards) {
+
+		if (boards.length == 0) {
+			throw new IllegalArgumentException("PollingPublisher: Validation error: no boards given.");
+		}
+		this.executor = executor;
+		this.pollIntervalNanos = pollIntervalNanos;
+		this.boards = new ArrayList<IO24Core>(Arrays.asList(boards));
+	}
+
+	/**
+	 * @return The boards read by the publisher.
+	 */
+	public List<IO24Core> getBoards() {
+		return this.boards;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+
+		Objects.requireNonNull(subscriber);
+		PollingSubscription subscription = new PollingSubscription(subscriber, this.newPoller());
+		subscriber.onSubscribe(subscription);
+	}
+
+	/**
+	 * Returns the poll state of a new subscription.
+	 * 
+	 * @return A new poller.
+	 */
+	protected abstract Poller<T> newPoller();
+
+	/**
+	 * Reads boards for one subscription. A poller is only called by one thread at
+	 * a time.
+	 * 
+	 * @param <T>
+	 *            The item type.
+	 */
+	protected interface Poller<T> {
+
+		/**
+		 * Reads the boards and adds any new items to the queue.
+		 * 
+		 * @param items
+		 *            Receives the items. Empty when called.
+		 * @throws IOException
+		 *             Thrown if a datagram socket error occurred.
+		 */
+		void poll(ArrayDeque<T> items) throws IOException;
+	}
+
+	/**
+	 * Delivers items to one subscriber. The drain loop runs on the executor and
+	 * is entered by one thread at a time, guarded by the work counter.
+	 */
+	private class PollingSubscription implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super T> subscriber;
+		private final Poller<T> poller;
+		private final ArrayDeque<T> items = new ArrayDeque<T>(); // Polled but not yet delivered.
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger work = new AtomicInteger();
+		private final AtomicBoolean resumePending = new AtomicBoolean();
+		private volatile boolean cancelled;
+		private volatile Throwable invalidRequest;
+		private long nextPollNanos = System.nanoTime();
+
+		private final Runnable resume = new Runnable() {
+			@Override
+			public void run() {
+				PollingSubscription.this.resumePending.set(false);
+				PollingSubscription.this.schedule();
+			}
+		};
+
+		PollingSubscription(Flow.Subscriber<? super T> subscriber, Poller<T> poller) {
+			this.subscriber = subscriber;
+			this.poller = poller;
+		}
+
+		@Override
+		public void request(long n) {
+
+			if (n <= 0) {
+				this.invalidRequest = new IllegalArgumentException(
+						"PollingPublisher: Validation error: request must be positive.");
+			} else {
+				long current;
+				do {
+					current = this.demand.get();
+				} while (!this.demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+			}
+			this.schedule();
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+		}
+
+		private void schedule() {
+
+			if (this.work.getAndIncrement() == 0) {
+				try {
+					PollingPublisher.this.executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					this.cancelled = true;
+					this.subscriber.onError(e);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+
+			int missed = 1;
+			do {
+				this.drain();
+				missed = this.work.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain() {
+
+			while (!this.cancelled) {
+				if (this.invalidRequest != null) {
+					this.cancelled = true;
+					this.subscriber.onError(this.invalidRequest);
+					return;
+				}
+				if (this.demand.get() == 0) {
+					return;
+				}
+
+				T item = this.items.poll();
+				if (item == null) {
+					long wait = this.nextPollNanos - System.nanoTime();
+					if (wait > 0) {
+						if (this.resumePending.compareAndSet(false, true)) {
+							PollingPublisher.this.executor.schedule(this.resume, wait, TimeUnit.NANOSECONDS);
+						}
+						return;
+					}
+					this.nextPollNanos = System.nanoTime() + PollingPublisher.this.pollIntervalNanos;
+					try {
+						this.poller.poll(this.items);
+					} catch (IOException | RuntimeException e) {
+						this.cancelled = true;
+						this.subscriber.onError(e);
+						return;
+					}
+					continue;
+				}
+
+				this.demand.decrementAndGet();
+				try {
+					this.subscriber.onNext(item);
+				} catch (RuntimeException e) {
+					this.cancelled = true;
+					return;
+				}
+			}
+			this.items.clear();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.flow;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.PortSample;
+
+/**
+ * Publishes time stamped samples of every port of one board, or of each board
+ * of a fleet in turn. Every item requested by a subscriber is one pipelined
+ * read of one board, made when the item is requested, so samples are never
+ * older than a round trip when delivered. Each sample is a new object and
+ * names its board through <code>PortSample.getBoard()</code>.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see IO24Core#readPortSample(PortSample)
+ */
+public class PortSamplePublisher extends PollingPublisher<PortSample> {
+
+	/**
+	 * Creates a publisher.
+	 * 
+	 * @param executor
+	 *            Runs the reads and the deliveries.
+	 * @param pollIntervalNanos
+	 *            The least time between two reads for one subscriber, 0 to read
+	 *            as fast as samples are requested.
+	 * @param boards
+	 *            The board, or the boards of the fleet.
+	 */
+	public PortSamplePublisher(ScheduledExecutorService executor, long pollIntervalNanos, IO24Core... boards) {
+		super(executor, pollIntervalNanos, boards);
+	}
+
+	@Override
+	protected Poller<PortSample> newPoller() {
+
+		final List<IO24Core> boards = this.getBoards();
+		return new Poller<PortSample>() {
+
+			private int next; // Index of the board to read next.
+
+			@Override
+			public void poll(ArrayDeque<PortSample> items) throws IOException {
+
+				IO24Core board = boards.get(this.next);
+				this.next = (this.next + 1) % boards.size();
+				PortSample sample = new PortSample(board.getLineCount());
+				board.readPortSample(sample);
+				items.add(sample);
+			}
+		};
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides <code>java.util.concurrent.Flow</code> publishers of Ether IO board state.
+ */
+package com.cybernian.ether_io.flow;
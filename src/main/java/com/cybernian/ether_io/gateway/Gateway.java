@@ -0,0 +1,118 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.drivers.IO72TPC;
+
+/**
+ * A local gateway speaking the Ether IO protocol. Each board is given a local
+ * listen address, for example a loopback alias on UDP port 2424; client
+ * applications use that address in place of the board's and need no other
+ * change. The gateway keeps a single session with each board, so clients no
+ * longer receive each other's replies, and identical reads from several
+ * clients cost one request to the board.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see GatewaySession
+ */
+public class Gateway {
+
+	private final List<GatewaySession> sessions = new ArrayList<GatewaySession>();
+
+	/**
+	 * Adds and starts a board.
+	 * 
+	 * @param listenAddress
+	 *            The local address clients send to in place of the board.
+	 * @param board
+	 *            The upstream session with the board.
+	 * @param maxAgeMillis
+	 *            The maximum age of a cached port value served to clients, 0 to
+	 *            disable the cache.
+	 * @return The session serving the board.
+	 * @throws IOException
+	 *             Thrown if the listen socket could not be bound.
+	 */
+	public synchronized GatewaySession addBoard(InetSocketAddress listenAddress, IO24Core board, long maxAgeMillis)
+			throws IOException {
+
+		GatewaySession session = new GatewaySession(listenAddress, board, maxAgeMillis);
+		session.start();
+		this.sessions.add(session);
+		return session;
+	}
+
+	/**
+	 * @return The sessions of the gateway.
+	 */
+	public synchronized List<GatewaySession> getSessions() {
+		return new ArrayList<GatewaySession>(this.sessions);
+	}
+
+	/**
+	 * Stops every session and closes the board sessions.
+	 */
+	public synchronized void close() {
+
+		for (GatewaySession session : this.sessions) {
+			session.close();
+			session.getBoard().closeSocket();
+		}
+		this.sessions.clear();
+	}
+
+	/**
+	 * Runs a gateway until the process is stopped.
+	 * 
+	 * @param args
+	 *            cache age in milliseconds, then one
+	 *            listen address[:UDP port]=board address[:UDP port[:72]] per
+	 *            board; ports default to 2424 and ":72" selects an IO72TPC.
+	 * @throws Exception
+	 *             Thrown if a board or listen address could not be opened.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+			System.err.println("Usage: Gateway <cache ms> <listen[:port]=board[:port[:72]]>...");
+			System.exit(1);
+		}
+
+		long maxAgeMillis = Long.parseLong(args[0]);
+		Gateway gateway = new Gateway();
+		for (int i = 1; i < args.length; i++) {
+			String[] sides = args[i].split("=");
+			String[] listen = sides[0].split(":");
+			String[] upstream = sides[1].split(":");
+			int listenPort = listen.length > 1 ? Integer.parseInt(listen[1]) : 2424;
+			int boardPort = upstream.length > 1 ? Integer.parseInt(upstream[1]) : 2424;
+			boolean io72 = upstream.length > 2 && upstream[2].equals("72");
+			IO24Core board = io72 ? new IO72TPC(upstream[0], boardPort, 1000) : new IO24(upstream[0], boardPort, 1000);
+			GatewaySession session = gateway.addBoard(new InetSocketAddress(listen[0], listenPort), board,
+					maxAgeMillis);
+			System.out.println("Serving " + upstream[0] + " on " + session.getListenAddress());
+		}
+		Thread.currentThread().join();
+	}
+}
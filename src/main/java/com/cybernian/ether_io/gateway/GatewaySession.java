@@ -0,0 +1,313 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.gateway;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybernian.ether_io.core.IO24Core;
+
+/**
+ * Serves the clients of one board. Client datagrams are received on the
+ * gateway's listen address and handled strictly in arrival order by a single
+ * thread, so writes reach the board in the order they were sent and a read
+ * always sees every write sent before it. A read queued behind identical reads
+ * is answered together with them by one request to the board.
+ * 
+ * @author Gerard L. Muir
+ */
+public class GatewaySession {
+
+	private static final int QUEUE_CAPACITY = 1024;
+	private static final int HOST_DATA_LENGTH = 16;
+
+	private final IO24Core board;
+	private final DatagramSocket socket;
+	private final long maxAgeMillis;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>(QUEUE_CAPACITY);
+	private final Thread receiver;
+	private final Thread worker;
+	private volatile boolean running = true;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong writeCount = new AtomicLong();
+	private final AtomicLong upstreamReadCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * A datagram from a client.
+	 */
+	private static class Request {
+
+		final byte[] data;
+		final SocketAddress client;
+
+		Request(byte[] data, SocketAddress client) {
+			this.data = data;
+			this.client = client;
+		}
+	}
+
+	/**
+	 * Opens the listen socket for a board.
+	 * 
+	 * @param listenAddress
+	 *            The local address clients send to in place of the board.
+	 * @param board
+	 *            The upstream session with the board.
+	 * @param maxAgeMillis
+	 *            The maximum age of a cached port value served to clients, 0 to
+	 *            read the board for every read that is not coalesced.
+	 * @throws SocketException
+	 *             Thrown if the listen socket could not be bound.
+	 */
+	public GatewaySession(InetSocketAddress listenAddress, IO24Core board, long maxAgeMillis)
+			throws SocketException {
+
+		this.board = board;
+		this.maxAgeMillis = maxAgeMillis;
+		this.socket = new DatagramSocket(listenAddress);
+		if (maxAgeMillis > 0) {
+			board.setRegisterCaching(true);
+		}
+		this.receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				GatewaySession.this.receive();
+			}
+		}, "GatewaySession receiver " + listenAddress);
+		this.worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				GatewaySession.this.serve();
+			}
+		}, "GatewaySession " + listenAddress);
+		this.receiver.setDaemon(true);
+		this.worker.setDaemon(true);
+	}
+
+	/**
+	 * Starts serving clients.
+	 */
+	public void start() {
+
+		this.receiver.start();
+		this.worker.start();
+	}
+
+	/**
+	 * Stops serving clients and closes the listen socket. The board session is
+	 * left open.
+	 */
+	public void close() {
+
+		this.running = false;
+		this.socket.close();
+		this.worker.interrupt();
+	}
+
+	private void receive() {
+
+		byte[] buffer = new byte[1500];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (this.running) {
+			try {
+				packet.setLength(buffer.length);
+				this.socket.receive(packet);
+			} catch (IOException e) {
+				continue; // Socket closed, or a transient error.
+			}
+			this.requestCount.incrementAndGet();
+			Request request = new Request(Arrays.copyOf(buffer, packet.getLength()), packet.getSocketAddress());
+			if (!this.queue.offer(request)) {
+				// Like a busy board, the client sees a timeout and retries.
+				this.droppedCount.incrementAndGet();
+			}
+		}
+	}
+
+	private void serve() {
+
+		List<Request> batch = new ArrayList<Request>();
+		while (this.running) {
+			Request request;
+			try {
+				request = this.queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			int responseLength = responseLength(request.data);
+			try {
+				if (responseLength == 0) {
+					this.board.send(request.data);
+					this.writeCount.incrementAndGet();
+					continue;
+				}
+
+				// Identical reads queued right behind this one get the same answer.
+				batch.clear();
+				batch.add(request);
+				Request next;
+				while ((next = this.queue.peek()) != null && Arrays.equals(next.data, request.data)) {
+					batch.add(this.queue.poll());
+					this.coalescedCount.incrementAndGet();
+				}
+
+				byte[] response;
+				if (responseLength == 2) {
+					response = this.board.readPortValue((char) request.data[0], this.maxAgeMillis);
+				} else {
+					response = this.board.readData(request.data, responseLength);
+				}
+				this.upstreamReadCount.incrementAndGet();
+				for (Request reader : batch) {
+					byte[] reply = response;
+					if (responseLength == HOST_DATA_LENGTH && request.data[0] == (byte) (int) '%') {
+						reply = hostData(response, reader.client);
+					}
+					this.socket.send(new DatagramPacket(reply, reply.length, reader.client));
+				}
+			} catch (IOException | IllegalArgumentException e) {
+				// The client times out as it would with the board.
+				this.failedCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns the length of the board's reply to a client datagram, or 0 if the
+	 * board does not reply.
+	 */
+	static int responseLength(byte[] data) {
+
+		if (data.length == 0) {
+			return 0;
+		}
+		int command = data[0] & 0xff;
+		if (data.length == 1 && command >= 'a' && command <= 'i') {
+			return 2; // Port value read.
+		}
+		if (data.length == 2 && "!@$#%".indexOf(command) >= 0 && (data[1] & 0xff) >= 'a'
+				&& (data[1] & 0xff) <= 'i') {
+			return 3; // Register read.
+		}
+		if (data.length >= 3 && command == '\'' && data[1] == (byte) (int) 'R') {
+			return 4; // EEPROM word read.
+		}
+		if (data.length == 1 && command == '%') {
+			return HOST_DATA_LENGTH;
+		}
+		if ((data.length == 1 && command == '*') || (data.length == 2 && command == '`')) {
+			return 1; // Space or echo.
+		}
+		if (data.length == 4 && command == 'I' && data[1] == (byte) (int) 'O' && data[2] == (byte) (int) '2'
+				&& data[3] == (byte) (int) '4') {
+			return 12; // Identify.
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the board's host data reply with the requester's IP address and
+	 * UDP port replaced by those of the client, as the board would have answered
+	 * the client. The MAC address is still the gateway's.
+	 */
+	private static byte[] hostData(byte[] response, SocketAddress client) {
+
+		byte[] reply = response.clone();
+		if (client instanceof InetSocketAddress) {
+			InetSocketAddress address = (InetSocketAddress) client;
+			byte[] ip = address.getAddress().getAddress();
+			if (ip.length == 4) {
+				System.arraycopy(ip, 0, reply, 4, 4);
+			}
+			reply[14] = (byte) (address.getPort() >>> 8);
+			reply[15] = (byte) address.getPort();
+		}
+		return reply;
+	}
+
+	/**
+	 * @return The upstream board session.
+	 */
+	public IO24Core getBoard() {
+		return this.board;
+	}
+
+	/**
+	 * @return The local address clients send to.
+	 */
+	public SocketAddress getListenAddress() {
+		return this.socket.getLocalSocketAddress();
+	}
+
+	/**
+	 * @return The number of client datagrams received.
+	 */
+	public long getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/**
+	 * @return The number of writes forwarded to the board.
+	 */
+	public long getWriteCount() {
+		return this.writeCount.get();
+	}
+
+	/**
+	 * @return The number of reads passed to the board session. Some are answered
+	 *         from its cache or joined to a read already in flight.
+	 */
+	public long getUpstreamReadCount() {
+		return this.upstreamReadCount.get();
+	}
+
+	/**
+	 * @return The number of client reads answered together with an identical
+	 *         queued read.
+	 */
+	public long getCoalescedCount() {
+		return this.coalescedCount.get();
+	}
+
+	/**
+	 * @return The number of client requests that failed upstream.
+	 */
+	public long getFailedCount() {
+		return this.failedCount.get();
+	}
+
+	/**
+	 * @return The number of client datagrams dropped because the queue was full.
+	 */
+	public long getDroppedCount() {
+		return this.droppedCount.get();
+	}
+}
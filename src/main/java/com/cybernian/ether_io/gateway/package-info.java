@@ -0,0 +1,4 @@
+/**
+ * Provides a local gateway that shares one session with each Ether IO board among many client applications.
+ */
+package com.cybernian.ether_io.gateway;
@@ -0,0 +1,36 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.history;
+
+/**
+ * Receives the line changes found by a history query.
+ * 
+ * @author Gerard L. Muir
+ */
+public interface LineChangeVisitor {
+
+	/**
+	 * Called for each change of the queried line, in time order.
+	 * 
+	 * @param timestampNanos
+	 *            The time of the first sample showing the new state.
+	 * @param line
+	 *            The line number.
+	 * @param value
+	 *            The new state of the line.
+	 */
+	void lineChanged(long timestampNanos, int line, boolean value);
+}
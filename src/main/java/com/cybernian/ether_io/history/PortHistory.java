@@ -0,0 +1,254 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.history;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * A fixed size ring buffer of time stamped port images for one board, held in
+ * direct (off heap) memory. When the buffer is full the oldest record is
+ * overwritten. Each record is the sample time followed by the packed port
+ * image, so the history of a board adds no objects to the Java heap and queries
+ * do not allocate.
+ * <p>
+ * Records must be appended in time order. All methods are synchronized, so one
+ * sampling thread may append while other threads query.
+ * 
+ * @author Gerard L. Muir
+ */
+public class PortHistory {
+
+	private final int lineCount;
+	private final int words; // Image words per record.
+	private final int recordSize; // Bytes per record.
+	private final int capacity; // Number of records held.
+	private final ByteBuffer buffer;
+
+	private int next; // Slot the next record is written to.
+	private int size; // Number of records held.
+	private long lastTimestamp = Long.MIN_VALUE;
+
+	/**
+	 * Creates a history holding the given number of records.
+	 * 
+	 * @param lineCount
+	 *            Number of I/O lines. 24 for IO24 boards, 72 for IO72TPC.
+	 * @param capacity
+	 *            Number of records held before the oldest is overwritten.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the capacity is less than 1 or too large for one
+	 *             buffer.
+	 */
+	public PortHistory(int lineCount, int capacity) throws IllegalArgumentException {
+
+		this.lineCount = lineCount;
+		this.words = PortImage.words(lineCount);
+		this.recordSize = 8 * (1 + this.words);
+		if (capacity < 1 || (long) capacity * this.recordSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("PortHistory: Invalid capacity " + capacity + ".");
+		}
+		this.capacity = capacity;
+		this.buffer = ByteBuffer.allocateDirect(capacity * this.recordSize).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Appends a port image.
+	 * 
+	 * @param timestampNanos
+	 *            The time the image was sampled, from <code>System.nanoTime()</code>.
+	 * @param image
+	 *            The packed port image.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the time stamp is earlier than that of the last record.
+	 */
+	public synchronized void append(long timestampNanos, long[] image) throws IllegalArgumentException {
+
+		if (this.size > 0 && timestampNanos - this.lastTimestamp < 0) {
+			throw new IllegalArgumentException("PortHistory: Records must be appended in time order.");
+		}
+
+		int offset = this.next * this.recordSize;
+		this.buffer.putLong(offset, timestampNanos);
+		for (int w = 0; w < this.words; w++) {
+			this.buffer.putLong(offset + 8 + 8 * w, image[w]);
+		}
+
+		this.lastTimestamp = timestampNanos;
+		this.next = this.next + 1 == this.capacity ? 0 : this.next + 1;
+		if (this.size < this.capacity) {
+			this.size++;
+		}
+	}
+
+	/**
+	 * Appends a port sample, using its estimated board sample time.
+	 * 
+	 * @param sample
+	 *            The port sample.
+	 */
+	public void append(PortSample sample) {
+		this.append(sample.getSampleNanos(), sample.getImage());
+	}
+
+	/**
+	 * Finds the port state at the given time, which is the last record sampled at
+	 * or before that time.
+	 * 
+	 * @param timestampNanos
+	 *            The time of interest.
+	 * @param image
+	 *            The image to receive the port state.
+	 * @return The time stamp of the record found, or <code>Long.MIN_VALUE</code> if
+	 *         the time is before the oldest record held, in which case the image is
+	 *         not changed.
+	 */
+	public synchronized long stateAt(long timestampNanos, long[] image) {
+
+		int index = this.floor(timestampNanos);
+		if (index < 0) {
+			return Long.MIN_VALUE;
+		}
+		int offset = this.offset(index);
+		for (int w = 0; w < this.words; w++) {
+			image[w] = this.buffer.getLong(offset + 8 + 8 * w);
+		}
+		return this.buffer.getLong(offset);
+	}
+
+	/**
+	 * Reports every change of a line between two times. The state of the line at
+	 * the start time is taken from the last record at or before it; changes in
+	 * records after the start time up to and including the end time are reported.
+	 * 
+	 * @param line
+	 *            The line number.
+	 * @param fromNanos
+	 *            The start of the time range.
+	 * @param toNanos
+	 *            The end of the time range.
+	 * @param visitor
+	 *            Receives each change.
+	 * @return The number of changes reported.
+	 */
+	public synchronized int changes(int line, long fromNanos, long toNanos, LineChangeVisitor visitor) {
+
+		if (this.size == 0) {
+			return 0;
+		}
+
+		int wordOffset = 8 + 8 * (line >>> 6);
+		long mask = 1L << line;
+		int index = this.floor(fromNanos);
+		boolean state;
+		if (index < 0) {
+			// Start from the oldest record held.
+			index = 0;
+			state = (this.buffer.getLong(this.offset(0) + wordOffset) & mask) != 0;
+		} else {
+			state = (this.buffer.getLong(this.offset(index) + wordOffset) & mask) != 0;
+		}
+
+		int count = 0;
+		for (int i = index + 1; i < this.size; i++) {
+			int offset = this.offset(i);
+			long timestamp = this.buffer.getLong(offset);
+			if (timestamp - toNanos > 0) {
+				break;
+			}
+			boolean value = (this.buffer.getLong(offset + wordOffset) & mask) != 0;
+			if (value != state) {
+				state = value;
+				count++;
+				visitor.lineChanged(timestamp, line, value);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the index, from the oldest record, of the last record at or before
+	 * the given time, or -1 if there is none.
+	 */
+	private int floor(long timestampNanos) {
+
+		int low = 0;
+		int high = this.size - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (this.buffer.getLong(this.offset(mid)) - timestampNanos <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the byte offset of the record at the given index from the oldest.
+	 */
+	private int offset(int index) {
+
+		int slot = this.next - this.size + index;
+		if (slot < 0) {
+			slot += this.capacity;
+		}
+		return slot * this.recordSize;
+	}
+
+	/**
+	 * @return The number of records held.
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return The time stamp of the oldest record, or <code>Long.MIN_VALUE</code>
+	 *         if the history is empty.
+	 */
+	public synchronized long getOldestTimestamp() {
+		return this.size == 0 ? Long.MIN_VALUE : this.buffer.getLong(this.offset(0));
+	}
+
+	/**
+	 * @return The time stamp of the newest record, or <code>Long.MIN_VALUE</code>
+	 *         if the history is empty.
+	 */
+	public synchronized long getNewestTimestamp() {
+		return this.size == 0 ? Long.MIN_VALUE : this.lastTimestamp;
+	}
+
+	/**
+	 * @return The maximum number of records held.
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return The number of lines in each record.
+	 */
+	public int getLineCount() {
+		return this.lineCount;
+	}
+}
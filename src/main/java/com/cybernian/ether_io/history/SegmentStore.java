@@ -0,0 +1,717 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * An append only, persistent store of time stamped port images for one board.
+ * Samples are written to a series of fixed size, memory mapped segment files in
+ * a directory. When a segment is full a new one is started, and the oldest
+ * segments are deleted once the store exceeds its size or age limit.
+ * <p>
+ * Most samples repeat the previous port state, so samples are encoded against
+ * the previous one:
+ * <ul>
+ * <li>KEY records hold the full time stamp and image. A key record starts each
+ * segment and is written at regular intervals after that.</li>
+ * <li>DELTA records hold the time since the previous sample and the XOR of
+ * each changed image word, as variable length integers.</li>
+ * <li>RUN records stand for a number of unchanged samples taken at the same
+ * interval. A run is extended in place for as long as the interval holds.</li>
+ * </ul>
+ * Every key record is listed in a sparse index at the end of its segment, so a
+ * time is found by a binary search over the segments, then over the index, and
+ * a short decode from the key record.
+ * <p>
+ * Segment file layout, in native byte order:
+ * 
+ * <pre>
+ *  0  int   magic 0x45494F53 ("EIOS")
+ *  4  int   format version (1)
+ *  8  int   line count
+ * 12  int   index entry count
+ * 16  long  first sample time
+ * 24  long  last sample time
+ * 32  long  sample count
+ * 40  int   end of the record data
+ * 64  ...   records, growing up
+ * ... index entries (long time, int offset, int unused), growing down from the end of the file
+ * </pre>
+ * 
+ * Time stamps may come from any clock, as long as they never go backwards. Use
+ * wall clock time if records must be found again after a restart; port samples
+ * are stored in nanoseconds since the epoch for that reason. All methods are
+ * synchronized.
+ * 
+ * @author Gerard L. Muir
+ */
+public class SegmentStore {
+
+	private static final int MAGIC = 0x45494F53;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int INDEX_ENTRY_SIZE = 16;
+	private static final int KEY_SPACING = 4096; // Bytes of records between key records.
+	private static final String SUFFIX = ".seg";
+
+	private static final byte KEY = 1;
+	private static final byte DELTA = 2;
+	private static final byte RUN = 3;
+
+	private final File directory;
+	private final int lineCount;
+	private final int words; // Image words per sample.
+	private final int segmentSize; // Bytes per segment file.
+	private final long maxTotalBytes; // Size limit of all segments, 0 for none.
+	private final long maxAge; // Age limit of a segment's last sample, 0 for none.
+	private final long epochOffsetNanos = // Epoch time less System.nanoTime.
+			System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+	private final List<Segment> segments = new ArrayList<Segment>(); // Oldest first.
+	private Segment current; // Segment being appended to, null until the first sample.
+	private long nextSequence; // Sequence number of the next segment file.
+
+	// Append state.
+	private final long[] lastImage;
+	private long lastTimestamp;
+	private int lastKeyOffset; // Offset of the last key record in the current segment.
+	private int runCountOffset = -1; // Offset of the open run count, -1 if no run is open.
+	private long runDelta; // Sample interval of the open run.
+
+	// Query scratch state, reused to avoid allocation.
+	private final long[] cursorImage;
+	private long cursorTimestamp;
+
+	/**
+	 * Opens, or creates, a segment store in the given directory. Existing
+	 * segments are kept for queries and new samples are written to a new segment.
+	 * 
+	 * @param directory
+	 *            The directory holding the segment files.
+	 * @param lineCount
+	 *            Number of I/O lines. 24 for IO24 boards, 72 for IO72TPC.
+	 * @param segmentSize
+	 *            Size of each segment file in bytes.
+	 * @param maxTotalBytes
+	 *            Oldest segments are deleted when all segments together are larger
+	 *            than this. 0 for no size limit.
+	 * @param maxAge
+	 *            Segments whose last sample is older than this, relative to the
+	 *            newest sample, are deleted. In time stamp units, 0 for no age
+	 *            limit.
+	 * @throws IOException
+	 *             Thrown if the directory or an existing segment can not be read.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the line count or segment size is out of range.
+	 */
+	public SegmentStore(File directory, int lineCount, int segmentSize, long maxTotalBytes, long maxAge)
+			throws IOException, IllegalArgumentException {
+
+		this.words = PortImage.words(lineCount);
+		if (lineCount < 1 || this.words > 8) {
+			throw new IllegalArgumentException("SegmentStore: Line count must be 1-512.");
+		}
+		if (segmentSize < HEADER_SIZE + 4 * (KEY_SPACING + INDEX_ENTRY_SIZE)) {
+			throw new IllegalArgumentException("SegmentStore: Segment size " + segmentSize + " is too small.");
+		}
+
+		this.directory = directory;
+		this.lineCount = lineCount;
+		this.segmentSize = segmentSize;
+		this.maxTotalBytes = maxTotalBytes;
+		this.maxAge = maxAge;
+		this.lastImage = new long[this.words];
+		this.cursorImage = new long[this.words];
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("SegmentStore: Could not create directory " + directory + ".");
+		}
+		this.openSegments();
+	}
+
+	/**
+	 * Maps the existing segment files, oldest first.
+	 */
+	private void openSegments() throws IOException {
+
+		File[] files = this.directory.listFiles();
+		if (files == null) {
+			throw new IOException("SegmentStore: Could not list directory " + this.directory + ".");
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(SUFFIX)) {
+				continue;
+			}
+			long sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+			Segment segment = new Segment(file, false);
+			if (segment.buffer.getInt(8) != this.lineCount) {
+				segment.close();
+				throw new IOException("SegmentStore: Segment " + file + " holds a different line count.");
+			}
+			if (segment.getSampleCount() > 0) {
+				this.segments.add(segment);
+				// New samples must follow those already stored.
+				this.lastTimestamp = segment.getLastTimestamp();
+			} else {
+				segment.close();
+			}
+			this.nextSequence = sequence + 1;
+		}
+	}
+
+	/**
+	 * Appends a port image.
+	 * 
+	 * @param timestamp
+	 *            The time the image was sampled.
+	 * @param image
+	 *            The packed port image.
+	 * @throws IOException
+	 *             Thrown if a new segment could not be created.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the time stamp is earlier than that of the last sample,
+	 *             including samples stored before the store was opened.
+	 */
+	public synchronized void append(long timestamp, long[] image) throws IOException, IllegalArgumentException {
+
+		if (!this.segments.isEmpty() && timestamp - this.lastTimestamp < 0) {
+			throw new IllegalArgumentException("SegmentStore: Samples must be appended in time order.");
+		}
+
+		// Leave room for the largest record and an index entry.
+		int largest = 1 + 8 + 8 * this.words + INDEX_ENTRY_SIZE;
+		if (this.current == null || this.current.free() < largest) {
+			this.roll(timestamp);
+		}
+
+		Segment segment = this.current;
+		MappedByteBuffer buffer = segment.buffer;
+		int offset = segment.getDataEnd();
+		long delta = timestamp - this.lastTimestamp;
+
+		if (segment.getSampleCount() == 0 || offset - this.lastKeyOffset >= KEY_SPACING) {
+			buffer.put(offset, KEY);
+			buffer.putLong(offset + 1, timestamp);
+			for (int w = 0; w < this.words; w++) {
+				buffer.putLong(offset + 9 + 8 * w, image[w]);
+			}
+			segment.addIndexEntry(timestamp, offset);
+			this.lastKeyOffset = offset;
+			this.runCountOffset = -1;
+			offset += 9 + 8 * this.words;
+		} else if (this.isUnchanged(image)) {
+			if (this.runCountOffset >= 0 && delta == this.runDelta) {
+				buffer.putInt(this.runCountOffset, buffer.getInt(this.runCountOffset) + 1);
+			} else {
+				buffer.put(offset++, RUN);
+				offset = putVarLong(buffer, offset, delta);
+				this.runCountOffset = offset;
+				this.runDelta = delta;
+				buffer.putInt(offset, 1);
+				offset += 4;
+			}
+		} else {
+			buffer.put(offset++, DELTA);
+			offset = putVarLong(buffer, offset, delta);
+			int changedWords = 0;
+			for (int w = 0; w < this.words; w++) {
+				if (image[w] != this.lastImage[w]) {
+					changedWords |= 1 << w;
+				}
+			}
+			buffer.put(offset++, (byte) changedWords);
+			for (int w = 0; w < this.words; w++) {
+				if ((changedWords & (1 << w)) != 0) {
+					offset = putVarLong(buffer, offset, image[w] ^ this.lastImage[w]);
+				}
+			}
+			this.runCountOffset = -1;
+		}
+
+		System.arraycopy(image, 0, this.lastImage, 0, this.words);
+		this.lastTimestamp = timestamp;
+		segment.setDataEnd(offset);
+		segment.addSample(timestamp);
+	}
+
+	/**
+	 * Appends a port sample, time stamped with its estimated board sample time
+	 * converted to nanoseconds since the epoch.
+	 * 
+	 * @param sample
+	 *            The port sample.
+	 * @throws IOException
+	 *             Thrown if a new segment could not be created.
+	 * 
+	 * @see #toEpochNanos(long)
+	 */
+	public void append(PortSample sample) throws IOException {
+		this.append(this.toEpochNanos(sample.getSampleNanos()), sample.getImage());
+	}
+
+	/**
+	 * Converts a <code>System.nanoTime</code> value, such as a port sample time,
+	 * to nanoseconds since the epoch. The offset between the two clocks is taken
+	 * once, when the store is opened, so converted times never go backwards while
+	 * the store is open.
+	 * 
+	 * @param nanoTime
+	 *            A <code>System.nanoTime</code> value.
+	 * @return The wall clock time in nanoseconds since the epoch.
+	 */
+	public long toEpochNanos(long nanoTime) {
+		return nanoTime + this.epochOffsetNanos;
+	}
+
+	private boolean isUnchanged(long[] image) {
+
+		for (int w = 0; w < this.words; w++) {
+			if (image[w] != this.lastImage[w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the current segment, starts a new one and applies the retention
+	 * limits.
+	 */
+	private void roll(long timestamp) throws IOException {
+
+		if (this.current != null) {
+			this.current.buffer.force();
+		}
+
+		File file = new File(this.directory, String.format("%019d", this.nextSequence) + SUFFIX);
+		this.current = new Segment(file, true);
+		this.nextSequence++;
+		this.segments.add(this.current);
+		this.runCountOffset = -1;
+
+		// Apply the retention limits, never deleting the segment being written.
+		long total = (long) this.segments.size() * this.segmentSize;
+		while (this.segments.size() > 1) {
+			Segment oldest = this.segments.get(0);
+			boolean tooBig = this.maxTotalBytes > 0 && total > this.maxTotalBytes;
+			boolean tooOld = this.maxAge > 0 && timestamp - oldest.getLastTimestamp() > this.maxAge;
+			if (!tooBig && !tooOld) {
+				break;
+			}
+			this.segments.remove(0);
+			oldest.delete();
+			total -= this.segmentSize;
+		}
+	}
+
+	/**
+	 * Finds the port state at the given time, which is the last sample taken at
+	 * or before that time.
+	 * 
+	 * @param timestamp
+	 *            The time of interest.
+	 * @param image
+	 *            The image to receive the port state.
+	 * @return The time stamp of the sample found, or <code>Long.MIN_VALUE</code> if
+	 *         the time is before the oldest sample held, in which case the image is
+	 *         not changed.
+	 */
+	public synchronized long stateAt(long timestamp, long[] image) {
+
+		int index = this.floorSegment(timestamp);
+		if (index < 0) {
+			return Long.MIN_VALUE;
+		}
+		Segment segment = this.segments.get(index);
+		MappedByteBuffer buffer = segment.buffer;
+		int offset = segment.floorKey(timestamp);
+		int end = segment.getDataEnd();
+
+		// Decode forward from the key record until passing the time.
+		long found = Long.MIN_VALUE;
+		while (offset < end) {
+			byte tag = buffer.get(offset);
+			if (tag == RUN) {
+				int countOffset = skipVarLong(buffer, offset + 1);
+				long delta = readVarLong(buffer, offset + 1);
+				int count = buffer.getInt(countOffset);
+				if (this.cursorTimestamp + delta - timestamp > 0) {
+					break;
+				}
+				long steps = delta == 0 ? count : Math.min(count, (timestamp - this.cursorTimestamp) / delta);
+				this.cursorTimestamp += steps * delta;
+				found = this.cursorTimestamp;
+				if (steps < count) {
+					// The time falls inside the run, so later records are after it.
+					break;
+				}
+				offset = countOffset + 4;
+				continue;
+			}
+			long previous = this.cursorTimestamp;
+			int next = this.decode(buffer, offset);
+			if (this.cursorTimestamp - timestamp > 0) {
+				this.cursorTimestamp = previous;
+				break;
+			}
+			found = this.cursorTimestamp;
+			System.arraycopy(this.cursorImage, 0, image, 0, this.words);
+			offset = next;
+		}
+		return found;
+	}
+
+	/**
+	 * Reports every change of a line between two times. The state of the line at
+	 * the start time is taken from the last sample at or before it; changes in
+	 * samples after the start time up to and including the end time are reported.
+	 * 
+	 * @param line
+	 *            The line number.
+	 * @param from
+	 *            The start of the time range.
+	 * @param to
+	 *            The end of the time range.
+	 * @param visitor
+	 *            Receives each change.
+	 * @return The number of changes reported.
+	 */
+	public synchronized int changes(int line, long from, long to, LineChangeVisitor visitor) {
+
+		if (this.segments.isEmpty()) {
+			return 0;
+		}
+
+		int word = line >>> 6;
+		long mask = 1L << line;
+		int index = Math.max(0, this.floorSegment(from));
+		int count = 0;
+		boolean started = false;
+		boolean state = false;
+
+		for (; index < this.segments.size(); index++) {
+			Segment segment = this.segments.get(index);
+			MappedByteBuffer buffer = segment.buffer;
+			int offset = started ? HEADER_SIZE : segment.floorKey(from);
+			int end = segment.getDataEnd();
+
+			while (offset < end) {
+				if (buffer.get(offset) == RUN) {
+					// Unchanged samples.
+					int countOffset = skipVarLong(buffer, offset + 1);
+					this.cursorTimestamp += readVarLong(buffer, offset + 1) * buffer.getInt(countOffset);
+					offset = countOffset + 4;
+					continue;
+				}
+				offset = this.decode(buffer, offset);
+				if (this.cursorTimestamp - to > 0) {
+					return count;
+				}
+				boolean value = (this.cursorImage[word] & mask) != 0;
+				if (!started) {
+					state = value;
+					started = true;
+				} else if (value != state) {
+					state = value;
+					if (this.cursorTimestamp - from > 0) {
+						count++;
+						visitor.lineChanged(this.cursorTimestamp, line, value);
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes the KEY or DELTA record at the offset into the cursor and returns the
+	 * offset of the next record.
+	 */
+	private int decode(MappedByteBuffer buffer, int offset) {
+
+		byte tag = buffer.get(offset++);
+		if (tag == KEY) {
+			this.cursorTimestamp = buffer.getLong(offset);
+			for (int w = 0; w < this.words; w++) {
+				this.cursorImage[w] = buffer.getLong(offset + 8 + 8 * w);
+			}
+			return offset + 8 + 8 * this.words;
+		}
+
+		this.cursorTimestamp += readVarLong(buffer, offset);
+		offset = skipVarLong(buffer, offset);
+		int changedWords = buffer.get(offset++) & 0xff;
+		for (int w = 0; w < this.words; w++) {
+			if ((changedWords & (1 << w)) != 0) {
+				this.cursorImage[w] ^= readVarLong(buffer, offset);
+				offset = skipVarLong(buffer, offset);
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Returns the index of the last segment whose first sample is at or before
+	 * the given time, or -1 if there is none.
+	 */
+	private int floorSegment(long timestamp) {
+
+		int low = 0;
+		int high = this.segments.size() - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (this.segments.get(mid).getFirstTimestamp() - timestamp <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Forces all appended samples to disk.
+	 */
+	public synchronized void flush() {
+
+		if (this.current != null) {
+			this.current.buffer.force();
+		}
+	}
+
+	/**
+	 * Flushes and closes all segments. The store can not be used afterwards.
+	 */
+	public synchronized void close() {
+
+		this.flush();
+		for (Segment segment : this.segments) {
+			segment.close();
+		}
+		this.segments.clear();
+		this.current = null;
+	}
+
+	/**
+	 * @return The number of segment files held.
+	 */
+	public synchronized int getSegmentCount() {
+		return this.segments.size();
+	}
+
+	/**
+	 * @return The total number of samples held.
+	 */
+	public synchronized long getSampleCount() {
+
+		long count = 0;
+		for (Segment segment : this.segments) {
+			count += segment.getSampleCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of record bytes written to all segments, excluding
+	 *         headers and index entries.
+	 */
+	public synchronized long getDataBytes() {
+
+		long bytes = 0;
+		for (Segment segment : this.segments) {
+			bytes += segment.getDataEnd() - HEADER_SIZE;
+		}
+		return bytes;
+	}
+
+	private static int putVarLong(MappedByteBuffer buffer, int offset, long value) {
+
+		while ((value & ~0x7fL) != 0) {
+			buffer.put(offset++, (byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put(offset++, (byte) value);
+		return offset;
+	}
+
+	private static long readVarLong(MappedByteBuffer buffer, int offset) {
+
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(offset++);
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static int skipVarLong(MappedByteBuffer buffer, int offset) {
+
+		while ((buffer.get(offset++) & 0x80) != 0) {
+			// Skip continuation bytes.
+		}
+		return offset;
+	}
+
+	/**
+	 * One memory mapped segment file.
+	 */
+	private class Segment {
+
+		final File file;
+		final RandomAccessFile raf;
+		final MappedByteBuffer buffer;
+
+		Segment(File file, boolean create) throws IOException {
+
+			this.file = file;
+			this.raf = new RandomAccessFile(file, create ? "rw" : "r");
+			try {
+				if (create) {
+					this.raf.setLength(SegmentStore.this.segmentSize);
+				}
+				this.buffer = this.raf.getChannel().map(
+						create ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, this.raf.length());
+				this.buffer.order(ByteOrder.nativeOrder());
+			} catch (IOException e) {
+				this.raf.close();
+				throw e;
+			}
+
+			if (create) {
+				this.buffer.putInt(0, MAGIC);
+				this.buffer.putInt(4, VERSION);
+				this.buffer.putInt(8, SegmentStore.this.lineCount);
+				this.buffer.putInt(12, 0);
+				this.buffer.putLong(32, 0);
+				this.buffer.putInt(40, HEADER_SIZE);
+			} else if (this.buffer.capacity() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC
+					|| this.buffer.getInt(4) != VERSION) {
+				this.raf.close();
+				throw new IOException("SegmentStore: " + file + " is not a segment file.");
+			}
+		}
+
+		int getDataEnd() {
+			return this.buffer.getInt(40);
+		}
+
+		void setDataEnd(int offset) {
+			this.buffer.putInt(40, offset);
+		}
+
+		long getSampleCount() {
+			return this.buffer.getLong(32);
+		}
+
+		long getFirstTimestamp() {
+			return this.buffer.getLong(16);
+		}
+
+		long getLastTimestamp() {
+			return this.buffer.getLong(24);
+		}
+
+		void addSample(long timestamp) {
+
+			if (this.getSampleCount() == 0) {
+				this.buffer.putLong(16, timestamp);
+			}
+			this.buffer.putLong(24, timestamp);
+			this.buffer.putLong(32, this.getSampleCount() + 1);
+		}
+
+		int getIndexCount() {
+			return this.buffer.getInt(12);
+		}
+
+		int indexEntry(int entry) {
+			return this.buffer.capacity() - INDEX_ENTRY_SIZE * (entry + 1);
+		}
+
+		void addIndexEntry(long timestamp, int offset) {
+
+			int count = this.getIndexCount();
+			int entry = this.indexEntry(count);
+			this.buffer.putLong(entry, timestamp);
+			this.buffer.putInt(entry + 8, offset);
+			this.buffer.putInt(12, count + 1);
+		}
+
+		/**
+		 * Returns the number of bytes left between the records and the index.
+		 */
+		int free() {
+			return this.indexEntry(this.getIndexCount()) - this.getDataEnd();
+		}
+
+		/**
+		 * Returns the offset of the last key record at or before the given time,
+		 * or of the first key record if there is none.
+		 */
+		int floorKey(long timestamp) {
+
+			int low = 0;
+			int high = this.getIndexCount() - 1;
+			int found = 0;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (this.buffer.getLong(this.indexEntry(mid)) - timestamp <= 0) {
+					found = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return this.buffer.getInt(this.indexEntry(found) + 8);
+		}
+
+		void close() {
+
+			try {
+				this.raf.close();
+			} catch (IOException e) {
+				// Nothing more can be done with the file.
+			}
+		}
+
+		void delete() {
+
+			this.close();
+			if (!this.file.delete()) {
+				this.file.deleteOnExit();
+			}
+		}
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides classes to record and query the history of the port states of the Ether IO family of digital I/O boards.
+ */
+package com.cybernian.ether_io.history;
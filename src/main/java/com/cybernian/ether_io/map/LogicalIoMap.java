@@ -0,0 +1,306 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.map;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.drivers.IO24TPC;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Maps named I/O points on any number of boards to compact integer IDs. An ID
+ * resolves to its board, port and line through flat array lookups, and bulk
+ * reads and writes of many IDs are grouped by board and port so each port is
+ * read and written at most once per call.
+ * <p>
+ * Points are expected to be defined while the application is set up. Once
+ * defined, the map may be used from several threads.
+ * 
+ * @author Gerard L. Muir
+ */
+public class LogicalIoMap {
+
+	private static final int MAX_PORTS = 16; // Port slots per board, enough for an IO72TPC.
+
+	private final List<IO24Core> boards = new ArrayList<IO24Core>();
+	private final Map<IO24Core, Integer> boardIndexes = new IdentityHashMap<IO24Core, Integer>();
+	private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+	private int[] boardOf = new int[64];
+	private byte[] portOf = new byte[64];
+	private byte[] lineOf = new byte[64];
+	private int size;
+
+	/**
+	 * Defines a new I/O point.
+	 * 
+	 * @param name
+	 *            The unique name of the point.
+	 * @param board
+	 *            The board the point is wired to.
+	 * @param ioPort
+	 *            The port letter.
+	 * @param ioLine
+	 *            The I/O line number. 0-7
+	 * @return The ID of the point. IDs are assigned from 0 in definition order.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the name is already defined or the port or line is
+	 *             invalid for the board.
+	 */
+	public synchronized int define(String name, IO24Core board, char ioPort, int ioLine)
+			throws IllegalArgumentException {
+
+		if (this.names.containsKey(name)) {
+			throw new IllegalArgumentException("LogicalIoMap: Validation error: " + name + " is already defined.");
+		}
+		board.isPortLetterValid(ioPort);
+		if (ioLine < 0 || ioLine > 7) {
+			throw new IllegalArgumentException(
+					"LogicalIoMap: Validation error: \"" + ioLine + "\" is not a valid line number within a port.");
+		}
+
+		Integer boardIndex = this.boardIndexes.get(board);
+		if (boardIndex == null) {
+			boardIndex = this.boards.size();
+			this.boards.add(board);
+			this.boardIndexes.put(board, boardIndex);
+		}
+
+		if (this.size == this.boardOf.length) {
+			int capacity = this.size * 2;
+			this.boardOf = Arrays.copyOf(this.boardOf, capacity);
+			this.portOf = Arrays.copyOf(this.portOf, capacity);
+			this.lineOf = Arrays.copyOf(this.lineOf, capacity);
+		}
+		int id = this.size++;
+		this.boardOf[id] = boardIndex;
+		this.portOf[id] = (byte) PortImage.portIndex(ioPort);
+		this.lineOf[id] = (byte) ioLine;
+		this.names.put(name, id);
+		return id;
+	}
+
+	/**
+	 * @param name
+	 *            The point name.
+	 * @return The ID of the point, or -1 if the name is not defined.
+	 */
+	public synchronized int getId(String name) {
+
+		Integer id = this.names.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return The number of defined points.
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param id
+	 *            The point ID.
+	 * @return The board the point is wired to.
+	 */
+	public IO24Core getBoard(int id) {
+		return this.boards.get(this.boardOf[id]);
+	}
+
+	/**
+	 * @param id
+	 *            The point ID.
+	 * @return The lower case port letter of the point.
+	 */
+	public char getPortLetter(int id) {
+		return PortImage.portLetter(this.portOf[id]);
+	}
+
+	/**
+	 * @param id
+	 *            The point ID.
+	 * @return The I/O line number of the point. 0-7
+	 */
+	public int getLine(int id) {
+		return this.lineOf[id];
+	}
+
+	/**
+	 * Writes the given points with <code>CommandPriority.CONTROL</code>.
+	 * 
+	 * @param ids
+	 *            The point IDs.
+	 * @param values
+	 *            The desired line values, 0 or 1, in the same order as the IDs.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 * @see #setLines(int[], int[], CommandPriority)
+	 */
+	public void setLines(int[] ids, int[] values) throws IOException {
+
+		this.setLines(ids, values, CommandPriority.CONTROL);
+	}
+
+	/**
+	 * Writes the given points. The points are grouped by board and port, and each
+	 * port that has points to write is written with a single datagram. Ports
+	 * where only some lines change are read first; on a board with more than one
+	 * such port the reads are pipelined. The read and the writes of a board are
+	 * issued as one scheduled operation. TPC boards write each port with
+	 * <code>IO24TPC.writeLines</code> instead. If an ID appears more than once the
+	 * last value wins.
+	 * 
+	 * @param ids
+	 *            The point IDs.
+	 * @param values
+	 *            The desired line values, 0 or 1, in the same order as the IDs.
+	 * @param priority
+	 *            The priority class of the writes.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void setLines(int[] ids, int[] values, CommandPriority priority) throws IOException {
+
+		if (ids.length != values.length) {
+			throw new IllegalArgumentException("LogicalIoMap: Validation error: one value per ID required.");
+		}
+
+		int[] masks = new int[this.boards.size() * MAX_PORTS];
+		int[] bits = new int[masks.length];
+		for (int i = 0; i < ids.length; i++) {
+			int id = ids[i];
+			int slot = this.boardOf[id] * MAX_PORTS + this.portOf[id];
+			int bit = 1 << this.lineOf[id];
+			masks[slot] |= bit;
+			if (values[i] != 0) {
+				bits[slot] |= bit;
+			} else {
+				bits[slot] &= ~bit;
+			}
+		}
+
+		for (int board = 0; board < this.boards.size(); board++) {
+			int base = board * MAX_PORTS;
+			int partialPorts = 0;
+			int lastPartial = -1;
+			boolean touched = false;
+			for (int port = 0; port < MAX_PORTS; port++) {
+				int mask = masks[base + port];
+				touched |= mask != 0;
+				if (mask != 0 && mask != 0xff) {
+					partialPorts++;
+					lastPartial = port;
+				}
+			}
+			if (!touched) {
+				continue;
+			}
+
+			IO24Core driver = this.boards.get(board);
+			if (driver instanceof IO24TPC) {
+				// TPC boards choose between pin commands and port writes themselves.
+				IO24TPC tpc = (IO24TPC) driver;
+				tpc.getCommandScheduler().acquire(priority);
+				try {
+					for (int port = 0; port < MAX_PORTS; port++) {
+						if (masks[base + port] != 0) {
+							tpc.writeLines(PortImage.portLetter(port), masks[base + port], bits[base + port], priority);
+						}
+					}
+				} finally {
+					tpc.getCommandScheduler().release();
+				}
+				continue;
+			}
+
+			driver.getCommandScheduler().acquire(priority);
+			try {
+				long[] current = PortImage.create(driver.getLineCount());
+				if (partialPorts > 1) {
+					driver.readPortImage(current);
+				} else if (partialPorts == 1) {
+					byte[] returnData = driver.readData(
+							new byte[] { (byte) (int) PortImage.portLetter(lastPartial) }, 2, priority);
+					PortImage.setPort(current, lastPartial, returnData[1]);
+				}
+				for (int port = 0; port < MAX_PORTS; port++) {
+					int mask = masks[base + port];
+					if (mask != 0) {
+						int value = (PortImage.getPort(current, port) & ~mask) | bits[base + port];
+						driver.writePortValue(PortImage.portLetter(port), value, priority);
+					}
+				}
+			} finally {
+				driver.getCommandScheduler().release();
+			}
+		}
+	}
+
+	/**
+	 * Reads the given points. The points are grouped by board, and each board is
+	 * read once: a single port read if all its points are on one port, otherwise
+	 * a pipelined read of every port.
+	 * 
+	 * @param ids
+	 *            The point IDs.
+	 * @param values
+	 *            Receives the line values, 0 or 1, in the same order as the IDs.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void getLines(int[] ids, int[] values) throws IOException {
+
+		if (ids.length != values.length) {
+			throw new IllegalArgumentException("LogicalIoMap: Validation error: one value per ID required.");
+		}
+
+		int[] portMasks = new int[this.boards.size()]; // Bit set for every port to read.
+		for (int id : ids) {
+			portMasks[this.boardOf[id]] |= 1 << this.portOf[id];
+		}
+
+		long[][] images = new long[this.boards.size()][];
+		for (int board = 0; board < portMasks.length; board++) {
+			int portMask = portMasks[board];
+			if (portMask == 0) {
+				continue;
+			}
+			IO24Core driver = this.boards.get(board);
+			long[] image = PortImage.create(driver.getLineCount());
+			if (Integer.bitCount(portMask) > 1) {
+				driver.readPortImage(image);
+			} else {
+				int port = Integer.numberOfTrailingZeros(portMask);
+				byte[] returnData = driver.readPortValue(PortImage.portLetter(port));
+				PortImage.setPort(image, port, returnData[1]);
+			}
+			images[board] = image;
+		}
+
+		for (int i = 0; i < ids.length; i++) {
+			int id = ids[i];
+			values[i] = PortImage.getLine(images[this.boardOf[id]], this.portOf[id] * 8 + this.lineOf[id]) ? 1 : 0;
+		}
+	}
+}
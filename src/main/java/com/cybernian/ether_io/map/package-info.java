@@ -0,0 +1,4 @@
+/**
+ * Provides a logical I/O namespace spanning several Ether IO boards.
+ */
+package com.cybernian.ether_io.map;
@@ -0,0 +1,567 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.modbus;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.LatestValueTable;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.map.LogicalIoMap;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * A Modbus TCP server for a set of boards. Modbus unit 1 is the first board,
+ * unit 2 the second and so on. For each board:
+ * <ul>
+ * <li>Coils and discrete inputs 0 to lines-1 are the I/O lines, port A line 0
+ * being address 0.</li>
+ * <li>Holding registers 0 to ports-1 are the port values, 0-255.</li>
+ * </ul>
+ * Reads are answered from a {@link LatestValueTable} kept up to date by the
+ * application's polling, normally a <code>ScanScheduler</code> whose groups
+ * report to a <code>LatestValueListener</code>, never from the board, so they
+ * cost no network traffic and are answered at once. Coil writes go through
+ * <code>LogicalIoMap.setLines</code>, which writes each port with one datagram
+ * and chooses pin commands on TPC boards; register writes go to
+ * <code>writePortValue</code>. Supported functions are 1, 2, 3, 5, 6, 15 and
+ * 16.
+ * <p>
+ * All connections are served by one selector thread. Writes, which wait for
+ * the network, run on an executor; while a write of a connection is running
+ * its later requests wait, so each client sees its requests applied in order.
+ * 
+ * @author Gerard L. Muir
+ */
+public class ModbusTcpServer {
+
+	// Function codes.
+	static final int READ_COILS = 1;
+	static final int READ_DISCRETE_INPUTS = 2;
+	static final int READ_HOLDING_REGISTERS = 3;
+	static final int WRITE_SINGLE_COIL = 5;
+	static final int WRITE_SINGLE_REGISTER = 6;
+	static final int WRITE_MULTIPLE_COILS = 15;
+	static final int WRITE_MULTIPLE_REGISTERS = 16;
+
+	// Exception codes.
+	static final int ILLEGAL_FUNCTION = 1;
+	static final int ILLEGAL_DATA_ADDRESS = 2;
+	static final int ILLEGAL_DATA_VALUE = 3;
+	static final int SERVER_DEVICE_FAILURE = 4;
+	static final int GATEWAY_PATH_UNAVAILABLE = 0x0A;
+	static final int GATEWAY_TARGET_FAILED = 0x0B;
+
+	private static final int MBAP_SIZE = 7;
+	private static final int MAX_FRAME = 260; // MBAP header plus the largest PDU.
+
+	private final List<IO24Core> boards;
+	private final LatestValueTable table;
+	private final LogicalIoMap lines = new LogicalIoMap();
+	private final int[] firstLineId; // Logical ID of line 0 of each board.
+	private final ExecutorService writeExecutor;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final Queue<Runnable> completions = new ConcurrentLinkedQueue<Runnable>();
+	private final PortSample sample; // Reused by the selector thread.
+	private Thread thread;
+	private volatile boolean running;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong exceptionCount = new AtomicLong();
+	private final AtomicLong connectionCount = new AtomicLong();
+
+	/**
+	 * Opens the server socket.
+	 * 
+	 * @param bindAddress
+	 *            The address to listen on, normally port 502.
+	 * @param boards
+	 *            The boards, unit 1 first.
+	 * @param table
+	 *            The latest port images of the boards, by list index.
+	 * @param writeExecutor
+	 *            Runs the writes to the boards.
+	 * @throws IOException
+	 *             Thrown if the server socket could not be opened.
+	 */
+	public ModbusTcpServer(SocketAddress bindAddress, List<? extends IO24Core> boards, LatestValueTable table,
+			ExecutorService writeExecutor) throws IOException {
+
+		this.boards = new ArrayList<IO24Core>(boards);
+		this.table = table;
+		this.writeExecutor = writeExecutor;
+
+		int maxLines = 0;
+		this.firstLineId = new int[this.boards.size()];
+		for (int b = 0; b < this.boards.size(); b++) {
+			IO24Core board = this.boards.get(b);
+			maxLines = Math.max(maxLines, board.getLineCount());
+			for (int line = 0; line < board.getLineCount(); line++) {
+				int id = this.lines.define((b + 1) + "." + line, board, PortImage.portLetter(line >>> 3), line & 7);
+				if (line == 0) {
+					this.firstLineId[b] = id;
+				}
+			}
+		}
+		this.sample = new PortSample(maxLines);
+
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(bindAddress);
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Starts serving clients.
+	 */
+	public synchronized void start() {
+
+		this.running = true;
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ModbusTcpServer.this.serve();
+			}
+		}, "ModbusTcpServer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Closes every connection and the server socket.
+	 */
+	public void close() {
+
+		this.running = false;
+		this.selector.wakeup();
+		Thread serving = this.thread;
+		if (serving != null) {
+			try {
+				serving.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return The local address the server listens on.
+	 * @throws IOException
+	 *             Thrown if the server socket is closed.
+	 */
+	public SocketAddress getLocalAddress() throws IOException {
+		return this.serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * @return The number of requests received.
+	 */
+	public long getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/**
+	 * @return The number of requests answered with a Modbus exception.
+	 */
+	public long getExceptionCount() {
+		return this.exceptionCount.get();
+	}
+
+	/**
+	 * @return The number of connections accepted.
+	 */
+	public long getConnectionCount() {
+		return this.connectionCount.get();
+	}
+
+	private void serve() {
+
+		try {
+			while (this.running) {
+				this.selector.select();
+				Runnable completion;
+				while ((completion = this.completions.poll()) != null) {
+					completion.run();
+				}
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable()) {
+							this.accept();
+						} else {
+							Connection connection = (Connection) key.attachment();
+							if (key.isReadable()) {
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.flush();
+							}
+						}
+					} catch (IOException e) {
+						this.closeKey(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			// Selector failed; fall through and close everything.
+		} finally {
+			for (SelectionKey key : this.selector.keys()) {
+				this.closeKey(key);
+			}
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				// Nothing more to do.
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+
+		SocketChannel channel = this.serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+		this.connectionCount.incrementAndGet();
+	}
+
+	private void closeKey(SelectionKey key) {
+
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Already closed.
+		}
+	}
+
+	/**
+	 * The state of one client connection. Used by the selector thread only.
+	 */
+	private class Connection {
+
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final ByteBuffer input = ByteBuffer.allocate(4 * MAX_FRAME);
+		private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+		private boolean writing; // True while a board write of this connection runs.
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		void read() throws IOException {
+
+			if (this.channel.read(this.input) < 0) {
+				throw new IOException("ModbusTcpServer: Connection closed by client.");
+			}
+			this.process();
+		}
+
+		/**
+		 * Handles every complete frame in the input buffer, stopping at a write
+		 * until it has finished.
+		 */
+		void process() throws IOException {
+
+			this.input.flip();
+			while (!this.writing && this.input.remaining() >= MBAP_SIZE) {
+				int start = this.input.position();
+				int length = this.input.getShort(start + 4) & 0xffff;
+				if (this.input.getShort(start + 2) != 0 || length < 2 || length > MAX_FRAME - 6) {
+					throw new IOException("ModbusTcpServer: Invalid frame header.");
+				}
+				if (this.input.remaining() < 6 + length) {
+					break;
+				}
+				byte[] frame = new byte[6 + length];
+				this.input.get(frame);
+				ModbusTcpServer.this.requestCount.incrementAndGet();
+				this.handle(frame);
+			}
+			this.input.compact();
+
+			// Stop reading while a write runs or the buffer is full, so a client
+			// that floods the server is throttled by TCP.
+			int interest = this.writing || !this.input.hasRemaining() ? 0 : SelectionKey.OP_READ;
+			if (!this.output.isEmpty()) {
+				interest |= SelectionKey.OP_WRITE;
+			}
+			this.key.interestOps(interest);
+		}
+
+		void flush() throws IOException {
+
+			while (!this.output.isEmpty()) {
+				ByteBuffer buffer = this.output.peek();
+				this.channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					return;
+				}
+				this.output.poll();
+			}
+			this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+
+		private void respond(byte[] frame, byte[] pdu) throws IOException {
+
+			ByteBuffer response = ByteBuffer.allocate(MBAP_SIZE + pdu.length);
+			response.put(frame, 0, 4); // Transaction and protocol IDs.
+			response.putShort((short) (pdu.length + 1));
+			response.put(frame[6]); // Unit ID.
+			response.put(pdu);
+			response.flip();
+			this.output.add(response);
+			this.flush();
+			if (!this.output.isEmpty()) {
+				this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+
+		private void handle(final byte[] frame) throws IOException {
+
+			final int function = frame[MBAP_SIZE] & 0xff;
+			int unit = frame[6] & 0xff;
+			if (unit < 1 || unit > ModbusTcpServer.this.boards.size()) {
+				this.respond(frame, exception(function, GATEWAY_PATH_UNAVAILABLE));
+				return;
+			}
+			final int board = unit - 1;
+			final ByteBuffer pdu = ByteBuffer.wrap(frame, MBAP_SIZE, frame.length - MBAP_SIZE).slice();
+
+			byte[] response;
+			switch (function) {
+			case READ_COILS:
+			case READ_DISCRETE_INPUTS:
+			case READ_HOLDING_REGISTERS:
+				response = ModbusTcpServer.this.read(board, pdu);
+				this.respond(frame, response);
+				return;
+			case WRITE_SINGLE_COIL:
+			case WRITE_SINGLE_REGISTER:
+			case WRITE_MULTIPLE_COILS:
+			case WRITE_MULTIPLE_REGISTERS:
+				response = ModbusTcpServer.this.validateWrite(board, pdu);
+				if (response != null) {
+					this.respond(frame, response);
+					return;
+				}
+				break;
+			default:
+				this.respond(frame, exception(function, ILLEGAL_FUNCTION));
+				return;
+			}
+
+			this.writing = true;
+			ModbusTcpServer.this.writeExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final byte[] result = ModbusTcpServer.this.write(board, pdu);
+					ModbusTcpServer.this.completions.add(new Runnable() {
+						@Override
+						public void run() {
+							Connection.this.writeDone(frame, result);
+						}
+					});
+					ModbusTcpServer.this.selector.wakeup();
+				}
+			});
+		}
+
+		private void writeDone(byte[] frame, byte[] result) {
+
+			this.writing = false;
+			if (!this.key.isValid()) {
+				return;
+			}
+			try {
+				this.respond(frame, result);
+				this.process();
+			} catch (IOException e) {
+				ModbusTcpServer.this.closeKey(this.key);
+			}
+		}
+	}
+
+	/**
+	 * Answers a read function from the latest value table.
+	 */
+	private byte[] read(int board, ByteBuffer pdu) {
+
+		int function = pdu.get(0) & 0xff;
+		if (pdu.limit() != 5) {
+			return exception(function, ILLEGAL_DATA_VALUE);
+		}
+		int address = pdu.getShort(1) & 0xffff;
+		int quantity = pdu.getShort(3) & 0xffff;
+		IO24Core driver = this.boards.get(board);
+
+		boolean registers = function == READ_HOLDING_REGISTERS;
+		int maxQuantity = registers ? 125 : 2000;
+		int size = registers ? driver.getPortCount() : driver.getLineCount();
+		if (quantity < 1 || quantity > maxQuantity) {
+			return exception(function, ILLEGAL_DATA_VALUE);
+		}
+		if (address + quantity > size) {
+			return exception(function, ILLEGAL_DATA_ADDRESS);
+		}
+		if (this.table.read(board, this.sample) == 0) {
+			return exception(function, GATEWAY_TARGET_FAILED); // Not polled yet.
+		}
+
+		long[] image = this.sample.getImage();
+		byte[] response;
+		if (registers) {
+			response = new byte[2 + quantity * 2];
+			for (int i = 0; i < quantity; i++) {
+				response[3 + i * 2] = (byte) PortImage.getPort(image, address + i);
+			}
+		} else {
+			response = new byte[2 + (quantity + 7) / 8];
+			for (int i = 0; i < quantity; i++) {
+				if (PortImage.getLine(image, address + i)) {
+					response[2 + i / 8] |= 1 << (i % 8);
+				}
+			}
+		}
+		response[0] = (byte) function;
+		response[1] = (byte) (response.length - 2);
+		return response;
+	}
+
+	/**
+	 * Checks a write function, returning an exception response or null if the
+	 * write may go ahead.
+	 */
+	private byte[] validateWrite(int board, ByteBuffer pdu) {
+
+		int function = pdu.get(0) & 0xff;
+		IO24Core driver = this.boards.get(board);
+		if (pdu.limit() < 5) {
+			return exception(function, ILLEGAL_DATA_VALUE);
+		}
+		int address = pdu.getShort(1) & 0xffff;
+		int value = pdu.getShort(3) & 0xffff;
+
+		switch (function) {
+		case WRITE_SINGLE_COIL:
+			if (pdu.limit() != 5 || (value != 0xff00 && value != 0)) {
+				return exception(function, ILLEGAL_DATA_VALUE);
+			}
+			return address < driver.getLineCount() ? null : exception(function, ILLEGAL_DATA_ADDRESS);
+		case WRITE_SINGLE_REGISTER:
+			if (pdu.limit() != 5 || value > 0xff) {
+				return exception(function, ILLEGAL_DATA_VALUE);
+			}
+			return address < driver.getPortCount() ? null : exception(function, ILLEGAL_DATA_ADDRESS);
+		default:
+			int quantity = value;
+			boolean coils = function == WRITE_MULTIPLE_COILS;
+			int byteCount = pdu.limit() > 5 ? pdu.get(5) & 0xff : -1;
+			int expected = coils ? (quantity + 7) / 8 : quantity * 2;
+			if (quantity < 1 || quantity > (coils ? 1968 : 123) || byteCount != expected
+					|| pdu.limit() != 6 + byteCount) {
+				return exception(function, ILLEGAL_DATA_VALUE);
+			}
+			if (!coils) {
+				for (int i = 0; i < quantity; i++) {
+					if ((pdu.getShort(6 + i * 2) & 0xffff) > 0xff) {
+						return exception(function, ILLEGAL_DATA_VALUE);
+					}
+				}
+			}
+			int size = coils ? driver.getLineCount() : driver.getPortCount();
+			return address + quantity <= size ? null : exception(function, ILLEGAL_DATA_ADDRESS);
+		}
+	}
+
+	/**
+	 * Performs a validated write function on the board. Runs on the write
+	 * executor.
+	 */
+	private byte[] write(int board, ByteBuffer pdu) {
+
+		int function = pdu.get(0) & 0xff;
+		int address = pdu.getShort(1) & 0xffff;
+		int value = pdu.getShort(3) & 0xffff;
+		IO24Core driver = this.boards.get(board);
+
+		try {
+			switch (function) {
+			case WRITE_SINGLE_COIL:
+				this.lines.setLines(new int[] { this.firstLineId[board] + address },
+						new int[] { value == 0xff00 ? 1 : 0 });
+				break;
+			case WRITE_SINGLE_REGISTER:
+				driver.writePortValue(PortImage.portLetter(address), value);
+				break;
+			case WRITE_MULTIPLE_COILS:
+				int[] ids = new int[value];
+				int[] values = new int[value];
+				for (int i = 0; i < value; i++) {
+					ids[i] = this.firstLineId[board] + address + i;
+					values[i] = (pdu.get(6 + i / 8) >>> (i % 8)) & 1;
+				}
+				this.lines.setLines(ids, values);
+				break;
+			case WRITE_MULTIPLE_REGISTERS:
+				for (int i = 0; i < value; i++) {
+					driver.writePortValue(PortImage.portLetter(address + i), pdu.getShort(6 + i * 2) & 0xff);
+				}
+				break;
+			}
+		} catch (IOException | RuntimeException e) {
+			return exception(function, GATEWAY_TARGET_FAILED);
+		}
+
+		// Single writes echo the request, multiple writes its first five bytes.
+		byte[] response = new byte[5];
+		for (int i = 0; i < response.length; i++) {
+			response[i] = pdu.get(i);
+		}
+		return response;
+	}
+
+	private byte[] exception(int function, int code) {
+
+		this.exceptionCount.incrementAndGet();
+		return new byte[] { (byte) (function | 0x80), (byte) code };
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides a Modbus TCP server giving access to Ether IO boards.
+ */
+package com.cybernian.ether_io.modbus;
@@ -0,0 +1,337 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.rules;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.map.LogicalIoMap;
+
+/**
+ * Evaluates interlock rules on the packed port images of a set of boards. A
+ * rule reads
+ * 
+ * <pre>
+ * if &lt;condition&gt; then raise|lower &lt;point&gt; [else raise|lower &lt;point&gt;]
+ * </pre>
+ * 
+ * where the condition combines point names with and, or, not and parentheses,
+ * for example <code>if input B3 and not C7 then raise A0</code>. Point names
+ * are those of a {@link LogicalIoMap}.
+ * <p>
+ * Rules are compiled to mask tests once, when added. Each new sample of a
+ * board re-evaluates only the rules that read a line that changed.
+ * When a rule's result changes its output is written; the outputs of every
+ * rule that fired on one sample are written together through
+ * <code>LogicalIoMap.setLines</code>, one datagram per port. The time from the
+ * sample to the completed write is recorded for each rule. A rule is first
+ * evaluated once every board it reads has been sampled, and always writes its
+ * output then. If an output write fails, the rules that fired are evaluated
+ * and written again on the next sample, whether or not their inputs changed.
+ * 
+ * @author Gerard L. Muir
+ */
+public class InterlockEngine {
+
+	private static final int WORDS_PER_BOARD = 2; // Enough for 72 lines.
+	private static final Pattern RULE = Pattern.compile(
+			"\\s*if\\s+(.+?)\\s+then\\s+(raise|lower)\\s+(\\S+)(?:\\s+else\\s+(raise|lower)\\s+(\\S+))?\\s*",
+			Pattern.CASE_INSENSITIVE);
+
+	private final LogicalIoMap map;
+	private final Map<IO24Core, Integer> boardIndexes = new IdentityHashMap<IO24Core, Integer>();
+	private final List<InterlockRule> rules = new ArrayList<InterlockRule>();
+	private final List<List<InterlockRule>> rulesByWord = new ArrayList<List<InterlockRule>>();
+	private long[] image = new long[0]; // Global image, WORDS_PER_BOARD words per board.
+	private boolean[] seen = new boolean[0]; // Boards sampled at least once.
+	private final Set<InterlockRule> pending = new LinkedHashSet<InterlockRule>(); // New or failed rules.
+	private int pass;
+
+	/**
+	 * Creates an engine.
+	 * 
+	 * @param map
+	 *            Resolves point names and writes the outputs.
+	 */
+	public InterlockEngine(LogicalIoMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * Compiles and adds a rule.
+	 * 
+	 * @param name
+	 *            The rule name, used in reports.
+	 * @param text
+	 *            The rule.
+	 * @return The compiled rule.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the rule does not parse, names an unknown point or
+	 *             expands to too many terms.
+	 */
+	public synchronized InterlockRule addRule(String name, String text) throws IllegalArgumentException {
+
+		Matcher matcher = RULE.matcher(text);
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException("InterlockEngine: Validation error: " + text
+					+ " is not of the form if <condition> then raise|lower <point>.");
+		}
+
+		List<Map<Integer, Boolean>> terms = RuleCompiler.compile(matcher.group(1), new RuleCompiler.Resolver() {
+			@Override
+			public int resolve(String point) {
+				return InterlockEngine.this.globalLine(InterlockEngine.this.pointId(point));
+			}
+		});
+
+		int[][] termWords = new int[terms.size()][];
+		long[][] termSet = new long[terms.size()][];
+		long[][] termClear = new long[terms.size()][];
+		TreeMap<Integer, Long> inputs = new TreeMap<Integer, Long>(); // Input bits by word.
+		for (int t = 0; t < terms.size(); t++) {
+			// Collect the masks of each word the term tests.
+			TreeMap<Integer, long[]> words = new TreeMap<Integer, long[]>();
+			for (Map.Entry<Integer, Boolean> literal : terms.get(t).entrySet()) {
+				int line = literal.getKey();
+				long[] masks = words.get(line >>> 6);
+				if (masks == null) {
+					masks = new long[2];
+					words.put(line >>> 6, masks);
+				}
+				masks[literal.getValue() ? 0 : 1] |= 1L << line;
+			}
+			termWords[t] = new int[words.size()];
+			termSet[t] = new long[words.size()];
+			termClear[t] = new long[words.size()];
+			int i = 0;
+			for (Map.Entry<Integer, long[]> word : words.entrySet()) {
+				termWords[t][i] = word.getKey();
+				termSet[t][i] = word.getValue()[0];
+				termClear[t][i] = word.getValue()[1];
+				i++;
+			}
+			for (Map.Entry<Integer, long[]> word : words.entrySet()) {
+				Long bits = inputs.get(word.getKey());
+				inputs.put(word.getKey(), (bits == null ? 0 : bits) | word.getValue()[0] | word.getValue()[1]);
+			}
+		}
+
+		int[] inputWords = new int[inputs.size()];
+		long[] inputMasks = new long[inputs.size()];
+		TreeSet<Integer> boards = new TreeSet<Integer>();
+		int w = 0;
+		for (Map.Entry<Integer, Long> input : inputs.entrySet()) {
+			inputWords[w] = input.getKey();
+			inputMasks[w] = input.getValue();
+			boards.add(input.getKey() / WORDS_PER_BOARD);
+			w++;
+		}
+
+		int thenId = this.pointId(matcher.group(3));
+		int thenValue = matcher.group(2).equalsIgnoreCase("raise") ? 1 : 0;
+		int elseId = matcher.group(5) == null ? -1 : this.pointId(matcher.group(5));
+		int elseValue = matcher.group(4) != null && matcher.group(4).equalsIgnoreCase("raise") ? 1 : 0;
+
+		InterlockRule rule = new InterlockRule(name, text, termWords, termSet, termClear, inputWords, inputMasks,
+				toArray(boards), thenId, thenValue, elseId, elseValue);
+		this.rules.add(rule);
+		this.pending.add(rule);
+		for (int word : rule.inputWords) {
+			this.rulesByWord.get(word).add(rule);
+		}
+		return rule;
+	}
+
+	/**
+	 * @return The rules in the order they were added.
+	 */
+	public synchronized List<InterlockRule> getRules() {
+		return new ArrayList<InterlockRule>(this.rules);
+	}
+
+	/**
+	 * Applies a new sample, naming its board through
+	 * <code>PortSample.getBoard()</code>.
+	 * 
+	 * @param sample
+	 *            The sample.
+	 * @throws IOException
+	 *             Thrown if an output write failed. The rules that should have
+	 *             written are evaluated again on the next sample.
+	 */
+	public void update(PortSample sample) throws IOException {
+
+		this.update(sample.getBoard(), sample.getImage(), sample.getSampleNanos());
+	}
+
+	/**
+	 * Applies a new port image of a board.
+	 * 
+	 * @param board
+	 *            The board.
+	 * @param boardImage
+	 *            The board's packed port image.
+	 * @param sampleNanos
+	 *            The <code>System.nanoTime()</code> the image was sampled at.
+	 * @throws IOException
+	 *             Thrown if an output write failed. The rules that should have
+	 *             written are evaluated again on the next sample.
+	 */
+	public synchronized void update(IO24Core board, long[] boardImage, long sampleNanos) throws IOException {
+
+		Integer index = this.boardIndexes.get(board);
+		if (index == null) {
+			return; // No rule reads this board.
+		}
+		int base = index * WORDS_PER_BOARD;
+		boolean first = !this.seen[index];
+		this.seen[index] = true;
+		this.pass++;
+
+		List<InterlockRule> fired = new ArrayList<InterlockRule>();
+		for (int w = 0; w < WORDS_PER_BOARD; w++) {
+			long word = w < boardImage.length ? boardImage[w] : 0;
+			long changed = first ? -1L : word ^ this.image[base + w];
+			if (changed == 0) {
+				continue;
+			}
+			this.image[base + w] = word;
+			for (InterlockRule rule : this.rulesByWord.get(base + w)) {
+				if (rule.pass == this.pass || (rule.inputMask(base + w) & changed) == 0 || !this.allSeen(rule)) {
+					continue;
+				}
+				this.evaluate(rule, fired);
+			}
+		}
+
+		// Rules not yet evaluated, or whose write failed, are evaluated whatever changed.
+		Iterator<InterlockRule> iterator = this.pending.iterator();
+		while (iterator.hasNext()) {
+			InterlockRule rule = iterator.next();
+			if (!this.allSeen(rule)) {
+				continue;
+			}
+			iterator.remove();
+			if (rule.pass != this.pass) {
+				this.evaluate(rule, fired);
+			}
+		}
+
+		if (fired.isEmpty()) {
+			return;
+		}
+		int[] ids = new int[fired.size()];
+		int[] values = new int[fired.size()];
+		for (int i = 0; i < ids.length; i++) {
+			InterlockRule rule = fired.get(i);
+			ids[i] = rule.state == 1 ? rule.thenId : rule.elseId;
+			values[i] = rule.state == 1 ? rule.thenValue : rule.elseValue;
+		}
+		try {
+			this.map.setLines(ids, values);
+		} catch (IOException e) {
+			for (InterlockRule rule : fired) {
+				rule.state = InterlockRule.UNKNOWN;
+				this.pending.add(rule);
+			}
+			throw e;
+		}
+		long latency = System.nanoTime() - sampleNanos;
+		for (InterlockRule rule : fired) {
+			rule.fired(latency);
+		}
+	}
+
+	/**
+	 * Evaluates a rule and adds it to the fired rules if its result changed and
+	 * it has an output for the new result.
+	 */
+	private void evaluate(InterlockRule rule, List<InterlockRule> fired) {
+
+		rule.pass = this.pass;
+		int state = rule.evaluate(this.image) ? 1 : 0;
+		if (state == rule.state) {
+			return;
+		}
+		rule.state = state;
+		if ((state == 1 ? rule.thenId : rule.elseId) >= 0) {
+			fired.add(rule);
+		}
+	}
+
+	private boolean allSeen(InterlockRule rule) {
+
+		for (int board : rule.boards) {
+			if (!this.seen[board]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int pointId(String point) {
+
+		int id = this.map.getId(point);
+		if (id < 0) {
+			throw new IllegalArgumentException("InterlockEngine: Validation error: " + point + " is not defined.");
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the global image line of a point, adding its board to the engine
+	 * if needed.
+	 */
+	private int globalLine(int id) {
+
+		IO24Core board = this.map.getBoard(id);
+		Integer index = this.boardIndexes.get(board);
+		if (index == null) {
+			index = this.boardIndexes.size();
+			this.boardIndexes.put(board, index);
+			this.image = Arrays.copyOf(this.image, (index + 1) * WORDS_PER_BOARD);
+			this.seen = Arrays.copyOf(this.seen, index + 1);
+			for (int w = 0; w < WORDS_PER_BOARD; w++) {
+				this.rulesByWord.add(new ArrayList<InterlockRule>());
+			}
+		}
+		int line = (this.map.getPortLetter(id) - 'a') * 8 + this.map.getLine(id);
+		return index * WORDS_PER_BOARD * 64 + line;
+	}
+
+	private static int[] toArray(TreeSet<Integer> set) {
+
+		int[] array = new int[set.size()];
+		int i = 0;
+		for (int value : set) {
+			array[i++] = value;
+		}
+		return array;
+	}
+}
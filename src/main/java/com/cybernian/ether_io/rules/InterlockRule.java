@@ -0,0 +1,171 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.rules;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybernian.ether_io.tools.LatencyHistogram;
+
+/**
+ * A compiled interlock rule. The condition is held as an OR of terms; each term
+ * is a list of image words with the bits that must be set and the bits that
+ * must be clear in each, so evaluating a rule is a few mask tests on the
+ * packed port images.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see InterlockEngine
+ */
+public class InterlockRule {
+
+	static final int UNKNOWN = -1;
+
+	private final String name;
+	private final String text;
+	final int[][] termWords; // Global image words tested by each term.
+	final long[][] termSet; // Bits that must be set, per term word.
+	final long[][] termClear; // Bits that must be clear, per term word.
+	final int[] inputWords; // Every global image word the rule reads.
+	final long[] inputMasks; // The bits the rule reads in each input word.
+	final int[] boards; // Every board index the rule reads.
+	final int thenId; // Output point driven when the condition becomes true, or -1.
+	final int thenValue;
+	final int elseId; // Output point driven when the condition becomes false, or -1.
+	final int elseValue;
+
+	int state = UNKNOWN; // Last result, 0 or 1.
+	int pass; // Last update pass the rule was considered in.
+
+	private final AtomicLong evaluationCount = new AtomicLong();
+	private final AtomicLong firingCount = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	InterlockRule(String name, String text, int[][] termWords, long[][] termSet, long[][] termClear,
+			int[] inputWords, long[] inputMasks, int[] boards, int thenId, int thenValue, int elseId, int elseValue) {
+
+		this.name = name;
+		this.text = text;
+		this.termWords = termWords;
+		this.termSet = termSet;
+		this.termClear = termClear;
+		this.inputWords = inputWords;
+		this.inputMasks = inputMasks;
+		this.boards = boards;
+		this.thenId = thenId;
+		this.thenValue = thenValue;
+		this.elseId = elseId;
+		this.elseValue = elseValue;
+	}
+
+	/**
+	 * Evaluates the condition on the engine's global image.
+	 */
+	boolean evaluate(long[] image) {
+
+		this.evaluationCount.incrementAndGet();
+		for (int term = 0; term < this.termWords.length; term++) {
+			int[] words = this.termWords[term];
+			long[] set = this.termSet[term];
+			long[] clear = this.termClear[term];
+			boolean match = true;
+			for (int i = 0; i < words.length && match; i++) {
+				long word = image[words[i]];
+				match = (word & set[i]) == set[i] && (word & clear[i]) == 0;
+			}
+			if (match) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the bits of a global image word the rule reads.
+	 */
+	long inputMask(int word) {
+
+		for (int i = 0; i < this.inputWords.length; i++) {
+			if (this.inputWords[i] == word) {
+				return this.inputMasks[i];
+			}
+		}
+		return 0;
+	}
+
+	void fired(long latencyNanos) {
+
+		this.firingCount.incrementAndGet();
+		this.latency.record(latencyNanos);
+	}
+
+	/**
+	 * @return The rule name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return The rule text.
+	 */
+	public String getText() {
+		return this.text;
+	}
+
+	/**
+	 * @return The number of terms of the compiled condition.
+	 */
+	public int getTermCount() {
+		return this.termWords.length;
+	}
+
+	/**
+	 * @return The last result of the condition, 1 or 0, or -1 before the first
+	 *         evaluation.
+	 */
+	public int getState() {
+		return this.state;
+	}
+
+	/**
+	 * @return The number of times the condition was evaluated.
+	 */
+	public long getEvaluationCount() {
+		return this.evaluationCount.get();
+	}
+
+	/**
+	 * @return The number of times the rule wrote its output.
+	 */
+	public long getFiringCount() {
+		return this.firingCount.get();
+	}
+
+	/**
+	 * Returns the latency from the input sample to the completed output write of
+	 * every firing.
+	 * 
+	 * @return The latency histogram.
+	 */
+	public LatencyHistogram getLatency() {
+		return this.latency;
+	}
+
+	@Override
+	public String toString() {
+		return this.name + ": " + this.text;
+	}
+}
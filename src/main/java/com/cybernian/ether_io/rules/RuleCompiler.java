@@ -0,0 +1,210 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parses a boolean expression over named lines and converts it to disjunctive
+ * normal form: an OR of terms, each term an AND of lines that must be set and
+ * lines that must be clear. The grammar is
+ * 
+ * <pre>
+ * expression := term (("or" | "||" | "|") term)*
+ * term       := factor (("and" | "&amp;&amp;" | "&amp;") factor)*
+ * factor     := ("not" | "!") factor | "(" expression ")" | ["input"] name
+ * </pre>
+ * 
+ * Keywords are not case sensitive. Names are resolved to global line numbers
+ * by the engine.
+ * 
+ * @author Gerard L. Muir
+ */
+class RuleCompiler {
+
+	static final int MAX_TERMS = 256; // Largest expansion accepted.
+
+	/**
+	 * Resolves a line name to a global line number.
+	 */
+	interface Resolver {
+		int resolve(String name) throws IllegalArgumentException;
+	}
+
+	private final List<String> tokens;
+	private final Resolver resolver;
+	private int position;
+
+	private RuleCompiler(String text, Resolver resolver) {
+		this.tokens = tokenize(text);
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Compiles an expression. Each term maps a global line number to the state
+	 * it must have.
+	 */
+	static List<Map<Integer, Boolean>> compile(String text, Resolver resolver) throws IllegalArgumentException {
+
+		RuleCompiler compiler = new RuleCompiler(text, resolver);
+		List<Map<Integer, Boolean>> terms = compiler.expression();
+		if (compiler.position != compiler.tokens.size()) {
+			throw new IllegalArgumentException("RuleCompiler: Validation error: unexpected '"
+					+ compiler.tokens.get(compiler.position) + "' in " + text);
+		}
+		return terms;
+	}
+
+	/**
+	 * Splits rule text into words, names, parentheses and operators.
+	 */
+	static List<String> tokenize(String text) {
+
+		List<String> tokens = new ArrayList<String>();
+		int i = 0;
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '(' || c == ')' || c == '!') {
+				tokens.add(String.valueOf(c));
+				i++;
+			} else if (c == '&' || c == '|') {
+				int end = i + 1 < text.length() && text.charAt(i + 1) == c ? i + 2 : i + 1;
+				tokens.add(String.valueOf(c));
+				i = end;
+			} else {
+				int start = i;
+				while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+						&& "()!&|".indexOf(text.charAt(i)) < 0) {
+					i++;
+				}
+				tokens.add(text.substring(start, i));
+			}
+		}
+		return tokens;
+	}
+
+	private boolean accept(String... alternatives) {
+
+		if (this.position < this.tokens.size()) {
+			for (String alternative : alternatives) {
+				if (this.tokens.get(this.position).equalsIgnoreCase(alternative)) {
+					this.position++;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private List<Map<Integer, Boolean>> expression() {
+
+		List<Map<Integer, Boolean>> result = this.term();
+		while (this.accept("or", "|")) {
+			result = or(result, this.term());
+		}
+		return result;
+	}
+
+	private List<Map<Integer, Boolean>> term() {
+
+		List<Map<Integer, Boolean>> result = this.factor();
+		while (this.accept("and", "&")) {
+			result = and(result, this.factor());
+		}
+		return result;
+	}
+
+	private List<Map<Integer, Boolean>> factor() {
+
+		if (this.accept("not", "!")) {
+			return not(this.factor());
+		}
+		if (this.accept("(")) {
+			List<Map<Integer, Boolean>> result = this.expression();
+			if (!this.accept(")")) {
+				throw new IllegalArgumentException("RuleCompiler: Validation error: missing ')'.");
+			}
+			return result;
+		}
+		this.accept("input");
+		if (this.position == this.tokens.size()) {
+			throw new IllegalArgumentException("RuleCompiler: Validation error: expression ends too early.");
+		}
+		String name = this.tokens.get(this.position++);
+		Map<Integer, Boolean> literal = new TreeMap<Integer, Boolean>();
+		literal.put(this.resolver.resolve(name), Boolean.TRUE);
+		List<Map<Integer, Boolean>> result = new ArrayList<Map<Integer, Boolean>>();
+		result.add(literal);
+		return result;
+	}
+
+	static List<Map<Integer, Boolean>> or(List<Map<Integer, Boolean>> a, List<Map<Integer, Boolean>> b) {
+
+		List<Map<Integer, Boolean>> result = new ArrayList<Map<Integer, Boolean>>(a);
+		result.addAll(b);
+		return checkSize(result);
+	}
+
+	static List<Map<Integer, Boolean>> and(List<Map<Integer, Boolean>> a, List<Map<Integer, Boolean>> b) {
+
+		List<Map<Integer, Boolean>> result = new ArrayList<Map<Integer, Boolean>>();
+		for (Map<Integer, Boolean> left : a) {
+			terms: for (Map<Integer, Boolean> right : b) {
+				Map<Integer, Boolean> merged = new TreeMap<Integer, Boolean>(left);
+				for (Map.Entry<Integer, Boolean> literal : right.entrySet()) {
+					Boolean existing = merged.put(literal.getKey(), literal.getValue());
+					if (existing != null && !existing.equals(literal.getValue())) {
+						continue terms; // A and not A is never true.
+					}
+				}
+				result.add(merged);
+			}
+		}
+		return checkSize(result);
+	}
+
+	static List<Map<Integer, Boolean>> not(List<Map<Integer, Boolean>> a) {
+
+		// not (t1 or t2 ...) = (not t1) and (not t2) ..., and not t is the OR of
+		// its negated literals.
+		List<Map<Integer, Boolean>> result = new ArrayList<Map<Integer, Boolean>>();
+		result.add(new TreeMap<Integer, Boolean>()); // True.
+		for (Map<Integer, Boolean> term : a) {
+			List<Map<Integer, Boolean>> negated = new ArrayList<Map<Integer, Boolean>>();
+			for (Map.Entry<Integer, Boolean> literal : term.entrySet()) {
+				Map<Integer, Boolean> single = new TreeMap<Integer, Boolean>();
+				single.put(literal.getKey(), !literal.getValue());
+				negated.add(single);
+			}
+			result = and(result, negated);
+		}
+		return result;
+	}
+
+	private static List<Map<Integer, Boolean>> checkSize(List<Map<Integer, Boolean>> terms) {
+
+		if (terms.size() > MAX_TERMS) {
+			throw new IllegalArgumentException("RuleCompiler: Validation error: expression expands to more than "
+					+ MAX_TERMS + " terms.");
+		}
+		return terms;
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides an interlock rule engine evaluated on packed port images.
+ */
+package com.cybernian.ether_io.rules;
@@ -0,0 +1,239 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.scan;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Debounces every I/O line of a board at once. A line only changes its filtered
+ * state after the raw samples have disagreed with the filtered state for the
+ * given number of consecutive samples; any sample that agrees restarts the
+ * count. This is the same result as a shift register filter of that length.
+ * <p>
+ * The per line counters are kept as bit planes, one long per counter bit and
+ * image word, so each sample is filtered with a handful of bitwise operations
+ * per 64 lines. The filter is not thread safe and is meant to be driven by the
+ * thread that samples the board.
+ * <p>
+ * The filter is also a {@link ScanListener} for the groups of one board: each
+ * sample filters only the ports of its group, and the filtered state is then
+ * passed on to the downstream listener, if any. Samples are filtered one at a
+ * time even when the groups run on different scan workers.
+ * 
+ * @author Gerard L. Muir
+ */
+public class DebounceFilter implements ScanListener {
+
+	private final int stableSamples; // Samples a change must persist for.
+	private final int planeCount; // Counter bits per line.
+	private final long[] state; // Filtered line state, one bit per line.
+	private final long[] changes; // Lines that changed on the last update.
+	private final long[][] planes; // Counter bit planes, [bit][word].
+	private final long[] lineMask; // Valid line bits of each word.
+	private final ScanListener downstream; // Receives the filtered samples, or null.
+	private final PortSample filtered; // Filtered sample passed downstream.
+
+	/**
+	 * Creates a filter for the given number of lines. All lines start low.
+	 * 
+	 * @param lineCount
+	 *            Number of I/O lines to filter. 24 for IO24 boards, 72 for IO72TPC.
+	 * @param stableSamples
+	 *            Number of consecutive samples a change must be seen for before it
+	 *            is accepted. 1 disables filtering.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the line count or sample count is less than 1.
+	 */
+	public DebounceFilter(int lineCount, int stableSamples) throws IllegalArgumentException {
+		this(lineCount, stableSamples, null);
+	}
+
+	/**
+	 * Creates a filter stage for the scan groups of one board. All lines start
+	 * low.
+	 * 
+	 * @param lineCount
+	 *            Number of I/O lines of the board. 24 for IO24 boards, 72 for
+	 *            IO72TPC.
+	 * @param stableSamples
+	 *            Number of consecutive samples a change must be seen for before it
+	 *            is accepted. 1 disables filtering.
+	 * @param downstream
+	 *            Receives every sample with the filtered state in place of the
+	 *            raw image, or null.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the line count or sample count is less than 1.
+	 */
+	public DebounceFilter(int lineCount, int stableSamples, ScanListener downstream)
+			throws IllegalArgumentException {
+
+		if (lineCount < 1 || stableSamples < 1) {
+			throw new IllegalArgumentException("DebounceFilter: Line and sample counts must be at least 1.");
+		}
+
+		int words = PortImage.words(lineCount);
+		this.stableSamples = stableSamples;
+		this.planeCount = 32 - Integer.numberOfLeadingZeros(stableSamples);
+		this.state = new long[words];
+		this.changes = new long[words];
+		this.planes = new long[this.planeCount][words];
+		this.lineMask = new long[words];
+		for (int line = 0; line < lineCount; line++) {
+			PortImage.setLine(this.lineMask, line, true);
+		}
+		this.downstream = downstream;
+		this.filtered = new PortSample(lineCount);
+	}
+
+	/**
+	 * Sets the filtered state without filtering and clears all counters.
+	 * 
+	 * @param image
+	 *            The port image to start from.
+	 */
+	public void reset(long[] image) {
+
+		for (int w = 0; w < this.state.length; w++) {
+			this.state[w] = image[w] & this.lineMask[w];
+			this.changes[w] = 0;
+			for (int p = 0; p < this.planeCount; p++) {
+				this.planes[p][w] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Filters one raw sample of every line.
+	 * 
+	 * @param raw
+	 *            The raw port image sampled from the board.
+	 * @return True if the filtered state of any line changed.
+	 */
+	public boolean update(long[] raw) {
+		return this.update(raw, -1);
+	}
+
+	/**
+	 * Filters one raw sample of the lines of the given ports. The other lines
+	 * keep their state and counters.
+	 * 
+	 * @param raw
+	 *            The raw port image sampled from the board.
+	 * @param portMask
+	 *            Bit set for every sampled port, bit 0 for port A.
+	 * @return True if the filtered state of any line changed.
+	 */
+	public boolean update(long[] raw, int portMask) {
+
+		boolean changed = false;
+
+		for (int w = 0; w < this.state.length; w++) {
+			long sampled = this.lineMask[w] & portLines(portMask >>> (w << 3));
+			long differ = (raw[w] ^ this.state[w]) & sampled;
+
+			// Add one to the counter of every differing sampled line and clear the
+			// other sampled lines.
+			long carry = differ;
+			long reached = differ;
+			for (int p = 0; p < this.planeCount; p++) {
+				long plane = this.planes[p][w];
+				plane = ((plane ^ carry) & differ) | (plane & ~sampled);
+				carry &= this.planes[p][w];
+				this.planes[p][w] = plane;
+				reached &= ((this.stableSamples >>> p) & 1) != 0 ? plane : ~plane;
+			}
+
+			// Lines whose counter reached the sample count take the new state.
+			if (reached != 0) {
+				this.state[w] ^= reached;
+				for (int p = 0; p < this.planeCount; p++) {
+					this.planes[p][w] &= ~reached;
+				}
+				changed = true;
+			}
+			this.changes[w] = reached;
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Filters the ports of the group and passes the filtered state on.
+	 */
+	@Override
+	public synchronized void scanned(ScanGroup group, PortSample sample) {
+
+		this.update(sample.getImage(), group.getPortMask());
+		if (this.downstream != null) {
+			this.filtered.copyFrom(sample);
+			this.getState(this.filtered.getImage());
+			this.downstream.scanned(group, this.filtered);
+		}
+	}
+
+	/**
+	 * Returns the line bits of the 8 ports in the low bits of a port mask.
+	 */
+	private static long portLines(int ports) {
+
+		long lines = 0;
+		for (int port = 0; port < 8; port++) {
+			if ((ports & (1 << port)) != 0) {
+				lines |= 0xffL << (port << 3);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Copies the filtered state into the given image.
+	 * 
+	 * @param image
+	 *            The image to receive the filtered state.
+	 */
+	public void getState(long[] image) {
+		System.arraycopy(this.state, 0, image, 0, this.state.length);
+	}
+
+	/**
+	 * Returns the filtered state of a single line.
+	 * 
+	 * @param line
+	 *            The line number.
+	 * @return True if the line is high.
+	 */
+	public boolean getLine(int line) {
+		return PortImage.getLine(this.state, line);
+	}
+
+	/**
+	 * Copies the lines that changed on the last update into the given image.
+	 * 
+	 * @param image
+	 *            The image to receive a set bit for every changed line.
+	 */
+	public void getChanges(long[] image) {
+		System.arraycopy(this.changes, 0, image, 0, this.changes.length);
+	}
+
+	/**
+	 * @return The number of consecutive samples a change must persist for.
+	 */
+	public int getStableSamples() {
+		return this.stableSamples;
+	}
+}
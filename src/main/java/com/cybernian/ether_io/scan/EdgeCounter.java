@@ -0,0 +1,257 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.scan;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Counts the rising and falling edges of every I/O line from a stream of time
+ * stamped port images, and measures pulse widths and pulse frequency. Edges are
+ * found by comparing each image with the previous one, so only pulses longer
+ * than the sampling interval are seen.
+ * <p>
+ * One thread feeds the counter through <code>update</code>. Any number of
+ * threads may read the counters at the same time; readers never take a lock
+ * and never slow down the sampling thread.
+ * <p>
+ * The counter is also a {@link ScanListener} for the groups of one board: each
+ * sample updates only the lines of its group's ports, using the sample's
+ * estimated board sample time. Samples are processed one at a time even when
+ * the groups run on different scan workers.
+ * 
+ * @author Gerard L. Muir
+ */
+public class EdgeCounter implements ScanListener {
+
+	// Per line fields in the counter array.
+	private static final int RISING_COUNT = 0;
+	private static final int FALLING_COUNT = 1;
+	private static final int LAST_RISING = 2;
+	private static final int LAST_FALLING = 3;
+	private static final int HIGH_WIDTH = 4;
+	private static final int LOW_WIDTH = 5;
+	private static final int PERIOD = 6;
+	private static final int FIELDS = 7;
+
+	private final int lineCount;
+	private final AtomicLongArray counters; // FIELDS values per line.
+	private final long[] previous; // Image of the previous sample.
+	private int primedPorts; // Bit set for every port whose first image has been seen.
+
+	/**
+	 * Creates an edge counter for the given number of lines.
+	 * 
+	 * @param lineCount
+	 *            Number of I/O lines. 24 for IO24 boards, 72 for IO72TPC.
+	 */
+	public EdgeCounter(int lineCount) {
+
+		this.lineCount = lineCount;
+		this.counters = new AtomicLongArray(lineCount * FIELDS);
+		this.previous = PortImage.create(lineCount);
+	}
+
+	/**
+	 * Processes one port image. The first image only sets the starting state.
+	 * 
+	 * @param image
+	 *            The sampled port image.
+	 * @param timestampNanos
+	 *            The time the image was sampled, from <code>System.nanoTime()</code>.
+	 */
+	public void update(long[] image, long timestampNanos) {
+		this.update(image, timestampNanos, -1);
+	}
+
+	/**
+	 * Processes the lines of the given ports of one port image. The first image
+	 * of a port only sets its starting state.
+	 * 
+	 * @param image
+	 *            The sampled port image.
+	 * @param timestampNanos
+	 *            The time the image was sampled, from <code>System.nanoTime()</code>.
+	 * @param portMask
+	 *            Bit set for every sampled port, bit 0 for port A.
+	 */
+	public void update(long[] image, long timestampNanos, int portMask) {
+
+		for (int w = 0; w < this.previous.length; w++) {
+			int wordPorts = (portMask >>> (w << 3)) & 0xff;
+			int primed = (this.primedPorts >>> (w << 3)) & wordPorts;
+			long sampled = 0;
+			long first = 0;
+			for (int port = 0; port < 8; port++) {
+				if ((wordPorts & (1 << port)) != 0) {
+					sampled |= 0xffL << (port << 3);
+					if ((primed & (1 << port)) == 0) {
+						first |= 0xffL << (port << 3);
+					}
+				}
+			}
+			this.primedPorts |= wordPorts << (w << 3);
+			long changed = (image[w] ^ this.previous[w]) & sampled & ~first;
+			while (changed != 0) {
+				int bit = Long.numberOfTrailingZeros(changed);
+				changed &= changed - 1;
+				int line = (w << 6) + bit;
+				if (line >= this.lineCount) {
+					break;
+				}
+				if ((image[w] & (1L << bit)) != 0) {
+					this.rising(line * FIELDS, timestampNanos);
+				} else {
+					this.falling(line * FIELDS, timestampNanos);
+				}
+			}
+			this.previous[w] = (this.previous[w] & ~sampled) | (image[w] & sampled);
+		}
+	}
+
+	/**
+	 * Processes the ports of the group at the sample's estimated board sample
+	 * time.
+	 */
+	@Override
+	public synchronized void scanned(ScanGroup group, PortSample sample) {
+		this.update(sample.getImage(), sample.getSampleNanos(), group.getPortMask());
+	}
+
+	/**
+	 * Processes one port sample, using its estimated board sample time.
+	 * 
+	 * @param sample
+	 *            The port sample.
+	 */
+	public void update(PortSample sample) {
+		this.update(sample.getImage(), sample.getSampleNanos());
+	}
+
+	private void rising(int base, long time) {
+
+		AtomicLongArray c = this.counters;
+		if (c.get(base + FALLING_COUNT) > 0) {
+			c.lazySet(base + LOW_WIDTH, time - c.get(base + LAST_FALLING));
+		}
+		if (c.get(base + RISING_COUNT) > 0) {
+			c.lazySet(base + PERIOD, time - c.get(base + LAST_RISING));
+		}
+		c.lazySet(base + LAST_RISING, time);
+		c.lazySet(base + RISING_COUNT, c.get(base + RISING_COUNT) + 1);
+	}
+
+	private void falling(int base, long time) {
+
+		AtomicLongArray c = this.counters;
+		if (c.get(base + RISING_COUNT) > 0) {
+			c.lazySet(base + HIGH_WIDTH, time - c.get(base + LAST_RISING));
+		}
+		c.lazySet(base + LAST_FALLING, time);
+		c.lazySet(base + FALLING_COUNT, c.get(base + FALLING_COUNT) + 1);
+	}
+
+	/**
+	 * @param line
+	 *            The line number.
+	 * @return The number of rising edges seen on the line.
+	 */
+	public long getRisingCount(int line) {
+		return this.counters.get(line * FIELDS + RISING_COUNT);
+	}
+
+	/**
+	 * @param line
+	 *            The line number.
+	 * @return The number of falling edges seen on the line.
+	 */
+	public long getFallingCount(int line) {
+		return this.counters.get(line * FIELDS + FALLING_COUNT);
+	}
+
+	/**
+	 * @param line
+	 *            The line number.
+	 * @return The length of the last completed high pulse in nanoseconds, 0 if
+	 *         none has been seen.
+	 */
+	public long getHighWidthNanos(int line) {
+		return this.counters.get(line * FIELDS + HIGH_WIDTH);
+	}
+
+	/**
+	 * @param line
+	 *            The line number.
+	 * @return The length of the last completed low pulse in nanoseconds, 0 if
+	 *         none has been seen.
+	 */
+	public long getLowWidthNanos(int line) {
+		return this.counters.get(line * FIELDS + LOW_WIDTH);
+	}
+
+	/**
+	 * @param line
+	 *            The line number.
+	 * @return The time between the last two rising edges in nanoseconds, 0 if
+	 *         fewer than two have been seen.
+	 */
+	public long getPeriodNanos(int line) {
+		return this.counters.get(line * FIELDS + PERIOD);
+	}
+
+	/**
+	 * Returns the estimated pulse frequency of a line. The estimate is based on
+	 * the last period, and decays towards zero when no rising edge has been seen
+	 * for longer than that period.
+	 * 
+	 * @param line
+	 *            The line number.
+	 * @param nowNanos
+	 *            The current time, from <code>System.nanoTime()</code>.
+	 * @return The frequency in Hz, 0 if fewer than two rising edges have been
+	 *         seen.
+	 */
+	public double getFrequency(int line, long nowNanos) {
+
+		long period = this.getPeriodNanos(line);
+		if (period <= 0) {
+			return 0;
+		}
+		long sinceLast = nowNanos - this.counters.get(line * FIELDS + LAST_RISING);
+		return 1e9 / Math.max(period, sinceLast);
+	}
+
+	/**
+	 * Clears all counters and measurements. Must be called from the thread that
+	 * feeds the counter.
+	 */
+	public void reset() {
+
+		for (int i = 0; i < this.counters.length(); i++) {
+			this.counters.set(i, 0);
+		}
+		this.primedPorts = 0;
+	}
+
+	/**
+	 * @return The number of lines counted.
+	 */
+	public int getLineCount() {
+		return this.lineCount;
+	}
+}
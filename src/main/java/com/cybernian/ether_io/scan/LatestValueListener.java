@@ -0,0 +1,69 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.scan;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.LatestValueTable;
+import com.cybernian.ether_io.core.PortSample;
+
+/**
+ * Publishes the samples of scan groups to a {@link LatestValueTable}, so the
+ * table, and a <code>ModbusTcpServer</code> answering from it, is kept up to
+ * date by a {@link ScanScheduler}. Only the ports of the scanned group are
+ * published; the others keep the values and time stamps of the board's other
+ * groups, and the entry's time stamps are those of its oldest port. Samples of
+ * boards that have no table entry are ignored.
+ * 
+ * @author Gerard L. Muir
+ */
+public class LatestValueListener implements ScanListener {
+
+	private final LatestValueTable table;
+	private final Map<IO24Core, Integer> entries = new IdentityHashMap<IO24Core, Integer>();
+
+	/**
+	 * Creates a listener for a set of boards.
+	 * 
+	 * @param table
+	 *            The table to publish to.
+	 * @param boards
+	 *            The boards, in table entry order.
+	 */
+	public LatestValueListener(LatestValueTable table, List<? extends IO24Core> boards) {
+
+		if (boards.size() > table.getBoardCount()) {
+			throw new IllegalArgumentException(
+					"LatestValueListener: Validation error: more boards than table entries.");
+		}
+		this.table = table;
+		for (int entry = 0; entry < boards.size(); entry++) {
+			this.entries.put(boards.get(entry), entry);
+		}
+	}
+
+	@Override
+	public void scanned(ScanGroup group, PortSample sample) {
+
+		Integer entry = this.entries.get(group.getBoard());
+		if (entry != null) {
+			this.table.update(entry, sample, group.getPortMask());
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.scan;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * A set of ports of one board scanned together at a fixed period. Groups are
+ * created by {@link ScanScheduler#addGroup}, which also keeps the schedule
+ * statistics reported here.
+ * 
+ * @author Gerard L. Muir
+ */
+public class ScanGroup {
+
+	private final IO24Core board;
+	private final int portMask; // Bit set for every port of the group.
+	private final long periodNanos;
+	private final int phaseSlot;
+	private final CommandPriority priority;
+	private final ScanListener listener;
+	private final PortSample sample;
+
+	final AtomicBoolean running = new AtomicBoolean();
+	long nextDueNanos; // Guarded by the scheduler.
+
+	private final AtomicLong scanCount = new AtomicLong();
+	private final AtomicLong overrunCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final AtomicLong driftTotal = new AtomicLong();
+	private final AtomicLong maxDrift = new AtomicLong();
+	private volatile long lastDrift;
+
+	ScanGroup(IO24Core board, int portMask, long periodNanos, int phaseSlot, CommandPriority priority,
+			ScanListener listener) {
+
+		this.board = board;
+		this.portMask = portMask;
+		this.periodNanos = periodNanos;
+		this.phaseSlot = phaseSlot;
+		this.priority = priority;
+		this.listener = listener;
+		this.sample = new PortSample(board.getLineCount());
+	}
+
+	/**
+	 * Reads the ports of the group and calls the listener. Runs on a worker
+	 * thread; <code>running</code> is set by the dispatcher.
+	 */
+	void scan(long dueNanos) {
+
+		try {
+			long drift = System.nanoTime() - dueNanos;
+			this.lastDrift = drift;
+			this.driftTotal.addAndGet(drift);
+			long max;
+			while (drift > (max = this.maxDrift.get()) && !this.maxDrift.compareAndSet(max, drift)) {
+				// Retry until the maximum is updated.
+			}
+
+			if (Integer.bitCount(this.portMask) == 1) {
+				int port = Integer.numberOfTrailingZeros(this.portMask);
+				long sendNanos = System.nanoTime();
+				byte[] returnData = this.board.readData(new byte[] { (byte) (int) PortImage.portLetter(port) }, 2,
+						this.priority);
+				PortImage.setPort(this.sample.getImage(), port, returnData[1]);
+				this.sample.setTimes(sendNanos, System.nanoTime());
+			} else {
+				this.board.getCommandScheduler().acquire(this.priority);
+				try {
+					this.board.readPortSample(this.sample, this.portMask);
+				} finally {
+					this.board.getCommandScheduler().release();
+				}
+			}
+			this.scanCount.incrementAndGet();
+			this.listener.scanned(this, this.sample);
+		} catch (IOException e) {
+			this.errorCount.incrementAndGet();
+		} finally {
+			this.running.set(false);
+		}
+	}
+
+	void overrun() {
+		this.overrunCount.incrementAndGet();
+	}
+
+	/**
+	 * @return The scanned board.
+	 */
+	public IO24Core getBoard() {
+		return this.board;
+	}
+
+	/**
+	 * @return Bit set for every scanned port, bit 0 for port A.
+	 */
+	public int getPortMask() {
+		return this.portMask;
+	}
+
+	/**
+	 * @return The scan period in nanoseconds, a whole number of slots.
+	 */
+	public long getPeriodNanos() {
+		return this.periodNanos;
+	}
+
+	/**
+	 * @return The slot, counted from the scheduler start, of the first scan.
+	 */
+	public int getPhaseSlot() {
+		return this.phaseSlot;
+	}
+
+	/**
+	 * @return The priority class of the reads.
+	 */
+	public CommandPriority getPriority() {
+		return this.priority;
+	}
+
+	/**
+	 * @return The number of completed scans.
+	 */
+	public long getScanCount() {
+		return this.scanCount.get();
+	}
+
+	/**
+	 * @return The number of scans skipped because the previous scan was still
+	 *         running, or because the group fell a whole period behind.
+	 */
+	public long getOverrunCount() {
+		return this.overrunCount.get();
+	}
+
+	/**
+	 * @return The number of scans that failed with an I/O error.
+	 */
+	public long getErrorCount() {
+		return this.errorCount.get();
+	}
+
+	/**
+	 * @return How late the last scan started, in nanoseconds.
+	 */
+	public long getLastDriftNanos() {
+		return this.lastDrift;
+	}
+
+	/**
+	 * @return How late scans started on average, in nanoseconds.
+	 */
+	public long getMeanDriftNanos() {
+
+		long scans = this.scanCount.get() + this.errorCount.get();
+		return scans == 0 ? 0 : this.driftTotal.get() / scans;
+	}
+
+	/**
+	 * @return The latest any scan started, in nanoseconds.
+	 */
+	public long getMaxDriftNanos() {
+		return this.maxDrift.get();
+	}
+
+	/**
+	 * Clears the schedule statistics.
+	 */
+	public void resetStatistics() {
+
+		this.scanCount.set(0);
+		this.overrunCount.set(0);
+		this.errorCount.set(0);
+		this.driftTotal.set(0);
+		this.maxDrift.set(0);
+		this.lastDrift = 0;
+	}
+}
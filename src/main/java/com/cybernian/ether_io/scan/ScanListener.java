@@ -0,0 +1,40 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.scan;
+
+import com.cybernian.ether_io.core.PortSample;
+
+/**
+ * Receives the samples of a scan group.
+ * 
+ * @author Gerard L. Muir
+ * 
+ * @see ScanScheduler
+ */
+public interface ScanListener {
+
+	/**
+	 * Called on a scan worker thread after each successful scan of a group. At
+	 * least the ports of the group are valid in the sample image. The sample is
+	 * reused for the next scan, so it must be copied if it is kept.
+	 * 
+	 * @param group
+	 *            The group that was scanned.
+	 * @param sample
+	 *            The time stamped sample.
+	 */
+	void scanned(ScanGroup group, PortSample sample);
+}
@@ -0,0 +1,314 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.scan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Scans groups of ports, each at its own period. Time is divided into slots of
+ * a fixed length; every period is rounded up to a whole number of slots and
+ * every group is given a phase, the slot of its first scan, chosen so the
+ * port reads due in any one slot are as few as possible. A group's load is its
+ * number of ports, since each port is read with its own datagram. Groups with
+ * the same period therefore take turns instead of all being read in the same
+ * burst.
+ * <p>
+ * Scans run on a pool of worker threads so a slow board does not hold up the
+ * others; reads of one board are ordered by its command scheduler, so a short
+ * period group can be given a higher <code>CommandPriority</code>. Scans are
+ * due at fixed times from the start of the scheduler, so lateness does not
+ * accumulate. A scan still running when the next one is due, or a group that
+ * has fallen a whole period behind, counts as an overrun and the missed scan
+ * is skipped.
+ * 
+ * @author Gerard L. Muir
+ */
+public class ScanScheduler {
+
+	private static final int WHEEL_SLOTS = 1024; // Slots over which load is balanced.
+
+	private final long slotNanos;
+	private final int[] slotLoad = new int[WHEEL_SLOTS]; // Port reads due in each wheel slot.
+	private final List<ScanGroup> groups = new ArrayList<ScanGroup>();
+	private final ExecutorService workers;
+
+	private Thread dispatcher;
+	private volatile boolean running;
+	private long startNanos;
+
+	/**
+	 * Creates a scan scheduler.
+	 * 
+	 * @param slotNanos
+	 *            The slot length in nanoseconds, the granularity of every period.
+	 * @param workerThreads
+	 *            The number of threads reading boards.
+	 */
+	public ScanScheduler(long slotNanos, int workerThreads) {
+
+		if (slotNanos <= 0) {
+			throw new IllegalArgumentException("ScanScheduler: Validation error: slot length must be positive.");
+		}
+		this.slotNanos = slotNanos;
+		this.workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ScanScheduler worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Adds a group of ports to scan. Groups may be added before or after the
+	 * scheduler is started.
+	 * 
+	 * @param board
+	 *            The board to read.
+	 * @param ports
+	 *            The port letters of the group, for example "ab".
+	 * @param periodNanos
+	 *            The scan period in nanoseconds. Rounded up to whole slots.
+	 * @param priority
+	 *            The priority class of the reads.
+	 * @param listener
+	 *            Receives each sample.
+	 * @return The group.
+	 * @throws IllegalArgumentException
+	 *             Thrown if a port letter is invalid for the board.
+	 */
+	public synchronized ScanGroup addGroup(IO24Core board, String ports, long periodNanos,
+			CommandPriority priority, ScanListener listener) throws IllegalArgumentException {
+
+		if (ports.isEmpty()) {
+			throw new IllegalArgumentException("ScanScheduler: Validation error: no ports given.");
+		}
+		int portMask = 0;
+		for (char port : ports.toCharArray()) {
+			board.isPortLetterValid(port);
+			portMask |= 1 << PortImage.portIndex(port);
+		}
+
+		long periodSlots = Math.max(1, (periodNanos + this.slotNanos - 1) / this.slotNanos);
+		int phase = this.leastLoadedPhase(periodSlots);
+		this.addLoad(phase, periodSlots, Integer.bitCount(portMask));
+
+		ScanGroup group = new ScanGroup(board, portMask, periodSlots * this.slotNanos, phase, priority, listener);
+		if (this.running) {
+			this.schedule(group, System.nanoTime());
+			LockSupport.unpark(this.dispatcher);
+		}
+		this.groups.add(group);
+		return group;
+	}
+
+	/**
+	 * Stops scanning a group.
+	 * 
+	 * @param group
+	 *            The group to remove.
+	 */
+	public synchronized void removeGroup(ScanGroup group) {
+
+		if (this.groups.remove(group)) {
+			this.addLoad(group.getPhaseSlot(), group.getPeriodNanos() / this.slotNanos,
+					-Integer.bitCount(group.getPortMask()));
+		}
+	}
+
+	/**
+	 * @return The scanned groups.
+	 */
+	public synchronized List<ScanGroup> getGroups() {
+		return new ArrayList<ScanGroup>(this.groups);
+	}
+
+	/**
+	 * Returns the largest number of port reads due in any one slot. With well
+	 * spread phases this is close to the average load.
+	 * 
+	 * @return The peak slot load.
+	 */
+	public synchronized int getMaxSlotLoad() {
+
+		int max = 0;
+		for (int load : this.slotLoad) {
+			max = Math.max(max, load);
+		}
+		return max;
+	}
+
+	/**
+	 * @return The slot length in nanoseconds.
+	 */
+	public long getSlotNanos() {
+		return this.slotNanos;
+	}
+
+	/**
+	 * Starts scanning.
+	 */
+	public synchronized void start() {
+
+		if (this.running) {
+			return;
+		}
+		this.running = true;
+		this.startNanos = System.nanoTime();
+		for (ScanGroup group : this.groups) {
+			this.schedule(group, this.startNanos);
+		}
+		this.dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ScanScheduler.this.dispatch();
+			}
+		}, "ScanScheduler");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Stops scanning and waits briefly for running scans to finish.
+	 */
+	public void stop() {
+
+		Thread thread;
+		synchronized (this) {
+			this.running = false;
+			thread = this.dispatcher;
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+		this.workers.shutdown();
+		try {
+			this.workers.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void dispatch() {
+
+		while (this.running) {
+			ScanGroup next = null;
+			long due = 0;
+			synchronized (this) {
+				for (ScanGroup group : this.groups) {
+					if (next == null || group.nextDueNanos - due < 0) {
+						next = group;
+						due = group.nextDueNanos;
+					}
+				}
+			}
+
+			long wait = next == null ? TimeUnit.MILLISECONDS.toNanos(100) : due - System.nanoTime();
+			if (wait > 0) {
+				// Woken early when a group is added.
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+
+			final ScanGroup group = next;
+			final long dueNanos = due;
+			synchronized (this) {
+				if (!this.groups.contains(group)) {
+					continue;
+				}
+				long now = System.nanoTime();
+				group.nextDueNanos += group.getPeriodNanos();
+				while (group.nextDueNanos - now <= 0) {
+					// Fallen a whole period behind; skip the missed scans.
+					group.nextDueNanos += group.getPeriodNanos();
+					group.overrun();
+				}
+			}
+
+			if (!group.running.compareAndSet(false, true)) {
+				group.overrun();
+				continue;
+			}
+			try {
+				this.workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						group.scan(dueNanos);
+					}
+				});
+			} catch (RuntimeException e) {
+				group.running.set(false);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Sets the first due time of a group at or after the given time.
+	 */
+	private void schedule(ScanGroup group, long now) {
+
+		long period = group.getPeriodNanos();
+		long due = this.startNanos + group.getPhaseSlot() * this.slotNanos;
+		if (due - now < 0) {
+			due += ((now - due) / period + 1) * period;
+		}
+		group.nextDueNanos = due;
+	}
+
+	/**
+	 * Returns the phase for a new group whose busiest slot is least loaded.
+	 */
+	private int leastLoadedPhase(long periodSlots) {
+
+		int phases = (int) Math.min(periodSlots, WHEEL_SLOTS);
+		int bestPhase = 0;
+		long bestCost = Long.MAX_VALUE;
+		for (int phase = 0; phase < phases; phase++) {
+			int peak = 0;
+			int total = 0;
+			for (long slot = phase; slot < WHEEL_SLOTS; slot += periodSlots) {
+				peak = Math.max(peak, this.slotLoad[(int) slot]);
+				total += this.slotLoad[(int) slot];
+			}
+			// Lowest peak first, then lowest total.
+			long cost = ((long) peak << 32) + total;
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestPhase = phase;
+			}
+		}
+		return bestPhase;
+	}
+
+	private void addLoad(int phase, long periodSlots, int delta) {
+
+		for (long slot = phase; slot < WHEEL_SLOTS; slot += periodSlots) {
+			this.slotLoad[(int) slot] += delta;
+		}
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides the classes used to scan the I/O lines of the Ether IO family of digital I/O boards and to process the samples.
+ */
+package com.cybernian.ether_io.scan;
@@ -0,0 +1,418 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.tools;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Emulates an Ether IO board on a UDP socket, for testing without hardware. The
+ * emulator answers the port value, direction, pull up, Schmitt trigger,
+ * threshold, EEPROM, echo, host data and identify commands, and the TPC pin
+ * commands when emulating a TPC board. Port values read back the output latch
+ * for output lines and the simulated input state for input lines.
+ * <p>
+ * A reset makes the emulator deaf for the configured reset delay and restores
+ * the default register values, as a real board does when it restarts.
+ * 
+ * @author Gerard L. Muir
+ */
+public class BoardEmulator implements Runnable {
+
+	private final DatagramSocket socket;
+	private final int portCount;
+	private final boolean tpc;
+	private final Thread thread;
+
+	// Board registers, one entry per port.
+	private final int[] latch;
+	private final int[] inputs;
+	private final int[] direction;
+	private final int[] pullUp;
+	private final int[] schmitt;
+	private final int[] threshold;
+	private final int[] eeprom = new int[64];
+	private boolean eepromWriteEnabled;
+
+	private volatile long deafUntil; // Time until which requests are ignored, in nanoseconds.
+	private volatile int resetDelayMillis = 0; // Time the board takes to restart.
+	private volatile double dropRate = 0; // Fraction of received datagrams ignored.
+	private volatile int replyDelayMillis = 0; // Time taken to answer each request.
+	private volatile int staleReplies = 0; // Unrelated packets sent ahead of each reply.
+	private volatile SocketAddress lastClient; // Sender of the last request.
+	private final Random random = new Random();
+	private final AtomicLong requestCount = new AtomicLong();
+
+	/**
+	 * Creates an emulator bound to the given socket address. Call
+	 * <code>start</code> to begin answering requests.
+	 * 
+	 * @param bindAddress
+	 *            The local address and UDP port to listen on.
+	 * @param portCount
+	 *            Number of ports to emulate. 3 for IO24 boards, 9 for IO72TPC.
+	 * @param tpc
+	 *            True to emulate the TPC command set.
+	 * @throws SocketException
+	 *             Thrown if the socket could not be bound.
+	 */
+	public BoardEmulator(InetSocketAddress bindAddress, int portCount, boolean tpc) throws SocketException {
+
+		this.socket = new DatagramSocket(bindAddress);
+		this.portCount = portCount;
+		this.tpc = tpc;
+		this.latch = new int[portCount];
+		this.inputs = new int[portCount];
+		this.direction = new int[portCount];
+		this.pullUp = new int[portCount];
+		this.schmitt = new int[portCount];
+		this.threshold = new int[portCount];
+		Arrays.fill(this.eeprom, 0xffff);
+		this.defaults();
+		this.thread = new Thread(this, "BoardEmulator-" + this.socket.getLocalPort());
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts answering requests on a daemon thread.
+	 */
+	public void start() {
+		this.thread.start();
+	}
+
+	/**
+	 * Stops the emulator and closes its socket.
+	 */
+	public void close() {
+
+		this.socket.close();
+		this.thread.interrupt();
+	}
+
+	@Override
+	public void run() {
+
+		byte[] buffer = new byte[512];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+		while (!this.socket.isClosed() && !Thread.currentThread().isInterrupted()) {
+			try {
+				packet.setLength(buffer.length);
+				this.socket.receive(packet);
+				this.requestCount.incrementAndGet();
+				this.lastClient = packet.getSocketAddress();
+				if (System.nanoTime() - this.deafUntil < 0
+						|| (this.dropRate > 0 && this.random.nextDouble() < this.dropRate)) {
+					continue;
+				}
+				byte[] reply = this.handle(buffer, packet.getLength(), packet);
+				if (reply != null && this.replyDelayMillis > 0) {
+					Thread.sleep(this.replyDelayMillis);
+				}
+				for (int i = 0; reply != null && i < this.staleReplies; i++) {
+					// Looks like a late reply to an earlier read of a port that does not exist.
+					byte[] stale = new byte[] { 'Z', (byte) i };
+					this.socket.send(new DatagramPacket(stale, stale.length, packet.getSocketAddress()));
+				}
+				if (reply != null) {
+					this.socket.send(new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+				}
+			} catch (IOException e) {
+				// Socket closed, or a send failed; keep serving while open.
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Processes one request and returns the reply, or null if there is none.
+	 */
+	private synchronized byte[] handle(byte[] data, int length, DatagramPacket packet) {
+
+		int command = data[0] & 0xff;
+		int second = length > 1 ? data[1] & 0xff : 0;
+
+		// TPC pin commands.
+		if (this.tpc && length == 2 && (command == 'H' || command == 'L') && second < this.portCount * 8) {
+			int port = second >>> 3;
+			int bit = 1 << (second & 7);
+			this.latch[port] = command == 'H' ? this.latch[port] | bit : this.latch[port] & ~bit;
+			return null;
+		}
+
+		// Port value read and write.
+		if (length == 1 && this.isPort(command - 'a')) {
+			return new byte[] { (byte) Character.toUpperCase(command), (byte) this.portValue(command - 'a') };
+		}
+		if (length == 2 && this.isPort(command - 'A')) {
+			this.latch[command - 'A'] = second;
+			return null;
+		}
+
+		// Port register read and write.
+		int[] register = this.register(command);
+		if (register != null && length >= 2) {
+			if (length == 2 && this.isPort(second - 'a')) {
+				return new byte[] { (byte) command, (byte) Character.toUpperCase(second), (byte) register[second - 'a'] };
+			}
+			if (length == 3 && this.isPort(second - 'A')) {
+				register[second - 'A'] = data[2] & 0xff;
+				return null;
+			}
+		}
+
+		switch (command) {
+		case '\'':
+			return length == 5 ? this.eepromCommand(second, data[2] & 0xff, data[3] & 0xff, data[4] & 0xff) : null;
+		case '`':
+			return length == 2 ? new byte[] { data[1] } : null;
+		case '*':
+			return new byte[] { (byte) ' ' };
+		case '%':
+			return length == 1 ? this.hostData(packet) : null;
+		case 'I':
+			if (length == 4 && data[1] == 'O' && data[2] == '2' && data[3] == '4') {
+				int udpPort = this.socket.getLocalPort();
+				return new byte[] { 'I', 'O', '2', '4', 0, 0x11, (byte) 0xba, 0, (byte) (udpPort >>> 8), (byte) udpPort, 1,
+						0 };
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	private byte[] eepromCommand(int operation, int address, int msb, int lsb) {
+
+		switch (operation) {
+		case 'R':
+			return new byte[] { 'R', (byte) address, (byte) (this.eeprom[address & 63] >>> 8),
+					(byte) this.eeprom[address & 63] };
+		case 'W':
+			if (this.eepromWriteEnabled) {
+				this.eeprom[address & 63] = (msb << 8) | lsb;
+			}
+			return null;
+		case 'E':
+			if (this.eepromWriteEnabled) {
+				this.eeprom[address & 63] = 0xffff;
+			}
+			return null;
+		case '1':
+			this.eepromWriteEnabled = msb == 0xaa && lsb == 0x55;
+			return null;
+		case '0':
+			this.eepromWriteEnabled = false;
+			return null;
+		case '@':
+			if (msb == 0xaa && lsb == 0x55) {
+				this.defaults();
+				this.deafUntil = System.nanoTime() + this.resetDelayMillis * 1000000L;
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	private byte[] hostData(DatagramPacket packet) {
+
+		byte[] reply = new byte[16];
+		reply[0] = '%';
+		byte[] address = packet.getAddress().getAddress();
+		System.arraycopy(address, 0, reply, 4, Math.min(4, address.length));
+		reply[14] = (byte) (packet.getPort() >>> 8);
+		reply[15] = (byte) packet.getPort();
+		return reply;
+	}
+
+	private int[] register(int command) {
+
+		switch (command) {
+		case '!':
+			return this.direction;
+		case '@':
+			return this.tpc ? null : this.pullUp;
+		case '%':
+			return this.tpc ? this.pullUp : null;
+		case '$':
+			return this.tpc ? null : this.schmitt;
+		case '#':
+			return this.tpc ? null : this.threshold;
+		default:
+			return null;
+		}
+	}
+
+	private boolean isPort(int port) {
+		return port >= 0 && port < this.portCount;
+	}
+
+	private int portValue(int port) {
+		return (this.latch[port] & ~this.direction[port] | this.inputs[port] & this.direction[port]) & 0xff;
+	}
+
+	/**
+	 * Restores the power on register values: all lines inputs, outputs low.
+	 */
+	private void defaults() {
+
+		Arrays.fill(this.latch, 0);
+		Arrays.fill(this.direction, 0xff);
+		Arrays.fill(this.pullUp, 0);
+		Arrays.fill(this.schmitt, 0);
+		Arrays.fill(this.threshold, 0);
+	}
+
+	/**
+	 * Sets the simulated state of the input lines of a port.
+	 * 
+	 * @param port
+	 *            The port index, 0 for port A.
+	 * @param value
+	 *            The input line states. 0-255
+	 */
+	public synchronized void setInputs(int port, int value) {
+		this.inputs[port] = value & 0xff;
+	}
+
+	/**
+	 * Returns the output latch of a port.
+	 * 
+	 * @param port
+	 *            The port index, 0 for port A.
+	 * @return The output latch value. 0-255
+	 */
+	public synchronized int getLatch(int port) {
+		return this.latch[port];
+	}
+
+	/**
+	 * Returns the direction register of a port.
+	 * 
+	 * @param port
+	 *            The port index, 0 for port A.
+	 * @return The direction register value. 0-255
+	 */
+	public synchronized int getDirection(int port) {
+		return this.direction[port];
+	}
+
+	/**
+	 * Sets the time the emulated board ignores requests after a reset.
+	 * 
+	 * @param resetDelayMillis
+	 *            The restart time in milliseconds.
+	 */
+	public void setResetDelay(int resetDelayMillis) {
+		this.resetDelayMillis = resetDelayMillis;
+	}
+
+	/**
+	 * Simulates a power cycle: the registers return to their defaults and the
+	 * board ignores requests for the reset delay.
+	 */
+	public synchronized void powerCycle() {
+
+		this.defaults();
+		this.deafUntil = System.nanoTime() + this.resetDelayMillis * 1000000L;
+	}
+
+	/**
+	 * Sets the time the emulated board takes to answer each request, to simulate
+	 * a slow network. Requests are still answered one at a time.
+	 * 
+	 * @param replyDelayMillis
+	 *            The reply delay in milliseconds.
+	 */
+	public void setReplyDelay(int replyDelayMillis) {
+		this.replyDelayMillis = replyDelayMillis;
+	}
+
+	/**
+	 * Sets the number of unrelated packets sent ahead of each reply, to simulate
+	 * late replies to earlier requests.
+	 * 
+	 * @param staleReplies
+	 *            The number of packets sent before each reply.
+	 */
+	public void setStaleReplies(int staleReplies) {
+		this.staleReplies = staleReplies;
+	}
+
+	/**
+	 * @return The address the last request came from, or null if none has been
+	 *         received.
+	 */
+	public SocketAddress getLastClient() {
+		return this.lastClient;
+	}
+
+	/**
+	 * Sets the fraction of received datagrams that are ignored, to simulate a
+	 * lossy network.
+	 * 
+	 * @param dropRate
+	 *            Fraction of datagrams to drop. 0-1
+	 */
+	public void setDropRate(double dropRate) {
+		this.dropRate = dropRate;
+	}
+
+	/**
+	 * @return The number of datagrams received.
+	 */
+	public long getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/**
+	 * @return The local UDP port the emulator listens on.
+	 */
+	public int getLocalPort() {
+		return this.socket.getLocalPort();
+	}
+
+	/**
+	 * Runs an emulator until the process is stopped.
+	 * 
+	 * @param args
+	 *            [bind address [UDP port [port count [tpc]]]], defaults 127.0.0.1
+	 *            2424 3 false.
+	 * @throws Exception
+	 *             Thrown if the emulator could not be started.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		String address = args.length > 0 ? args[0] : "127.0.0.1";
+		int udpPort = args.length > 1 ? Integer.parseInt(args[1]) : 2424;
+		int ports = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		boolean tpc = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress(address, udpPort), ports, tpc);
+		System.out.println("Emulating a " + ports + " port board on " + address + ":" + udpPort);
+		emulator.thread.setDaemon(false);
+		emulator.start();
+	}
+}
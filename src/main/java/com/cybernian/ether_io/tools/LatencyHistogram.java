@@ -0,0 +1,138 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds. Values are counted in
+ * log-linear buckets, 32 per power of two, so recorded values keep about 3%
+ * precision over the whole range. Recording is lock free.
+ * 
+ * @author Gerard L. Muir
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds. Negative values are counted as 0.
+	 */
+	public void record(long nanos) {
+
+		long value = Math.max(0, nanos);
+		this.counts.incrementAndGet(index(value));
+		this.count.incrementAndGet();
+		this.total.addAndGet(value);
+		long current;
+		while (value > (current = this.max.get()) && !this.max.compareAndSet(current, value)) {
+			// Retry until the maximum is updated.
+		}
+	}
+
+	/**
+	 * Returns the latency below which the given fraction of the recorded values
+	 * fall.
+	 * 
+	 * @param fraction
+	 *            The fraction, for example 0.99 for the 99th percentile.
+	 * @return The latency in nanoseconds, 0 if nothing was recorded.
+	 */
+	public long getPercentile(double fraction) {
+
+		long total = this.count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank && seen > 0) {
+				return Math.min(upperBound(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * @return The number of recorded values.
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return The mean of the recorded values in nanoseconds.
+	 */
+	public long getMean() {
+
+		long n = this.count.get();
+		return n == 0 ? 0 : this.total.get() / n;
+	}
+
+	/**
+	 * @return The largest recorded value in nanoseconds.
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * Clears the histogram.
+	 */
+	public void reset() {
+
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.total.set(0);
+		this.max.set(0);
+	}
+
+	private static int index(long value) {
+
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int index) {
+
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		long bound = ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+		return bound < 0 ? Long.MAX_VALUE : bound;
+	}
+}
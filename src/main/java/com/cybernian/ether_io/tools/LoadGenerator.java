@@ -0,0 +1,317 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.tools;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.drivers.IO72TPC;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * Drives a fleet of drivers against local {@link BoardEmulator} instances at
+ * fixed target rates and reports the achieved throughput and the latency
+ * percentiles of each command type.
+ * <p>
+ * The load is open loop: commands are scheduled on a fixed timetable and each
+ * latency is measured from the time the command was due, not from the time a
+ * worker got round to sending it. A stalled driver therefore shows up as
+ * queueing delay on every command behind it instead of silently lowering the
+ * offered rate.
+ * 
+ * @author Gerard L. Muir
+ */
+public class LoadGenerator {
+
+	/**
+	 * The command types issued by the generator.
+	 */
+	public enum Operation {
+		/** Read one port value. */
+		READ,
+		/** Write one port value. */
+		WRITE,
+		/** Read every port of the board with {@link IO24Core#readPortImage}. */
+		IMAGE
+	}
+
+	/**
+	 * The outcome of one load step.
+	 */
+	public static class StepResult {
+
+		private final double targetRate;
+		private final double achievedRate;
+		private final long errorCount;
+		private final LatencyHistogram[] histograms;
+
+		StepResult(double targetRate, double achievedRate, long errorCount, LatencyHistogram[] histograms) {
+			this.targetRate = targetRate;
+			this.achievedRate = achievedRate;
+			this.errorCount = errorCount;
+			this.histograms = histograms;
+		}
+
+		/**
+		 * @return The offered rate in commands per second.
+		 */
+		public double getTargetRate() {
+			return this.targetRate;
+		}
+
+		/**
+		 * @return The completed commands per second.
+		 */
+		public double getAchievedRate() {
+			return this.achievedRate;
+		}
+
+		/**
+		 * @return The number of commands that failed.
+		 */
+		public long getErrorCount() {
+			return this.errorCount;
+		}
+
+		/**
+		 * @param operation
+		 *            The command type.
+		 * @return The latencies of the successful commands of that type.
+		 */
+		public LatencyHistogram getLatency(Operation operation) {
+			return this.histograms[operation.ordinal()];
+		}
+	}
+
+	private final List<BoardEmulator> emulators = new ArrayList<BoardEmulator>();
+	private final List<IO24Core> drivers = new ArrayList<IO24Core>();
+	private final int[] weights;
+	private final int weightTotal;
+	private final ExecutorService workers;
+
+	/**
+	 * Starts the emulators and opens a driver to each.
+	 * 
+	 * @param boardCount
+	 *            The number of boards in the fleet.
+	 * @param io72
+	 *            True to emulate IO72TPC boards, false for IO24 boards.
+	 * @param weights
+	 *            The relative frequency of each {@link Operation}, in ordinal
+	 *            order.
+	 * @param workerThreads
+	 *            The number of threads issuing commands.
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public LoadGenerator(int boardCount, boolean io72, int[] weights, int workerThreads) throws IOException {
+
+		if (weights.length != Operation.values().length) {
+			throw new IllegalArgumentException("LoadGenerator: Validation error: one weight per operation required.");
+		}
+		int total = 0;
+		for (int weight : weights) {
+			total += weight;
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("LoadGenerator: Validation error: weights must not all be zero.");
+		}
+		this.weights = weights.clone();
+		this.weightTotal = total;
+
+		for (int i = 0; i < boardCount; i++) {
+			BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), io72 ? 9 : 3, io72);
+			emulator.start();
+			this.emulators.add(emulator);
+			int port = emulator.getLocalPort();
+			this.drivers.add(io72 ? new IO72TPC("127.0.0.1", port, 1000) : new IO24("127.0.0.1", port, 1000));
+		}
+		this.workers = Executors.newFixedThreadPool(workerThreads);
+	}
+
+	/**
+	 * Offers commands at a fixed rate for a period and waits for them to
+	 * complete.
+	 * 
+	 * @param rate
+	 *            The target rate in commands per second across the fleet. Must
+	 *            be positive.
+	 * @param durationMillis
+	 *            How long commands are issued for.
+	 * @return The throughput and latencies of the step.
+	 * @throws InterruptedException
+	 *             Thrown if the calling thread was interrupted.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the rate is not a positive number.
+	 */
+	public StepResult runStep(double rate, long durationMillis) throws InterruptedException, IllegalArgumentException {
+
+		if (!(rate > 0) || Double.isInfinite(rate)) {
+			throw new IllegalArgumentException("LoadGenerator: Validation error: rate must be a positive number.");
+		}
+		final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong outstanding = new AtomicLong();
+		final AtomicLong lastCompletion = new AtomicLong();
+		Random random = new Random(Double.doubleToLongBits(rate));
+
+		long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		long issued = 0;
+
+		for (long due = start; due < end; due = start + ++issued * interval) {
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			final long intended = due;
+			final Operation operation = pick(random.nextInt(this.weightTotal));
+			final IO24Core driver = this.drivers.get((int) (issued % this.drivers.size()));
+			final int port = random.nextInt(driver.getPortCount());
+			final int value = random.nextInt(256);
+			outstanding.incrementAndGet();
+			this.workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						execute(driver, operation, port, value);
+						histograms[operation.ordinal()].record(System.nanoTime() - intended);
+					} catch (IOException | RuntimeException e) {
+						errors.incrementAndGet();
+					} finally {
+						lastCompletion.set(System.nanoTime());
+						outstanding.decrementAndGet();
+					}
+				}
+			});
+		}
+
+		while (outstanding.get() > 0) {
+			Thread.sleep(1);
+		}
+
+		long elapsed = Math.max(1, lastCompletion.get() - start);
+		double achieved = (issued - errors.get()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+		return new StepResult(rate, achieved, errors.get(), histograms);
+	}
+
+	/**
+	 * Stops the workers, drivers and emulators.
+	 */
+	public void close() {
+
+		this.workers.shutdownNow();
+		for (IO24Core driver : this.drivers) {
+			driver.closeSocket();
+		}
+		for (BoardEmulator emulator : this.emulators) {
+			emulator.close();
+		}
+	}
+
+	private Operation pick(int draw) {
+
+		Operation[] operations = Operation.values();
+		for (int i = 0; i < operations.length; i++) {
+			draw -= this.weights[i];
+			if (draw < 0) {
+				return operations[i];
+			}
+		}
+		return operations[operations.length - 1];
+	}
+
+	private static void execute(IO24Core driver, Operation operation, int port, int value) throws IOException {
+
+		char portLetter = PortImage.portLetter(port);
+		switch (operation) {
+		case READ:
+			driver.readPortValue(portLetter);
+			break;
+		case WRITE:
+			driver.writePortValue(portLetter, value);
+			break;
+		case IMAGE:
+			driver.readPortImage(PortImage.create(driver.getLineCount()));
+			break;
+		}
+	}
+
+	/**
+	 * Runs a series of load steps and prints the throughput curve with the
+	 * latency percentiles of each command type.
+	 * 
+	 * @param args
+	 *            [boards [io72 [rates [seconds per step [threads [read,write,image
+	 *            weights]]]]]], defaults 4 false 1000,2000,5000,10000 5 8
+	 *            6,3,1.
+	 * @throws Exception
+	 *             Thrown if the fleet could not be started.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		int boards = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		boolean io72 = args.length > 1 && Boolean.parseBoolean(args[1]);
+		String[] rates = (args.length > 2 ? args[2] : "1000,2000,5000,10000").split(",");
+		long seconds = args.length > 3 ? Long.parseLong(args[3]) : 5;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+		String[] mix = (args.length > 5 ? args[5] : "6,3,1").split(",");
+		int[] weights = new int[mix.length];
+		for (int i = 0; i < mix.length; i++) {
+			weights[i] = Integer.parseInt(mix[i].trim());
+		}
+
+		LoadGenerator generator = new LoadGenerator(boards, io72, weights, threads);
+		try {
+			System.out.println(String.format("%10s %10s %7s %-6s %9s %9s %9s %9s %9s", "target/s", "achieved/s",
+					"errors", "type", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+			for (String rate : rates) {
+				StepResult result = generator.runStep(Double.parseDouble(rate.trim()), seconds * 1000);
+				for (Operation operation : Operation.values()) {
+					LatencyHistogram latency = result.getLatency(operation);
+					if (latency.getCount() == 0) {
+						continue;
+					}
+					System.out.println(String.format("%10.0f %10.0f %7d %-6s %9d %9d %9d %9d %9d",
+							result.getTargetRate(), result.getAchievedRate(), result.getErrorCount(), operation,
+							micros(latency.getPercentile(0.50)), micros(latency.getPercentile(0.90)),
+							micros(latency.getPercentile(0.99)), micros(latency.getPercentile(0.999)),
+							micros(latency.getMax())));
+				}
+			}
+		} finally {
+			generator.close();
+		}
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.core.SharedStateWriter;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.drivers.IO72TPC;
+
+/**
+ * Polls a set of boards and publishes their port images into a shared memory
+ * segment, so other processes on the host can read the boards through
+ * <code>SharedStateReader</code> without polling them again.
+ * 
+ * @author Gerard L. Muir
+ */
+public class SharedStatePoller implements Runnable {
+
+	private final List<IO24Core> boards;
+	private final SharedStateWriter writer;
+	private final long intervalMillis;
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a poller.
+	 * 
+	 * @param segmentFile
+	 *            The segment file to publish into.
+	 * @param boards
+	 *            The boards to poll.
+	 * @param intervalMillis
+	 *            The time between polls of the whole set.
+	 * @throws IOException
+	 *             Thrown if the segment could not be created.
+	 */
+	public SharedStatePoller(File segmentFile, List<IO24Core> boards, long intervalMillis) throws IOException {
+
+		this.boards = boards;
+		this.writer = new SharedStateWriter(segmentFile, boards);
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Polls until stopped. A board that does not answer keeps its last published
+	 * state and is tried again next round.
+	 */
+	@Override
+	public void run() {
+
+		List<PortSample> samples = new ArrayList<PortSample>();
+		for (IO24Core board : this.boards) {
+			samples.add(new PortSample(board.getLineCount()));
+		}
+		try {
+			while (this.running) {
+				long start = System.currentTimeMillis();
+				for (int i = 0; i < this.boards.size(); i++) {
+					try {
+						this.boards.get(i).readPortSample(samples.get(i));
+						this.writer.update(i, samples.get(i));
+					} catch (IOException e) {
+						// Left stale; readers see it from the update time.
+					}
+				}
+				this.writer.heartbeat();
+				long wait = this.intervalMillis - (System.currentTimeMillis() - start);
+				if (wait > 0) {
+					Thread.sleep(wait);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops polling after the current round.
+	 */
+	public void stop() {
+		this.running = false;
+	}
+
+	/**
+	 * Polls boards into a segment until the process is stopped.
+	 * 
+	 * @param args
+	 *            segment name, poll interval in milliseconds, then one
+	 *            address[:UDP port[:72]] per board; ":72" selects an IO72TPC.
+	 *            The segment is created in <code>/dev/shm</code> where it exists.
+	 * @throws Exception
+	 *             Thrown if a board or the segment could not be opened.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 3) {
+			System.err.println("Usage: SharedStatePoller <segment name> <interval ms> <address[:port[:72]]>...");
+			System.exit(1);
+		}
+
+		List<IO24Core> boards = new ArrayList<IO24Core>();
+		for (int i = 2; i < args.length; i++) {
+			String[] parts = args[i].split(":");
+			int udpPort = parts.length > 1 ? Integer.parseInt(parts[1]) : 2424;
+			boolean io72 = parts.length > 2 && parts[2].equals("72");
+			boards.add(io72 ? new IO72TPC(parts[0], udpPort, 1000) : new IO24(parts[0], udpPort, 1000));
+		}
+
+		File segmentFile = new File(SharedStateWriter.getDefaultDirectory(), args[0]);
+		System.out.println("Publishing " + boards.size() + " boards to " + segmentFile);
+		new SharedStatePoller(segmentFile, boards, Long.parseLong(args[1])).run();
+	}
+}
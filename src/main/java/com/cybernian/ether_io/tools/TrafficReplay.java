@@ -0,0 +1,305 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cybernian.ether_io.core.TrafficLog;
+import com.cybernian.ether_io.core.TrafficRecorder;
+
+/**
+ * Re-issues the datagrams captured by a <code>TrafficRecorder</code> against a
+ * board or an emulator. Datagrams are sent at their original relative times,
+ * optionally sped up or slowed down, so a recorded burst can be reproduced as a
+ * load test.
+ * <p>
+ * Each reply is compared with the replies in the log. Replies are matched by
+ * content, regardless of order, so a reply missing from the replay or one that
+ * was never recorded is reported as a mismatch. Host data replies carry the
+ * requester's own address and port, which differ on every run, and are not
+ * compared.
+ * 
+ * @author Gerard L. Muir
+ */
+public class TrafficReplay {
+
+	private final TrafficLog log;
+	private final InetAddress targetAddress; // Null to send to the recorded addresses.
+	private final int targetPort;
+	private final double speed;
+
+	private static final int MAX_REPORTED = 100; // Mismatches kept for reporting.
+
+	private long sentCount;
+	private long maxLatenessNanos;
+	private final AtomicLong receivedCount = new AtomicLong();
+
+	// Replies by content: recorded replies count up, replayed replies count down.
+	private final Map<String, Integer> replyBalance = new HashMap<String, Integer>();
+	private long missingCount; // Recorded replies not seen in the replay.
+	private long unexpectedCount; // Replayed replies not in the log.
+	private final List<String> mismatches = new ArrayList<String>();
+
+	/**
+	 * Creates a replay of a traffic log.
+	 * 
+	 * @param logFile
+	 *            The traffic log written by a <code>TrafficRecorder</code>.
+	 * @param targetAddress
+	 *            The address to send every datagram to, or null to send each
+	 *            datagram to the board it was recorded for.
+	 * @param targetPort
+	 *            The UDP port to send to when a target address is given.
+	 * @param speed
+	 *            Replay speed, 1 for the original timing, 2 for twice as fast.
+	 * @throws IOException
+	 *             Thrown if the log could not be read.
+	 */
+	public TrafficReplay(File logFile, InetAddress targetAddress, int targetPort, double speed) throws IOException {
+
+		if (speed <= 0) {
+			throw new IllegalArgumentException("TrafficReplay: Speed must be greater than 0.");
+		}
+		this.log = new TrafficLog(logFile);
+		this.targetAddress = targetAddress;
+		this.targetPort = targetPort;
+		this.speed = speed;
+	}
+
+	/**
+	 * Sends every recorded outgoing datagram, then waits briefly for the last
+	 * replies.
+	 * 
+	 * @throws IOException
+	 *             Thrown if a datagram socket error occurred.
+	 */
+	public void run() throws IOException {
+
+		final DatagramSocket socket = new DatagramSocket();
+		Thread receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[512];
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				while (!socket.isClosed()) {
+					try {
+						packet.setLength(buffer.length);
+						socket.receive(packet);
+						receivedCount.incrementAndGet();
+						TrafficReplay.this.balance(packet.getData(), packet.getLength(), -1);
+					} catch (IOException e) {
+						// Socket closed.
+					}
+				}
+			}
+		}, "TrafficReplay-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+
+		try {
+			this.log.rewind();
+			long firstNanos = 0;
+			long start = 0;
+			DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+
+			while (this.log.next()) {
+				if (this.log.getDirection() != TrafficRecorder.SENT) {
+					this.balance(this.log.getData(), this.log.getLength(), 1);
+					continue;
+				}
+				long now = System.nanoTime();
+				if (this.sentCount == 0) {
+					firstNanos = this.log.getNanos();
+					start = now;
+				}
+
+				// Wait for the scaled send time of the datagram.
+				long due = start + (long) ((this.log.getNanos() - firstNanos) / this.speed);
+				while ((now = System.nanoTime()) - due < 0) {
+					LockSupport.parkNanos(Math.min(due - now, TimeUnit.MILLISECONDS.toNanos(1)));
+				}
+				this.maxLatenessNanos = Math.max(this.maxLatenessNanos, now - due);
+
+				packet.setData(this.log.getData(), 0, this.log.getLength());
+				if (this.targetAddress != null) {
+					packet.setAddress(this.targetAddress);
+					packet.setPort(this.targetPort);
+				} else {
+					packet.setAddress(this.log.getAddress());
+					packet.setPort(this.log.getPort());
+				}
+				socket.send(packet);
+				this.sentCount++;
+			}
+
+			// Allow the last replies to arrive.
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			socket.close();
+		}
+		try {
+			receiver.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.compareReplies();
+	}
+
+	/**
+	 * Adds a recorded reply, or removes a replayed one, from the reply balance.
+	 */
+	private synchronized void balance(byte[] data, int length, int count) {
+
+		if (length == 16 && data[0] == (byte) (int) '%') {
+			return; // Host data, holds the requester's address.
+		}
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			key.append(String.format("%02x ", data[i] & 0xff));
+		}
+		String reply = key.toString().trim();
+		Integer balance = this.replyBalance.get(reply);
+		int value = (balance == null ? 0 : balance) + count;
+		if (value == 0) {
+			this.replyBalance.remove(reply);
+		} else {
+			this.replyBalance.put(reply, value);
+		}
+	}
+
+	/**
+	 * Turns the replies left in the balance into mismatches.
+	 */
+	private synchronized void compareReplies() {
+
+		for (Map.Entry<String, Integer> entry : this.replyBalance.entrySet()) {
+			int count = entry.getValue();
+			if (count > 0) {
+				this.missingCount += count;
+			} else {
+				this.unexpectedCount -= count;
+			}
+			if (this.mismatches.size() < MAX_REPORTED) {
+				this.mismatches.add((count > 0 ? "missing " : "unexpected ") + entry.getKey() + " x" + Math.abs(count));
+			}
+		}
+		this.replyBalance.clear();
+	}
+
+	/**
+	 * @return The number of recorded replies that did not come back in the
+	 *         replay.
+	 */
+	public synchronized long getMissingCount() {
+		return this.missingCount;
+	}
+
+	/**
+	 * @return The number of replies received in the replay that are not in the
+	 *         log.
+	 */
+	public synchronized long getUnexpectedCount() {
+		return this.unexpectedCount;
+	}
+
+	/**
+	 * @return True if the replies matched the recorded replies.
+	 */
+	public synchronized boolean isMatched() {
+		return this.missingCount == 0 && this.unexpectedCount == 0;
+	}
+
+	/**
+	 * Returns a description of up to 100 mismatched replies, each the reply bytes
+	 * in hex and the number of times it was missing or unexpected.
+	 * 
+	 * @return The mismatches.
+	 */
+	public synchronized List<String> getMismatches() {
+		return new ArrayList<String>(this.mismatches);
+	}
+
+	/**
+	 * @return The number of datagrams sent.
+	 */
+	public long getSentCount() {
+		return this.sentCount;
+	}
+
+	/**
+	 * @return The number of replies received.
+	 */
+	public long getReceivedCount() {
+		return this.receivedCount.get();
+	}
+
+	/**
+	 * @return The latest any datagram was sent after its scaled send time, in
+	 *         nanoseconds.
+	 */
+	public long getMaxLatenessNanos() {
+		return this.maxLatenessNanos;
+	}
+
+	/**
+	 * Replays a traffic log.
+	 * 
+	 * @param args
+	 *            log file [target address [UDP port [speed]]]. Without a target
+	 *            address datagrams are sent to the recorded boards.
+	 * @throws Exception
+	 *             Thrown if the replay failed.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			System.err.println("Usage: TrafficReplay <log file> [target address [UDP port [speed]]]");
+			System.exit(1);
+		}
+
+		InetAddress target = args.length > 1 ? InetAddress.getByName(args[1]) : null;
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : 2424;
+		double speed = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+
+		TrafficReplay replay = new TrafficReplay(new File(args[0]), target, port, speed);
+		replay.run();
+
+		System.out.println("Sent " + replay.getSentCount() + ", received " + replay.getReceivedCount()
+				+ ", max lateness " + TimeUnit.NANOSECONDS.toMicros(replay.getMaxLatenessNanos()) + " us");
+		System.out.println("Missing " + replay.getMissingCount() + ", unexpected " + replay.getUnexpectedCount());
+		for (String mismatch : replay.getMismatches()) {
+			System.out.println("  " + mismatch);
+		}
+		if (!replay.isMatched()) {
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides tools for testing and diagnosing installations of the Ether IO family of digital I/O boards.
+ */
+package com.cybernian.ether_io.tools;
@@ -0,0 +1,132 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.utils;
+
+/**
+ * Methods to deal with packed port images. A port image holds the state of
+ * every I/O line of a board as bits of a long array. Line n is bit (n % 64) of
+ * word (n / 64), so port A occupies bits 0-7 of word 0, port B bits 8-15 and so
+ * on. An IO24 board needs one word and an IO72TPC board two.
+ * 
+ * @author Gerard L. Muir
+ */
+public class PortImage {
+
+	/**
+	 * Returns the number of words needed to hold the given number of lines.
+	 * 
+	 * @param lineCount
+	 *            Number of I/O lines.
+	 * @return Number of long words.
+	 */
+	public static int words(int lineCount) {
+		return (lineCount + 63) >>> 6;
+	}
+
+	/**
+	 * Returns a new, all zero, image for the given number of lines.
+	 * 
+	 * @param lineCount
+	 *            Number of I/O lines.
+	 * @return The image.
+	 */
+	public static long[] create(int lineCount) {
+		return new long[words(lineCount)];
+	}
+
+	/**
+	 * Returns the state of a single line.
+	 * 
+	 * @param image
+	 *            The port image.
+	 * @param line
+	 *            The line number.
+	 * @return True if the line is set.
+	 */
+	public static boolean getLine(long[] image, int line) {
+		return (image[line >>> 6] & (1L << line)) != 0;
+	}
+
+	/**
+	 * Sets the state of a single line.
+	 * 
+	 * @param image
+	 *            The port image.
+	 * @param line
+	 *            The line number.
+	 * @param value
+	 *            True to set the line, false to clear it.
+	 */
+	public static void setLine(long[] image, int line, boolean value) {
+
+		if (value) {
+			image[line >>> 6] |= 1L << line;
+		} else {
+			image[line >>> 6] &= ~(1L << line);
+		}
+	}
+
+	/**
+	 * Returns the 8 bit value of a port.
+	 * 
+	 * @param image
+	 *            The port image.
+	 * @param port
+	 *            The port index, 0 for port A.
+	 * @return The port value. 0-255
+	 */
+	public static int getPort(long[] image, int port) {
+		return (int) (image[port >>> 3] >>> ((port & 7) << 3)) & 0xff;
+	}
+
+	/**
+	 * Sets the 8 bit value of a port.
+	 * 
+	 * @param image
+	 *            The port image.
+	 * @param port
+	 *            The port index, 0 for port A.
+	 * @param value
+	 *            The port value. 0-255
+	 */
+	public static void setPort(long[] image, int port, int value) {
+
+		int shift = (port & 7) << 3;
+		image[port >>> 3] = (image[port >>> 3] & ~(0xffL << shift)) | ((long) (value & 0xff) << shift);
+	}
+
+	/**
+	 * Returns the port index of a port letter.
+	 * 
+	 * @param ioPort
+	 *            The port letter.
+	 * @return The port index, 0 for port A.
+	 */
+	public static int portIndex(char ioPort) {
+		return Character.toLowerCase(ioPort) - 'a';
+	}
+
+	/**
+	 * Returns the lower case port letter of a port index.
+	 * 
+	 * @param port
+	 *            The port index, 0 for port A.
+	 * @return The port letter.
+	 */
+	public static char portLetter(int port) {
+		return (char) ('a' + port);
+	}
+}
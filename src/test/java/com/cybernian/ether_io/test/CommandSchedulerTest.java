@@ -0,0 +1,116 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.core.CommandScheduler;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class CommandSchedulerTest {
+
+	/**
+	 * Verify that a waiting safety command is served before waiting bulk and poll
+	 * commands, regardless of arrival order.
+	 */
+	@Test
+	public void testPriorityOrder() throws Exception {
+
+		final CommandScheduler scheduler = new CommandScheduler();
+		final List<CommandPriority> served = Collections.synchronizedList(new ArrayList<CommandPriority>());
+
+		scheduler.acquire(CommandPriority.POLL);
+
+		Thread bulk = this.startWaiter(scheduler, CommandPriority.BULK, served);
+		this.awaitQueued(scheduler, CommandPriority.BULK);
+		Thread poll = this.startWaiter(scheduler, CommandPriority.POLL, served);
+		this.awaitQueued(scheduler, CommandPriority.POLL);
+		Thread safety = this.startWaiter(scheduler, CommandPriority.SAFETY, served);
+		this.awaitQueued(scheduler, CommandPriority.SAFETY);
+
+		scheduler.release();
+
+		bulk.join(2000);
+		poll.join(2000);
+		safety.join(2000);
+
+		assertEquals(3, served.size());
+		assertEquals(CommandPriority.SAFETY, served.get(0));
+		assertEquals(CommandPriority.POLL, served.get(1));
+		assertEquals(CommandPriority.BULK, served.get(2));
+		assertEquals(2, scheduler.getCommandCount(CommandPriority.POLL));
+		assertEquals(1, scheduler.getCommandCount(CommandPriority.SAFETY));
+	}
+
+	/**
+	 * Verify that the owner may acquire the board again without blocking.
+	 */
+	@Test
+	public void testReentrant() throws Exception {
+
+		CommandScheduler scheduler = new CommandScheduler();
+
+		scheduler.acquire(CommandPriority.CONTROL);
+		scheduler.acquire(CommandPriority.POLL);
+		scheduler.release();
+		scheduler.release();
+
+		try {
+			scheduler.release();
+			fail("Release without a hold should fail.");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+	}
+
+	private Thread startWaiter(final CommandScheduler scheduler, final CommandPriority priority,
+			final List<CommandPriority> served) {
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scheduler.acquire(priority);
+					served.add(priority);
+					scheduler.release();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private void awaitQueued(CommandScheduler scheduler, CommandPriority priority) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + 2000;
+		while (scheduler.getQueueLength(priority) == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.scan.DebounceFilter;
+import com.cybernian.ether_io.scan.ScanGroup;
+import com.cybernian.ether_io.scan.ScanListener;
+import com.cybernian.ether_io.scan.ScanScheduler;
+import com.cybernian.ether_io.tools.BoardEmulator;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class DebounceFilterTest {
+
+	/**
+	 * Verify that a change is only accepted after the required number of
+	 * consecutive samples and that a bounce restarts the count.
+	 */
+	@Test
+	public void testStableSamples() {
+
+		DebounceFilter filter = new DebounceFilter(72, 3);
+		long[] raw = PortImage.create(72);
+
+		PortImage.setLine(raw, 5, true);
+		PortImage.setLine(raw, 70, true);
+		assertFalse(filter.update(raw));
+		assertFalse(filter.update(raw));
+
+		// Line 70 bounces back, line 5 stays high.
+		PortImage.setLine(raw, 70, false);
+		assertTrue(filter.update(raw));
+		assertTrue(filter.getLine(5));
+		assertFalse(filter.getLine(70));
+
+		long[] changes = PortImage.create(72);
+		filter.getChanges(changes);
+		assertEquals(1L << 5, changes[0]);
+		assertEquals(0L, changes[1]);
+
+		// Line 70 now needs 3 fresh samples.
+		PortImage.setLine(raw, 70, true);
+		assertFalse(filter.update(raw));
+		assertFalse(filter.update(raw));
+		assertTrue(filter.update(raw));
+		assertTrue(filter.getLine(70));
+	}
+
+	/**
+	 * Verify that a single sample filter follows the raw input.
+	 */
+	@Test
+	public void testUnfiltered() {
+
+		DebounceFilter filter = new DebounceFilter(24, 1);
+		long[] raw = new long[] { 0xa5c3ffL };
+		long[] state = PortImage.create(24);
+
+		assertTrue(filter.update(raw));
+		filter.getState(state);
+		assertEquals(0xa5c3ffL, state[0]);
+		assertEquals(0xa5, PortImage.getPort(state, 2));
+	}
+
+	/**
+	 * Verify that an update of some ports leaves the other lines and their
+	 * counters alone.
+	 */
+	@Test
+	public void testPortMask() {
+
+		DebounceFilter filter = new DebounceFilter(24, 2);
+		long[] raw = PortImage.create(24);
+		PortImage.setPort(raw, 0, 0x01);
+		PortImage.setPort(raw, 1, 0x02);
+
+		filter.update(raw, 0x01);
+		filter.update(raw, 0x02);
+		assertFalse(filter.getLine(0));
+		assertFalse(filter.getLine(9));
+
+		// Port B's count was not restarted by the port A sample.
+		filter.update(raw, 0x02);
+		assertTrue(filter.getLine(9));
+		assertFalse(filter.getLine(0));
+
+		// A sample of port B alone does not clear port A's count either.
+		PortImage.setPort(raw, 0, 0x00);
+		filter.update(raw, 0x02);
+		PortImage.setPort(raw, 0, 0x01);
+		filter.update(raw, 0x01);
+		assertTrue(filter.getLine(0));
+	}
+
+	/**
+	 * Verify that the filter works as a stage between the scan scheduler and a
+	 * downstream listener, with each group filtering only its own ports.
+	 */
+	@Test
+	public void testScanStage() throws Exception {
+
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		emulator.start();
+		IO24 board = new IO24("127.0.0.1", emulator.getLocalPort(), 1000);
+		try {
+			emulator.setInputs(0, 0x81);
+			emulator.setInputs(1, 0x0f);
+			final AtomicInteger portA = new AtomicInteger(-1);
+			final AtomicInteger portB = new AtomicInteger(-1);
+			DebounceFilter filter = new DebounceFilter(24, 3, new ScanListener() {
+				@Override
+				public void scanned(ScanGroup group, PortSample sample) {
+					portA.set(PortImage.getPort(sample.getImage(), 0));
+					portB.set(PortImage.getPort(sample.getImage(), 1));
+				}
+			});
+
+			ScanScheduler scheduler = new ScanScheduler(TimeUnit.MILLISECONDS.toNanos(1), 2);
+			ScanGroup groupA = scheduler.addGroup(board, "a", TimeUnit.MILLISECONDS.toNanos(2),
+					CommandPriority.POLL, filter);
+			ScanGroup groupB = scheduler.addGroup(board, "b", TimeUnit.MILLISECONDS.toNanos(2),
+					CommandPriority.POLL, filter);
+			scheduler.start();
+			Thread.sleep(150);
+			scheduler.stop();
+
+			assertTrue(groupA.getScanCount() >= 3 && groupB.getScanCount() >= 3);
+			assertEquals(0x81, portA.get());
+			assertEquals(0x0f, portB.get());
+			assertTrue(filter.getLine(0) && filter.getLine(7) && filter.getLine(8) && !filter.getLine(16));
+		} finally {
+			board.closeSocket();
+			emulator.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.drivers.BoardModel;
+import com.cybernian.ether_io.drivers.DriverFactory;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.drivers.IO24TPC;
+import com.cybernian.ether_io.drivers.IO72TPC;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class DriverFactoryTest {
+
+	private final List<BoardEmulator> emulators = new ArrayList<BoardEmulator>();
+	private final List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+	private File cacheFile;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulators.add(new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false));
+		this.emulators.add(new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, true));
+		this.emulators.add(new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 9, true));
+		for (BoardEmulator emulator : this.emulators) {
+			emulator.start();
+			this.addresses.add(new InetSocketAddress("127.0.0.1", emulator.getLocalPort()));
+		}
+		this.cacheFile = File.createTempFile("models", ".properties");
+		this.cacheFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+
+		for (BoardEmulator emulator : this.emulators) {
+			emulator.close();
+		}
+		this.cacheFile.delete();
+	}
+
+	/**
+	 * Verify that each model is probed once, opened with the matching driver, and
+	 * found in the cache file by a later factory.
+	 */
+	@Test
+	public void testOpenAll() throws Exception {
+
+		DriverFactory factory = new DriverFactory(this.cacheFile, 200);
+		List<IO24Core> boards = factory.openAll(this.addresses, 3);
+		assertEquals(IO24.class, boards.get(0).getClass());
+		assertEquals(IO24TPC.class, boards.get(1).getClass());
+		assertEquals(IO72TPC.class, boards.get(2).getClass());
+		assertEquals(3, factory.getProbeCount());
+		assertTrue(this.cacheFile.exists());
+		close(boards);
+
+		DriverFactory restarted = new DriverFactory(this.cacheFile, 200);
+		boards = restarted.openAll(this.addresses, 3);
+		assertEquals(IO72TPC.class, boards.get(2).getClass());
+		assertEquals(0, restarted.getProbeCount());
+		assertEquals(3, restarted.getCacheHitCount());
+		close(boards);
+
+		byte[] reply = DriverFactory.identify("127.0.0.1", this.emulators.get(1).getLocalPort(), 200);
+		assertEquals(BoardModel.IO24TPC, restarted.getModel(DriverFactory.macAddress(reply)));
+	}
+
+	/**
+	 * Verify that a board that does not answer is reported as null without
+	 * holding up the others.
+	 */
+	@Test
+	public void testUnreachableBoard() throws Exception {
+
+		this.emulators.get(0).close();
+		DriverFactory factory = new DriverFactory(null, 100);
+		List<IO24Core> boards = factory.openAll(this.addresses, 3);
+		assertNull(boards.get(0));
+		assertEquals(IO72TPC.class, boards.get(2).getClass());
+		close(boards);
+	}
+
+	private static void close(List<IO24Core> boards) {
+
+		for (IO24Core board : boards) {
+			if (board != null) {
+				board.closeSocket();
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.scan.EdgeCounter;
+import com.cybernian.ether_io.scan.ScanScheduler;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class EdgeCounterTest {
+
+	/**
+	 * Verify edge counts, pulse widths and frequency for a 1 kHz, 25% duty cycle
+	 * pulse train on line 9.
+	 */
+	@Test
+	public void testPulseTrain() {
+
+		EdgeCounter counter = new EdgeCounter(24);
+		long[] image = new long[1];
+		long time = 0;
+
+		counter.update(image, time);
+		for (int pulse = 0; pulse < 4; pulse++) {
+			time += 750000;
+			image[0] = 1L << 9;
+			counter.update(image, time);
+			time += 250000;
+			image[0] = 0;
+			counter.update(image, time);
+		}
+
+		assertEquals(4, counter.getRisingCount(9));
+		assertEquals(4, counter.getFallingCount(9));
+		assertEquals(0, counter.getRisingCount(8));
+		assertEquals(250000, counter.getHighWidthNanos(9));
+		assertEquals(750000, counter.getLowWidthNanos(9));
+		assertEquals(1000000, counter.getPeriodNanos(9));
+		assertEquals(1000.0, counter.getFrequency(9, time), 0.001);
+		assertEquals(500.0, counter.getFrequency(9, time - 250000 + 2000000), 0.001);
+	}
+
+	/**
+	 * Verify the period of an irregular pulse train and the decay of the
+	 * frequency once the pulses stop.
+	 */
+	@Test
+	public void testPeriodAndDecay() {
+
+		EdgeCounter counter = new EdgeCounter(24);
+		long[] image = new long[1];
+
+		counter.update(image, 0);
+		image[0] = 1;
+		counter.update(image, 1000000);
+		assertEquals(0, counter.getPeriodNanos(0));
+		assertEquals(0.0, counter.getFrequency(0, 1000000), 0.0);
+
+		image[0] = 0;
+		counter.update(image, 1500000);
+		image[0] = 1;
+		counter.update(image, 3000000);
+		assertEquals(2000000, counter.getPeriodNanos(0));
+		assertEquals(500000, counter.getHighWidthNanos(0));
+		assertEquals(1500000, counter.getLowWidthNanos(0));
+
+		// Within one period of the last edge the frequency is that of the period.
+		assertEquals(500.0, counter.getFrequency(0, 4000000), 0.001);
+		// Then it falls off with the time since the last edge.
+		assertEquals(250.0, counter.getFrequency(0, 7000000), 0.001);
+		assertEquals(1.0, counter.getFrequency(0, 1003000000), 0.001);
+
+		counter.reset();
+		assertEquals(0, counter.getRisingCount(0));
+		assertEquals(0.0, counter.getFrequency(0, 7000000), 0.0);
+	}
+
+	/**
+	 * Verify that an update of some ports does not see edges on the others.
+	 */
+	@Test
+	public void testPortMask() {
+
+		EdgeCounter counter = new EdgeCounter(24);
+		long[] image = new long[1];
+
+		image[0] = 0x0101;
+		counter.update(image, 0, 0x01); // Primes port A only.
+		image[0] = 0x0000;
+		counter.update(image, 10, 0x02); // Primes port B with a low line 8.
+		image[0] = 0x0101;
+		counter.update(image, 20, 0x01);
+		assertEquals(0, counter.getRisingCount(0));
+		assertEquals(0, counter.getFallingCount(0));
+		assertEquals(0, counter.getRisingCount(8));
+
+		counter.update(image, 30, 0x02);
+		assertEquals(1, counter.getRisingCount(8));
+		assertEquals(0, counter.getRisingCount(0));
+	}
+
+	/**
+	 * Verify that the counter counts edges fed by the scan scheduler, each
+	 * group updating only its own ports.
+	 */
+	@Test
+	public void testScanListener() throws Exception {
+
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		emulator.start();
+		IO24 board = new IO24("127.0.0.1", emulator.getLocalPort(), 1000);
+		try {
+			emulator.setInputs(0, 0x01);
+			EdgeCounter counter = new EdgeCounter(24);
+			ScanScheduler scheduler = new ScanScheduler(TimeUnit.MILLISECONDS.toNanos(1), 2);
+			scheduler.addGroup(board, "a", TimeUnit.MILLISECONDS.toNanos(2), CommandPriority.POLL, counter);
+			scheduler.addGroup(board, "b", TimeUnit.MILLISECONDS.toNanos(2), CommandPriority.POLL, counter);
+			scheduler.start();
+			for (int pulse = 0; pulse < 3; pulse++) {
+				Thread.sleep(40);
+				emulator.setInputs(1, 0x01);
+				Thread.sleep(40);
+				emulator.setInputs(1, 0x00);
+			}
+			Thread.sleep(40);
+			scheduler.stop();
+
+			assertEquals(3, counter.getRisingCount(8));
+			assertEquals(3, counter.getFallingCount(8));
+			assertTrue(counter.getPeriodNanos(8) > TimeUnit.MILLISECONDS.toNanos(40));
+			assertEquals(0, counter.getRisingCount(0));
+			assertEquals(0, counter.getFallingCount(0));
+		} finally {
+			board.closeSocket();
+			emulator.close();
+		}
+	}
+}
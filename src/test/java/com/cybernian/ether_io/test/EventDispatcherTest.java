@@ -0,0 +1,181 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.event.EventDispatcher;
+import com.cybernian.ether_io.event.OverflowPolicy;
+import com.cybernian.ether_io.event.PortChangeEvent;
+import com.cybernian.ether_io.event.PortChangeListener;
+import com.cybernian.ether_io.event.Subscription;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class EventDispatcherTest {
+
+	/**
+	 * An executor that holds tasks until they are run by the test.
+	 */
+	private static class ManualExecutor implements Executor {
+
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable task) {
+			this.tasks.add(task);
+		}
+
+		void runAll() {
+			while (!this.tasks.isEmpty()) {
+				this.tasks.remove(0).run();
+			}
+		}
+	}
+
+	/**
+	 * A listener that records the events it receives.
+	 */
+	private static class Recorder implements PortChangeListener {
+
+		private final List<PortChangeEvent> events = new ArrayList<PortChangeEvent>();
+
+		@Override
+		public void portChanged(PortChangeEvent event) {
+			this.events.add(event);
+		}
+	}
+
+	/**
+	 * Verify that a conflating queue keeps one event per port with the latest
+	 * line states, and drops lines that changed back.
+	 */
+	@Test
+	public void testConflate() throws Exception {
+
+		ManualExecutor executor = new ManualExecutor();
+		EventDispatcher dispatcher = new EventDispatcher(executor);
+		Recorder recorder = new Recorder();
+		Subscription subscription = dispatcher.subscribe(recorder, 8, OverflowPolicy.CONFLATE);
+
+		dispatcher.publish(new PortChangeEvent(null, 0, 0x01, 0x01, 1)); // Line 0 rises.
+		dispatcher.publish(new PortChangeEvent(null, 1, 0x80, 0x80, 2)); // Port B line 7 rises.
+		dispatcher.publish(new PortChangeEvent(null, 0, 0x03, 0x02, 3)); // Line 1 rises.
+		dispatcher.publish(new PortChangeEvent(null, 0, 0x02, 0x01, 4)); // Line 0 falls again.
+		assertEquals(2, subscription.getQueueLength());
+		assertEquals(2, subscription.getConflatedCount());
+
+		executor.runAll();
+		assertEquals(2, recorder.events.size());
+		assertEquals(1, recorder.events.get(0).getPort());
+		PortChangeEvent portA = recorder.events.get(1);
+		assertEquals(0x02, portA.getValue());
+		assertEquals(0x02, portA.getChanged());
+		assertEquals(4, portA.getNanos());
+
+		// Changes that cancel out are not delivered at all.
+		dispatcher.publish(new PortChangeEvent(null, 2, 0x10, 0x10, 5));
+		dispatcher.publish(new PortChangeEvent(null, 2, 0x00, 0x10, 6));
+		executor.runAll();
+		assertEquals(2, recorder.events.size());
+		assertEquals(2, subscription.getDeliveredCount());
+	}
+
+	/**
+	 * Verify that a conflating queue keeps every port's pending change, even
+	 * when more ports change than the capacity.
+	 */
+	@Test
+	public void testConflateNeverDrops() throws Exception {
+
+		ManualExecutor executor = new ManualExecutor();
+		EventDispatcher dispatcher = new EventDispatcher(executor);
+		Recorder recorder = new Recorder();
+		Subscription subscription = dispatcher.subscribe(recorder, 1, OverflowPolicy.CONFLATE);
+
+		dispatcher.publish(new PortChangeEvent(null, 0, 0x01, 0x01, 1));
+		dispatcher.publish(new PortChangeEvent(null, 1, 0x02, 0x02, 2));
+		dispatcher.publish(new PortChangeEvent(null, 2, 0x04, 0x04, 3));
+		assertEquals(3, subscription.getQueueLength());
+
+		executor.runAll();
+		assertEquals(3, recorder.events.size());
+		assertEquals(0, subscription.getDroppedCount());
+	}
+
+	/**
+	 * Verify that a full drop oldest queue keeps the newest events.
+	 */
+	@Test
+	public void testDropOldest() throws Exception {
+
+		ManualExecutor executor = new ManualExecutor();
+		EventDispatcher dispatcher = new EventDispatcher(executor);
+		Recorder recorder = new Recorder();
+		Subscription subscription = dispatcher.subscribe(recorder, 2, OverflowPolicy.DROP_OLDEST);
+
+		for (int i = 0; i < 5; i++) {
+			dispatcher.publish(new PortChangeEvent(null, 0, i, 0xff, i));
+		}
+		assertEquals(3, subscription.getDroppedCount());
+
+		executor.runAll();
+		assertEquals(2, recorder.events.size());
+		assertEquals(3, recorder.events.get(0).getValue());
+		assertEquals(4, recorder.events.get(1).getValue());
+	}
+
+	/**
+	 * Verify that a blocking queue holds the publisher until the listener catches
+	 * up, and that cancelling releases it.
+	 */
+	@Test
+	public void testBlock() throws Exception {
+
+		ManualExecutor executor = new ManualExecutor();
+		final EventDispatcher dispatcher = new EventDispatcher(executor);
+		Subscription subscription = dispatcher.subscribe(new Recorder(), 1, OverflowPolicy.BLOCK);
+
+		dispatcher.publish(new PortChangeEvent(null, 0, 1, 1, 1));
+		Thread publisher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					dispatcher.publish(new PortChangeEvent(null, 0, 0, 1, 2));
+				} catch (InterruptedException e) {
+					// Ends the thread.
+				}
+			}
+		});
+		publisher.start();
+		publisher.join(200);
+		assertTrue(publisher.isAlive());
+
+		dispatcher.unsubscribe(subscription);
+		publisher.join(1000);
+		assertFalse(publisher.isAlive());
+		assertEquals(0, subscription.getDroppedCount());
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.event.LineEdge;
+import com.cybernian.ether_io.flow.LineEdgePublisher;
+import com.cybernian.ether_io.flow.PortSamplePublisher;
+import com.cybernian.ether_io.tools.BoardEmulator;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class FlowPublisherTest {
+
+	private BoardEmulator emulator1;
+	private BoardEmulator emulator2;
+	private IO24 board1;
+	private IO24 board2;
+	private ScheduledExecutorService executor;
+
+	/**
+	 * A subscriber that queues its items and requests nothing by itself.
+	 */
+	private static class QueueSubscriber<T> implements Flow.Subscriber<T> {
+
+		final BlockingQueue<T> items = new LinkedBlockingQueue<T>();
+		volatile Flow.Subscription subscription;
+		volatile Throwable error;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(T item) {
+			this.items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator1 = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator2 = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator1.start();
+		this.emulator2.start();
+		this.board1 = new IO24("127.0.0.1", this.emulator1.getLocalPort(), 1000);
+		this.board2 = new IO24("127.0.0.1", this.emulator2.getLocalPort(), 1000);
+		this.executor = Executors.newScheduledThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+
+		this.executor.shutdownNow();
+		this.board1.closeSocket();
+		this.board2.closeSocket();
+		this.emulator1.close();
+		this.emulator2.close();
+	}
+
+	/**
+	 * Verify that a fleet sample stream reads the boards in turn and only as
+	 * often as samples are requested.
+	 */
+	@Test
+	public void testSampleDemand() throws Exception {
+
+		this.emulator2.setInputs(2, 0x33);
+		PortSamplePublisher publisher = new PortSamplePublisher(this.executor, 0, this.board1, this.board2);
+		QueueSubscriber<PortSample> subscriber = new QueueSubscriber<PortSample>();
+		long requests1 = this.emulator1.getRequestCount();
+		long requests2 = this.emulator2.getRequestCount();
+		publisher.subscribe(subscriber);
+
+		Thread.sleep(100);
+		assertEquals(requests1, this.emulator1.getRequestCount());
+		assertEquals(requests2, this.emulator2.getRequestCount());
+
+		subscriber.subscription.request(3);
+		PortSample first = subscriber.items.poll(1, TimeUnit.SECONDS);
+		PortSample second = subscriber.items.poll(1, TimeUnit.SECONDS);
+		PortSample third = subscriber.items.poll(1, TimeUnit.SECONDS);
+		assertSame(this.board1, first.getBoard());
+		assertSame(this.board2, second.getBoard());
+		assertSame(this.board1, third.getBoard());
+		assertEquals(0x33, PortImage.getPort(second.getImage(), 2));
+
+		Thread.sleep(100);
+		assertTrue(subscriber.items.isEmpty());
+		assertEquals(requests1 + 6, this.emulator1.getRequestCount());
+		assertEquals(requests2 + 3, this.emulator2.getRequestCount());
+
+		subscriber.subscription.request(0);
+		Thread.sleep(100);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+
+	/**
+	 * Verify that edges are published with their direction and line.
+	 */
+	@Test
+	public void testEdges() throws Exception {
+
+		LineEdgePublisher publisher = new LineEdgePublisher(this.executor, TimeUnit.MILLISECONDS.toNanos(5),
+				this.board1);
+		QueueSubscriber<LineEdge> subscriber = new QueueSubscriber<LineEdge>();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(2);
+
+		Thread.sleep(50);
+		this.emulator1.setInputs(1, 0x04);
+		LineEdge edge = subscriber.items.poll(1, TimeUnit.SECONDS);
+		assertNotNull(edge);
+		assertEquals(10, edge.getLine());
+		assertTrue(edge.isRising());
+
+		this.emulator1.setInputs(1, 0x00);
+		edge = subscriber.items.poll(1, TimeUnit.SECONDS);
+		assertNotNull(edge);
+		assertFalse(edge.isRising());
+
+		// Without demand the board is no longer read.
+		Thread.sleep(50);
+		long requests = this.emulator1.getRequestCount();
+		Thread.sleep(100);
+		assertEquals(requests, this.emulator1.getRequestCount());
+		assertNull(subscriber.error);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.gateway.Gateway;
+import com.cybernian.ether_io.gateway.GatewaySession;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class GatewayTest {
+
+	private BoardEmulator emulator;
+	private Gateway gateway;
+	private GatewaySession session;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator.start();
+		this.gateway = new Gateway();
+		this.session = this.gateway.addBoard(new InetSocketAddress("127.0.0.1", 0),
+				new IO24("127.0.0.1", this.emulator.getLocalPort(), 1000), 0);
+	}
+
+	@After
+	public void tearDown() {
+
+		this.gateway.close();
+		this.emulator.close();
+	}
+
+	/**
+	 * Verify that unmodified clients read and write the board through the
+	 * gateway, and that writes are applied before later reads.
+	 */
+	@Test
+	public void testClients() throws Exception {
+
+		int port = ((InetSocketAddress) this.session.getListenAddress()).getPort();
+		IO24 client1 = new IO24("127.0.0.1", port, 1000);
+		IO24 client2 = new IO24("127.0.0.1", port, 1000);
+		try {
+			client1.writePortDirection('a', 0x00);
+			client1.writePortValue('a', 0x3c);
+			assertEquals(0x3c, client2.readPortValue('a')[1] & 0xff);
+			assertEquals(0x00, client2.readPortDirection('a')[2] & 0xff);
+
+			this.emulator.setInputs(1, 0x81);
+			assertEquals(0x81, client1.readPortValue('b')[1] & 0xff);
+
+			assertEquals(0x3c, this.emulator.getLatch(0));
+			assertEquals(2, this.session.getWriteCount());
+			assertEquals(0, this.session.getFailedCount());
+		} finally {
+			client1.closeSocket();
+			client2.closeSocket();
+		}
+	}
+
+	/**
+	 * Verify that an echo request is answered through the gateway.
+	 */
+	@Test
+	public void testEcho() throws Exception {
+
+		IO24 client = new IO24("127.0.0.1", this.listenPort(), 1000);
+		try {
+			assertEquals(0x5a, client.echoByte((byte) 0x5a));
+			assertEquals(' ', client.sendSpace());
+			assertEquals(0, this.session.getFailedCount());
+		} finally {
+			client.closeSocket();
+		}
+	}
+
+	/**
+	 * Verify that a host data reply carries the client's address and port, not
+	 * the gateway's.
+	 */
+	@Test
+	public void testHostData() throws Exception {
+
+		DatagramSocket client = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		try {
+			byte[] reply = this.exchange(client, new byte[] { '%' }, 16);
+			assertEquals('%', reply[0]);
+			assertArrayEquals(new byte[] { 127, 0, 0, 1 }, Arrays.copyOfRange(reply, 4, 8));
+			assertEquals(client.getLocalPort(), ((reply[14] & 0xff) << 8) | (reply[15] & 0xff));
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Verify that an identify request is answered through the gateway.
+	 */
+	@Test
+	public void testIdentify() throws Exception {
+
+		DatagramSocket client = new DatagramSocket();
+		try {
+			byte[] reply = this.exchange(client, new byte[] { 'I', 'O', '2', '4' }, 12);
+			assertEquals("IO24", new String(reply, 0, 4, "US-ASCII"));
+		} finally {
+			client.close();
+		}
+	}
+
+	private int listenPort() {
+		return ((InetSocketAddress) this.session.getListenAddress()).getPort();
+	}
+
+	/**
+	 * Sends a request to the gateway and returns the reply, which must have the
+	 * given length.
+	 */
+	private byte[] exchange(DatagramSocket client, byte[] request, int length) throws Exception {
+
+		client.setSoTimeout(1000);
+		client.send(new DatagramPacket(request, request.length, new InetSocketAddress("127.0.0.1", this.listenPort())));
+		DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+		client.receive(packet);
+		assertEquals(length, packet.getLength());
+		return Arrays.copyOf(packet.getData(), packet.getLength());
+	}
+}
@@ -29,6 +29,7 @@ import org.junit.Test;
 
 import com.cybernian.ether_io.core.IO24Common;
 import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.ResetResult;
 
 /**
  * 
@@ -37,7 +38,7 @@ import com.cybernian.ether_io.core.IO24Core;
  */
 public class IO24CoreTestIT {
 
-	private static final int RESET_DELAY = 700; // Time in milliseconds.
+	private static final int RESET_TIMEOUT = 2000; // Time in milliseconds.
 
 	private IO24Common IO24;
 	
@@ -380,13 +381,9 @@ public class IO24CoreTestIT {
 			// Write current port A direction to output.
 			this.IO24.writePortDirection('a', (byte) 0);
 			
-			this.IO24.resetBoard();
-
-			try { // Allow time for the board to reset.
-				Thread.sleep(RESET_DELAY);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+			// Wait for the board to answer again after the reset.
+			ResetResult result = this.IO24.resetBoard(RESET_TIMEOUT);
+			assertTrue(result.toString(), result.isRecovered());
 
 			returnData = this.IO24.readPortDirection('a');
 			assert ((byte) (int) '!' == ((int) returnData[0] & 0xff));
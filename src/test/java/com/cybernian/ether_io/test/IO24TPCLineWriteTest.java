@@ -0,0 +1,133 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.drivers.IO24TPC;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class IO24TPCLineWriteTest {
+
+	private BoardEmulator emulator;
+	private IO24TPC board;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, true);
+		this.emulator.start();
+		this.board = new IO24TPC("127.0.0.1", this.emulator.getLocalPort(), 1000);
+	}
+
+	@After
+	public void tearDown() {
+
+		this.board.closeSocket();
+		this.emulator.close();
+	}
+
+	/**
+	 * Verify the packet choice with and without a known latch shadow.
+	 */
+	@Test
+	public void testPacketChoice() throws Exception {
+
+		this.board.writePortDirection('a', 0x00);
+
+		// Unknown shadow, two lines: two pin commands.
+		this.board.writeLines('a', 0x03, 0x01, CommandPriority.CONTROL);
+		assertEquals(2, this.board.getLineWritePackets());
+		assertEquals(-1, this.board.getLatchShadow('a'));
+
+		// Unknown shadow, four lines: read and port write, which sets the shadow.
+		this.board.writeLines('a', 0xf0, 0xa0, CommandPriority.CONTROL);
+		assertEquals(4, this.board.getLineWritePackets());
+		assertEquals(0xa1, this.board.getLatchShadow('a'));
+
+		// Known shadow, nothing changes: the lines are still written, with one
+		// port write.
+		this.board.writeLines('a', 0x81, 0x81, CommandPriority.CONTROL);
+		assertEquals(5, this.board.getLineWritePackets());
+
+		// Known shadow, one line changes: one pin command that keeps the shadow.
+		this.board.writeIoLine('a', 1, 1);
+		assertEquals(6, this.board.getLineWritePackets());
+		assertEquals(0xa3, this.board.getLatchShadow('a'));
+
+		// Known shadow, many lines change: one port write.
+		this.board.writeLines('a', 0xff, 0x5c, CommandPriority.CONTROL);
+		assertEquals(7, this.board.getLineWritePackets());
+		assertEquals(0 + 2 + 1 + 0 + 7, this.board.getLineWritePacketsSaved());
+
+		this.board.readPortValue('a');
+		assertEquals(0x5c, this.emulator.getLatch(0));
+	}
+
+	/**
+	 * Verify that a write the shadow shows as unchanged is still sent, so a line
+	 * changed behind the driver's back is restored.
+	 */
+	@Test
+	public void testUnchangedWriteIsSent() throws Exception {
+
+		this.board.writePortDirection('a', 0x00);
+		this.board.writePortValue('a', 0x10);
+
+		IO24TPC other = new IO24TPC("127.0.0.1", this.emulator.getLocalPort(), 1000);
+		try {
+			other.writePortValue('a', 0x00);
+			other.readPortValue('a');
+		} finally {
+			other.closeSocket();
+		}
+		assertEquals(0x10, this.board.getLatchShadow('a'));
+
+		this.board.writeIoLine('a', 4, 1);
+		this.board.readPortValue('a');
+		assertEquals(0x10, this.emulator.getLatch(0));
+	}
+
+	/**
+	 * Verify that a line number outside the port is rejected rather than
+	 * silently ignored.
+	 */
+	@Test
+	public void testLineOutsidePort() throws Exception {
+
+		for (int line : new int[] { -1, 8, 12, 23 }) {
+			try {
+				this.board.writeIoLine('a', line, 1);
+				fail("Line " + line + " accepted.");
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+		assertEquals(0, this.board.getLineWritePackets());
+	}
+}
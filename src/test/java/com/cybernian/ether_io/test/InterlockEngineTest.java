@@ -0,0 +1,192 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.map.LogicalIoMap;
+import com.cybernian.ether_io.rules.InterlockEngine;
+import com.cybernian.ether_io.rules.InterlockRule;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class InterlockEngineTest {
+
+	private BoardEmulator emulator;
+	private IO24 board;
+	private LogicalIoMap map;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator.start();
+		this.board = new IO24("127.0.0.1", this.emulator.getLocalPort(), 1000);
+		this.board.writePortDirection('a', 0x00);
+
+		this.map = new LogicalIoMap();
+		for (char port = 'a'; port <= 'c'; port++) {
+			for (int line = 0; line < 8; line++) {
+				this.map.define(String.valueOf(Character.toUpperCase(port)) + line, this.board, port, line);
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+
+		this.board.closeSocket();
+		this.emulator.close();
+	}
+
+	/**
+	 * Verify the size of the compiled conditions.
+	 */
+	@Test
+	public void testCompile() throws Exception {
+
+		InterlockEngine engine = new InterlockEngine(this.map);
+		assertEquals(4, engine.addRule("r1", "if (B0 or B1) and (C0 or C1) then raise A0").getTermCount());
+		assertEquals(2, engine.addRule("r2", "if not (B0 && B1) then lower A1").getTermCount());
+		assertEquals(0, engine.addRule("r3", "if B0 and !B0 then raise A2").getTermCount());
+
+		try {
+			engine.addRule("bad", "if B0 and Z9 then raise A0");
+			fail("Unknown point accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			engine.addRule("bad", "when B0 raise A0");
+			fail("Malformed rule accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Verify that rules drive their outputs as their inputs change, and only
+	 * evaluate when an input word changed.
+	 */
+	@Test
+	public void testUpdate() throws Exception {
+
+		InterlockEngine engine = new InterlockEngine(this.map);
+		InterlockRule rule = engine.addRule("pump", "if input B3 and not C7 then raise A0 else lower A0");
+		PortSample sample = new PortSample(24);
+
+		this.emulator.setInputs(1, 0x08);
+		this.board.readPortSample(sample);
+		engine.update(sample);
+		this.board.readPortSample(sample);
+		assertEquals(0x01, this.emulator.getLatch(0));
+		assertEquals(1, rule.getState());
+		assertEquals(1, rule.getFiringCount());
+
+		// The rule does not read port A, so the new output value is not evaluated.
+		long evaluations = rule.getEvaluationCount();
+		engine.update(sample);
+		assertEquals(evaluations, rule.getEvaluationCount());
+		assertEquals(1, rule.getFiringCount());
+
+		this.emulator.setInputs(2, 0x80);
+		this.board.readPortSample(sample);
+		engine.update(sample);
+		this.board.readPortSample(sample);
+		assertEquals(0x00, this.emulator.getLatch(0));
+		assertEquals(0, rule.getState());
+		assertEquals(2, rule.getFiringCount());
+		assertEquals(2, rule.getLatency().getCount());
+
+		// An unchanged image evaluates nothing.
+		engine.update(sample);
+		evaluations = rule.getEvaluationCount();
+		engine.update(sample);
+		assertEquals(evaluations, rule.getEvaluationCount());
+	}
+
+	/**
+	 * Verify that a rule whose output write failed is written again on the next
+	 * sample, even though its inputs did not change.
+	 */
+	@Test
+	public void testFailedWriteRetried() throws Exception {
+
+		IO24 fastBoard = new IO24("127.0.0.1", this.emulator.getLocalPort(), 100);
+		try {
+			LogicalIoMap fastMap = new LogicalIoMap();
+			fastMap.define("A0", fastBoard, 'a', 0);
+			fastMap.define("B3", fastBoard, 'b', 3);
+			InterlockEngine engine = new InterlockEngine(fastMap);
+			InterlockRule rule = engine.addRule("pump", "if input B3 then raise A0 else lower A0");
+			PortSample sample = new PortSample(24);
+
+			this.emulator.setInputs(1, 0x08);
+			fastBoard.readPortSample(sample);
+			this.emulator.setDropRate(1.0);
+			try {
+				engine.update(sample);
+				fail("Write to a silent board succeeded.");
+			} catch (IOException e) {
+				// Expected; the port read before the line write timed out.
+			}
+			assertEquals(0, rule.getFiringCount());
+
+			this.emulator.setDropRate(0);
+			engine.update(sample);
+			fastBoard.readPortValue('a');
+			assertEquals(0x01, this.emulator.getLatch(0));
+			assertEquals(1, rule.getFiringCount());
+		} finally {
+			fastBoard.closeSocket();
+		}
+	}
+
+	/**
+	 * Verify that a rule added after its board was sampled is evaluated on the
+	 * next sample, even though its inputs did not change.
+	 */
+	@Test
+	public void testLateRule() throws Exception {
+
+		InterlockEngine engine = new InterlockEngine(this.map);
+		engine.addRule("first", "if input C0 then raise A1");
+		PortSample sample = new PortSample(24);
+
+		this.emulator.setInputs(1, 0x08);
+		this.board.readPortSample(sample);
+		engine.update(sample);
+
+		InterlockRule rule = engine.addRule("pump", "if input B3 then raise A0 else lower A0");
+		engine.update(sample);
+		this.board.readPortValue('a');
+		assertEquals(0x01, this.emulator.getLatch(0) & 0x01);
+		assertEquals(1, rule.getFiringCount());
+	}
+}
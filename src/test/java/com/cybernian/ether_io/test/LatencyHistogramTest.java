@@ -0,0 +1,70 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.tools.LatencyHistogram;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Verify that percentiles fall within the bucket precision of the recorded
+	 * values.
+	 */
+	@Test
+	public void testPercentiles() throws Exception {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000000L, histogram.getMax());
+		assertEquals(5000500L, histogram.getMean());
+		assertEquals(5000000.0, histogram.getPercentile(0.50), 5000000 * 0.04);
+		assertEquals(9900000.0, histogram.getPercentile(0.99), 9900000 * 0.04);
+		assertEquals(10000000L, histogram.getPercentile(1.0));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.99));
+	}
+
+	/**
+	 * Verify that small values are counted exactly.
+	 */
+	@Test
+	public void testSmallValues() throws Exception {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(3);
+		histogram.record(7);
+		histogram.record(-5);
+
+		assertEquals(0, histogram.getPercentile(0.3));
+		assertEquals(3, histogram.getPercentile(0.5));
+		assertEquals(7, histogram.getPercentile(1.0));
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.LatestValueTable;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class LatestValueTableTest {
+
+	/**
+	 * Verify that a published sample is read back with its version.
+	 */
+	@Test
+	public void testUpdateAndRead() throws Exception {
+
+		LatestValueTable table = new LatestValueTable(3, 72);
+		PortSample sample = new PortSample(72);
+
+		assertEquals(0, table.read(1, sample));
+
+		long[] image = new long[] { 0x123456789L, 0xffL };
+		table.update(1, image, 100, 140);
+		table.update(1, image, 200, 240);
+
+		assertEquals(2, table.read(1, sample));
+		assertEquals(2, table.getVersion(1));
+		assertEquals(0, table.getVersion(0));
+		assertArrayEquals(image, sample.getImage());
+		assertEquals(220, sample.getSampleNanos());
+	}
+
+	/**
+	 * Verify that ports published separately keep their own time stamps, and
+	 * that the entry carries those of its oldest port.
+	 */
+	@Test
+	public void testPartialUpdate() throws Exception {
+
+		LatestValueTable table = new LatestValueTable(1, 24);
+		PortSample sample = new PortSample(24);
+
+		PortImage.setPort(sample.getImage(), 0, 0x11);
+		PortImage.setPort(sample.getImage(), 1, 0x22);
+		PortImage.setPort(sample.getImage(), 2, 0x33);
+		sample.setTimes(100, 140);
+		table.update(0, sample);
+
+		PortImage.setPort(sample.getImage(), 1, 0x44);
+		sample.setTimes(1000, 1040);
+		table.update(0, sample, 0x02);
+		PortSample read = new PortSample(24);
+		table.read(0, read);
+		assertEquals(0x11, PortImage.getPort(read.getImage(), 0));
+		assertEquals(0x44, PortImage.getPort(read.getImage(), 1));
+		assertEquals(100, read.getSendNanos());
+		assertEquals(140, read.getReceiveNanos());
+
+		sample.setTimes(2000, 2040);
+		table.update(0, sample, 0x05);
+		table.read(0, read);
+		assertEquals(1000, read.getSendNanos());
+		assertEquals(1040, read.getReceiveNanos());
+
+		sample.setTimes(3000, 3040);
+		table.update(0, sample, 0x02);
+		table.read(0, read);
+		assertEquals(2000, read.getSendNanos());
+	}
+
+	/**
+	 * Verify that readers never see a torn entry while a writer updates it.
+	 */
+	@Test
+	public void testConsistentSnapshots() throws Exception {
+
+		final LatestValueTable table = new LatestValueTable(1, 256);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong torn = new AtomicLong();
+		final AtomicLong reads = new AtomicLong();
+
+		Thread[] readers = new Thread[3];
+		for (int r = 0; r < readers.length; r++) {
+			readers[r] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					PortSample sample = new PortSample(256);
+					while (running.get()) {
+						table.read(0, sample);
+						long[] image = sample.getImage();
+						for (long word : image) {
+							if (word != image[0] || word != sample.getSendNanos()) {
+								torn.incrementAndGet();
+							}
+						}
+						reads.incrementAndGet();
+					}
+				}
+			});
+			readers[r].start();
+		}
+
+		long[] image = new long[4];
+		long deadline = System.currentTimeMillis() + 300;
+		for (long i = 1; System.currentTimeMillis() < deadline; i++) {
+			Arrays.fill(image, i);
+			table.update(0, image, i, i);
+		}
+		running.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+
+		assertTrue(reads.get() > 0);
+		assertEquals(0, torn.get());
+	}
+}
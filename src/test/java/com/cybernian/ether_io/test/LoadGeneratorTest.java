@@ -0,0 +1,146 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.drivers.IO24R;
+import com.cybernian.ether_io.drivers.IO24TPC;
+import com.cybernian.ether_io.drivers.IO72TPC;
+import com.cybernian.ether_io.tools.BoardEmulator;
+import com.cybernian.ether_io.tools.LoadGenerator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class LoadGeneratorTest {
+
+	/**
+	 * Verify that a step against an IO24 fleet completes every command.
+	 */
+	@Test
+	public void testStep() throws Exception {
+
+		LoadGenerator generator = new LoadGenerator(2, false, new int[] { 2, 1, 1 }, 2);
+		try {
+			LoadGenerator.StepResult result = generator.runStep(500, 200);
+			assertEquals(0, result.getErrorCount());
+			long completed = 0;
+			for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+				completed += result.getLatency(operation).getCount();
+			}
+			assertTrue(completed >= 90);
+			assertTrue(result.getAchievedRate() > 0);
+		} finally {
+			generator.close();
+		}
+	}
+
+	/**
+	 * Verify that a step against an IO72TPC fleet completes every command.
+	 */
+	@Test
+	public void testStepIO72() throws Exception {
+
+		LoadGenerator generator = new LoadGenerator(1, true, new int[] { 1, 1, 1 }, 1);
+		try {
+			LoadGenerator.StepResult result = generator.runStep(200, 200);
+			assertEquals(0, result.getErrorCount());
+			assertTrue(result.getLatency(LoadGenerator.Operation.values()[0]).getCount() > 0);
+		} finally {
+			generator.close();
+		}
+	}
+
+	/**
+	 * Verify that a rate that is not positive is rejected.
+	 */
+	@Test
+	public void testInvalidRate() throws Exception {
+
+		LoadGenerator generator = new LoadGenerator(1, false, new int[] { 1, 0, 0 }, 1);
+		try {
+			for (double rate : new double[] { 0, -1, Double.NaN, Double.POSITIVE_INFINITY }) {
+				try {
+					generator.runStep(rate, 10);
+					fail("Rate " + rate + " accepted.");
+				} catch (IllegalArgumentException e) {
+					// Expected.
+				}
+			}
+		} finally {
+			generator.close();
+		}
+	}
+
+	/**
+	 * Verify that every driver opened on a given UDP port talks to the board on
+	 * that port.
+	 */
+	@Test
+	public void testDriversOnUdpPort() throws Exception {
+
+		this.checkDriver(false, 3, new Opener() {
+			@Override
+			public IO24Core open(int port) throws Exception {
+				return new IO24R("127.0.0.1", port, 1000);
+			}
+		});
+		this.checkDriver(true, 3, new Opener() {
+			@Override
+			public IO24Core open(int port) throws Exception {
+				return new IO24TPC("127.0.0.1", port, 1000);
+			}
+		});
+		this.checkDriver(true, 9, new Opener() {
+			@Override
+			public IO24Core open(int port) throws Exception {
+				return new IO72TPC("127.0.0.1", port, 1000);
+			}
+		});
+	}
+
+	private interface Opener {
+		IO24Core open(int port) throws Exception;
+	}
+
+	private void checkDriver(boolean tpc, int ports, Opener opener) throws Exception {
+
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), ports, tpc);
+		emulator.start();
+		try {
+			IO24Core board = opener.open(emulator.getLocalPort());
+			try {
+				assertEquals(emulator.getLocalPort(), board.getBoardUdpPort());
+				assertEquals(ports, board.getPortCount());
+				emulator.setInputs(ports - 1, 0xa5);
+				char last = (char) ('a' + ports - 1);
+				assertEquals(0xa5, board.readPortValue(last)[1] & 0xff);
+			} finally {
+				board.closeSocket();
+			}
+		} finally {
+			emulator.close();
+		}
+	}
+}
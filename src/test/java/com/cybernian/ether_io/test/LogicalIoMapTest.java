@@ -0,0 +1,127 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.map.LogicalIoMap;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class LogicalIoMapTest {
+
+	private BoardEmulator emulator1;
+	private BoardEmulator emulator2;
+	private IO24 board1;
+	private IO24 board2;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator1 = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator2 = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator1.start();
+		this.emulator2.start();
+		this.board1 = new IO24("127.0.0.1", this.emulator1.getLocalPort(), 1000);
+		this.board2 = new IO24("127.0.0.1", this.emulator2.getLocalPort(), 1000);
+	}
+
+	@After
+	public void tearDown() {
+
+		this.board1.closeSocket();
+		this.board2.closeSocket();
+		this.emulator1.close();
+		this.emulator2.close();
+	}
+
+	/**
+	 * Verify that names resolve to IDs and IDs to board, port and line.
+	 */
+	@Test
+	public void testDefine() throws Exception {
+
+		LogicalIoMap map = new LogicalIoMap();
+		for (int i = 0; i < 100; i++) {
+			map.define("point" + i, i < 50 ? this.board1 : this.board2, (char) ('a' + (i / 8) % 3), i % 8);
+		}
+
+		assertEquals(100, map.size());
+		assertEquals(57, map.getId("point57"));
+		assertEquals(-1, map.getId("missing"));
+		assertSame(this.board2, map.getBoard(57));
+		assertEquals('b', map.getPortLetter(57));
+		assertEquals(1, map.getLine(57));
+
+		try {
+			map.define("point3", this.board1, 'a', 0);
+			fail("Duplicate name accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+
+		try {
+			map.define("line9", this.board1, 'a', 9);
+			fail("Line outside the port accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		assertEquals(-1, map.getId("line9"));
+	}
+
+	/**
+	 * Verify that bulk writes keep the unchanged lines of partly written ports and
+	 * that bulk reads return every point.
+	 */
+	@Test
+	public void testSetAndGetLines() throws Exception {
+
+		this.board1.writePortDirection('a', 0x00);
+		this.board1.writePortDirection('b', 0x00);
+		this.board1.writePortValue('b', 0xf0);
+		this.board2.writePortDirection('c', 0x00);
+		this.emulator2.setInputs(0, 0x05);
+
+		LogicalIoMap map = new LogicalIoMap();
+		int[] ids = new int[] { map.define("a0", this.board1, 'a', 0), map.define("a7", this.board1, 'a', 7),
+				map.define("b0", this.board1, 'b', 0), map.define("b7", this.board1, 'b', 7),
+				map.define("c3", this.board2, 'c', 3), map.define("in0", this.board2, 'a', 0),
+				map.define("in1", this.board2, 'a', 1) };
+
+		map.setLines(new int[] { ids[0], ids[1], ids[2], ids[3], ids[4] }, new int[] { 1, 1, 1, 0, 1 });
+
+		// The reads are answered after the writes, so the latches are current once
+		// they return.
+		int[] values = new int[ids.length];
+		map.getLines(ids, values);
+		assertArrayEquals(new int[] { 1, 1, 1, 0, 1, 1, 0 }, values);
+
+		assertEquals(0x81, this.emulator1.getLatch(0));
+		assertEquals(0x71, this.emulator1.getLatch(1));
+		assertEquals(0x08, this.emulator2.getLatch(2));
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.LatestValueTable;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.modbus.ModbusTcpServer;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class ModbusTcpServerTest {
+
+	private BoardEmulator emulator;
+	private IO24 board;
+	private LatestValueTable table;
+	private ExecutorService executor;
+	private ModbusTcpServer server;
+	private Socket client;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator.start();
+		this.board = new IO24("127.0.0.1", this.emulator.getLocalPort(), 1000);
+		this.table = new LatestValueTable(1, 24);
+		this.executor = Executors.newSingleThreadExecutor();
+		this.server = new ModbusTcpServer(new InetSocketAddress("127.0.0.1", 0), Arrays.asList(this.board),
+				this.table, this.executor);
+		this.server.start();
+		this.client = new Socket();
+		this.client.connect(this.server.getLocalAddress());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		this.client.close();
+		this.server.close();
+		this.executor.shutdownNow();
+		this.board.closeSocket();
+		this.emulator.close();
+	}
+
+	/**
+	 * Sends a request PDU to a unit and returns the response PDU.
+	 */
+	private byte[] request(int unit, int... pdu) throws Exception {
+
+		byte[] frame = new byte[7 + pdu.length];
+		frame[0] = 0x12;
+		frame[1] = 0x34;
+		frame[5] = (byte) (pdu.length + 1);
+		frame[6] = (byte) unit;
+		for (int i = 0; i < pdu.length; i++) {
+			frame[7 + i] = (byte) pdu[i];
+		}
+		OutputStream out = this.client.getOutputStream();
+		out.write(frame);
+		out.flush();
+
+		DataInputStream in = new DataInputStream(this.client.getInputStream());
+		byte[] header = new byte[7];
+		in.readFully(header);
+		assertEquals(0x12, header[0]);
+		assertEquals(0x34, header[1]);
+		byte[] response = new byte[((header[4] & 0xff) << 8 | header[5] & 0xff) - 1];
+		in.readFully(response);
+		return response;
+	}
+
+	private void poll() throws Exception {
+
+		PortSample sample = new PortSample(24);
+		this.board.readPortSample(sample);
+		this.table.update(0, sample);
+	}
+
+	/**
+	 * Verify that reads are answered from the table and refused until the board
+	 * has been polled.
+	 */
+	@Test
+	public void testReads() throws Exception {
+
+		assertArrayEquals(new byte[] { (byte) 0x82, 0x0B }, this.request(1, 2, 0, 0, 0, 8));
+
+		this.emulator.setInputs(1, 0xa5);
+		this.poll();
+
+		// Discrete inputs 8-15 are port B.
+		assertArrayEquals(new byte[] { 2, 1, (byte) 0xa5 }, this.request(1, 2, 0, 8, 0, 8));
+		// Discrete inputs 10-13.
+		assertArrayEquals(new byte[] { 2, 1, 0x09 }, this.request(1, 2, 0, 10, 0, 4));
+		// Holding registers 0-2 are the ports.
+		assertArrayEquals(new byte[] { 3, 6, 0, 0, 0, (byte) 0xa5, 0, 0 }, this.request(1, 3, 0, 0, 0, 3));
+
+		// Errors.
+		assertArrayEquals(new byte[] { (byte) 0x83, 2 }, this.request(1, 3, 0, 2, 0, 2));
+		assertArrayEquals(new byte[] { (byte) 0x84, 1 }, this.request(1, 4, 0, 0, 0, 1));
+		assertArrayEquals(new byte[] { (byte) 0x81, 0x0A }, this.request(2, 1, 0, 0, 0, 1));
+	}
+
+	/**
+	 * Verify that coil and register writes reach the board.
+	 */
+	@Test
+	public void testWrites() throws Exception {
+
+		this.board.writePortDirection('a', 0x00);
+		this.board.writePortDirection('c', 0x00);
+
+		// Single coil 3 on.
+		assertArrayEquals(new byte[] { 5, 0, 3, (byte) 0xff, 0 }, this.request(1, 5, 0, 3, 0xff, 0));
+		// Coils 0-7 from one byte.
+		assertArrayEquals(new byte[] { 15, 0, 0, 0, 8 }, this.request(1, 15, 0, 0, 0, 8, 1, 0x81));
+		// Register 2 is port C.
+		assertArrayEquals(new byte[] { 6, 0, 2, 0, 0x42 }, this.request(1, 6, 0, 2, 0, 0x42));
+		// Register values above 255 are refused.
+		assertArrayEquals(new byte[] { (byte) 0x86, 3 }, this.request(1, 6, 0, 2, 1, 0));
+
+		this.poll();
+		assertEquals(0x81, this.emulator.getLatch(0));
+		assertEquals(0x42, this.emulator.getLatch(2));
+		assertArrayEquals(new byte[] { 1, 1, (byte) 0x81 }, this.request(1, 1, 0, 0, 0, 8));
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.history.LineChangeVisitor;
+import com.cybernian.ether_io.history.PortHistory;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class PortHistoryTest {
+
+	/**
+	 * Verify state and change queries after the ring buffer has wrapped.
+	 */
+	@Test
+	public void testQueries() {
+
+		PortHistory history = new PortHistory(72, 8);
+		long[] image = new long[2];
+
+		// Line 65 toggles every 3 records, times 0, 100, 200 ... 1100.
+		for (int i = 0; i < 12; i++) {
+			image[1] = (i / 3) % 2 == 1 ? 2L : 0L;
+			image[0] = i;
+			history.append(i * 100, image);
+		}
+
+		assertEquals(8, history.size());
+		assertEquals(400, history.getOldestTimestamp());
+		assertEquals(1100, history.getNewestTimestamp());
+
+		assertEquals(Long.MIN_VALUE, history.stateAt(399, image));
+		assertEquals(700, history.stateAt(750, image));
+		assertEquals(7, image[0]);
+		assertEquals(0L, image[1]);
+
+		final List<Long> times = new ArrayList<Long>();
+		int count = history.changes(65, 450, 1100, new LineChangeVisitor() {
+			@Override
+			public void lineChanged(long timestampNanos, int line, boolean value) {
+				times.add(timestampNanos);
+			}
+		});
+		assertEquals(2, count);
+		assertEquals(Long.valueOf(600), times.get(0));
+		assertEquals(Long.valueOf(900), times.get(1));
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class ReadCoalescingTest {
+
+	private static final int READERS = 8;
+
+	private BoardEmulator emulator;
+	private IO24 board;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator.start();
+		this.board = new IO24("127.0.0.1", this.emulator.getLocalPort(), 2000);
+		this.executor = Executors.newFixedThreadPool(READERS);
+	}
+
+	@After
+	public void tearDown() {
+
+		this.executor.shutdownNow();
+		this.board.closeSocket();
+		this.emulator.close();
+	}
+
+	/**
+	 * Verify that concurrent identical reads share one request and result.
+	 */
+	@Test
+	public void testConcurrentReads() throws Exception {
+
+		this.emulator.setInputs(1, 0xa5);
+		this.emulator.setReplyDelay(200);
+		long baseline = this.emulator.getRequestCount();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<byte[]>> reads = new ArrayList<Future<byte[]>>();
+		for (int i = 0; i < READERS; i++) {
+			reads.add(this.executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					start.await();
+					return ReadCoalescingTest.this.board.readPortValue('b');
+				}
+			}));
+		}
+		start.countDown();
+
+		for (Future<byte[]> read : reads) {
+			byte[] value = read.get();
+			assertEquals('B', value[0]);
+			assertEquals(0xa5, value[1] & 0xff);
+		}
+		assertEquals(1, this.emulator.getRequestCount() - baseline);
+		assertEquals(READERS - 1, this.board.getCoalescedReadCount());
+	}
+
+	/**
+	 * Verify that a read made after a write sees the written value, even while
+	 * an earlier identical read is in flight.
+	 */
+	@Test
+	public void testReadAfterWrite() throws Exception {
+
+		this.board.writePortDirection('a', 0x00);
+		this.board.writePortValue('a', 0x11);
+		this.emulator.setReplyDelay(100);
+
+		Future<byte[]> earlier = this.executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return ReadCoalescingTest.this.board.readPortValue('a');
+			}
+		});
+		Thread.sleep(20);
+		this.board.writePortValue('a', 0x22);
+		assertEquals(0x22, this.board.readPortValue('a')[1] & 0xff);
+		assertEquals(0x11, earlier.get()[1] & 0xff);
+	}
+
+	/**
+	 * Verify that a read sharing the request of an interrupted reader fails
+	 * rather than getting a made up reading.
+	 */
+	@Test
+	public void testInterruptedLeader() throws Exception {
+
+		final IO24 fastBoard = new IO24("127.0.0.1", this.emulator.getLocalPort(), 200);
+		try {
+			this.emulator.setInputs(1, 0xa5);
+			this.emulator.setDropRate(1.0);
+			Callable<byte[]> read = new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return fastBoard.readPortValue('b');
+				}
+			};
+			Future<byte[]> leader = this.executor.submit(read);
+			Thread.sleep(50);
+			Future<byte[]> follower = this.executor.submit(read);
+			Thread.sleep(50);
+			assertEquals(1, fastBoard.getCoalescedReadCount());
+			leader.cancel(true);
+
+			try {
+				follower.get();
+				fail("Shared read of an interrupted reader returned " + follower.get()[1]);
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause().toString(), e.getCause() instanceof InterruptedIOException);
+			}
+		} finally {
+			fastBoard.closeSocket();
+		}
+	}
+}
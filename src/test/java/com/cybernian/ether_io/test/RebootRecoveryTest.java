@@ -0,0 +1,113 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.PortRegister;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.drivers.IO24TPC;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class RebootRecoveryTest {
+
+	private BoardEmulator emulator;
+
+	@After
+	public void tearDown() {
+
+		if (this.emulator != null) {
+			this.emulator.close();
+		}
+	}
+
+	/**
+	 * Verify that a power cycle is detected by the periodic check and that the
+	 * commanded configuration and outputs are restored.
+	 */
+	@Test
+	public void testCheckReboot() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator.start();
+		IO24 board = new IO24("127.0.0.1", this.emulator.getLocalPort(), 1000);
+		try {
+			board.writePortDirection('a', 0x00);
+			board.writePortValue('a', 0x5a);
+			board.writePortPullUp('b', 0x0f);
+			assertFalse(board.checkReboot());
+
+			this.emulator.powerCycle();
+			assertTrue(board.checkReboot());
+			assertEquals(1, board.getRebootCount());
+			assertEquals(0x5a, this.emulator.getLatch(0));
+			assertEquals(0x00, this.emulator.getDirection(0));
+			assertEquals(0x0f, board.readPortPullUp('b')[2] & 0xff);
+			assertFalse(board.checkReboot());
+
+			// A configuration read by the application also reveals the reboot.
+			this.emulator.powerCycle();
+			assertEquals(0xff, board.readPortDirection('a')[2] & 0xff);
+			assertTrue(board.isRebootSuspected());
+			assertTrue(board.checkReboot());
+			assertEquals(0x5a, board.readPortValue('a')[1] & 0xff);
+
+			// A deliberate reset clears the commanded configuration.
+			board.resetBoard();
+			assertEquals(-1, board.getCommandedValue(PortRegister.DIRECTION, 'a'));
+			assertFalse(board.checkReboot());
+		} finally {
+			board.closeSocket();
+		}
+	}
+
+	/**
+	 * Verify that lines set by pin commands are restored on a TPC board.
+	 */
+	@Test
+	public void testPinRestore() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, true);
+		this.emulator.start();
+		IO24TPC board = new IO24TPC("127.0.0.1", this.emulator.getLocalPort(), 1000);
+		try {
+			board.writePortDirection('b', 0x00);
+			board.raiseIO_Pin(11);
+			board.raiseIO_Pin(12);
+			board.lowerIO_Pin(11);
+			assertEquals(-1, board.getCommandedValue(PortRegister.VALUE, 'b'));
+			// Writes are not answered; a read makes sure they have arrived.
+			board.readPortValue('b');
+
+			this.emulator.powerCycle();
+			assertTrue(board.checkReboot());
+			assertEquals(0x10, board.readPortValue('b')[1] & 0xff);
+			assertEquals(0x00, this.emulator.getDirection(1));
+		} finally {
+			board.closeSocket();
+		}
+	}
+}
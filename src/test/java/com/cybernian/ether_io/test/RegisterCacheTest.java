@@ -0,0 +1,108 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.PortRegister;
+import com.cybernian.ether_io.core.RegisterCache;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class RegisterCacheTest {
+
+	/**
+	 * Verify that fresh values are answered from the cache and stale or missing
+	 * values are not.
+	 */
+	@Test
+	public void testMaxAge() throws Exception {
+
+		RegisterCache cache = new RegisterCache();
+
+		assertEquals(-1, cache.get(PortRegister.VALUE, 'a', Long.MAX_VALUE));
+
+		cache.put(PortRegister.VALUE, 'a', 255);
+		cache.put(PortRegister.DIRECTION, 'C', 0);
+		assertEquals(255, cache.get(PortRegister.VALUE, 'A', Long.MAX_VALUE));
+		assertEquals(0, cache.get(PortRegister.DIRECTION, 'c', Long.MAX_VALUE));
+		assertEquals(-1, cache.get(PortRegister.VALUE, 'b', Long.MAX_VALUE));
+
+		Thread.sleep(5);
+		assertEquals(-1, cache.get(PortRegister.VALUE, 'a', 1000000L));
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+	}
+
+	/**
+	 * Verify that invalidated values are no longer answered.
+	 */
+	@Test
+	public void testInvalidate() {
+
+		RegisterCache cache = new RegisterCache();
+
+		cache.put(PortRegister.VALUE, 'a', 1);
+		cache.put(PortRegister.VALUE, 'i', 2);
+		cache.put(PortRegister.PULL_UP, 'a', 3);
+
+		cache.invalidate(PortRegister.VALUE, 'a');
+		assertEquals(-1, cache.get(PortRegister.VALUE, 'a', Long.MAX_VALUE));
+		assertEquals(2, cache.get(PortRegister.VALUE, 'i', Long.MAX_VALUE));
+
+		cache.invalidate(PortRegister.VALUE);
+		assertEquals(-1, cache.get(PortRegister.VALUE, 'i', Long.MAX_VALUE));
+		assertEquals(3, cache.get(PortRegister.PULL_UP, 'a', Long.MAX_VALUE));
+
+		cache.invalidateAll();
+		assertEquals(-1, cache.getAgeNanos(PortRegister.PULL_UP, 'a'));
+	}
+
+	/**
+	 * Verify that a board read accepting a value of any age is answered from the
+	 * cache, rather than the age overflowing into a miss.
+	 */
+	@Test
+	public void testAnyAge() throws Exception {
+
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		emulator.start();
+		IO24 board = new IO24("127.0.0.1", emulator.getLocalPort(), 1000);
+		try {
+			board.setRegisterCaching(true);
+			emulator.setInputs(0, 0x5a);
+			board.readPortValue('a');
+			long requests = emulator.getRequestCount();
+
+			assertEquals(0x5a, board.readPortValue('a', Long.MAX_VALUE)[1] & 0xff);
+			assertEquals(0x5a, board.readPortValue('a', Long.MAX_VALUE / 1000)[1] & 0xff);
+			assertEquals(requests, emulator.getRequestCount());
+		} finally {
+			board.closeSocket();
+			emulator.close();
+		}
+	}
+}
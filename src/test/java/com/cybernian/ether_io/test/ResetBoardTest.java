@@ -0,0 +1,115 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.ResetResult;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class ResetBoardTest {
+
+	private final List<BoardEmulator> emulators = new ArrayList<BoardEmulator>();
+	private final List<IO24> boards = new ArrayList<IO24>();
+
+	@Before
+	public void setUp() throws Exception {
+
+		for (int i = 0; i < 3; i++) {
+			BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+			emulator.setResetDelay(100);
+			emulator.start();
+			this.emulators.add(emulator);
+			this.boards.add(new IO24("127.0.0.1", emulator.getLocalPort(), 1000));
+		}
+	}
+
+	@After
+	public void tearDown() {
+
+		for (IO24 board : this.boards) {
+			board.closeSocket();
+		}
+		for (BoardEmulator emulator : this.emulators) {
+			emulator.close();
+		}
+	}
+
+	/**
+	 * Verify that the reset returns shortly after the board is ready again and
+	 * that the board was reset.
+	 */
+	@Test
+	public void testResetBoard() throws Exception {
+
+		IO24 board = this.boards.get(0);
+		board.writePortDirection('a', 0x00);
+		ResetResult result = board.resetBoard(2000);
+		assertTrue(result.isRecovered());
+		assertTrue(result.getRecoveryNanos() >= 100000000L);
+		assertTrue(result.getProbeCount() > 1);
+		assertEquals(0xff, board.readPortDirection('a')[2] & 0xff);
+	}
+
+	/**
+	 * Verify that an answer from a board that has not gone down yet is not taken
+	 * as recovery.
+	 */
+	@Test
+	public void testBoardThatNeverGoesDown() throws Exception {
+
+		this.emulators.get(0).setResetDelay(0);
+		ResetResult result = this.boards.get(0).resetBoard(200);
+		assertFalse(result.isRecovered());
+		assertTrue(result.getProbeCount() > 1);
+	}
+
+	/**
+	 * Verify that a rolling reset resets every board, no more than the given
+	 * number at a time, and reports a board that does not come back.
+	 */
+	@Test
+	public void testResetBoards() throws Exception {
+
+		this.emulators.get(2).close();
+		long start = System.nanoTime();
+		List<ResetResult> results = IO24Core.resetBoards(this.boards, 1, 300);
+		long elapsed = System.nanoTime() - start;
+
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).isRecovered());
+		assertTrue(results.get(1).isRecovered());
+		assertFalse(results.get(2).isRecovered());
+		assertSame(this.boards.get(2), results.get(2).getBoard());
+		// One board at a time: two recoveries and one time out in sequence.
+		assertTrue(elapsed >= 500000000L);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class ResponseFilterTest {
+
+	private BoardEmulator emulator;
+	private IO24 board;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator.start();
+		this.board = new IO24("127.0.0.1", this.emulator.getLocalPort(), 1000);
+		this.emulator.setInputs(0, 0x42);
+	}
+
+	@After
+	public void tearDown() {
+
+		this.board.closeSocket();
+		this.emulator.close();
+	}
+
+	/**
+	 * Verify that late replies to earlier requests are discarded and counted.
+	 */
+	@Test
+	public void testStaleReplies() throws Exception {
+
+		this.emulator.setStaleReplies(2);
+		assertEquals(0x42, this.board.readPortValue('a')[1] & 0xff);
+		assertEquals(2, this.board.getDiscardedResponseCount());
+	}
+
+	/**
+	 * Verify that a flood of unexpected packets ends the read with a time out.
+	 */
+	@Test
+	public void testTooManyDiscards() throws Exception {
+
+		this.emulator.setStaleReplies(48);
+		try {
+			this.board.readPortValue('a');
+			fail("Read succeeded despite too many unexpected packets.");
+		} catch (SocketTimeoutException e) {
+			assertTrue(e.getMessage().contains("unexpected"));
+		}
+		assertEquals(48, this.board.getDiscardedResponseCount());
+	}
+
+	/**
+	 * Verify that a well formed reply from another address is discarded.
+	 */
+	@Test
+	public void testForeignReply() throws Exception {
+
+		this.emulator.setReplyDelay(300);
+		final long baseline = this.emulator.getRequestCount();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		DatagramSocket foreign = new DatagramSocket();
+		try {
+			Future<byte[]> read = executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return ResponseFilterTest.this.board.readPortValue('a');
+				}
+			});
+			while (this.emulator.getRequestCount() == baseline) {
+				Thread.sleep(1);
+			}
+			byte[] reply = new byte[] { 'A', (byte) 0x99 };
+			foreign.send(new DatagramPacket(reply, reply.length, this.emulator.getLastClient()));
+
+			assertEquals(0x42, read.get()[1] & 0xff);
+			assertEquals(1, this.board.getDiscardedResponseCount());
+		} finally {
+			foreign.close();
+			executor.shutdownNow();
+		}
+	}
+}
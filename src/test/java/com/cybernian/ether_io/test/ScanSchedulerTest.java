@@ -0,0 +1,198 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.CommandPriority;
+import com.cybernian.ether_io.core.LatestValueTable;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.scan.LatestValueListener;
+import com.cybernian.ether_io.scan.ScanGroup;
+import com.cybernian.ether_io.scan.ScanListener;
+import com.cybernian.ether_io.scan.ScanScheduler;
+import com.cybernian.ether_io.tools.BoardEmulator;
+import com.cybernian.ether_io.utils.PortImage;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class ScanSchedulerTest {
+
+	private BoardEmulator emulator;
+	private IO24 board;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		this.emulator.start();
+		this.board = new IO24("127.0.0.1", this.emulator.getLocalPort(), 1000);
+	}
+
+	@After
+	public void tearDown() {
+
+		this.board.closeSocket();
+		this.emulator.close();
+	}
+
+	/**
+	 * Verify that groups with the same period get different phases.
+	 */
+	@Test
+	public void testPhaseSpreading() throws Exception {
+
+		ScanScheduler scheduler = new ScanScheduler(TimeUnit.MILLISECONDS.toNanos(1), 1);
+		ScanListener ignore = new ScanListener() {
+			@Override
+			public void scanned(ScanGroup group, PortSample sample) {
+			}
+		};
+
+		int phases = 0;
+		for (int i = 0; i < 4; i++) {
+			ScanGroup group = scheduler.addGroup(this.board, "a", TimeUnit.MILLISECONDS.toNanos(4),
+					CommandPriority.POLL, ignore);
+			assertEquals(TimeUnit.MILLISECONDS.toNanos(4), group.getPeriodNanos());
+			phases |= 1 << group.getPhaseSlot();
+		}
+		assertEquals(0x0f, phases);
+		assertEquals(1, scheduler.getMaxSlotLoad());
+
+		// A period that is not a whole number of slots is rounded up.
+		ScanGroup slow = scheduler.addGroup(this.board, "bc", 7500000, CommandPriority.POLL, ignore);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(8), slow.getPeriodNanos());
+		assertEquals(3, scheduler.getMaxSlotLoad()); // Two port reads on top of one.
+
+		scheduler.removeGroup(slow);
+		assertEquals(1, scheduler.getMaxSlotLoad());
+		scheduler.stop();
+	}
+
+	/**
+	 * Verify that groups are scanned at roughly their periods and report their
+	 * samples.
+	 */
+	@Test
+	public void testScanning() throws Exception {
+
+		this.emulator.setInputs(1, 0x5a);
+		final AtomicInteger lastValue = new AtomicInteger(-1);
+
+		ScanScheduler scheduler = new ScanScheduler(TimeUnit.MILLISECONDS.toNanos(1), 2);
+		ScanGroup fast = scheduler.addGroup(this.board, "b", TimeUnit.MILLISECONDS.toNanos(5),
+				CommandPriority.SAFETY, new ScanListener() {
+					@Override
+					public void scanned(ScanGroup group, PortSample sample) {
+						lastValue.set(PortImage.getPort(sample.getImage(), 1));
+					}
+				});
+		ScanGroup slow = scheduler.addGroup(this.board, "abc", TimeUnit.MILLISECONDS.toNanos(100),
+				CommandPriority.POLL, new ScanListener() {
+					@Override
+					public void scanned(ScanGroup group, PortSample sample) {
+					}
+				});
+
+		scheduler.start();
+		Thread.sleep(500);
+		scheduler.stop();
+
+		assertEquals(0x5a, lastValue.get());
+		assertTrue(fast.getScanCount() > 20);
+		assertTrue(slow.getScanCount() >= 3 && slow.getScanCount() <= 6);
+		assertEquals(0, fast.getErrorCount());
+		assertTrue(fast.getMaxDriftNanos() >= fast.getMeanDriftNanos());
+	}
+
+	/**
+	 * Verify that a latest value listener publishes the ports of each scanned
+	 * group and leaves the board's other ports alone.
+	 */
+	@Test
+	public void testLatestValueListener() throws Exception {
+
+		this.emulator.setInputs(1, 0x5a);
+		LatestValueTable table = new LatestValueTable(1, 24);
+		long[] image = PortImage.create(24);
+		PortImage.setPort(image, 0, 0x11);
+		PortImage.setPort(image, 2, 0x33);
+		table.update(0, image, 100, 200);
+
+		ScanScheduler scheduler = new ScanScheduler(TimeUnit.MILLISECONDS.toNanos(1), 1);
+		ScanGroup group = scheduler.addGroup(this.board, "b", TimeUnit.MILLISECONDS.toNanos(5),
+				CommandPriority.POLL, new LatestValueListener(table, Collections.singletonList(this.board)));
+		scheduler.start();
+		Thread.sleep(100);
+		scheduler.stop();
+
+		assertTrue(group.getScanCount() > 0);
+		PortSample sample = new PortSample(24);
+		assertEquals(1 + group.getScanCount(), table.read(0, sample));
+		assertEquals(0x11, PortImage.getPort(sample.getImage(), 0));
+		assertEquals(0x5a, PortImage.getPort(sample.getImage(), 1));
+		assertEquals(0x33, PortImage.getPort(sample.getImage(), 2));
+		assertEquals(100, sample.getSendNanos()); // Ports A and C were last sampled then.
+	}
+
+	/**
+	 * Verify that a group reads only its own ports, one datagram each, and that
+	 * its slot load counts them.
+	 */
+	@Test
+	public void testGroupReadsOnlyItsPorts() throws Exception {
+
+		this.emulator.setInputs(0, 0x11);
+		this.emulator.setInputs(1, 0x22);
+		this.emulator.setInputs(2, 0x33);
+		final AtomicInteger portB = new AtomicInteger(-1);
+		final AtomicInteger portC = new AtomicInteger(-1);
+
+		ScanScheduler scheduler = new ScanScheduler(TimeUnit.MILLISECONDS.toNanos(1), 1);
+		ScanGroup group = scheduler.addGroup(this.board, "ac", TimeUnit.MILLISECONDS.toNanos(10),
+				CommandPriority.POLL, new ScanListener() {
+					@Override
+					public void scanned(ScanGroup group, PortSample sample) {
+						portB.set(PortImage.getPort(sample.getImage(), 1));
+						portC.set(PortImage.getPort(sample.getImage(), 2));
+					}
+				});
+		assertEquals(2, scheduler.getMaxSlotLoad());
+
+		long requests = this.emulator.getRequestCount();
+		scheduler.start();
+		Thread.sleep(100);
+		scheduler.stop();
+
+		assertTrue(group.getScanCount() > 0);
+		assertEquals(2 * group.getScanCount(), this.emulator.getRequestCount() - requests);
+		assertEquals(0, portB.get());
+		assertEquals(0x33, portC.get());
+	}
+}
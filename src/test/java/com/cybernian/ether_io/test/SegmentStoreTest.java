@@ -0,0 +1,194 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.history.LineChangeVisitor;
+import com.cybernian.ether_io.history.SegmentStore;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class SegmentStoreTest {
+
+	private static final int SEGMENT_SIZE = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Verify queries across several segments, and after the store is reopened.
+	 */
+	@Test
+	public void testQueries() throws Exception {
+
+		File directory = this.folder.newFolder("history");
+		SegmentStore store = new SegmentStore(directory, 72, SEGMENT_SIZE, 0, 0);
+		long[] image = new long[2];
+
+		// Sample every 10 time units, line 70 toggles every 1000 samples and line 3
+		// follows a counter every 7 samples.
+		for (int i = 0; i < 100000; i++) {
+			image[0] = (i / 7) & 0xf;
+			image[1] = (i / 1000) % 2 == 1 ? 1L << 6 : 0L;
+			store.append(i * 10L, image);
+		}
+		assertTrue(store.getSegmentCount() > 1);
+		assertEquals(100000, store.getSampleCount());
+		this.verify(store);
+		store.close();
+
+		store = new SegmentStore(directory, 72, SEGMENT_SIZE, 0, 0);
+		this.verify(store);
+		store.append(2000000, image);
+		assertEquals(100001, store.getSampleCount());
+		store.close();
+	}
+
+	/**
+	 * Verify that a reopened store still rejects samples older than those it
+	 * already holds.
+	 */
+	@Test
+	public void testOrderAfterReopen() throws Exception {
+
+		File directory = this.folder.newFolder("reopen");
+		SegmentStore store = new SegmentStore(directory, 24, SEGMENT_SIZE, 0, 0);
+		long[] image = new long[1];
+		for (int i = 1; i <= 100; i++) {
+			store.append(i * 10L, image);
+		}
+		store.close();
+
+		store = new SegmentStore(directory, 24, SEGMENT_SIZE, 0, 0);
+		try {
+			store.append(500, image);
+			fail("Sample older than the stored samples accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		store.append(1000, image);
+		store.append(1010, image);
+		assertEquals(102, store.getSampleCount());
+		store.close();
+	}
+
+	private void verify(SegmentStore store) {
+
+		long[] image = new long[2];
+
+		assertEquals(Long.MIN_VALUE, store.stateAt(-1, image));
+		assertEquals(123450, store.stateAt(123455, image));
+		assertEquals((12345 / 7) & 0xf, image[0]);
+		assertEquals(0L, image[1]);
+		assertEquals(999990, store.stateAt(5000000, image));
+
+		final List<Long> times = new ArrayList<Long>();
+		int count = store.changes(70, 15000, 45000, new LineChangeVisitor() {
+			@Override
+			public void lineChanged(long timestamp, int line, boolean value) {
+				times.add(timestamp);
+				assertEquals(70, line);
+				assertEquals(timestamp % 20000 == 10000, value);
+			}
+		});
+		assertEquals(3, count);
+		assertEquals(Long.valueOf(20000), times.get(0));
+		assertEquals(Long.valueOf(40000), times.get(2));
+	}
+
+	/**
+	 * Verify that a time inside a run of unchanged samples finds the run sample,
+	 * not a later change.
+	 */
+	@Test
+	public void testTimeInsideRun() throws Exception {
+
+		SegmentStore store = new SegmentStore(this.folder.newFolder("run"), 24, SEGMENT_SIZE, 0, 0);
+		long[] image = new long[1];
+
+		store.append(100, image);
+		image[0] = 1;
+		for (long t = 110; t <= 210; t += 10) {
+			store.append(t, image);
+		}
+		image[0] = 3;
+		store.append(211, image);
+
+		assertEquals(200, store.stateAt(205, image));
+		assertEquals(1, image[0]);
+		assertEquals(210, store.stateAt(210, image));
+		assertEquals(1, image[0]);
+		assertEquals(211, store.stateAt(300, image));
+		assertEquals(3, image[0]);
+		store.close();
+	}
+
+	/**
+	 * Verify that port samples are stored with wall clock time stamps.
+	 */
+	@Test
+	public void testSampleTimes() throws Exception {
+
+		SegmentStore store = new SegmentStore(this.folder.newFolder("samples"), 24, SEGMENT_SIZE, 0, 0);
+		PortSample sample = new PortSample(24);
+		sample.getImage()[0] = 0x55;
+		long before = System.currentTimeMillis() * 1000000L;
+		sample.setTimes(System.nanoTime(), System.nanoTime());
+		store.append(sample);
+		long after = System.currentTimeMillis() * 1000000L;
+
+		long[] image = new long[1];
+		long found = store.stateAt(after + 2000000L, image);
+		assertTrue(found >= before - 2000000L && found <= after + 2000000L);
+		assertEquals(0x55, image[0]);
+		store.close();
+	}
+
+	/**
+	 * Verify that the oldest segments are deleted once the size limit is reached.
+	 */
+	@Test
+	public void testRetention() throws Exception {
+
+		File directory = this.folder.newFolder("retention");
+		SegmentStore store = new SegmentStore(directory, 24, SEGMENT_SIZE, 3 * SEGMENT_SIZE, 0);
+		long[] image = new long[1];
+
+		for (int i = 0; i < 200000; i++) {
+			image[0] = i;
+			store.append(i, image);
+		}
+		assertEquals(3, store.getSegmentCount());
+		assertEquals(3, directory.listFiles().length);
+		assertEquals(Long.MIN_VALUE, store.stateAt(0, image));
+		assertEquals(199999, store.stateAt(199999, image));
+		assertEquals(199999, image[0]);
+		store.close();
+	}
+}
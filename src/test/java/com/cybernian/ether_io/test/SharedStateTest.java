@@ -0,0 +1,109 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cybernian.ether_io.core.IO24Core;
+import com.cybernian.ether_io.core.PortSample;
+import com.cybernian.ether_io.core.SharedStateReader;
+import com.cybernian.ether_io.core.SharedStateWriter;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.drivers.IO72TPC;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class SharedStateTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Verify that a reader finds the boards of a segment and reads back what the
+	 * writer published.
+	 */
+	@Test
+	public void testPublishAndRead() throws Exception {
+
+		BoardEmulator emulator1 = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		BoardEmulator emulator2 = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 9, true);
+		emulator1.start();
+		emulator2.start();
+		int port1 = emulator1.getLocalPort();
+		int port2 = emulator2.getLocalPort();
+		IO24 small = new IO24("127.0.0.1", port1, 1000);
+		IO72TPC large = new IO72TPC("127.0.0.1", port2, 1000);
+		List<IO24Core> boards = Arrays.<IO24Core>asList(small, large);
+		File segment = this.folder.newFile("state.seg");
+		try {
+			SharedStateWriter writer = new SharedStateWriter(segment, boards);
+			SharedStateReader reader = new SharedStateReader(segment);
+
+			assertEquals(2, reader.getBoardCount());
+			InetAddress localhost = InetAddress.getByName("127.0.0.1");
+			assertEquals(1, reader.indexOf(localhost, port2));
+			assertEquals(-1, reader.indexOf(InetAddress.getByName("127.0.0.2"), port2));
+			assertEquals(localhost, reader.getBoardAddress(0));
+			assertEquals(port1, reader.getBoardUdpPort(0));
+			assertEquals(72, reader.getLineCount(1));
+
+			PortSample published = new PortSample(72);
+			published.getImage()[0] = 0x0123456789abcdefL;
+			published.getImage()[1] = 0xa5L;
+			published.setTimes(1000, 1200);
+			writer.update(1, published);
+
+			PortSample sample = new PortSample(72);
+			assertEquals(0, reader.read(0, sample));
+			assertEquals(1, reader.read(1, sample));
+			assertArrayEquals(published.getImage(), sample.getImage());
+			assertEquals(1100, sample.getSampleNanos());
+			assertTrue(reader.getUpdateMillis(1) > 0);
+			assertTrue(reader.getHeartbeatMillis() > 0);
+			writer.close();
+		} finally {
+			small.closeSocket();
+			large.closeSocket();
+			emulator1.close();
+			emulator2.close();
+		}
+	}
+
+	/**
+	 * Verify that other files are refused.
+	 */
+	@Test(expected = java.io.IOException.class)
+	public void testNotASegment() throws Exception {
+
+		File other = this.folder.newFile("other.seg");
+		java.nio.file.Files.write(other.toPath(), new byte[128]);
+		new SharedStateReader(other);
+	}
+}
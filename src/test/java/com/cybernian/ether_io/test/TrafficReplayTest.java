@@ -0,0 +1,117 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.TrafficRecorder;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.tools.BoardEmulator;
+import com.cybernian.ether_io.tools.TrafficReplay;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class TrafficReplayTest {
+
+	private File logFile;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.logFile = File.createTempFile("traffic", ".log");
+
+		// Record a session against one emulator.
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		emulator.start();
+		IO24 board = new IO24("127.0.0.1", emulator.getLocalPort(), 1000);
+		TrafficRecorder recorder = new TrafficRecorder(this.logFile, 1 << 16);
+		try {
+			emulator.setInputs(0, 0x42);
+			board.setTrafficRecorder(recorder);
+			board.readPortValue('a');
+			board.writePortDirection('b', 0x00);
+			board.writePortValue('b', 0x5a);
+			board.readPortValue('b');
+			board.readPortDirection('b');
+			board.sendHostDataBytes();
+		} finally {
+			board.closeSocket();
+			emulator.close();
+			recorder.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		this.logFile.delete();
+	}
+
+	/**
+	 * Verify that replaying a recording to a board in the same state gets back
+	 * the recorded replies.
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		emulator.start();
+		try {
+			emulator.setInputs(0, 0x42);
+			TrafficReplay replay = new TrafficReplay(this.logFile, InetAddress.getByName("127.0.0.1"),
+					emulator.getLocalPort(), 1.0);
+			replay.run();
+			assertEquals(6, replay.getSentCount());
+			assertEquals(4, replay.getReceivedCount());
+			assertTrue(replay.getMismatches().toString(), replay.isMatched());
+			assertEquals(0x5a, emulator.getLatch(1));
+		} finally {
+			emulator.close();
+		}
+	}
+
+	/**
+	 * Verify that a changed reply is reported as a mismatch.
+	 */
+	@Test
+	public void testChangedReply() throws Exception {
+
+		BoardEmulator emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, false);
+		emulator.start();
+		try {
+			emulator.setInputs(0, 0x43);
+			TrafficReplay replay = new TrafficReplay(this.logFile, InetAddress.getByName("127.0.0.1"),
+					emulator.getLocalPort(), 1.0);
+			replay.run();
+			assertFalse(replay.isMatched());
+			assertEquals(1, replay.getMissingCount());
+			assertEquals(1, replay.getUnexpectedCount());
+			assertEquals(2, replay.getMismatches().size());
+		} finally {
+			emulator.close();
+		}
+	}
+}
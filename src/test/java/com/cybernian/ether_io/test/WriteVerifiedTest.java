@@ -0,0 +1,139 @@
+/*
+ *  (C) Copyright 2019 Gerard L. Muir
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.cybernian.ether_io.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.cybernian.ether_io.core.PortRegister;
+import com.cybernian.ether_io.core.WriteBatch;
+import com.cybernian.ether_io.core.WriteResult;
+import com.cybernian.ether_io.drivers.IO24;
+import com.cybernian.ether_io.drivers.IO24TPC;
+import com.cybernian.ether_io.tools.BoardEmulator;
+
+/**
+ * 
+ * 
+ * @author Gerard L. Muir
+ */
+public class WriteVerifiedTest {
+
+	private BoardEmulator emulator;
+
+	@After
+	public void tearDown() {
+
+		if (this.emulator != null) {
+			this.emulator.close();
+		}
+	}
+
+	private int start(boolean tpc) throws Exception {
+
+		this.emulator = new BoardEmulator(new InetSocketAddress("127.0.0.1", 0), 3, tpc);
+		this.emulator.start();
+		return this.emulator.getLocalPort();
+	}
+
+	/**
+	 * Verify that matching read backs verify every write on the first attempt.
+	 */
+	@Test
+	public void testVerifiedWrites() throws Exception {
+
+		IO24 board = new IO24("127.0.0.1", this.start(false), 200);
+		try {
+			WriteBatch batch = new WriteBatch();
+			batch.add(PortRegister.DIRECTION, 'a', 0x0f);
+			batch.add(PortRegister.VALUE, 'a', 0xa5, 0xf0);
+			batch.add(PortRegister.PULL_UP, 'b', 0x33);
+			List<WriteResult> results = board.writeVerified(batch);
+
+			assertEquals(3, results.size());
+			for (WriteResult result : results) {
+				assertTrue(result.toString(), result.isVerified());
+				assertEquals(1, result.getAttempts());
+			}
+			assertEquals(0x0f, this.emulator.getDirection(0));
+			assertEquals(0xa5, this.emulator.getLatch(0));
+			assertEquals(0x33, results.get(2).getReadBack());
+		} finally {
+			board.closeSocket();
+		}
+	}
+
+	/**
+	 * Verify that a read back that never matches is retried and reported, and
+	 * that lost datagrams are recovered by the retries.
+	 */
+	@Test
+	public void testMismatchAndLoss() throws Exception {
+
+		IO24 board = new IO24("127.0.0.1", this.start(false), 100);
+		try {
+			// Port A lines are inputs, so they read back the input state, not the latch.
+			this.emulator.setInputs(0, 0x00);
+			WriteBatch batch = new WriteBatch();
+			batch.add(PortRegister.VALUE, 'a', 0xff);
+			WriteResult result = board.writeVerified(batch).get(0);
+			assertFalse(result.isVerified());
+			assertEquals(3, result.getAttempts());
+			assertEquals(0x00, result.getReadBack());
+
+			this.emulator.setDropRate(0.3);
+			batch.clear();
+			for (char port = 'a'; port <= 'c'; port++) {
+				batch.add(PortRegister.DIRECTION, port, 0x40 + port);
+			}
+			for (WriteResult entry : board.writeVerified(batch)) {
+				assertTrue(entry.getAttempts() >= 1 && entry.getAttempts() <= 3);
+				if (entry.isVerified()) {
+					assertEquals(entry.getValue(), this.emulator.getDirection(entry.getPort() - 'a'));
+				} else {
+					assertEquals(3, entry.getAttempts());
+				}
+			}
+		} finally {
+			board.closeSocket();
+		}
+	}
+
+	/**
+	 * Verify that verified writes invalidate the latch shadow of a TPC board.
+	 */
+	@Test
+	public void testTpcShadowInvalidated() throws Exception {
+
+		IO24TPC board = new IO24TPC("127.0.0.1", this.start(true), 200);
+		try {
+			board.writePortValue('a', 0x12);
+			assertEquals(0x12, board.getLatchShadow('a'));
+
+			WriteBatch batch = new WriteBatch();
+			batch.add(PortRegister.DIRECTION, 'a', 0x00);
+			assertTrue(board.writeVerified(batch).get(0).isVerified());
+			assertEquals(-1, board.getLatchShadow('a'));
+		} finally {
+			board.closeSocket();
+		}
+	}
+}